@@ -3,7 +3,9 @@ package cxro.common.device.axis;
 
 import java.io.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -11,10 +13,21 @@ import java.util.prefs.Preferences;
 /**
  * Abstract base class for all motion control axes.
  * <p>
+ * The blocking and non-blocking ({@link AsyncAxis}) forms of an operation
+ * run the same task on the same executor; they differ only in the future
+ * returned.
+ * <p>
+ * Ownership of the axis is an atomic move state: IDLE, then MOVING from the
+ * moment an operation is accepted until its task returns, and STOPPING once
+ * {@link #stopMove()} or {@link #abortMove()} has signalled the owner. The
+ * transitions are compare-and-set, so submitting, stopping and reading the
+ * axis never block each other; a second operation submitted while the axis
+ * is owned returns LOCKED at once.
+ * <p>
  * @author cwcork
  */
 public abstract class AbstractAxis
-implements Axis
+implements AsyncAxis
 {
   // Class fields
   private static final Logger logger = Logger.getLogger(AbstractAxis.class.getName());
@@ -22,8 +35,17 @@ implements Axis
   // Instance fields
   private final String nodeName;
   private final Preferences prefs;
-  private final ExecutorService exec = Executors.newCachedThreadPool();
-  private final ReentrantLock rLock = new ReentrantLock();
+  private final AxisScheduler scheduler;
+  private final ExecutorService exec;
+  //
+  // Move state: IDLE -> MOVING -> (STOPPING ->) IDLE
+  private static final int IDLE = 0;
+  private static final int MOVING = 1;
+  private static final int STOPPING = 2;
+  private final AtomicInteger moveState = new AtomicInteger(IDLE);
+  // Thread holding the axis with lock(), and its hold count
+  private volatile Thread holder = null;
+  private int holdCount = 0;
   //
   private String axisUnits = "mm";
   private double scale = 1.0;
@@ -45,16 +67,59 @@ implements Axis
   private boolean hasIndex = false;
   private boolean hasAuxEncoder = false;
   //
-  // For move operations
-  private Future<Integer> m_op = null;
+  // For move completion (all intervals in milliseconds)
+  private final Object statusMonitor = new Object();
+  private long statusSeq = 0;
+  private int pollIntervalFast = 10;
+  private int pollIntervalSlow = 100;
+  private int pollFastWindow = 500;
+  private double speedRaw = 1.0;
+  private double accelerationRaw = 10.0;
   //
-  protected boolean stopFlag = false;
+  private boolean destroyed = false;
+  /**
+   * Condition: axis is ready (see {@link #isReady()}).
+   */
+  protected final StatusCondition readyCondition = new StatusCondition()
+  {
+    @Override
+    public boolean isMet()
+    throws IOException
+    {
+      return isReady();
+    }
+  };
+  /**
+   * Condition: axis is initialized (see {@link #isInitialized()}).
+   */
+  protected final StatusCondition initializedCondition = new StatusCondition()
+  {
+    @Override
+    public boolean isMet()
+    throws IOException
+    {
+      return isInitialized();
+    }
+  };
   //
   //----------------------- Constructors -------------------------------------
 
   protected AbstractAxis(String nodeName)
+  {
+    this(nodeName, null);
+  }
+
+  /**
+   * @param nodeName   configuration node name using java.util.prefs.
+   * @param controller key of the controller, see {@link AxisScheduler};
+   *                   axes with equal keys share their operation threads.
+   *                   null for threads of this axis only.
+   */
+  protected AbstractAxis(String nodeName, Object controller)
   {
     this.nodeName = nodeName;
+    this.scheduler = AxisScheduler.acquire(controller, nodeName);
+    this.exec = scheduler.getExecutor();
 
     //link to node
     prefs = Preferences.userRoot().node(nodeName);
@@ -78,17 +143,32 @@ implements Axis
     hasHome = false;
     hasIndex = false;
     hasAuxEncoder = false;
+    pollIntervalFast = 10;
+    pollIntervalSlow = 100;
+    pollFastWindow = 500;
 
     //load current settings
     loadConfigsLocal();
+    speedRaw = defaultSpeedRaw;
+    accelerationRaw = defaultAccelerationRaw;
   }
 
+  /**
+   * Release the operation threads of this axis. Extended classes that
+   * override this must call super.destroy().
+   */
   @Override
   public void destroy()
   throws IOException
   {
-    // Does nothing by default.
-    // If necessary, should be overridden by extended classes.
+    synchronized (scheduler)
+    {
+      if (!destroyed)
+      {
+        destroyed = true;
+        scheduler.release();
+      }
+    }
   }
 
   //----------------------- PUBLIC    METHODS --------------------------------
@@ -147,6 +227,86 @@ implements Axis
     }
   }
 
+  /**
+   * Get the status poll interval used near the expected end of a motion.
+   * @return interval in milliseconds.
+   */
+  public int getPollIntervalFast()
+  {
+    return pollIntervalFast;
+  }
+
+  /**
+   * Set the status poll interval used near the expected end of a motion.
+   * @param pollIntervalFast interval in milliseconds, at least 1.
+   */
+  public void setPollIntervalFast(int pollIntervalFast)
+  {
+    this.pollIntervalFast = Math.max(1, pollIntervalFast);
+    try
+    {
+      prefs.putInt("pollIntervalFast", this.pollIntervalFast);
+    }
+    catch (IllegalStateException ex)
+    {
+      logger.log(Level.WARNING, "Node: " + prefs.absolutePath() + " does not exist.", ex);
+    }
+  }
+
+  /**
+   * Get the status poll interval used while a motion is far from completion.
+   * @return interval in milliseconds.
+   */
+  public int getPollIntervalSlow()
+  {
+    return pollIntervalSlow;
+  }
+
+  /**
+   * Set the status poll interval used while a motion is far from completion.
+   * @param pollIntervalSlow interval in milliseconds, at least 1.
+   */
+  public void setPollIntervalSlow(int pollIntervalSlow)
+  {
+    this.pollIntervalSlow = Math.max(1, pollIntervalSlow);
+    try
+    {
+      prefs.putInt("pollIntervalSlow", this.pollIntervalSlow);
+    }
+    catch (IllegalStateException ex)
+    {
+      logger.log(Level.WARNING, "Node: " + prefs.absolutePath() + " does not exist.", ex);
+    }
+  }
+
+  /**
+   * Get the time after the expected completion of a motion during which the
+   * status is polled at the fast interval.
+   * @return window in milliseconds.
+   */
+  public int getPollFastWindow()
+  {
+    return pollFastWindow;
+  }
+
+  /**
+   * Set the time after the expected completion of a motion during which the
+   * status is polled at the fast interval.
+   * @param pollFastWindow window in milliseconds.
+   */
+  public void setPollFastWindow(int pollFastWindow)
+  {
+    this.pollFastWindow = Math.max(0, pollFastWindow);
+    try
+    {
+      prefs.putInt("pollFastWindow", this.pollFastWindow);
+    }
+    catch (IllegalStateException ex)
+    {
+      logger.log(Level.WARNING, "Node: " + prefs.absolutePath() + " does not exist.", ex);
+    }
+  }
+
   public final boolean hasLimits()
   {
     return hasLimits;
@@ -245,22 +405,12 @@ implements Axis
   public final Future<Integer> abortMove()
   throws IOException
   {
-    // Check if abort is already in progress
-    if (stopFlag == true)
+    // Signal the running operation, unless a stop is already in progress.
+    // NOTE: we cannot interrupt the task as it might split a sar.
+    if (!requestStop())
     {
       return new ImmediateFuture(STOPPED);
     }
-    else // Signal stop
-    {
-      stopFlag = true;
-    }
-
-    // Signal stop
-    if ((m_op != null) && !m_op.isDone())
-    {
-      // NOTE: we cannot interrupt the task as it might split a sar.
-      m_op.cancel(false);
-    }
 
     // Perform abort
     try
@@ -366,6 +516,27 @@ implements Axis
   abstract public boolean[] getSwitches()
   throws IOException;
 
+  @Override
+  public final AxisState getState()
+  throws IOException
+  {
+    return scaleState(getStateRawSpi());
+  }
+
+  /**
+   * Convert a state in raw units, as from {@link #getStateRawSpi()}, to
+   * SCALED units, as returned by {@link #getState()}.
+   * @param raw state in raw units
+   * @return state in SCALED units
+   */
+  protected final AxisState scaleState(AxisState raw)
+  {
+    return new AxisState(raw.isEnabled(), raw.isInitialized(), raw.isReady(),
+                         slope * (raw.getPosition() - offsetRaw),
+                         slope * (raw.getTarget() - offsetRaw),
+                         raw.getSwitches());
+  }
+
   @Override
   public double getTarget()
   throws IOException
@@ -412,21 +583,7 @@ implements Axis
   public final Future<Integer> initialize()
   throws IOException
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
-
-    try
-    {
-      m_op = exec.submit(new InitializeAxis(initializeSpeedRaw, InitializeAxis.INITIALIZE));
-      return (m_op);
-    }
-    catch (RejectedExecutionException | NullPointerException ex)
-    {
-      throw new IOException(ex);
-    }
+    return submit(new InitializeAxis(initializeSpeedRaw, InitializeAxis.INITIALIZE));
   }
 
   @Override
@@ -446,106 +603,95 @@ implements Axis
   throws IOException;
 
   @Override
-  public final synchronized Future<Integer> moveAbsolute(double dest)
+  public final Future<Integer> moveAbsolute(double dest)
   throws IOException
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
-
-    try
-    {
-      // Set up absolute move in unscaled units, then start move thread.
-      m_op = exec.submit(new MoveAxis(((scale * dest) + offsetRaw), MoveAxis.ABSOLUTE));
-      return (m_op);
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
-    }
-    catch (NullPointerException ex)
-    {
-      throw new IOException(ex);
-    }
+    // Set up absolute move in unscaled units, then start move thread.
+    return submit(new MoveAxis(((scale * dest) + offsetRaw), MoveAxis.ABSOLUTE));
   }
 
   @Override
-  public final synchronized Future<Integer> moveAbsoluteRaw(double dest)
+  public final Future<Integer> moveAbsoluteRaw(double dest)
   throws IOException
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
+    // Set up unscaled absolute move, then start move thread
+    return submit(new MoveAxis(dest, MoveAxis.ABSOLUTE));
+  }
 
-    try
-    {
-      // Set up unscaled absolute move, then start move thread
-      m_op = exec.submit(new MoveAxis(dest, MoveAxis.ABSOLUTE));
-      return (m_op);
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
-    }
-    catch (NullPointerException ex)
-    {
-      throw new IOException(ex);
-    }
+  @Override
+  public final Future<Integer> moveRelative(double dist)
+  throws IOException
+  {
+    // Set up relative move in unscaled units, then start move thread
+    return submit(new MoveAxis((scale * dist), MoveAxis.RELATIVE));
   }
 
   @Override
-  public final synchronized Future<Integer> moveRelative(double dist)
+  public final Future<Integer> moveRelativeRaw(double dist)
   throws IOException
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
+    // Set up unscaled relative move and start move thread
+    return submit(new MoveAxis(dist, MoveAxis.RELATIVE));
+  }
+
+  // -------------------------  ASYNC AXIS COMMANDS  -------------------------
+  @Override
+  public final CompletableFuture<MoveResult> initializeAsync()
+  {
+    return submitAsync(new InitializeAxis(initializeSpeedRaw, InitializeAxis.INITIALIZE));
+  }
+
+  @Override
+  public final CompletableFuture<MoveResult> moveAbsoluteAsync(final double dest)
+  {
+    return submitAsync(new MoveAxis(((scale * dest) + offsetRaw), MoveAxis.ABSOLUTE));
+  }
+
+  @Override
+  public final CompletableFuture<MoveResult> moveAbsoluteRawAsync(final double dest)
+  {
+    return submitAsync(new MoveAxis(dest, MoveAxis.ABSOLUTE));
+  }
+
+  @Override
+  public final CompletableFuture<MoveResult> moveRelativeAsync(final double dist)
+  {
+    return submitAsync(new MoveAxis((scale * dist), MoveAxis.RELATIVE));
+  }
+
+  @Override
+  public final CompletableFuture<MoveResult> moveRelativeRawAsync(final double dist)
+  {
+    return submitAsync(new MoveAxis(dist, MoveAxis.RELATIVE));
+  }
 
+  /**
+   * Stop commands complete when sent; the stopped move completes with
+   * STOPPED.
+   */
+  @Override
+  public final CompletableFuture<MoveResult> stopMoveAsync()
+  {
     try
     {
-      // Set up relative move in unscaled units, then start move thread
-      m_op = exec.submit(new MoveAxis((scale * dist), MoveAxis.RELATIVE));
-      return (m_op);
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
+      return MoveFuture.completed(stopMove().get());
     }
-    catch (NullPointerException ex)
+    catch (IOException | InterruptedException | ExecutionException ex)
     {
-      throw new IOException(ex);
+      return MoveFuture.failed(ex);
     }
   }
 
   @Override
-  public final synchronized Future<Integer> moveRelativeRaw(double dist)
-  throws IOException
+  public final CompletableFuture<MoveResult> abortMoveAsync()
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
-
     try
     {
-      // Set up unscaled relative move and start move thread
-      m_op = exec.submit(new MoveAxis(dist, MoveAxis.RELATIVE));
-      return (m_op);
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
+      return MoveFuture.completed(abortMove().get());
     }
-    catch (NullPointerException ex)
+    catch (IOException | InterruptedException | ExecutionException ex)
     {
-      throw new IOException(ex);
+      return MoveFuture.failed(ex);
     }
   }
 
@@ -554,6 +700,7 @@ implements Axis
   throws IOException
   {
     setAccelerationRawSpi(Math.abs(scale * accel));
+    accelerationRaw = Math.abs(scale * accel);
   }
 
   @Override
@@ -668,6 +815,7 @@ implements Axis
   throws IOException
   {
     setSpeedRawSpi(Math.abs(scale * speed));
+    speedRaw = Math.abs(scale * speed);
   }
 
   @Override
@@ -683,13 +831,12 @@ implements Axis
   public int setTargetRaw(double rawDest)
   throws IOException
   {
-    if (rLock.tryLock())
+    // The holder of lock() may set targets; anyone else needs the axis idle
+    final boolean owned = (holder == Thread.currentThread());
+    if (owned || tryAcquire())
     {
       try
       {
-        // Clear stop flag
-        stopFlag = false;
-
         // Check for motor ENABLED and INITIALIZED
         if (!isEnabled())
         {
@@ -723,7 +870,10 @@ implements Axis
       }
       finally
       {
-        rLock.unlock();
+        if (!owned)
+        {
+          release();
+        }
       }
 
       return AXIS_OK;
@@ -782,22 +932,12 @@ implements Axis
   public final Future<Integer> stopMove()
   throws IOException
   {
-    // Check if abort is already in progress
-    if (stopFlag == true)
+    // Signal the running operation, unless a stop is already in progress.
+    // NOTE: we cannot interrupt the task as it might split a sar.
+    if (!requestStop())
     {
       return new ImmediateFuture(STOPPED);
     }
-    else // Signal stop
-    {
-      stopFlag = true;
-    }
-
-    // Signal stop
-    if ((m_op != null) && !m_op.isDone())
-    {
-      // NOTE: we cannot interrupt the task as it might split a sar.
-      m_op.cancel(false);
-    }
 
     // Perform stop
     try
@@ -991,35 +1131,22 @@ implements Axis
    * <p>
    * @throws IOException
    */
-  public final synchronized Future<Integer> findUpperLimit(double speed)
+  public final Future<Integer> findUpperLimit(double speed)
   throws IOException
   {
-    try
+    if (!hasLimits)
     {
-      if (!hasLimits)
-      {
-        throw new UnsupportedOperationException("No Limit Switches");
-      }
-      else if (rLock.isLocked()) // Check for in use
-      {
-        return new ImmediateFuture(LOCKED);
-      }
-      else if (scale < 0)
-      {
-        m_op = exec.submit(new InitializeAxis(Math.abs(scale * speed),
-                                              InitializeAxis.FIND_LOWER_LIMIT));
-        return (m_op);
-      }
-      else
-      {
-        m_op = exec.submit(new InitializeAxis(Math.abs(scale * speed),
-                                              InitializeAxis.FIND_UPPER_LIMIT));
-        return (m_op);
-      }
+      throw new UnsupportedOperationException("No Limit Switches");
     }
-    catch (RejectedExecutionException | NullPointerException ex)
+    else if (scale < 0)
     {
-      throw new IOException(ex);
+      return submit(new InitializeAxis(Math.abs(scale * speed),
+                                       InitializeAxis.FIND_LOWER_LIMIT));
+    }
+    else
+    {
+      return submit(new InitializeAxis(Math.abs(scale * speed),
+                                       InitializeAxis.FIND_UPPER_LIMIT));
     }
   }
 
@@ -1033,39 +1160,22 @@ implements Axis
    * <p>
    * @throws IOException
    */
-  public final synchronized Future<Integer> findLowerLimit(double speed)
+  public final Future<Integer> findLowerLimit(double speed)
   throws IOException
   {
-    try
+    if (!hasLimits)
     {
-      if (!hasLimits)
-      {
-        throw new UnsupportedOperationException("No Limit Switches");
-      }
-      else if (rLock.isLocked()) // Check for in use
-      {
-        return new ImmediateFuture(LOCKED);
-      }
-      else if (scale < 0)
-      {
-        m_op = exec.submit(new InitializeAxis(Math.abs(scale * speed),
-                                              InitializeAxis.FIND_UPPER_LIMIT));
-        return (m_op);
-      }
-      else
-      {
-        m_op = exec.submit(new InitializeAxis(Math.abs(scale * speed),
-                                              InitializeAxis.FIND_LOWER_LIMIT));
-        return (m_op);
-      }
+      throw new UnsupportedOperationException("No Limit Switches");
     }
-    catch (RejectedExecutionException ex)
+    else if (scale < 0)
     {
-      throw new IOException(ex);
+      return submit(new InitializeAxis(Math.abs(scale * speed),
+                                       InitializeAxis.FIND_UPPER_LIMIT));
     }
-    catch (NullPointerException ex)
+    else
     {
-      throw new IOException(ex);
+      return submit(new InitializeAxis(Math.abs(scale * speed),
+                                       InitializeAxis.FIND_LOWER_LIMIT));
     }
   }
 
@@ -1078,33 +1188,14 @@ implements Axis
    *         <p>
    * @throws IOException
    */
-  public final synchronized Future<Integer> findHome(double speed)
+  public final Future<Integer> findHome(double speed)
   throws IOException
   {
-    try
-    {
-      if (!hasHome)
-      {
-        throw new UnsupportedOperationException("No Home Switch");
-      }
-      else if (rLock.isLocked()) // Check for in use
-      {
-        return new ImmediateFuture(LOCKED);
-      }
-      else
-      {
-        m_op = exec.submit(new InitializeAxis((scale * speed), InitializeAxis.FIND_HOME));
-        return (m_op);
-      }
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
-    }
-    catch (NullPointerException ex)
+    if (!hasHome)
     {
-      throw new IOException(ex);
+      throw new UnsupportedOperationException("No Home Switch");
     }
+    return submit(new InitializeAxis((scale * speed), InitializeAxis.FIND_HOME));
   }
 
   /**
@@ -1116,34 +1207,14 @@ implements Axis
    *         <p>
    * @throws IOException
    */
-  public final synchronized Future<Integer> findIndex(double speed)
+  public final Future<Integer> findIndex(double speed)
   throws IOException
   {
-    try
-    {
-      if (!hasIndex)
-      {
-        throw new UnsupportedOperationException("No Encoder Index");
-      }
-      else if (rLock.isLocked()) // Check for in use
-      {
-        return new ImmediateFuture(LOCKED);
-      }
-      else
-      {
-
-        m_op = exec.submit(new InitializeAxis((scale * speed), InitializeAxis.FIND_INDEX));
-        return (m_op);
-      }
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
-    }
-    catch (NullPointerException ex)
+    if (!hasIndex)
     {
-      throw new IOException(ex);
+      throw new UnsupportedOperationException("No Encoder Index");
     }
+    return submit(new InitializeAxis((scale * speed), InitializeAxis.FIND_INDEX));
   }
 
   /**
@@ -1155,30 +1226,12 @@ implements Axis
    * <p>
    * @throws IOException
    */
-  public final synchronized Future<Integer> moveAbsoluteRawNoCheck(double dest)
+  public final Future<Integer> moveAbsoluteRawNoCheck(double dest)
   throws IOException
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
-
-    try
-    {
-      // Set up unscaled absolute move, then start move thread
-      m_op = exec.submit(new MoveAxis(dest, MoveAxis.ABSOLUTE_NOCHECK));
-      return (m_op);
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
-    }
-    catch (NullPointerException ex)
-    {
-      throw new IOException(ex);
-    }
-  }
+    // Set up unscaled absolute move, then start move thread
+    return submit(new MoveAxis(dest, MoveAxis.ABSOLUTE_NOCHECK));
+  }
 
   /**
    * Perform UNSCALED relative move without initialization and limits checks.
@@ -1189,29 +1242,11 @@ implements Axis
    * <p>
    * @throws IOException
    */
-  public final synchronized Future<Integer> moveRelativeRawNoCheck(double dist)
+  public final Future<Integer> moveRelativeRawNoCheck(double dist)
   throws IOException
   {
-    // Check for in use
-    if (rLock.isLocked())
-    {
-      return new ImmediateFuture(LOCKED);
-    }
-
-    try
-    {
-      // Set up unscaled relative move and start move thread
-      m_op = exec.submit(new MoveAxis(dist, MoveAxis.RELATIVE_NOCHECK));
-      return (m_op);
-    }
-    catch (RejectedExecutionException ex)
-    {
-      throw new IOException(ex);
-    }
-    catch (NullPointerException ex)
-    {
-      throw new IOException(ex);
-    }
+    // Set up unscaled relative move and start move thread
+    return submit(new MoveAxis(dist, MoveAxis.RELATIVE_NOCHECK));
   }
 
   /**
@@ -1232,19 +1267,36 @@ implements Axis
    * another process/command from interrupting.
    * <p>
    * An example of this would be a homing procedure.
+   * <p>
+   * Waits until the current operation, if any, has completed. The lock is
+   * reentrant.
    */
   public final void lock()
   {
-    rLock.lock();
+    while (!trylock())
+    {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pollIntervalFast));
+    }
   }
 
   /**
    * Unlocks the axis from a previous lock.
+   * <p>
+   * @throws IllegalMonitorStateException if the calling thread does not
+   *                                      hold the lock
    */
   @Override
   public final void unlock()
   {
-    rLock.unlock();
+    if (holder != Thread.currentThread())
+    {
+      throw new IllegalMonitorStateException("Axis not locked by this thread");
+    }
+    if (--holdCount == 0)
+    {
+      holder = null;
+      release();
+    }
   }
 
   /**
@@ -1255,7 +1307,18 @@ implements Axis
    */
   public final boolean trylock()
   {
-    return rLock.tryLock();
+    if (holder == Thread.currentThread())
+    {
+      holdCount++;
+      return true;
+    }
+    if (!tryAcquire())
+    {
+      return false;
+    }
+    holder = Thread.currentThread();
+    holdCount = 1;
+    return true;
   }
 
   /**
@@ -1266,7 +1329,7 @@ implements Axis
   @Override
   public final boolean isLocked()
   {
-    return rLock.isLocked();
+    return moveState.get() != IDLE;
   }
   //----------------------- PROTECTED METHODS --------------------------------
 
@@ -1275,6 +1338,208 @@ implements Axis
     return prefs;
   }
 
+  /**
+   * @return scheduler running the operations of this axis
+   */
+  final AxisScheduler getScheduler()
+  {
+    return scheduler;
+  }
+
+  /**
+   * Take ownership of the axis for an operation: IDLE to MOVING.
+   * <p>
+   * @return false if the axis is owned already
+   */
+  final boolean tryAcquire()
+  {
+    return moveState.compareAndSet(IDLE, MOVING);
+  }
+
+  /**
+   * End the operation that owns the axis: MOVING or STOPPING to IDLE.
+   */
+  final void release()
+  {
+    moveState.set(IDLE);
+  }
+
+  /**
+   * Test for a stop signalled to the operation in progress. Operations
+   * (and SPI methods called by them) check this between controller commands
+   * and return STOPPED when it is set.
+   * <p>
+   * @return true if stopMove() or abortMove() was called since the operation
+   *         started
+   */
+  protected final boolean isStopRequested()
+  {
+    return moveState.get() == STOPPING;
+  }
+
+  /**
+   * Wake any thread waiting for a status change in {@link #waitFor}.
+   * <p>
+   * Drivers for controllers that push status changes (or a shared poller
+   * that has just refreshed the status) call this so that a waiting move
+   * completes immediately instead of at its next poll.
+   * <p>
+   * None of the current drivers has such a status source: the IAI and Hydra
+   * axes are observed by the polling of {@link #waitFor} only, and this is
+   * called on stopMove()/abortMove() to end a wait early.
+   */
+  protected final void notifyStatusChanged()
+  {
+    synchronized (statusMonitor)
+    {
+      statusSeq++;
+      statusMonitor.notifyAll();
+    }
+  }
+
+  /**
+   * Estimate the duration of a move, assuming a trapezoidal velocity profile
+   * at the last commanded speed and acceleration.
+   * <p>
+   * @param rawDistance move distance, UNSCALED
+   * @return estimated time in nanoseconds, 0 if unknown.
+   */
+  protected final long estimateMoveTime(double rawDistance)
+  {
+    double d = Math.abs(rawDistance);
+    double v = Math.abs(speedRaw);
+    double a = Math.abs(accelerationRaw);
+    if (d == 0.0 || v == 0.0 || Double.isNaN(d))
+    {
+      return 0L;
+    }
+    double t;
+    if (a == 0.0)
+    {
+      t = d / v;
+    }
+    else if (d >= (v * v / a))
+    {
+      t = (d / v) + (v / a);
+    }
+    else
+    {
+      t = 2.0 * Math.sqrt(d / a);
+    }
+    return (long) Math.min(t * 1e9, 3600e9);
+  }
+
+  /**
+   * Block until the axis is ready after a move of the given distance,
+   * or the move is stopped.
+   * <p>
+   * @param rawDistance move distance, UNSCALED; used to estimate completion.
+   * @return true if ready, false if stopped.
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  protected final boolean waitUntilReady(double rawDistance)
+  throws IOException, InterruptedException
+  {
+    return waitFor(readyCondition, estimateMoveTime(rawDistance), true);
+  }
+
+  /**
+   * Block until a status condition is met.
+   * <p>
+   * The condition is polled at the slow interval until shortly before the
+   * expected completion time, then at the fast interval until
+   * <tt>pollFastWindow</tt> after it, then at the slow interval again.
+   * A call to {@link #notifyStatusChanged()} causes an immediate poll.
+   * <p>
+   * A controller may still report the state from before the command for a
+   * short while (e.g. "ready" right after a move was started), so the
+   * condition is only trusted once it has been seen not met, or once
+   * <tt>pollIntervalSlow</tt> has passed, as the former fixed 100 ms poll
+   * did. A short move is thus still detected after a few fast polls.
+   * <p>
+   * @param cond      the condition.
+   * @param expected  expected time until the condition is met, in
+   *                  nanoseconds (0 if unknown).
+   * @param stoppable if true, return as soon as a stop is requested.
+   * @return true if the condition is met, false if stopped.
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  protected final boolean waitFor(StatusCondition cond, long expected, boolean stoppable)
+  throws IOException, InterruptedException
+  {
+    final long fast = TimeUnit.MILLISECONDS.toNanos(pollIntervalFast);
+    final long slow = TimeUnit.MILLISECONDS.toNanos(pollIntervalSlow);
+    final long window = TimeUnit.MILLISECONDS.toNanos(pollFastWindow);
+    final long start = System.nanoTime();
+    final long eta = start + expected;
+    boolean seenNotMet = false;
+    long seq;
+    synchronized (statusMonitor)
+    {
+      seq = statusSeq;
+    }
+    while (true)
+    {
+      long toEta = eta - System.nanoTime();
+      long wait;
+      if (toEta > slow)
+      {
+        wait = slow;
+      }
+      else if (toEta > fast)
+      {
+        wait = toEta;
+      }
+      else if (-toEta < window)
+      {
+        wait = fast;
+      }
+      else
+      {
+        wait = slow;
+      }
+      synchronized (statusMonitor)
+      {
+        if ((statusSeq == seq) && !(stoppable && isStopRequested()))
+        {
+          TimeUnit.NANOSECONDS.timedWait(statusMonitor, wait);
+        }
+        seq = statusSeq;
+      }
+      if (stoppable && isStopRequested())
+      {
+        return false;
+      }
+      if (!cond.isMet())
+      {
+        seenNotMet = true;
+      }
+      else if (seenNotMet || ((System.nanoTime() - start) >= slow))
+      {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Read the dynamic axis status, with position and target in UNSCALED units.
+   * <p>
+   * The default issues the individual status queries one after the other.
+   * Drivers that can fetch everything in one controller exchange should
+   * override this.
+   *
+   * @return state, UNSCALED
+   * @throws IOException
+   */
+  protected AxisState getStateRawSpi()
+  throws IOException
+  {
+    return new AxisState(isEnabled(), isInitialized(), isReady(),
+                         getPositionRawSpi(), getTargetRawSpi(), getSwitches());
+  }
+
   protected abstract void loadConfigsSpi();
 
   protected abstract void saveConfigsSpi();
@@ -1328,6 +1593,104 @@ implements Axis
   throws IOException;
 
   //----------------------- PRIVATE   METHODS --------------------------------
+  /**
+   * Signal stop to the operation that owns the axis: MOVING to STOPPING.
+   * <p>
+   * @return false if a stop is in progress already
+   */
+  private boolean requestStop()
+  {
+    int state = moveState.get();
+    while ((state == MOVING) && !moveState.compareAndSet(MOVING, STOPPING))
+    {
+      state = moveState.get();
+    }
+    if (state == STOPPING)
+    {
+      return false;
+    }
+    // Wake the owner if it is waiting for the axis
+    notifyStatusChanged();
+    return true;
+  }
+
+  /**
+   * Start a task for a blocking operation. The axis is owned from here until
+   * the task returns.
+   * <p>
+   * @param task move or initialize task
+   * @return future result of the task, or LOCKED if the axis is owned;
+   *         cancelling it before the task starts releases the axis
+   * @throws IOException if the task cannot be started
+   */
+  private Future<Integer> submit(Callable<Integer> task)
+  throws IOException
+  {
+    if (!tryAcquire())
+    {
+      return new ImmediateFuture(LOCKED);
+    }
+    try
+    {
+      OperationTask f = new OperationTask(task);
+      exec.execute(f);
+      return f;
+    }
+    catch (RejectedExecutionException ex)
+    {
+      release();
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Start a task for a non-blocking operation. The axis is owned from here
+   * until the task returns.
+   * <p>
+   * @param op move or initialize task
+   * @return future completed with the result of the task; cancelling it
+   *         stops the axis
+   */
+  private MoveFuture submitAsync(final Callable<Integer> op)
+  {
+    if (!tryAcquire())
+    {
+      return MoveFuture.completed(LOCKED);
+    }
+
+    final MoveFuture f = new MoveFuture(this);
+    try
+    {
+      exec.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          // Cancelled before it started: the axis was stopped already
+          if (f.isDone())
+          {
+            release();
+            return;
+          }
+          try
+          {
+            f.complete(MoveResult.valueOf(op.call()));
+          }
+          catch (Exception ex)
+          {
+            f.completeExceptionally(ex);
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException ex)
+    {
+      release();
+      f.completeExceptionally(new IOException(ex));
+    }
+    return f;
+  }
+
   /**
    * Load properties that are shared by all dependent classes.
    */
@@ -1349,6 +1712,9 @@ implements Axis
     this.hasAuxEncoder = prefs.getBoolean("hasAuxEncoder", hasAuxEncoder);
     this.auxEncoderScale = prefs.getDouble("auxEncoderScale", auxEncoderScale);
     this.auxEncoderOffsetRaw = prefs.getDouble("auxEncoderOffsetRaw", auxEncoderOffsetRaw);
+    this.pollIntervalFast = Math.max(1, prefs.getInt("pollIntervalFast", pollIntervalFast));
+    this.pollIntervalSlow = Math.max(1, prefs.getInt("pollIntervalSlow", pollIntervalSlow));
+    this.pollFastWindow = Math.max(0, prefs.getInt("pollFastWindow", pollFastWindow));
 
     if (scale == 0)
     {
@@ -1418,6 +1784,9 @@ implements Axis
       prefs.putBoolean("hasAuxEncoder", hasAuxEncoder);
       prefs.putDouble("auxEncoderScale", auxEncoderScale);
       prefs.putDouble("auxEncoderOffsetRaw", auxEncoderOffsetRaw);
+      prefs.putInt("pollIntervalFast", pollIntervalFast);
+      prefs.putInt("pollIntervalSlow", pollIntervalSlow);
+      prefs.putInt("pollFastWindow", pollFastWindow);
     }
     catch (IllegalStateException ex)
     {
@@ -1443,121 +1812,118 @@ implements Axis
     {
       this.rawspeed = rawspeed;
       this.methodID = methodID;
-      stopFlag = false;
     }
 
     @Override
     public Integer call()
     throws IOException
     {
-      if (rLock.tryLock())
+      try
       {
-        try
+        // Stopped while queued
+        if (isStopRequested())
         {
-          // Check for motor ENABLED
-          if (!isEnabled())
-          {
-            return DISABLED;
-          }
-          // Check for axis ready
-          if (!isReady())
-          {
-            return AXIS_BUSY;
-          }
-          if (stopFlag)
-          {
-            return STOPPED;
-          }
+          return STOPPED;
+        }
+        // Check for motor ENABLED
+        if (!isEnabled())
+        {
+          return DISABLED;
+        }
+        // Check for axis ready
+        if (!isReady())
+        {
+          return AXIS_BUSY;
+        }
 
-          // Initiate operation
-          setSpeedRawSpi(defaultSpeedRaw);
-          setAccelerationRawSpi(defaultAccelerationRaw);
-          switch (methodID)
-          {
-            case INITIALIZE:
-              setInitialized(false);
-              // findHome, then findIndex
-              findHomeSpi(initializeSpeedRaw);
-              if (stopFlag)
-              {
-                return STOPPED;
-              }
+        // Initiate operation
+        setSpeedRawSpi(defaultSpeedRaw);
+        setAccelerationRawSpi(defaultAccelerationRaw);
+        speedRaw = defaultSpeedRaw;
+        accelerationRaw = defaultAccelerationRaw;
+        switch (methodID)
+        {
+          case INITIALIZE:
+            setInitialized(false);
+            // findHome, then findIndex
+            findHomeSpi(initializeSpeedRaw);
+            if (isStopRequested())
+            {
+              return STOPPED;
+            }
 
-              if (hasIndex)
+            if (hasIndex)
+            {
+              findIndexSpi(initializeSpeedRaw);
+              if (isStopRequested())
               {
-                findIndexSpi(initializeSpeedRaw);
-                if (stopFlag)
-                {
-                  return STOPPED;
-                }
+                return STOPPED;
               }
-
-              setInitialized(true);
-              break;
-            case FIND_HOME:
-              findHomeSpi(rawspeed);
-              break;
-            case FIND_INDEX:
-              findIndexSpi(rawspeed);
-              break;
-            case FIND_LOWER_LIMIT:
-              findLowerLimitSpi(rawspeed);
-              break;
-            case FIND_UPPER_LIMIT:
-              findUpperLimitSpi(rawspeed);
-              break;
-            default:
-              throw new IOException("Improper methodID.");
-          }
-          if (stopFlag)
-          {
-            return STOPPED;
-          }
-
-          // Wait till axis is ready
-          // Should not be required.
-          // The Spi methods are supposed to block until done.
-          // This is just final assurance.
-          while (!isReady())
-          {
-            if (stopFlag)
-            {
-              return STOPPED;
             }
-            Thread.sleep(100);
-          }
+
+            setInitialized(true);
+            break;
+          case FIND_HOME:
+            findHomeSpi(rawspeed);
+            break;
+          case FIND_INDEX:
+            findIndexSpi(rawspeed);
+            break;
+          case FIND_LOWER_LIMIT:
+            findLowerLimitSpi(rawspeed);
+            break;
+          case FIND_UPPER_LIMIT:
+            findUpperLimitSpi(rawspeed);
+            break;
+          default:
+            throw new IOException("Improper methodID.");
         }
-        catch (InterruptedException ex)
+        if (isStopRequested())
         {
-          //On abortMove() or stopMove()
           return STOPPED;
         }
-        catch (IOException ex)
+
+        // Wait till axis is ready
+        // Should not be required.
+        // The Spi methods are supposed to block until done.
+        // This is just final assurance.
+        if (!isReady() && !waitFor(readyCondition, 0L, true))
         {
-          //TODO: caught and logged or thrown and handled by user?
-          throw new IOException(ex);
-          //LOGGER.log(Level.WARNING, ex.getMessage());
-          //return STOPPED;
+          return STOPPED;
         }
-        catch (Exception ex)
+      }
+      catch (InterruptedException ex)
+      {
+        //On abortMove() or stopMove()
+        return STOPPED;
+      }
+      catch (IOException ex)
+      {
+        //TODO: caught and logged or thrown and handled by user?
+        throw new IOException(ex);
+        //LOGGER.log(Level.WARNING, ex.getMessage());
+        //return STOPPED;
+      }
+      catch (Exception ex)
+      {
+        // Catch unanticipated runtime exception
+        logger.log(Level.SEVERE, "Unanticipated exception", ex);
+        throw new IOException(ex);
+      }
+      finally
+      {
+        try
         {
-          // Catch unanticipated runtime exception
-          logger.log(Level.SEVERE, "Unanticipated exception", ex);
-          throw new IOException(ex);
+          setSpeedRawSpi(defaultSpeedRaw);
+          setAccelerationRawSpi(defaultAccelerationRaw);
         }
         finally
         {
-          setSpeedRawSpi(defaultSpeedRaw);
-          setAccelerationRawSpi(defaultAccelerationRaw);
-          rLock.unlock();
+          release();
         }
-
-        return AXIS_OK;
-      }
-      else
-      {
-        return LOCKED;
       }
+
+      return AXIS_OK;
     }
   }
 
@@ -1603,127 +1969,172 @@ implements Axis
         default:
           throw new IllegalArgumentException("Improper methodID");
       }
-      stopFlag = false;
     }
 
     @Override
     public Integer call()
     throws IOException
     {
-      if (rLock.tryLock())
+      try
       {
-        try
+        // Stopped while queued
+        if (isStopRequested())
         {
-          // Check for motor ENABLED
-          if (!isEnabled())
-          {
-            return DISABLED;
-          }
-          // Check for motor OK and not moving
-          if (!isReady())
-          {
-            return AXIS_BUSY;
-          }
-          if (stopFlag)
-          {
-            return STOPPED;
-          }
+          return STOPPED;
+        }
+        // Check for motor ENABLED
+        if (!isEnabled())
+        {
+          return DISABLED;
+        }
+        // Check for motor OK and not moving
+        if (!isReady())
+        {
+          return AXIS_BUSY;
+        }
 
-          // Normally, we test for INITIALIZED and LIMITS
-          if (check)
+        // Normally, we test for INITIALIZED and LIMITS
+        if (check)
+        {
+          // Check that axis is initialized
+          if (!isInitialized())
           {
-            // Check that axis is initialized
-            if (!isInitialized())
-            {
-              return UNINITIALIZED;
-            }
-            double dest = 0.0;
-            switch (methodID)
-            {
-              case ABSOLUTE:
-                dest = value;
-                break;
-
-              case RELATIVE:
-                dest = value + getPositionRawSpi();
-                break;
-            }
-            // Check that move is within limits
-            if (dest < lowerLimitSoftRaw)
-            {
-              return DEST_BELOW_LLIMIT;
-            }
-            if (dest > upperLimitSoftRaw)
-            {
-              return DEST_ABOVE_ULIMIT;
-            }
+            return UNINITIALIZED;
           }
-
-          // OK, initiate move
+          double dest = 0.0;
           switch (methodID)
           {
             case ABSOLUTE:
-            case ABSOLUTE_NOCHECK:
-              // moveAbsolute
-              moveAbsoluteRawSpi(value);
+              dest = value;
               break;
+
             case RELATIVE:
-            case RELATIVE_NOCHECK:
-              // moveRelative
-              moveRelativeRawSpi(value);
+              dest = value + getPositionRawSpi();
               break;
           }
-          if (stopFlag)
+          // Check that move is within limits
+          if (dest < lowerLimitSoftRaw)
           {
-            return STOPPED;
+            return DEST_BELOW_LLIMIT;
           }
-
-          // Wait till axis is ready
-          // Should not be required.
-          // The Spi methods are supposed to block until done.
-          // This is just final assurance.
-          while (!isReady())
+          if (dest > upperLimitSoftRaw)
           {
-            if (stopFlag)
-            {
-              return STOPPED;
-            }
-            Thread.sleep(100);
+            return DEST_ABOVE_ULIMIT;
           }
         }
-        catch (InterruptedException ex)
+
+        // OK, initiate move
+        switch (methodID)
         {
-          //On stopMove()
-          return STOPPED;
+          case ABSOLUTE:
+          case ABSOLUTE_NOCHECK:
+            // moveAbsolute
+            moveAbsoluteRawSpi(value);
+            break;
+          case RELATIVE:
+          case RELATIVE_NOCHECK:
+            // moveRelative
+            moveRelativeRawSpi(value);
+            break;
         }
-        catch (IOException ex)
+        if (isStopRequested())
         {
-          //TODO: caught and logged or thrown and handled by user?
-          throw new IOException(ex);
-          //LOGGER.log(Level.WARNING, ex.getMessage());
-          //return STOPPED;
+          return STOPPED;
         }
-        catch (Exception ex)
+
+        // Wait till axis is ready
+        // Should not be required.
+        // The Spi methods are supposed to block until done.
+        // This is just final assurance.
+        if (!isReady() && !waitFor(readyCondition, 0L, true))
         {
-          // Catch unanticipated runtime exception
-          logger.log(Level.SEVERE, "Unanticipated exception", ex);
-          throw new IOException(ex);
+          return STOPPED;
         }
-        finally
+      }
+      catch (InterruptedException ex)
+      {
+        //On stopMove()
+        return STOPPED;
+      }
+      catch (IOException ex)
+      {
+        //TODO: caught and logged or thrown and handled by user?
+        throw new IOException(ex);
+        //LOGGER.log(Level.WARNING, ex.getMessage());
+        //return STOPPED;
+      }
+      catch (Exception ex)
+      {
+        // Catch unanticipated runtime exception
+        logger.log(Level.SEVERE, "Unanticipated exception", ex);
+        throw new IOException(ex);
+      }
+      finally
+      {
+        release();
+      }
+
+      return AXIS_OK;
+    }
+  }
+
+  /**
+   * A condition on the axis status, see {@link #waitFor}.
+   */
+  protected interface StatusCondition
+  {
+    boolean isMet()
+    throws IOException;
+  }
+
+  /**
+   * Task of a blocking operation, see {@link #submit}. The operation
+   * releases the axis when it returns; if the future is cancelled before
+   * the operation started, it never runs, and the axis is released here.
+   */
+  private final class OperationTask
+  extends FutureTask<Integer>
+  {
+    private final AtomicBoolean started;
+
+    OperationTask(final Callable<Integer> op)
+    {
+      this(op, new AtomicBoolean(false));
+    }
+
+    private OperationTask(final Callable<Integer> op, final AtomicBoolean started)
+    {
+      super(new Callable<Integer>()
+      {
+        @Override
+        public Integer call()
+        throws Exception
         {
-          rLock.unlock();
+          // Lost the race with a cancel: the axis was released already
+          if (!started.compareAndSet(false, true))
+          {
+            return STOPPED;
+          }
+          return op.call();
         }
+      });
+      this.started = started;
+    }
 
-        return AXIS_OK;
-      }
-      else
+    @Override
+    protected void done()
+    {
+      if (isCancelled() && started.compareAndSet(false, true))
       {
-        return LOCKED;
+        release();
       }
     }
   }
 
-  private class ImmediateFuture
+  /**
+   * Future for results that are known immediately (e.g. LOCKED).
+   */
+  static final class ImmediateFuture
   implements Future<Integer>
   {
     private final Integer value;
@@ -0,0 +1,324 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinated moves of a fixed set of axes.
+ * <p>
+ * A group move is a single operation: all destinations are checked against
+ * the soft limits, and all axes are checked for enabled, initialized and
+ * ready, before any axis is started. The targets are then sent back to back
+ * and completion is detected by one status poll loop for the whole group,
+ * instead of one blocking thread and poll loop per axis.
+ * <p>
+ * Stopping any member axis while the group is moving ends the group move
+ * with STOPPED.
+ * <p>
+ * @author cwcork
+ */
+public final class AxisGroup
+{
+  // Class fields
+  private static final Logger logger = Logger.getLogger(AxisGroup.class.getName());
+  //
+  // Instance fields
+  private final AbstractAxis[] axes;
+  private final AbstractAxis.StatusCondition groupReady;
+  private final AxisScheduler scheduler;
+  private final ExecutorService exec;
+  private boolean destroyed = false;
+
+  /**
+   * @param axes member axes, in destination order.
+   */
+  public AxisGroup(AbstractAxis... axes)
+  {
+    this(null, axes);
+  }
+
+  /**
+   * @param groupReady test for all axes ready, e.g. with a single query to
+   *                   a shared controller; null to test each axis in turn.
+   * @param axes       member axes, in destination order.
+   */
+  public AxisGroup(AbstractAxis.StatusCondition groupReady, AbstractAxis... axes)
+  {
+    if (axes.length == 0)
+    {
+      throw new IllegalArgumentException("No axes");
+    }
+    this.axes = axes.clone();
+    this.groupReady = groupReady;
+    // Group moves run with the operations of the first axis' controller
+    this.scheduler = axes[0].getScheduler();
+    this.scheduler.share();
+    this.exec = scheduler.getExecutor();
+  }
+
+  /**
+   * Release the group's share of the operation threads.
+   */
+  public synchronized void destroy()
+  {
+    if (!destroyed)
+    {
+      destroyed = true;
+      scheduler.release();
+    }
+  }
+
+  /**
+   * Get number of axes in the group.
+   * <p>
+   * @return number of axes
+   */
+  public int getSize()
+  {
+    return axes.length;
+  }
+
+  /**
+   * Move all axes to absolute positions, SCALED.
+   * <p>
+   * Soft limits and locks are checked immediately; if any axis fails, no
+   * axis is moved and the returned future holds the error code.
+   * <p>
+   * @param dests destinations, one per axis, SCALED
+   * @return AXIS_OK, STOPPED, LOCKED, DISABLED, UNINITIALIZED, AXIS_BUSY,
+   *         DEST_BELOW_LLIMIT or DEST_ABOVE_ULIMIT (first failing axis).
+   * @throws IOException
+   */
+  public Future<Integer> moveAbsolute(double[] dests)
+  throws IOException
+  {
+    final double[] rawDests = new double[axes.length];
+    int result = check(dests, rawDests);
+    if (result != Axis.AXIS_OK)
+    {
+      return new AbstractAxis.ImmediateFuture(result);
+    }
+
+    try
+    {
+      return exec.submit(new GroupMove(rawDests));
+    }
+    catch (RejectedExecutionException ex)
+    {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Non-blocking {@link #moveAbsolute(double[])}, see {@link AsyncAxis}.
+   * Cancelling the returned future stops every axis of the group.
+   * <p>
+   * @param dests destinations, one per axis, SCALED
+   * @return completion of the group move
+   */
+  public CompletableFuture<MoveResult> moveAbsoluteAsync(double[] dests)
+  {
+    final double[] rawDests = new double[axes.length];
+    int result = check(dests, rawDests);
+    if (result != Axis.AXIS_OK)
+    {
+      return MoveFuture.completed(result);
+    }
+
+    final MoveFuture f = new MoveFuture(axes);
+    final GroupMove move = new GroupMove(rawDests);
+    try
+    {
+      exec.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          if (f.isDone())
+          {
+            return;
+          }
+          try
+          {
+            f.complete(MoveResult.valueOf(move.call()));
+          }
+          catch (IOException | RuntimeException ex)
+          {
+            f.completeExceptionally(ex);
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException ex)
+    {
+      f.completeExceptionally(new IOException(ex));
+    }
+    return f;
+  }
+
+  //----------------------- PRIVATE   METHODS ---------------------------------
+  /**
+   * Check the whole vector before anything moves.
+   * <p>
+   * @param dests    destinations, SCALED
+   * @param rawDests filled with the destinations, UNSCALED
+   * @return AXIS_OK, LOCKED, DEST_BELOW_LLIMIT or DEST_ABOVE_ULIMIT
+   */
+  private int check(double[] dests, double[] rawDests)
+  {
+    if (dests.length != axes.length)
+    {
+      throw new IllegalArgumentException("Expected " + axes.length + " destinations");
+    }
+    for (int i = 0; i < axes.length; i++)
+    {
+      AbstractAxis axis = axes[i];
+      if (axis.isLocked())
+      {
+        return Axis.LOCKED;
+      }
+      if (dests[i] < axis.getLowerLimitSoft())
+      {
+        return Axis.DEST_BELOW_LLIMIT;
+      }
+      if (dests[i] > axis.getUpperLimitSoft())
+      {
+        return Axis.DEST_ABOVE_ULIMIT;
+      }
+      rawDests[i] = (axis.getScale() * dests[i]) + axis.getOffset();
+    }
+    return Axis.AXIS_OK;
+  }
+
+  //----------------------- PRIVATE   CLASSES ---------------------------------
+  private class GroupMove
+  implements Callable<Integer>
+  {
+    private final double[] rawDests;
+    // Group is settled when all axes are ready, or any axis was stopped
+    private final AbstractAxis.StatusCondition settled = new AbstractAxis.StatusCondition()
+    {
+      @Override
+      public boolean isMet()
+      throws IOException
+      {
+        if (isStopped())
+        {
+          return true;
+        }
+        if (groupReady != null)
+        {
+          return groupReady.isMet();
+        }
+        for (AbstractAxis axis : axes)
+        {
+          if (!axis.isReady())
+          {
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+
+    /**
+     * @param rawDests destinations, UNSCALED
+     */
+    GroupMove(double[] rawDests)
+    {
+      this.rawDests = rawDests;
+    }
+
+    private boolean isStopped()
+    {
+      for (AbstractAxis axis : axes)
+      {
+        if (axis.isStopRequested())
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Integer call()
+    throws IOException
+    {
+      int locked = 0;
+      try
+      {
+        // Own every axis for the duration of the move
+        while (locked < axes.length)
+        {
+          if (!axes[locked].tryAcquire())
+          {
+            return Axis.LOCKED;
+          }
+          locked++;
+        }
+
+        // Check every axis before starting any
+        long expected = 0L;
+        for (int i = 0; i < axes.length; i++)
+        {
+          AbstractAxis axis = axes[i];
+          if (!axis.isEnabled())
+          {
+            return Axis.DISABLED;
+          }
+          if (!axis.isInitialized())
+          {
+            return Axis.UNINITIALIZED;
+          }
+          if (!axis.isReady())
+          {
+            return Axis.AXIS_BUSY;
+          }
+          double dist = rawDests[i] - axis.getPositionRaw();
+          expected = Math.max(expected, axis.estimateMoveTime(dist));
+        }
+
+        // Start all axes, then wait once for the slowest
+        for (int i = 0; i < axes.length; i++)
+        {
+          if (isStopped())
+          {
+            return Axis.STOPPED;
+          }
+          axes[i].setTargetRawSpi(rawDests[i]);
+        }
+        axes[0].waitFor(settled, expected, false);
+        return isStopped() ? Axis.STOPPED : Axis.AXIS_OK;
+      }
+      catch (InterruptedException ex)
+      {
+        return Axis.STOPPED;
+      }
+      catch (IOException ex)
+      {
+        throw ex;
+      }
+      catch (Exception ex)
+      {
+        // Catch unanticipated runtime exception
+        logger.log(Level.SEVERE, "Unanticipated exception", ex);
+        throw new IOException(ex);
+      }
+      finally
+      {
+        while (locked > 0)
+        {
+          axes[--locked].release();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+// @license
+package cxro.common.device.axis;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the operations (moves, initialization, group moves) of the axes
+ * of one controller.
+ * <p>
+ * Axes that talk to the same controller (same HydraComm, same Modbus
+ * gateway) share one scheduler, keyed by a controller object. Every user
+ * (axis or group) adds {@link #THREADS_PER_USER} threads to the limit of
+ * the shared pool: one for its running operation, and one so that a call
+ * racing with it still finds the axis LOCKED at once instead of waiting in
+ * the queue. Beyond the limit, operations queue. Idle threads exit after
+ * {@link #KEEP_ALIVE} seconds, and the scheduler is shut down when its last
+ * user releases it, so servers with many axes no longer accumulate threads.
+ * <p>
+ * The controller access itself is already serialized by the comm object
+ * (HydraComm, ModbusTcpChannel); operations cannot be serialized further
+ * because the SPI move methods block until the axis is done.
+ * <p>
+ * If the system property {@value #VIRTUAL_THREADS} is true and the JVM
+ * supports virtual threads (Java 21), the pool threads are virtual threads.
+ * Otherwise they are platform threads.
+ * <p>
+ * @author cwcork
+ */
+public final class AxisScheduler
+{
+  // Class fields
+  private static final Logger logger = Logger.getLogger(AxisScheduler.class.getName());
+  /**
+   * Threads added to the pool limit per user.
+   */
+  public static final int THREADS_PER_USER = 2;
+  /**
+   * Idle thread lifetime, seconds.
+   */
+  public static final int KEEP_ALIVE = 60;
+  /**
+   * System property selecting virtual threads.
+   */
+  public static final String VIRTUAL_THREADS = "cxro.axis.virtualThreads";
+  private static final Map<Object, AxisScheduler> shared = new HashMap<>();
+  private static final AtomicInteger serial = new AtomicInteger();
+  //
+  // Instance fields
+  private final Object controller;
+  private final ThreadPoolExecutor exec;
+  private int users = 0;
+
+  private AxisScheduler(Object controller, String name)
+  {
+    this.controller = controller;
+    this.exec = new ThreadPoolExecutor(THREADS_PER_USER, THREADS_PER_USER,
+                                       KEEP_ALIVE, TimeUnit.SECONDS,
+                                       new LinkedBlockingQueue<Runnable>(),
+                                       newThreadFactory(name));
+    this.exec.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Get the scheduler of a controller and count one more user. Every call
+   * must be matched by a call to {@link #release()}.
+   * <p>
+   * @param controller controller key, compared with equals (e.g. the
+   *                   HydraComm, or the gateway address); null for a
+   *                   scheduler that is not shared
+   * @param name       name for the threads of a new scheduler
+   * @return scheduler
+   */
+  public static AxisScheduler acquire(Object controller, String name)
+  {
+    synchronized (shared)
+    {
+      AxisScheduler s = (controller == null) ? null : shared.get(controller);
+      if (s == null)
+      {
+        s = new AxisScheduler(controller, name);
+        if (controller != null)
+        {
+          shared.put(controller, s);
+        }
+      }
+      s.users++;
+      s.resize();
+      return s;
+    }
+  }
+
+  /**
+   * Count one more user of this scheduler, e.g. a group of its axes. Every
+   * call must be matched by a call to {@link #release()}.
+   */
+  public void share()
+  {
+    synchronized (shared)
+    {
+      users++;
+      resize();
+    }
+  }
+
+  /**
+   * Count one user less; the last user shuts the scheduler down. Running
+   * operations are allowed to finish.
+   */
+  public void release()
+  {
+    synchronized (shared)
+    {
+      if (users == 0)
+      {
+        return;
+      }
+      if (--users > 0)
+      {
+        resize();
+        return;
+      }
+      if ((controller != null) && (shared.get(controller) == this))
+      {
+        shared.remove(controller);
+      }
+    }
+    exec.shutdown();
+  }
+
+  /**
+   * @return executor for axis operations
+   */
+  public ExecutorService getExecutor()
+  {
+    return exec;
+  }
+
+  /**
+   * @return current thread limit
+   */
+  public int getThreadLimit()
+  {
+    return exec.getMaximumPoolSize();
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private void resize()
+  {
+    int limit = Math.max(1, users) * THREADS_PER_USER;
+    // Keep core <= max at every step
+    if (limit > exec.getMaximumPoolSize())
+    {
+      exec.setMaximumPoolSize(limit);
+      exec.setCorePoolSize(limit);
+    }
+    else
+    {
+      exec.setCorePoolSize(limit);
+      exec.setMaximumPoolSize(limit);
+    }
+  }
+
+  private static ThreadFactory newThreadFactory(String name)
+  {
+    final String prefix = "Axis-" + name + "-" + serial.incrementAndGet() + "-";
+    if (Boolean.getBoolean(VIRTUAL_THREADS))
+    {
+      try
+      {
+        // Thread.ofVirtual().name(prefix, 0).factory(), without requiring Java 21
+        Class<?> builder = Class.forName("java.lang.Thread$Builder");
+        Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+        Method nameMethod = builder.getMethod("name", String.class, long.class);
+        b = nameMethod.invoke(b, prefix, 0L);
+        return (ThreadFactory) builder.getMethod("factory").invoke(b);
+      }
+      catch (ReflectiveOperationException | RuntimeException ex)
+      {
+        logger.log(Level.INFO, "Virtual threads not available, using platform threads", ex);
+      }
+    }
+    return new ThreadFactory()
+    {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        // Not daemon: a move in progress keeps the JVM alive, as before
+        return new Thread(r, prefix + count.getAndIncrement());
+      }
+    };
+  }
+}
@@ -2,8 +2,6 @@
 package cxro.common.device.axis;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -22,7 +20,6 @@ public abstract class AbstractAxisArray
     // Instance fields
     private final String nodeName;
     private final Preferences prefs;
-    private final ExecutorService exec = Executors.newCachedThreadPool();
     private final ReentrantLock rLock = new ReentrantLock();
     //
     private String axisUnits = "mm";
@@ -0,0 +1,82 @@
+// @license
+package cxro.common.device.axis;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Axis with non-blocking operations.
+ * <p>
+ * Each operation returns at once with a future (a {@link MoveFuture}) that
+ * completes when the axis is done, so callers can chain operations (thenCompose),
+ * combine them ({@link MoveFuture#allOf}, {@link MoveFuture#anyOf}) and
+ * limit their time ({@link MoveFuture#withTimeout}) without a thread
+ * waiting for each one. One thread can sequence many axes this way.
+ * <p>
+ * Result codes are those of the blocking methods of {@link Axis}, wrapped in
+ * a {@link MoveResult}. Errors that the blocking methods throw as
+ * IOException complete the future exceptionally instead; these methods never
+ * throw.
+ * <p>
+ * Cancelling a future returned here while the operation is in progress
+ * stops the axis, as {@link Axis#stopMove()}, and the future completes with
+ * a CancellationException. Stopping the axis by other means completes the
+ * future normally with STOPPED.
+ * <p>
+ * @author cwcork
+ */
+public interface AsyncAxis
+extends Axis
+{
+  /**
+   * Non-blocking {@link #initialize()}.
+   * <p>
+   * @return completion of the initialization
+   */
+  CompletableFuture<MoveResult> initializeAsync();
+
+  /**
+   * Non-blocking {@link #moveAbsolute(double)}.
+   * <p>
+   * @param dest destination, SCALED
+   * @return completion of the move
+   */
+  CompletableFuture<MoveResult> moveAbsoluteAsync(double dest);
+
+  /**
+   * Non-blocking {@link #moveAbsoluteRaw(double)}.
+   * <p>
+   * @param destRaw destination, UNSCALED
+   * @return completion of the move
+   */
+  CompletableFuture<MoveResult> moveAbsoluteRawAsync(double destRaw);
+
+  /**
+   * Non-blocking {@link #moveRelative(double)}.
+   * <p>
+   * @param dist distance, SCALED
+   * @return completion of the move
+   */
+  CompletableFuture<MoveResult> moveRelativeAsync(double dist);
+
+  /**
+   * Non-blocking {@link #moveRelativeRaw(double)}.
+   * <p>
+   * @param distRaw distance, UNSCALED
+   * @return completion of the move
+   */
+  CompletableFuture<MoveResult> moveRelativeRawAsync(double distRaw);
+
+  /**
+   * Non-blocking {@link #stopMove()}.
+   * <p>
+   * @return completion of the stop command
+   */
+  CompletableFuture<MoveResult> stopMoveAsync();
+
+  /**
+   * Non-blocking {@link #abortMove()}.
+   * <p>
+   * @return completion of the abort command
+   */
+  CompletableFuture<MoveResult> abortMoveAsync();
+}
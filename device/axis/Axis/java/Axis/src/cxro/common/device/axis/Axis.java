@@ -238,6 +238,20 @@ public interface Axis
   double getSpeed()
   throws IOException;
 
+  /**
+   * Get the dynamic status of the axis in one operation.
+   * <p>
+   * Equivalent to calling isEnabled, isInitialized, isReady, getPosition, getTarget and
+   * getSwitches, but the fields are read together, in a single controller exchange where the
+   * driver supports it. Remote clients should prefer this to the individual calls.
+   * <p>
+   * @return current state
+   * <p>
+   * @throws IOException
+   */
+  AxisState getState()
+  throws IOException;
+
   /**
    * This method returns an array of booleans that represent the current status of the hardware
    * switches on the controller.
@@ -0,0 +1,138 @@
+// @license
+package cxro.common.device.axis;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the dynamic status of an axis, read in one pass.
+ * <p>
+ * Refreshing a display or checking readiness usually needs all of these
+ * fields together. Reading them with {@link Axis#getState()} costs one
+ * controller exchange (and, through a proxy, one network round trip) instead
+ * of one per field.
+ * <p>
+ * @author cwcork
+ * @see Axis#getState()
+ */
+public final class AxisState
+{
+  private final boolean enabled;
+  private final boolean initialized;
+  private final boolean ready;
+  private final double position;
+  private final double target;
+  private final boolean[] switches;
+
+  /**
+   * @param enabled     see {@link Axis#isEnabled()}
+   * @param initialized see {@link Axis#isInitialized()}
+   * @param ready       see {@link Axis#isReady()}
+   * @param position    SCALED position
+   * @param target      SCALED target, NaN if unknown
+   * @param switches    {Reverse_Switch, Forward_Switch, Home_Switch}
+   */
+  public AxisState(boolean enabled, boolean initialized, boolean ready,
+                   double position, double target, boolean[] switches)
+  {
+    this.enabled = enabled;
+    this.initialized = initialized;
+    this.ready = ready;
+    this.position = position;
+    this.target = target;
+    this.switches = switches.clone();
+  }
+
+  /**
+   * @return true if Enabled
+   */
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * @return true if initialized
+   */
+  public boolean isInitialized()
+  {
+    return initialized;
+  }
+
+  /**
+   * @return true if READY (NOT_MOVING and DRIVE_OK)
+   */
+  public boolean isReady()
+  {
+    return ready;
+  }
+
+  /**
+   * @return SCALED position
+   */
+  public double getPosition()
+  {
+    return position;
+  }
+
+  /**
+   * @return SCALED target for current move, NaN if unknown
+   */
+  public double getTarget()
+  {
+    return target;
+  }
+
+  /**
+   * @return switch array, see {@link Axis#getSwitches()}
+   */
+  public boolean[] getSwitches()
+  {
+    return switches.clone();
+  }
+
+  /**
+   * States are equal if every field is equal; positions are compared as in
+   * {@link Double#equals(Object)}, so NaN equals NaN.
+   */
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+    if (!(obj instanceof AxisState))
+    {
+      return false;
+    }
+    AxisState other = (AxisState) obj;
+    return (enabled == other.enabled)
+           && (initialized == other.initialized)
+           && (ready == other.ready)
+           && (Double.doubleToLongBits(position) == Double.doubleToLongBits(other.position))
+           && (Double.doubleToLongBits(target) == Double.doubleToLongBits(other.target))
+           && Arrays.equals(switches, other.switches);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    long bits = Double.doubleToLongBits(position) * 31 + Double.doubleToLongBits(target);
+    int hash = (int) (bits ^ (bits >>> 32));
+    hash = 31 * hash + (enabled ? 1 : 0);
+    hash = 31 * hash + (initialized ? 1 : 0);
+    hash = 31 * hash + (ready ? 1 : 0);
+    return 31 * hash + Arrays.hashCode(switches);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "AxisState{enabled=" + enabled
+           + ", initialized=" + initialized
+           + ", ready=" + ready
+           + ", position=" + position
+           + ", target=" + target
+           + ", switches=" + Arrays.toString(switches) + "}";
+  }
+}
@@ -0,0 +1,312 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Completion of an axis operation, see {@link AsyncAxis}.
+ * <p>
+ * Cancelling a move future that is not yet done stops its axes (as
+ * {@link Axis#stopMove()}) and completes the future with a
+ * CancellationException. Futures derived with thenApply, thenCompose, etc.
+ * are independent: cancelling them does not stop anything.
+ * <p>
+ * The static methods combine moves without blocking a thread per move:
+ * <pre>
+ *   MoveFuture.withTimeout(
+ *     MoveFuture.allOf(Arrays.asList(x.moveAbsoluteAsync(1.0), y.moveAbsoluteAsync(2.0))),
+ *     30, TimeUnit.SECONDS)
+ *     .thenCompose(r -&gt; r.isOk() ? z.moveAbsoluteAsync(0.5) : MoveFuture.completed(r.getCode()));
+ * </pre>
+ * <p>
+ * @author cwcork
+ */
+public class MoveFuture
+extends CompletableFuture<MoveResult>
+{
+  // Class fields
+  private static final Logger logger = Logger.getLogger(MoveFuture.class.getName());
+  private static final long POLL_MS = 10;
+  //
+  // Instance fields
+  private final Axis[] axes;
+  private final List<? extends CompletableFuture<MoveResult>> members;
+
+  /**
+   * @param axes axes stopped when the future is cancelled.
+   */
+  public MoveFuture(Axis... axes)
+  {
+    this(axes, null);
+  }
+
+  private MoveFuture(Axis[] axes, List<? extends CompletableFuture<MoveResult>> members)
+  {
+    this.axes = axes.clone();
+    this.members = members;
+  }
+
+  /**
+   * Cancel the operation. If it was not yet done, its axes are stopped, and
+   * for combined futures all member moves are cancelled.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning)
+  {
+    if (!super.cancel(mayInterruptIfRunning))
+    {
+      return false;
+    }
+    for (Axis axis : axes)
+    {
+      try
+      {
+        axis.stopMove();
+      }
+      catch (IOException ex)
+      {
+        logger.log(Level.WARNING, axis.getName() + ": stop on cancel failed", ex);
+      }
+    }
+    if (members != null)
+    {
+      for (CompletableFuture<MoveResult> member : members)
+      {
+        member.cancel(mayInterruptIfRunning);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param code result code, see {@link Axis}
+   * @return future that is already complete
+   */
+  public static MoveFuture completed(int code)
+  {
+    MoveFuture f = new MoveFuture();
+    f.complete(MoveResult.valueOf(code));
+    return f;
+  }
+
+  /**
+   * @param ex cause of the failure
+   * @return future that has already failed
+   */
+  public static MoveFuture failed(Throwable ex)
+  {
+    MoveFuture f = new MoveFuture();
+    f.completeExceptionally(ex);
+    return f;
+  }
+
+  /**
+   * Combine several moves, as AxisGroupFuture does for plain futures.
+   * <p>
+   * The result is complete when all moves are complete. It is AXIS_OK if
+   * every move returned AXIS_OK, otherwise the first non-OK result in list
+   * order. If any move fails, the result fails with the same exception.
+   * Cancelling the result cancels every move.
+   * <p>
+   * @param moves member moves
+   * @return combined future
+   */
+  public static MoveFuture allOf(final List<? extends CompletableFuture<MoveResult>> moves)
+  {
+    final MoveFuture all = new MoveFuture(new Axis[0], moves);
+    CompletableFuture.allOf(moves.toArray(new CompletableFuture<?>[moves.size()]))
+      .whenComplete((ignored, ex) ->
+      {
+        if (ex != null)
+        {
+          all.completeExceptionally(unwrap(ex));
+          return;
+        }
+        MoveResult result = MoveResult.OK;
+        for (CompletableFuture<MoveResult> move : moves)
+        {
+          MoveResult r = move.join();
+          if (result.isOk())
+          {
+            result = r;
+          }
+        }
+        all.complete(result);
+      });
+    return all;
+  }
+
+  /**
+   * The first of several moves to complete.
+   * <p>
+   * Cancelling the result cancels every move; the others keep running when
+   * one has completed.
+   * <p>
+   * @param moves member moves
+   * @return future completed with the first result or failure
+   */
+  public static MoveFuture anyOf(final List<? extends CompletableFuture<MoveResult>> moves)
+  {
+    final MoveFuture any = new MoveFuture(new Axis[0], moves);
+    for (CompletableFuture<MoveResult> move : moves)
+    {
+      move.whenComplete((r, ex) ->
+      {
+        if (ex != null)
+        {
+          any.completeExceptionally(unwrap(ex));
+        }
+        else
+        {
+          any.complete(r);
+        }
+      });
+    }
+    return any;
+  }
+
+  /**
+   * Limit the time a move may take.
+   * <p>
+   * If the move is not complete within the timeout, it is cancelled (which
+   * stops its axes) and the result fails with a TimeoutException. The
+   * timeout is kept by one shared timer thread, not by a blocked thread per
+   * move.
+   * <p>
+   * @param move    move to watch
+   * @param timeout time allowed
+   * @param unit    unit of timeout
+   * @return future with the result of the move, or TimeoutException
+   */
+  public static MoveFuture withTimeout(final CompletableFuture<MoveResult> move, final long timeout,
+                                       final TimeUnit unit)
+  {
+    final MoveFuture timed = new MoveFuture(new Axis[0], Collections.singletonList(move));
+    final ScheduledFuture<?> timer = Timer.INSTANCE.schedule(() ->
+    {
+      if (timed.completeExceptionally(new TimeoutException("Move not done in " + timeout + " " + unit)))
+      {
+        move.cancel(false);
+      }
+    }, timeout, unit);
+    move.whenComplete((r, ex) ->
+    {
+      timer.cancel(false);
+      if (ex != null)
+      {
+        timed.completeExceptionally(unwrap(ex));
+      }
+      else
+      {
+        timed.complete(r);
+      }
+    });
+    return timed;
+  }
+
+  /**
+   * Adapt a move started with the blocking API of {@link Axis}.
+   * <p>
+   * The shared timer thread checks the move every 10 ms; no thread waits on
+   * it. Cancelling the result stops the axis and cancels the move.
+   * <p>
+   * @param move move returned by the axis
+   * @param axis axis stopped when the result is cancelled
+   * @return future with the result of the move
+   */
+  public static MoveFuture poll(final Future<Integer> move, final Axis axis)
+  {
+    final MoveFuture polled = new MoveFuture(axis);
+    Timer.INSTANCE.execute(new Poll(move, polled));
+    return polled;
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private static Throwable unwrap(Throwable ex)
+  {
+    return ((ex instanceof CompletionException) && (ex.getCause() != null))
+           ? ex.getCause() : ex;
+  }
+
+  //----------------------- PRIVATE   CLASSES --------------------------------
+  /**
+   * Timer task for {@link #poll}; reschedules itself until the move is done.
+   */
+  private static final class Poll
+  implements Runnable
+  {
+    private final Future<Integer> move;
+    private final MoveFuture target;
+
+    Poll(Future<Integer> move, MoveFuture target)
+    {
+      this.move = move;
+      this.target = target;
+    }
+
+    @Override
+    public void run()
+    {
+      if (target.isDone())
+      {
+        move.cancel(false);
+        return;
+      }
+      if (!move.isDone())
+      {
+        Timer.INSTANCE.schedule(this, POLL_MS, TimeUnit.MILLISECONDS);
+        return;
+      }
+      try
+      {
+        target.complete(MoveResult.valueOf(move.get()));
+      }
+      catch (ExecutionException ex)
+      {
+        target.completeExceptionally((ex.getCause() != null) ? ex.getCause() : ex);
+      }
+      catch (CancellationException ex)
+      {
+        target.completeExceptionally(ex);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        target.completeExceptionally(ex);
+      }
+    }
+  }
+
+  /**
+   * Timer for {@link #withTimeout} and {@link #poll}, created on first use.
+   */
+  private static final class Timer
+  {
+    static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "MoveFuture-timer");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+  }
+}
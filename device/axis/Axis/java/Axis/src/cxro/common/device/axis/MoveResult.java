@@ -0,0 +1,92 @@
+// @license
+package cxro.common.device.axis;
+
+/**
+ * Result of an axis operation, see {@link AsyncAxis}.
+ * <p>
+ * Wraps one of the {@link Axis} result codes (AXIS_OK, AXIS_BUSY, ...).
+ * Instances for the standard codes are shared, so results can be compared
+ * with == as well as equals.
+ * <p>
+ * @author cwcork
+ */
+public final class MoveResult
+{
+  private static final String[] NAMES =
+  {
+    "AXIS_OK", "1", "AXIS_BUSY", "DEST_BELOW_LLIMIT", "DEST_ABOVE_ULIMIT",
+    "STOPPED", "LOCKED", "DISABLED", "UNINITIALIZED"
+  };
+  private static final MoveResult[] SHARED = new MoveResult[NAMES.length];
+
+  static
+  {
+    for (int i = 0; i < SHARED.length; i++)
+    {
+      SHARED[i] = new MoveResult(i);
+    }
+  }
+
+  /**
+   * Operation completed normally.
+   */
+  public static final MoveResult OK = SHARED[Axis.AXIS_OK];
+  /**
+   * Operation was stopped or aborted.
+   */
+  public static final MoveResult STOPPED = SHARED[Axis.STOPPED];
+  //
+  private final int code;
+
+  private MoveResult(int code)
+  {
+    this.code = code;
+  }
+
+  /**
+   * @param code result code, see {@link Axis}
+   * @return result for the code
+   */
+  public static MoveResult valueOf(int code)
+  {
+    if ((code >= 0) && (code < SHARED.length))
+    {
+      return SHARED[code];
+    }
+    return new MoveResult(code);
+  }
+
+  /**
+   * @return result code, see {@link Axis}
+   */
+  public int getCode()
+  {
+    return code;
+  }
+
+  /**
+   * @return true if the result is AXIS_OK
+   */
+  public boolean isOk()
+  {
+    return code == Axis.AXIS_OK;
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    return (obj instanceof MoveResult) && (((MoveResult) obj).code == code);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return code;
+  }
+
+  @Override
+  public String toString()
+  {
+    return ((code >= 0) && (code < NAMES.length)) ? NAMES[code] : Integer.toString(code);
+  }
+}
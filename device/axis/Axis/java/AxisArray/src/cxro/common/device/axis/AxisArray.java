@@ -2,6 +2,10 @@
 package cxro.common.device.axis;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 /**
  * Interface for N Dimensional Devices
@@ -49,6 +53,144 @@ public interface AxisArray
    */
   Axis getAxis(int index);
 
+  /**
+   * Move all axes to absolute positions, SCALED, as one operation.
+   * <p>
+   * All destinations are checked against the soft limits before any axis
+   * is moved. The returned future is done when every axis has finished and
+   * holds AXIS_OK, or the first error code in axis order.
+   * <p>
+   * The default implementation starts one move per axis; implementations
+   * whose axes share a controller should override it to start the axes
+   * together and poll their status once for the group. If an axis fails to
+   * start, the axes already started are stopped before the IOException is
+   * rethrown.
+   * <p>
+   * @param dests destinations, one per axis, SCALED
+   * @return Future for combined result code
+   * @throws IOException
+   */
+  default Future<Integer> moveAbsolute(double[] dests)
+  throws IOException
+  {
+    Axis[] axes = getAxes();
+    if (dests.length != axes.length)
+    {
+      throw new IllegalArgumentException("Expected " + axes.length + " destinations");
+    }
+    for (int i = 0; i < axes.length; i++)
+    {
+      if (dests[i] < axes[i].getLowerLimitSoft())
+      {
+        return CompletableFuture.completedFuture(Axis.DEST_BELOW_LLIMIT);
+      }
+      if (dests[i] > axes[i].getUpperLimitSoft())
+      {
+        return CompletableFuture.completedFuture(Axis.DEST_ABOVE_ULIMIT);
+      }
+    }
+    List<Future<Integer>> moves = new ArrayList<>(axes.length);
+    for (int i = 0; i < axes.length; i++)
+    {
+      try
+      {
+        moves.add(axes[i].moveAbsolute(dests[i]));
+      }
+      catch (IOException ex)
+      {
+        for (int j = 0; j < i; j++)
+        {
+          try
+          {
+            axes[j].stopMove();
+          }
+          catch (IOException stopEx)
+          {
+            ex.addSuppressed(stopEx);
+          }
+        }
+        throw ex;
+      }
+    }
+    return new AxisGroupFuture(moves);
+  }
+
+  /**
+   * Get the dynamic state of all axes.
+   * <p>
+   * The default implementation reads each axis in turn with
+   * {@link Axis#getState()}.
+   * <p>
+   * @return state of each axis, in axis order
+   * @throws IOException
+   */
+  default AxisState[] getStates()
+  throws IOException
+  {
+    Axis[] axes = getAxes();
+    AxisState[] states = new AxisState[axes.length];
+    for (int i = 0; i < axes.length; i++)
+    {
+      states[i] = axes[i].getState();
+    }
+    return states;
+  }
+
+  /**
+   * Non-blocking {@link #moveAbsolute(double[])}, see {@link AsyncAxis}.
+   * <p>
+   * The default moves each axis with {@link AsyncAxis#moveAbsoluteAsync}
+   * and combines the results with {@link MoveFuture#allOf}. Axes that are
+   * not AsyncAxis are started with {@link Axis#moveAbsolute(double)} and
+   * watched with {@link MoveFuture#poll}, so no thread waits for them. If
+   * an axis fails to start, the axes already started are stopped. Cancelling
+   * the returned future stops every axis.
+   * <p>
+   * @param dests destinations, one per axis, SCALED
+   * @return completion of all moves; AXIS_OK or the first non-OK result
+   */
+  default CompletableFuture<MoveResult> moveAbsoluteAsync(double[] dests)
+  {
+    Axis[] axes = getAxes();
+    if (dests.length != axes.length)
+    {
+      throw new IllegalArgumentException("Expected " + axes.length + " destinations");
+    }
+    for (int i = 0; i < axes.length; i++)
+    {
+      if (dests[i] < axes[i].getLowerLimitSoft())
+      {
+        return MoveFuture.completed(Axis.DEST_BELOW_LLIMIT);
+      }
+      if (dests[i] > axes[i].getUpperLimitSoft())
+      {
+        return MoveFuture.completed(Axis.DEST_ABOVE_ULIMIT);
+      }
+    }
+    List<CompletableFuture<MoveResult>> moves = new ArrayList<>(axes.length);
+    for (int i = 0; i < axes.length; i++)
+    {
+      if (axes[i] instanceof AsyncAxis)
+      {
+        moves.add(((AsyncAxis) axes[i]).moveAbsoluteAsync(dests[i]));
+        continue;
+      }
+      try
+      {
+        moves.add(MoveFuture.poll(axes[i].moveAbsolute(dests[i]), axes[i]));
+      }
+      catch (IOException ex)
+      {
+        for (CompletableFuture<MoveResult> move : moves)
+        {
+          move.cancel(false);
+        }
+        return MoveFuture.failed(ex);
+      }
+    }
+    return MoveFuture.allOf(moves);
+  }
+
   /**
    * Read configuration data for this device.
    * This is a DEEP load .. it iterates through the associated axes.
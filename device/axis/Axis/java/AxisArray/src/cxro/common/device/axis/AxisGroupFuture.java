@@ -0,0 +1,102 @@
+// @license
+package cxro.common.device.axis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Combined result of several per-axis moves.
+ * <p>
+ * The group is done when every member move is done. The result is AXIS_OK
+ * if every move returned AXIS_OK, otherwise the first non-OK code in axis
+ * order.
+ * <p>
+ * @author Carl Cork
+ */
+public final class AxisGroupFuture
+implements Future<Integer>
+{
+  private final List<Future<Integer>> moves;
+
+  /**
+   * @param moves member moves, in axis order.
+   */
+  public AxisGroupFuture(List<? extends Future<Integer>> moves)
+  {
+    this.moves = new ArrayList<>(moves);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning)
+  {
+    boolean cancelled = false;
+    for (Future<Integer> move : moves)
+    {
+      cancelled |= move.cancel(mayInterruptIfRunning);
+    }
+    return cancelled;
+  }
+
+  @Override
+  public boolean isCancelled()
+  {
+    for (Future<Integer> move : moves)
+    {
+      if (move.isCancelled())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isDone()
+  {
+    for (Future<Integer> move : moves)
+    {
+      if (!move.isDone())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Integer get()
+  throws InterruptedException, ExecutionException
+  {
+    int result = Axis.AXIS_OK;
+    for (Future<Integer> move : moves)
+    {
+      int r = move.get();
+      if (result == Axis.AXIS_OK)
+      {
+        result = r;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Integer get(long timeout, TimeUnit unit)
+  throws InterruptedException, ExecutionException, TimeoutException
+  {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int result = Axis.AXIS_OK;
+    for (Future<Integer> move : moves)
+    {
+      int r = move.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      if (result == Axis.AXIS_OK)
+      {
+        result = r;
+      }
+    }
+    return result;
+  }
+}
@@ -4,13 +4,19 @@
  */
 package cxro.common.device.axis;
 
-import Ice.InitializationData;
+import Ice.ObjectAdapter;
 import Ice.ObjectPrx;
-import Ice.Properties;
-import Ice.Util;
+import cxro.common.device.IOError;
 import java.io.IOException;
 
 /**
+ * Client side of a remote {@link AxisArray}.
+ * <p>
+ * Uses the communicator shared through {@link AxisProxyFactory}, so several
+ * arrays and axes on the same server share one connection.
+ * <p>
+ * Scans run on the server, next to the hardware; see
+ * {@link #startScan(ScanPoint[], _ScanMonitorDisp)}.
  *
  * @author cwcork
  */
@@ -22,25 +28,24 @@ public class AxisArrayProxy
     private ObjectPrx base;
     private AxisArrayIcePrx axisArrayPrx;
     private AxisProxy[] axes;
+    private AxisProxyFactory factory;
+    private ObjectAdapter monitorAdapter;
+    private ScanMonitorPrx scanMonitor = null;
 
     public AxisArrayProxy(String name)
       throws IOException
     {
         this.name = name;
-        
+        this.factory = AxisProxyFactory.acquire();
+
         try
         {
-            String[] args =
-            {
-                "--Ice.Config=" + System.getProperty("user.dir") + "/config.proxy"
-            };
-            System.out.println(args[0]);
-            Properties properties = Ice.Util.createProperties(args);
-            InitializationData id = new Ice.InitializationData();
-            id.properties = properties;
-            ic = Util.initialize(id);
-            base = ic.stringToProxy(name);
-            axisArrayPrx = AxisArrayIcePrxHelper.checkedCast(base);
+            ic = factory.getCommunicator();
+            base = factory.getProxy(name, AxisArrayIcePrxHelper.ice_staticId());
+            axisArrayPrx = AxisArrayIcePrxHelper.uncheckedCast(base);
+
+            // Configuration monitors of all axes share one callback adapter
+            monitorAdapter = factory.getMonitorAdapter();
 
             // Get axes
             AxisIcePrx[] axesPrx = axisArrayPrx.getAxes();
@@ -48,14 +53,19 @@ public class AxisArrayProxy
             for (int i = 0; i < axesPrx.length; i++)
             {
                 String axisName = ic.proxyToString(axesPrx[i]);
-                axes[i] = new AxisProxy(axisName, ic, axesPrx[i]);
+                axes[i] = new AxisProxy(axisName, ic, axesPrx[i], monitorAdapter);
             }
         }
         catch (Ice.LocalException e)
         {
-            System.out.println("ICE LocalException");
+            factory.release();
             throw new IOException(e);
         }
+        catch (IOException e)
+        {
+            factory.release();
+            throw e;
+        }
     }
 
     /**
@@ -76,23 +86,19 @@ public class AxisArrayProxy
     }
     
     /**
-     * Make sure that communicator is destroyed
-     * @throws Throwable
+     * Release the axes and the shared communicator.
      */
     public void destroy()
     {
-        if (ic != null)
+        if (factory != null)
         {
-            // Clean up
-            //
-            try
-            {
-                ic.destroy();
-            }
-            catch (Exception e)
+            removeScanMonitor();
+            for (AxisProxy axis : axes)
             {
-                System.err.println(e.getMessage());
+                axis.destroy();
             }
+            factory.release();
+            factory = null;
         }
     }
 
@@ -121,6 +127,94 @@ public class AxisArrayProxy
         return axes[index];
     }
 
+    /**
+     * Get the state of all axes in one round trip.
+     */
+    @Override
+    public AxisState[] getStates()
+      throws IOException
+    {
+        try
+        {
+            AxisStateData[] data = axisArrayPrx.getStates();
+            AxisState[] states = new AxisState[data.length];
+            for (int i = 0; i < data.length; i++)
+            {
+                states[i] = AxisProxy.toAxisState(data[i]);
+            }
+            return states;
+        }
+        catch (IOError ex)
+        {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Run a scan on the server. For each point all axes move together, wait
+     * the dwell time, and call the listener's trigger if asked to; completion
+     * records are sent to the listener as points are done. Listener methods
+     * are called on Ice threads.
+     *
+     * @param points   scan points, one position per axis
+     * @param listener receives trigger calls and completion records, may be
+     *                 null
+     * @return AXIS_OK if started, AXIS_BUSY if a scan is running, or
+     *         DEST_BELOW_LLIMIT / DEST_ABOVE_ULIMIT if a point is outside the
+     *         soft limits
+     * @throws IOException if the server cannot be reached
+     */
+    public synchronized int startScan(ScanPoint[] points, _ScanMonitorDisp listener)
+      throws IOException
+    {
+        ScanMonitorPrx prx = null;
+        try
+        {
+            if (listener != null)
+            {
+                prx = ScanMonitorPrxHelper.uncheckedCast(monitorAdapter.addWithUUID(listener));
+                // Server calls back over this connection
+                axisArrayPrx.ice_getConnection().setAdapter(monitorAdapter);
+            }
+            int result = axisArrayPrx.startScan(points, prx);
+            if (result == Axis.AXIS_OK)
+            {
+                // Keep the previous listener until its scan is over
+                removeScanMonitor();
+                scanMonitor = prx;
+                prx = null;
+            }
+            return result;
+        }
+        catch (Ice.LocalException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            if (prx != null)
+            {
+                monitorAdapter.remove(prx.ice_getIdentity());
+            }
+        }
+    }
+
+    /**
+     * Stop the running scan and the current move.
+     */
+    public void abortScan()
+    {
+        axisArrayPrx.abortScan();
+    }
+
+    /**
+     * @return progress of the current or last scan
+     */
+    public ScanStatus getScanStatus()
+    {
+        return axisArrayPrx.getScanStatus();
+    }
+
     @Override
     public void loadConfigs()
     {
@@ -132,4 +226,21 @@ public class AxisArrayProxy
     {
         axisArrayPrx.saveConfigs();
     }
+
+    //----------------------- PRIVATE   METHODS --------------------------------
+    private synchronized void removeScanMonitor()
+    {
+        if (scanMonitor != null)
+        {
+            try
+            {
+                monitorAdapter.remove(scanMonitor.ice_getIdentity());
+            }
+            catch (Ice.LocalException ex)
+            {
+                // Adapter already gone
+            }
+            scanMonitor = null;
+        }
+    }
 }
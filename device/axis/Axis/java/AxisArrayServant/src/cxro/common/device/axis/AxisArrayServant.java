@@ -2,28 +2,51 @@
 package cxro.common.device.axis;
 
 import Ice.ObjectAdapter;
+import cxro.common.device.IOError;
+import java.io.IOException;
 
+/**
+ * Ice servant for a local {@link AxisArray}.
+ * <p>
+ * Besides the axes, the array runs scans uploaded by clients; see
+ * {@link ScanExecutor}.
+ */
 public final class AxisArrayServant
   extends _AxisArrayIceDisp
 {
     private final ObjectAdapter adapter;
     private final AxisArray axisArray;
     private final AxisIcePrx[] axisPrx;
+    private final AxisServant[] servants;
+    private final AxisStatePublisher publisher;
+    private final ScanExecutor scanner;
 
     public
-    AxisArrayServant(Ice.ObjectAdapter adapter, AxisArray axisArray)
+    AxisArrayServant(Ice.ObjectAdapter adapter, final AxisArray axisArray)
     {
         this.adapter = adapter;
         this.axisArray = axisArray;
+        this.publisher = new AxisStatePublisher(axisArray.getName(), new AxisStatePublisher.Source()
+        {
+            @Override
+            public AxisState[] read()
+              throws IOException
+            {
+                return axisArray.getStates();
+            }
+        });
+        this.scanner = new ScanExecutor(axisArray);
 
         // Create AxisServants
         Ice.Identity identity;
         axisPrx = new AxisIcePrx[axisArray.getSize()];
+        servants = new AxisServant[axisPrx.length];
 
         for (int i = 0; i < axisPrx.length; i++)
         {
             identity = adapter.getCommunicator().stringToIdentity("axis" + i);
-            adapter.add(new AxisServant(axisArray.getAxis(i)), identity);
+            servants[i] = new AxisServant(axisArray.getAxis(i));
+            adapter.add(servants[i], identity);
             axisPrx[i] = AxisIcePrxHelper.uncheckedCast(adapter.createProxy(identity));
         }
     }
@@ -53,10 +76,83 @@ public final class AxisArrayServant
         return axisArray.getSize();
     }
 
+    public AxisStateData[]
+    getStates(Ice.Current __current)
+      throws IOError
+    {
+        try
+        {
+            AxisState[] states = axisArray.getStates();
+            AxisStateData[] data = new AxisStateData[states.length];
+            for (int i = 0; i < states.length; i++)
+            {
+                data[i] = AxisServant.toData(states[i]);
+            }
+            return data;
+        }
+        catch (IOException ex)
+        {
+            throw new IOError("IOException", ex);
+        }
+    }
+
+    /**
+     * Push the state of all axes to the monitor, one update per poll.
+     */
+    public void
+    subscribe(AxisMonitorPrx monitor, int period, Ice.Current __current)
+    {
+        if (monitor != null)
+        {
+            publisher.subscribe(AxisServant.route(monitor, __current), period);
+        }
+    }
+
+    public void
+    unsubscribe(AxisMonitorPrx monitor, Ice.Current __current)
+    {
+        if (monitor != null)
+        {
+            publisher.unsubscribe(monitor);
+        }
+    }
+
+    /**
+     * Start a scan; the monitor, if not null, receives trigger calls and
+     * completion records.
+     */
+    public int
+    startScan(ScanPoint[] points, ScanMonitorPrx monitor, Ice.Current __current)
+    {
+        if ((monitor != null) && (monitor.ice_getEndpoints().length == 0) && (__current.con != null))
+        {
+            // Call back over the client's connection
+            monitor = ScanMonitorPrxHelper.uncheckedCast(__current.con.createProxy(monitor.ice_getIdentity()));
+        }
+        return scanner.start(points, monitor);
+    }
+
+    public void
+    abortScan(Ice.Current __current)
+    {
+        scanner.abort();
+    }
+
+    public ScanStatus
+    getScanStatus(Ice.Current __current)
+    {
+        return scanner.getStatus();
+    }
+
     public void
     loadConfigs(Ice.Current __current)
     {
         axisArray.loadConfigs();
+        for (AxisServant servant : servants)
+        {
+            servant.configChanged();
+        }
+        publisher.configChanged();
     }
 
     public void
@@ -0,0 +1,395 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a scan on an axis array, next to the hardware.
+ * <p>
+ * A scan is a list of points. For each point, all axes are moved together
+ * with {@link AxisArray#moveAbsolute(double[])}. Once the move completes,
+ * the executor waits the dwell time of the point, and then, if the point
+ * asks for it, calls {@link ScanMonitorPrx#trigger} and waits for it to
+ * return (for instance while a detector acquires). The actual positions are
+ * then read and recorded.
+ * <p>
+ * Completion records are sent to the monitor asynchronously and in order.
+ * While one batch is in transit, later records are collected and sent
+ * together, so a slow client does not hold up the scan. The monitor is told
+ * when the scan has finished, after the last record.
+ * <p>
+ * The scan stops at the first point whose move fails, and when it is
+ * aborted. Result codes are the {@link Axis} move results, or -1 for a
+ * controller I/O error or a failed trigger callback.
+ */
+final class ScanExecutor
+{
+    private static final Logger logger = Logger.getLogger(ScanExecutor.class.getName());
+    /**
+     * Result of a point or scan that failed with an I/O error.
+     */
+    static final int IO_ERROR = -1;
+
+    private final AxisArray axisArray;
+    // Guarded by this
+    private Thread runner = null;
+    private boolean aborted = false;
+    private int completed = 0;
+    private int total = 0;
+    private int result = Axis.AXIS_OK;
+
+    ScanExecutor(AxisArray axisArray)
+    {
+        this.axisArray = axisArray;
+    }
+
+    /**
+     * Check the scan and start it.
+     *
+     * @param points  scan points
+     * @param monitor receives trigger calls and completion records, may be
+     *                null
+     * @return AXIS_OK if started, AXIS_BUSY if a scan is running, or
+     *         DEST_BELOW_LLIMIT / DEST_ABOVE_ULIMIT if a point is outside the
+     *         soft limits
+     */
+    synchronized int start(final ScanPoint[] points, ScanMonitorPrx monitor)
+    {
+        if (runner != null)
+        {
+            return Axis.AXIS_BUSY;
+        }
+        Axis[] axes = axisArray.getAxes();
+        for (ScanPoint p : points)
+        {
+            if ((p.position == null) || (p.position.length != axes.length))
+            {
+                throw new IllegalArgumentException("Expected " + axes.length + " positions per point");
+            }
+            if (p.dwellMs < 0)
+            {
+                throw new IllegalArgumentException("Negative dwell time");
+            }
+            for (int i = 0; i < axes.length; i++)
+            {
+                if (p.position[i] < axes[i].getLowerLimitSoft())
+                {
+                    return Axis.DEST_BELOW_LLIMIT;
+                }
+                if (p.position[i] > axes[i].getUpperLimitSoft())
+                {
+                    return Axis.DEST_ABOVE_ULIMIT;
+                }
+            }
+        }
+
+        aborted = false;
+        completed = 0;
+        total = points.length;
+        result = Axis.AXIS_OK;
+        final Outbox outbox = (monitor == null) ? null : new Outbox(monitor);
+        runner = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                execute(points, outbox);
+            }
+        }, "ScanExecutor-" + axisArray.getName());
+        runner.setDaemon(true);
+        runner.start();
+        return Axis.AXIS_OK;
+    }
+
+    /**
+     * Stop the running scan and the current move.
+     */
+    void abort()
+    {
+        synchronized (this)
+        {
+            if (runner == null)
+            {
+                return;
+            }
+            aborted = true;
+            notifyAll();
+        }
+        for (Axis axis : axisArray.getAxes())
+        {
+            try
+            {
+                axis.stopMove();
+            }
+            catch (IOException ex)
+            {
+                logger.log(Level.WARNING, axis.getName() + ": stop failed", ex);
+            }
+        }
+    }
+
+    synchronized ScanStatus getStatus()
+    {
+        return new ScanStatus(runner != null, completed, total, result);
+    }
+
+    //----------------------- PRIVATE   METHODS --------------------------------
+    private void execute(ScanPoint[] points, Outbox outbox)
+    {
+        int status = Axis.AXIS_OK;
+        try
+        {
+            for (int i = 0; (i < points.length) && (status == Axis.AXIS_OK); i++)
+            {
+                status = executePoint(i, points[i], outbox);
+                synchronized (this)
+                {
+                    completed = i + 1;
+                }
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            logger.log(Level.WARNING, axisArray.getName() + ": scan failed", ex);
+            status = IO_ERROR;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                result = status;
+                runner = null;
+            }
+            if (outbox != null)
+            {
+                outbox.finish(status);
+            }
+        }
+    }
+
+    private int executePoint(int index, ScanPoint point, Outbox outbox)
+    {
+        int status;
+        synchronized (this)
+        {
+            if (aborted)
+            {
+                return Axis.STOPPED;
+            }
+        }
+        try
+        {
+            status = axisArray.moveAbsolute(point.position).get();
+        }
+        catch (IOException | ExecutionException ex)
+        {
+            logger.log(Level.WARNING, axisArray.getName() + ": move to point " + index + " failed", ex);
+            status = IO_ERROR;
+        }
+        catch (InterruptedException ex)
+        {
+            status = Axis.STOPPED;
+        }
+
+        if (status == Axis.AXIS_OK)
+        {
+            status = dwell(point.dwellMs);
+        }
+        if ((status == Axis.AXIS_OK) && point.trigger && (outbox != null))
+        {
+            try
+            {
+                outbox.monitor.trigger(index);
+            }
+            catch (Ice.LocalException ex)
+            {
+                logger.log(Level.WARNING, axisArray.getName() + ": trigger at point " + index + " failed", ex);
+                status = IO_ERROR;
+            }
+        }
+
+        if (outbox != null)
+        {
+            outbox.add(new ScanRecord(index, status, System.currentTimeMillis(), readPositions()));
+        }
+        return status;
+    }
+
+    /**
+     * @return AXIS_OK, or STOPPED if aborted while waiting
+     */
+    private synchronized int dwell(int dwellMs)
+    {
+        long end = System.nanoTime() + dwellMs * 1000000L;
+        long wait;
+        while (!aborted && ((wait = end - System.nanoTime()) > 0))
+        {
+            try
+            {
+                long ms = wait / 1000000L;
+                wait(ms, (int) (wait - ms * 1000000L));
+            }
+            catch (InterruptedException ex)
+            {
+                return Axis.STOPPED;
+            }
+        }
+        return aborted ? Axis.STOPPED : Axis.AXIS_OK;
+    }
+
+    /**
+     * @return SCALED positions, NaN if they cannot be read
+     */
+    private double[] readPositions()
+    {
+        double[] positions = new double[axisArray.getSize()];
+        try
+        {
+            AxisState[] states = axisArray.getStates();
+            for (int i = 0; i < positions.length; i++)
+            {
+                positions[i] = states[i].getPosition();
+            }
+        }
+        catch (IOException ex)
+        {
+            logger.log(Level.FINE, axisArray.getName() + ": position read failed", ex);
+            Arrays.fill(positions, Double.NaN);
+        }
+        return positions;
+    }
+
+    //----------------------- PRIVATE   CLASSES --------------------------------
+    /**
+     * Sends records to the monitor, one call at a time, in order.
+     */
+    private final class Outbox
+    {
+        final ScanMonitorPrx monitor;
+        // Guarded by this
+        private final List<ScanRecord> unsent = new ArrayList<>();
+        private boolean sending = false;
+        private boolean finished = false;
+        private int finalResult;
+        private boolean failed = false;
+
+        Outbox(ScanMonitorPrx monitor)
+        {
+            this.monitor = monitor;
+        }
+
+        void add(ScanRecord record)
+        {
+            synchronized (this)
+            {
+                if (failed)
+                {
+                    return;
+                }
+                unsent.add(record);
+                if (sending)
+                {
+                    return;
+                }
+                sending = true;
+            }
+            sendNext();
+        }
+
+        void finish(int result)
+        {
+            synchronized (this)
+            {
+                finished = true;
+                finalResult = result;
+                if (sending || failed)
+                {
+                    return;
+                }
+                sending = true;
+            }
+            sendNext();
+        }
+
+        private void sendNext()
+        {
+            ScanRecord[] records;
+            boolean last;
+            final int status;
+            synchronized (this)
+            {
+                if (unsent.isEmpty() && !finished)
+                {
+                    sending = false;
+                    return;
+                }
+                records = unsent.toArray(new ScanRecord[unsent.size()]);
+                unsent.clear();
+                last = records.length == 0;
+                status = finalResult;
+            }
+            try
+            {
+                if (last)
+                {
+                    monitor.begin_scanFinished(status, new Ice.Callback()
+                    {
+                        @Override
+                        public void completed(Ice.AsyncResult r)
+                        {
+                            try
+                            {
+                                monitor.end_scanFinished(r);
+                            }
+                            catch (Ice.LocalException ex)
+                            {
+                                logger.log(Level.FINE, axisArray.getName() + ": scan monitor failed", ex);
+                            }
+                        }
+                    });
+                }
+                else
+                {
+                    monitor.begin_pointsCompleted(records, new Ice.Callback()
+                    {
+                        @Override
+                        public void completed(Ice.AsyncResult r)
+                        {
+                            try
+                            {
+                                monitor.end_pointsCompleted(r);
+                            }
+                            catch (Ice.LocalException ex)
+                            {
+                                fail(ex);
+                                return;
+                            }
+                            sendNext();
+                        }
+                    });
+                }
+            }
+            catch (Ice.LocalException ex)
+            {
+                fail(ex);
+            }
+        }
+
+        private void fail(Ice.LocalException ex)
+        {
+            logger.log(Level.INFO, axisArray.getName() + ": scan monitor dropped", ex);
+            synchronized (this)
+            {
+                failed = true;
+                sending = false;
+                unsent.clear();
+            }
+        }
+    }
+}
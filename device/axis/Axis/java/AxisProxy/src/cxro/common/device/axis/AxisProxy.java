@@ -6,80 +6,128 @@ package cxro.common.device.axis;
 
 import Ice.AsyncResult;
 import Ice.Communicator;
-import Ice.InitializationData;
-import Ice.ObjectPrx;
-import Ice.Properties;
-import Ice.Util;
+import Ice.Connection;
+import Ice.ObjectAdapter;
 import cxro.common.device.IOError;
 import cxro.ice.ProxyFuture;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Client side of a remote {@link Axis}.
+ * <p>
+ * The static configuration (units, scale, offset, limits, aux encoder) is
+ * read with one getConfig call and cached. The proxy subscribes an
+ * AxisMonitor over its connection to the server, and the server announces
+ * every configuration change, so the cache is dropped whenever a setter is
+ * called by any client. If the monitor cannot be registered, or the
+ * connection to the server changes, the configuration is read remotely
+ * again.
+ * <p>
+ * Proxies created by name share the communicator of
+ * {@link AxisProxyFactory}.
+ * <p>
+ * The {@link AsyncAxis} operations complete their futures from the Ice
+ * reply, so no client thread waits for a remote move.
  *
  * @author cwcork
  */
 public class AxisProxy
-  implements Axis
+  implements AsyncAxis
 {
+    private static final Logger logger = Logger.getLogger(AxisProxy.class.getName());
+    //
     private String name;
     private Communicator ic = null;
     private AxisIcePrx axis;
+    private AxisProxyFactory factory = null;
+    // Configuration cache, see config()
+    private final Object configLock = new Object();
+    private ObjectAdapter monitorAdapter = null;
+    private AxisMonitorPrx monitor = null;
+    private Connection watched = null;
+    private AxisConfigData config = null;
+    private long configEpoch = 0;   // bumped on every invalidation
 
     public AxisProxy(String name)
       throws IOException
     {
         this.name = name;
 
-        // Get ice proxy
+        // Get ice proxy from the shared communicator
+        AxisProxyFactory f = AxisProxyFactory.acquire();
         try
         {
-            String[] args =
-            {
-                "--Ice.Config=" + System.getProperty("user.dir") +"/config.proxy"
-            };
-            System.out.println(args[0]);
-            Properties properties = Ice.Util.createProperties(args);
-            InitializationData id = new Ice.InitializationData();
-            id.properties = properties;
-            ic = Util.initialize(id);
-            ObjectPrx base = ic.stringToProxy(name);
-            axis = AxisIcePrxHelper.checkedCast(base);
+            axis = AxisIcePrxHelper.uncheckedCast(f.getProxy(name, AxisIcePrxHelper.ice_staticId()));
+            ic = f.getCommunicator();
+            monitorAdapter = f.getMonitorAdapter();
+            factory = f;
         }
-        catch (Ice.LocalException e)
+        catch (IOException | Ice.LocalException ex)
         {
-            System.out.println("ICE LocalException");
-            throw new IOException(e);
+            f.release();
+            throw ex;
         }
     }
 
     public AxisProxy(String name, Communicator ic, AxisIcePrx axis)
       throws IOException
+    {
+        this(name, ic, axis, null);
+    }
+
+    /**
+     * @param monitorAdapter adapter for the configuration monitor, shared by
+     *                       all proxies on the communicator; null to disable
+     *                       configuration caching
+     */
+    public AxisProxy(String name, Communicator ic, AxisIcePrx axis, ObjectAdapter monitorAdapter)
+      throws IOException
     {
         this.name = name;
         this.ic = ic;
         this.axis = axis;
+        this.monitorAdapter = monitorAdapter;
     }
 
     /**
-     * Make sure that communicator is destroyed
+     * Release the configuration monitor and, for a proxy created by name, the
+     * shared communicator. A communicator passed to the constructor belongs
+     * to the caller and is not destroyed.
      */
     @Override
     public void destroy()
     {
-        if (ic != null)
+        synchronized (configLock)
         {
-            // Clean up
-            //
-            try
-            {
-                ic.destroy();
-            }
-            catch (Exception e)
+            if (monitor != null)
             {
-                System.err.println(e.getMessage());
+                try
+                {
+                    if (watched != null)
+                    {
+                        axis.unsubscribe(monitor);
+                    }
+                    monitorAdapter.remove(monitor.ice_getIdentity());
+                }
+                catch (Ice.LocalException ex)
+                {
+                    logger.log(Level.FINE, name + ": unsubscribe failed", ex);
+                }
+                monitor = null;
+                watched = null;
             }
+            monitorAdapter = null;
+            config = null;
+        }
+        if (factory != null)
+        {
+            factory.release();
+            factory = null;
         }
     }
 
@@ -137,19 +185,19 @@ public class AxisProxy
     @Override
     public String getAxisUnits()
     {
-        return axis.getAxisUnits();
+        return config().axisUnits;
     }
 
     @Override
     public double getLowerLimitHard()
     {
-        return axis.getLowerLimitHard();
+        return config().lowerLimitHard;
     }
 
     @Override
     public double getLowerLimitSoft()
     {
-        return axis.getLowerLimitSoft();
+        return config().lowerLimitSoft;
     }
 
     @Override
@@ -161,7 +209,7 @@ public class AxisProxy
     @Override
     public double getOffset()
     {
-        return axis.getOffset();
+        return config().offset;
     }
 
     @Override
@@ -195,7 +243,7 @@ public class AxisProxy
     @Override
     public double getScale()
     {
-        return axis.getScale();
+        return config().scale;
     }
 
     @Override
@@ -212,6 +260,20 @@ public class AxisProxy
         }
     }
 
+    @Override
+    public AxisState getState()
+      throws IOException
+    {
+        try
+        {
+            return toAxisState(axis.getState());
+        }
+        catch (IOError ex)
+        {
+            throw new IOException(ex);
+        }
+    }
+
     @Override
     public boolean[] getSwitches()
       throws IOException
@@ -257,43 +319,45 @@ public class AxisProxy
     @Override
     public double getUpperLimitSoft()
     {
-        return axis.getUpperLimitSoft();
+        return config().upperLimitSoft;
     }
 
     @Override
     public double getUpperLimitHard()
     {
-        return axis.getUpperLimitHard();
+        return config().upperLimitHard;
     }
 
     @Override
     public boolean hasAuxEncoder()
     {
-        return axis.hasAuxEncoder();
+        return config().hasAuxEncoder;
     }
 
     @Override
     public double getAuxEncoderScale()
     {
-        return axis.getAuxEncoderScale();
+        return config().auxEncoderScale;
     }
 
     @Override
     public void setAuxEncoderScale(double auxEncoderScale)
     {
         axis.setAuxEncoderScale(auxEncoderScale);
+        invalidateConfig();
     }
 
     @Override
     public double getAuxEncoderOffset()
     {
-        return axis.getAuxEncoderOffset();
+        return config().auxEncoderOffset;
     }
 
     @Override
     public void setAuxEncoderOffset(double auxEncoderOffset)
     {
         axis.setAuxEncoderOffset(auxEncoderOffset);
+        invalidateConfig();
     }
 
     @Override
@@ -322,6 +386,10 @@ public class AxisProxy
         {
             throw new IOException(ex);
         }
+        finally
+        {
+            invalidateConfig();
+        }
     }
 
     @Override
@@ -399,6 +467,7 @@ public class AxisProxy
     public void loadConfigs()
     {
         axis.loadConfigs();
+        invalidateConfig();
     }
 
     @Override
@@ -461,18 +530,22 @@ public class AxisProxy
     public void setAxisUnits(String axisUnits)
     {
         axis.setAxisUnits(axisUnits);
+        invalidateConfig();
     }
 
     @Override
     public int setLowerLimitSoft(double lowerLimit)
     {
-        return axis.setLowerLimitSoft(lowerLimit);
+        int result = axis.setLowerLimitSoft(lowerLimit);
+        invalidateConfig();
+        return result;
     }
 
     @Override
     public void setOffset(double offset)
     {
         axis.setOffset(offset);
+        invalidateConfig();
     }
 
     @Override
@@ -487,12 +560,17 @@ public class AxisProxy
         {
             throw new IOException(ex);
         }
+        finally
+        {
+            invalidateConfig();
+        }
     }
 
     @Override
     public void setScale(double inScale)
     {
         axis.setScale(inScale);
+        invalidateConfig();
     }
 
     @Override
@@ -537,10 +615,23 @@ public class AxisProxy
         }
     }
 
+    /**
+     * Open a stream for high-rate targets, see {@link AxisTargetStream}.
+     *
+     * @param flushIntervalMs shortest interval between flushes, ms
+     * @return new target stream
+     */
+    public AxisTargetStream openTargetStream(int flushIntervalMs)
+    {
+        return new AxisTargetStream(axis, flushIntervalMs);
+    }
+
     @Override
     public int setUpperLimitSoft(double upperLimit)
     {
-        return axis.setUpperLimitSoft(upperLimit);
+        int result = axis.setUpperLimitSoft(upperLimit);
+        invalidateConfig();
+        return result;
     }
 
     @Override
@@ -558,7 +649,300 @@ public class AxisProxy
         axis.unlock();
     }
 
+    // -------------------------  ASYNC AXIS COMMANDS  -------------------------
+    @Override
+    public CompletableFuture<MoveResult> initializeAsync()
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_initialize(ar);
+            }
+        };
+        try
+        {
+            axis.begin_initialize(m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
+    @Override
+    public CompletableFuture<MoveResult> moveAbsoluteAsync(double dest)
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_moveAbsolute(ar);
+            }
+        };
+        try
+        {
+            axis.begin_moveAbsolute(dest, m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
+    @Override
+    public CompletableFuture<MoveResult> moveAbsoluteRawAsync(double destRaw)
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_moveAbsoluteRaw(ar);
+            }
+        };
+        try
+        {
+            axis.begin_moveAbsoluteRaw(destRaw, m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
+    @Override
+    public CompletableFuture<MoveResult> moveRelativeAsync(double dist)
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_moveRelative(ar);
+            }
+        };
+        try
+        {
+            axis.begin_moveRelative(dist, m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
+    @Override
+    public CompletableFuture<MoveResult> moveRelativeRawAsync(double distRaw)
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_moveRelativeRaw(ar);
+            }
+        };
+        try
+        {
+            axis.begin_moveRelativeRaw(distRaw, m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
+    @Override
+    public CompletableFuture<MoveResult> stopMoveAsync()
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_stopMove(ar);
+            }
+        };
+        try
+        {
+            axis.begin_stopMove(m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
+    @Override
+    public CompletableFuture<MoveResult> abortMoveAsync()
+    {
+        AsyncCall m = new AsyncCall()
+        {
+            @Override
+            int end(AsyncResult ar)
+              throws Ice.UserException
+            {
+                return axis.end_abortMove(ar);
+            }
+        };
+        try
+        {
+            axis.begin_abortMove(m);
+        }
+        catch (Ice.LocalException ex)
+        {
+            m.future.completeExceptionally(new IOException(ex));
+        }
+        return m.future;
+    }
+
 //---------------------------- Private -----------------------------------------
+    /**
+     * Get the static configuration, from the cache if it is still valid.
+     */
+    private AxisConfigData config()
+    {
+        synchronized (configLock)
+        {
+            if ((config != null) && (watched != null) && (axis.ice_getCachedConnection() == watched))
+            {
+                return config;
+            }
+        }
+        boolean watching = watch();
+        long epoch;
+        synchronized (configLock)
+        {
+            epoch = configEpoch;
+        }
+        AxisConfigData c = axis.getConfig();
+        synchronized (configLock)
+        {
+            // Keep it only if no change was announced while reading
+            if (watching && (epoch == configEpoch))
+            {
+                config = c;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Make sure the configuration monitor is registered on the current
+     * connection to the server.
+     *
+     * @return true if configuration changes will be announced
+     */
+    private boolean watch()
+    {
+        synchronized (configLock)
+        {
+            if (monitorAdapter == null)
+            {
+                return false;
+            }
+            try
+            {
+                Connection con = axis.ice_getConnection();
+                if (con != watched)
+                {
+                    if (monitor == null)
+                    {
+                        monitor = AxisMonitorPrxHelper.uncheckedCast(
+                          monitorAdapter.addWithUUID(new ConfigMonitor()));
+                    }
+                    // Server calls back over this connection
+                    con.setAdapter(monitorAdapter);
+                    axis.subscribe(monitor, 0);
+                    watched = con;
+                    config = null;
+                    configEpoch++;
+                }
+                return true;
+            }
+            catch (Ice.LocalException ex)
+            {
+                logger.log(Level.WARNING, name + ": configuration will not be cached", ex);
+                monitorAdapter = null;
+                watched = null;
+                return false;
+            }
+        }
+    }
+
+    private void invalidateConfig()
+    {
+        synchronized (configLock)
+        {
+            config = null;
+            configEpoch++;
+        }
+    }
+
+    static AxisState toAxisState(AxisStateData d)
+    {
+        return new AxisState(d.enabled, d.initialized, d.ready, d.position, d.target, d.switches);
+    }
+
+    /**
+     * Receives configuration change notices from the server.
+     */
+    private class ConfigMonitor
+      extends _AxisMonitorDisp
+    {
+        @Override
+        public void stateChanged(AxisUpdate update, Ice.Current __current)
+        {
+        }
+
+        @Override
+        public void configChanged(Ice.Current __current)
+        {
+            invalidateConfig();
+        }
+    }
+
+    /**
+     * Completes a MoveFuture from an asynchronous Ice call; cancelling the
+     * future stops the axis.
+     */
+    private abstract class AsyncCall
+      extends Ice.Callback
+    {
+        final MoveFuture future = new MoveFuture(AxisProxy.this);
+
+        abstract int end(AsyncResult ar)
+          throws Ice.UserException;
+
+        @Override
+        public void completed(AsyncResult ar)
+        {
+            try
+            {
+                future.complete(MoveResult.valueOf(end(ar)));
+            }
+            catch (Ice.UserException | Ice.LocalException ex)
+            {
+                future.completeExceptionally(new IOException(ex));
+            }
+        }
+    }
+
     private class AbortMoveFuture
       extends ProxyFuture<Integer>
     {
@@ -0,0 +1,197 @@
+// @license
+package cxro.common.device.axis;
+
+import Ice.Communicator;
+import Ice.InitializationData;
+import Ice.ObjectAdapter;
+import Ice.ObjectPrx;
+import Ice.Util;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide Ice communicator for axis proxies.
+ * <p>
+ * Every AxisProxy and AxisArrayProxy created by name shares one
+ * communicator, and with it the Ice thread pools and one connection per
+ * server endpoint. The communicator is created on first use from
+ * <tt>config.proxy</tt> in the working directory, and destroyed when the
+ * last user calls {@link #release()}.
+ * <p>
+ * Each proxy name is resolved and type checked the first time it is asked
+ * for; later requests for the same name are answered from a cache.
+ * <pre>
+ *   AxisProxyFactory factory = AxisProxyFactory.acquire();
+ *   try
+ *   {
+ *     ObjectPrx x = factory.getProxy("x:tcp -h stage -p 10000", typeId);
+ *     ...
+ *   }
+ *   finally
+ *   {
+ *     factory.release();
+ *   }
+ * </pre>
+ *
+ * @author cwcork
+ */
+public final class AxisProxyFactory
+{
+    private static final Logger logger = Logger.getLogger(AxisProxyFactory.class.getName());
+    private static AxisProxyFactory instance = null;
+    //
+    private final Communicator ic;
+    private final Map<String, ObjectPrx> resolved = new HashMap<>();
+    private ObjectAdapter monitorAdapter = null;
+    private int users = 0;
+
+    private AxisProxyFactory(Communicator ic)
+    {
+        this.ic = ic;
+    }
+
+    /**
+     * Get the shared factory and count one more user. The communicator is
+     * created if this is the first user. Every call must be matched by a call
+     * to {@link #release()}.
+     *
+     * @return shared factory
+     * @throws IOException if the communicator cannot be created
+     */
+    public static AxisProxyFactory acquire()
+      throws IOException
+    {
+        synchronized (AxisProxyFactory.class)
+        {
+            if (instance == null)
+            {
+                String config = System.getProperty("user.dir") + "/config.proxy";
+                logger.log(Level.FINE, "Ice.Config={0}", config);
+                try
+                {
+                    String[] args =
+                    {
+                        "--Ice.Config=" + config
+                    };
+                    InitializationData id = new InitializationData();
+                    id.properties = Util.createProperties(args);
+                    instance = new AxisProxyFactory(Util.initialize(id));
+                }
+                catch (Ice.LocalException ex)
+                {
+                    throw new IOException(ex);
+                }
+            }
+            instance.users++;
+            return instance;
+        }
+    }
+
+    /**
+     * Count one user less. The last user destroys the communicator, which
+     * closes all connections of proxies obtained from this factory.
+     */
+    public void release()
+    {
+        synchronized (AxisProxyFactory.class)
+        {
+            if ((users == 0) || (--users > 0))
+            {
+                return;
+            }
+            if (instance == this)
+            {
+                instance = null;
+            }
+        }
+        try
+        {
+            ic.destroy();
+        }
+        catch (Ice.LocalException ex)
+        {
+            logger.log(Level.WARNING, "Communicator destroy failed", ex);
+        }
+    }
+
+    /**
+     * @return the shared communicator
+     */
+    public Communicator getCommunicator()
+    {
+        return ic;
+    }
+
+    /**
+     * Get a proxy by name, checked to implement the given interface. This is
+     * what checkedCast does, but the answer is cached.
+     * <pre>
+     *   AxisIcePrx axis = AxisIcePrxHelper.uncheckedCast(
+     *     factory.getProxy(name, AxisIcePrxHelper.ice_staticId()));
+     * </pre>
+     *
+     * @param name   stringified proxy, e.g. "x:tcp -h stage -p 10000"
+     * @param typeId Ice type id of the interface
+     * @return proxy, to be narrowed with uncheckedCast
+     * @throws IOException if the server cannot be reached or the object does
+     *                     not implement the interface
+     */
+    public ObjectPrx getProxy(String name, String typeId)
+      throws IOException
+    {
+        String key = typeId + " " + name;
+        ObjectPrx prx;
+        synchronized (this)
+        {
+            prx = resolved.get(key);
+        }
+        if (prx == null)
+        {
+            // Resolve without holding the lock; the first result is kept
+            try
+            {
+                prx = ic.stringToProxy(name);
+                if (!prx.ice_isA(typeId))
+                {
+                    throw new IOException(name + " is not a " + typeId);
+                }
+            }
+            catch (Ice.LocalException ex)
+            {
+                throw new IOException(ex);
+            }
+            synchronized (this)
+            {
+                ObjectPrx old = resolved.get(key);
+                if (old != null)
+                {
+                    return old;
+                }
+                resolved.put(key, prx);
+            }
+        }
+        return prx;
+    }
+
+    /**
+     * Get the adapter for monitor callbacks, created on first use.
+     * <p>
+     * The adapter has no endpoints; servers call back over the connection the
+     * client opened. A connection can carry only one such adapter, so all
+     * proxies on the communicator must share this one.
+     *
+     * @return shared callback adapter
+     */
+    public synchronized ObjectAdapter getMonitorAdapter()
+    {
+        if (monitorAdapter == null)
+        {
+            monitorAdapter = ic.createObjectAdapter("");
+            monitorAdapter.activate();
+        }
+        return monitorAdapter;
+    }
+}
@@ -0,0 +1,181 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * High-rate target stream to a remote axis.
+ * <p>
+ * A twoway setTarget costs one network round trip, which limits a client
+ * (joystick, tracking loop) to a few hundred targets per second. A stream
+ * instead sends targets as batch oneway requests: they are queued in the
+ * client and flushed together, at most once per flush interval, without
+ * waiting for replies. The server applies only the newest target of each
+ * batch; see {@link #getStats()} for how many were applied, dropped or
+ * arrived late. A target queued within the flush interval waits for the
+ * next target or an explicit {@link #flush()}, so call flush after the last
+ * target of a burst.
+ * <p>
+ * Because no reply is awaited, errors (limits, disabled axis) are not
+ * reported per target. Check {@link TargetStreamStats#lastResult} when it
+ * matters.
+ * <pre>
+ *   AxisTargetStream stream = proxy.openTargetStream(20);
+ *   try
+ *   {
+ *     while (tracking)
+ *     {
+ *       stream.setTarget(next());
+ *     }
+ *   }
+ *   finally
+ *   {
+ *     stream.close();
+ *   }
+ * </pre>
+ *
+ * @author cwcork
+ */
+public class AxisTargetStream
+{
+    private static final Logger logger = Logger.getLogger(AxisTargetStream.class.getName());
+    private static final Random ids = new Random();
+    //
+    private final AxisIcePrx axis;
+    private final AxisIcePrx batch;
+    private final int stream;
+    private final long flushNanos;
+    private long sequence = 0;
+    private long lastFlush;
+
+    /**
+     * @param axis            twoway axis proxy
+     * @param flushIntervalMs shortest interval between flushes, ms; 0 flushes
+     *                        every target
+     */
+    AxisTargetStream(AxisIcePrx axis, int flushIntervalMs)
+    {
+        this.axis = axis;
+        this.batch = AxisIcePrxHelper.uncheckedCast(axis.ice_batchOneway());
+        synchronized (ids)
+        {
+            this.stream = ids.nextInt();
+        }
+        this.flushNanos = Math.max(0, flushIntervalMs) * 1000000L;
+        this.lastFlush = System.nanoTime() - flushNanos;
+    }
+
+    /**
+     * Stream a SCALED target.
+     *
+     * @param dest destination
+     * @throws IOException if the request cannot be queued
+     */
+    public synchronized void setTarget(double dest)
+      throws IOException
+    {
+        try
+        {
+            batch.streamTarget(stream, ++sequence, dest);
+        }
+        catch (Ice.LocalException ex)
+        {
+            throw new IOException(ex);
+        }
+        queued();
+    }
+
+    /**
+     * Stream an UNSCALED target.
+     *
+     * @param rawDest destination
+     * @throws IOException if the request cannot be queued
+     */
+    public synchronized void setTargetRaw(double rawDest)
+      throws IOException
+    {
+        try
+        {
+            batch.streamTargetRaw(stream, ++sequence, rawDest);
+        }
+        catch (Ice.LocalException ex)
+        {
+            throw new IOException(ex);
+        }
+        queued();
+    }
+
+    /**
+     * Send all queued targets now.
+     *
+     * @throws IOException if the connection fails
+     */
+    public synchronized void flush()
+      throws IOException
+    {
+        try
+        {
+            batch.ice_flushBatchRequests();
+        }
+        catch (Ice.LocalException ex)
+        {
+            throw new IOException(ex);
+        }
+        lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Send the queued targets and end the stream.
+     *
+     * @throws IOException if the connection fails
+     */
+    public void close()
+      throws IOException
+    {
+        flush();
+    }
+
+    /**
+     * Read the server-side counters. This is a twoway call; the queued targets
+     * are flushed first.
+     *
+     * @return stream statistics of the axis
+     * @throws IOException if the connection fails
+     */
+    public TargetStreamStats getStats()
+      throws IOException
+    {
+        flush();
+        try
+        {
+            return axis.getTargetStreamStats();
+        }
+        catch (Ice.LocalException ex)
+        {
+            throw new IOException(ex);
+        }
+    }
+
+    //----------------------- PRIVATE   METHODS --------------------------------
+    private void queued()
+    {
+        long now = System.nanoTime();
+        if (now - lastFlush < flushNanos)
+        {
+            return;
+        }
+        // Do not block the caller on the network
+        try
+        {
+            batch.begin_ice_flushBatchRequests();
+        }
+        catch (Ice.LocalException ex)
+        {
+            logger.log(Level.FINE, "Target stream flush failed", ex);
+        }
+        lastFlush = now;
+    }
+}
@@ -4,17 +4,54 @@ package cxro.common.device.axis;
 import Ice.Current;
 import cxro.common.device.IOError;
 import java.io.IOException;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Ice servant for a local {@link Axis}.
+ * <p>
+ * Moves, initialize, stop and abort use asynchronous dispatch (slice
+ * metadata ["amd"]): the dispatch thread returns as soon as the operation is
+ * started, and the reply is sent when the operation completes. For an
+ * {@link AsyncAxis} the reply is sent from the completion of its
+ * {@link MoveFuture}; other axes are watched with {@link MoveFuture#poll}.
+ * No thread waits for a move, so long moves occupy neither the server
+ * thread pool nor a thread of their own.
+ * <p>
+ * Clients that follow the axis state subscribe an AxisMonitor instead of
+ * polling; see {@link AxisStatePublisher}. Subscribers are also told when a
+ * configuration setter has been called, so that proxies can cache the
+ * configuration (see getConfig).
+ * <p>
+ * Targets streamed with batch oneway requests (streamTarget) are applied by
+ * a {@link TargetStreamer}, newest first.
+ */
 public final class AxisServant
   extends _AxisIceDisp
 {
     private final cxro.common.device.axis.Axis axis;
+    private final AsyncAxis async;  // null if the axis has only the blocking API
+    private final AxisStatePublisher publisher;
+    private final TargetStreamer streamer;
 
-    public AxisServant(cxro.common.device.axis.Axis axis)
+    public AxisServant(final cxro.common.device.axis.Axis axis)
     {
         this.axis = axis;
+        this.async = (axis instanceof AsyncAxis) ? (AsyncAxis) axis : null;
+        this.publisher = new AxisStatePublisher(axis.getName(), new AxisStatePublisher.Source()
+        {
+            @Override
+            public AxisState[] read()
+              throws IOException
+            {
+                return new AxisState[]
+                {
+                    axis.getState()
+                };
+            }
+        });
+        this.streamer = new TargetStreamer(axis);
     }
 
     @Override
@@ -120,25 +157,25 @@ public final class AxisServant
     }
 
     @Override
-    public int initialize(Current __current)
+    public void initialize_async(final AMD_AxisIce_initialize __cb, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.initialize().get());
-        }
-        catch (ExecutionException ex)
-        {
-            throw new IOError("ExecutionException", ex);
+            whenDone(((async != null) ? async.initializeAsync() : MoveFuture.poll(axis.initialize(), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
-        {
-            throw new IOError("InterruptedException", ex);
-        }
     }
 
     @Override
@@ -151,6 +188,7 @@ public final class AxisServant
     public void setAxisUnits(String units, Current __current)
     {
         axis.setAxisUnits(units);
+        configChanged();
     }
 
     @Override
@@ -163,6 +201,7 @@ public final class AxisServant
     public void setScale(double scale, Current __current)
     {
         axis.setScale(scale);
+        configChanged();
     }
 
     @Override
@@ -175,6 +214,7 @@ public final class AxisServant
     public void setOffset(double offset, Current __current)
     {
         axis.setOffset(offset);
+        configChanged();
     }
 
     @Override
@@ -217,110 +257,98 @@ public final class AxisServant
         {
             throw new IOError("IOException", ex);
         }
+        finally
+        {
+            configChanged();
+        }
     }
 
     @Override
-    public int moveAbsolute(double dest, Ice.Current __current)
+    public void moveAbsolute_async(final AMD_AxisIce_moveAbsolute __cb, double dest, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.moveAbsolute(dest).get());
-        }
-        catch (CancellationException ex)
-        {
-            throw new IOError("CancellationException", ex);
-        }
-        catch (ExecutionException ex)
-        {
-            throw new IOError("ExecutionException", ex);
+            whenDone(((async != null) ? async.moveAbsoluteAsync(dest) : MoveFuture.poll(axis.moveAbsolute(dest), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
-        {
-            throw new IOError("InterruptedException", ex);
-        }
     }
 
     @Override
-    public int moveAbsoluteRaw(double dest, Current __current)
+    public void moveAbsoluteRaw_async(final AMD_AxisIce_moveAbsoluteRaw __cb, double dest, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.moveAbsoluteRaw(dest).get());
-        }
-        catch (CancellationException ex)
-        {
-            throw new IOError("CancellationException", ex);
-        }
-        catch (ExecutionException ex)
-        {
-            throw new IOError("ExecutionException", ex);
+            whenDone(((async != null) ? async.moveAbsoluteRawAsync(dest) : MoveFuture.poll(axis.moveAbsoluteRaw(dest), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
-        {
-            throw new IOError("InterruptedException", ex);
-        }
     }
 
     @Override
-    public int moveRelative(double dist, Ice.Current __current)
+    public void moveRelative_async(final AMD_AxisIce_moveRelative __cb, double dist, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.moveRelative(dist).get());
-        }
-        catch (CancellationException ex)
-        {
-            throw new IOError("CancellationException", ex);
-        }
-        catch (ExecutionException ex)
-        {
-            throw new IOError("ExecutionException", ex);
+            whenDone(((async != null) ? async.moveRelativeAsync(dist) : MoveFuture.poll(axis.moveRelative(dist), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
-        {
-            throw new IOError("InterruptedException", ex);
-        }
     }
 
     @Override
-    public int moveRelativeRaw(double dist, Current __current)
+    public void moveRelativeRaw_async(final AMD_AxisIce_moveRelativeRaw __cb, double dist, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.moveRelativeRaw(dist).get());
-        }
-        catch (CancellationException ex)
-        {
-            throw new IOError("CancellationException", ex);
-        }
-        catch (ExecutionException ex)
-        {
-            throw new IOError("ExecutionException", ex);
+            whenDone(((async != null) ? async.moveRelativeRawAsync(dist) : MoveFuture.poll(axis.moveRelativeRaw(dist), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
-        {
-            throw new IOError("InterruptedException", ex);
-        }
     }
 
     @Override
@@ -380,46 +408,106 @@ public final class AxisServant
     }
 
     @Override
-    public int abortMove(Ice.Current __current)
+    public void streamTarget(int stream, long sequence, double dest, Current __current)
+    {
+        streamer.offer(stream, sequence, dest, false);
+    }
+
+    @Override
+    public void streamTargetRaw(int stream, long sequence, double rawDest, Current __current)
+    {
+        streamer.offer(stream, sequence, rawDest, true);
+    }
+
+    @Override
+    public TargetStreamStats getTargetStreamStats(Current __current)
+    {
+        return streamer.getStats();
+    }
+
+    @Override
+    public void abortMove_async(final AMD_AxisIce_abortMove __cb, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.abortMove().get());
-        }
-        catch (ExecutionException ex)
-        {
-            throw new IOError("ExecutionException", ex);
+            whenDone(((async != null) ? async.abortMoveAsync() : MoveFuture.poll(axis.abortMove(), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
-        {
-            throw new IOError("InterruptedException", ex);
-        }
     }
 
     @Override
-    public int stopMove(Current __current)
+    public void stopMove_async(final AMD_AxisIce_stopMove __cb, Current __current)
       throws IOError
     {
         try
         {
-            return (axis.stopMove().get());
+            whenDone(((async != null) ? async.stopMoveAsync() : MoveFuture.poll(axis.stopMove(), axis)),
+                     __cb, new Response()
+            {
+                @Override
+                public void send(int result)
+                {
+                    __cb.ice_response(result);
+                }
+            });
+        }
+        catch (IOException ex)
+        {
+            throw new IOError("IOException", ex);
         }
-        catch (ExecutionException ex)
+    }
+
+    @Override
+    public AxisStateData getState(Current __current)
+      throws IOError
+    {
+        try
         {
-            throw new IOError("ExecutionException", ex);
+            return toData(axis.getState());
         }
         catch (IOException ex)
         {
             throw new IOError("IOException", ex);
         }
-        catch (InterruptedException ex)
+    }
+
+    @Override
+    public AxisConfigData getConfig(Current __current)
+    {
+        return new AxisConfigData(axis.getAxisUnits(), axis.getScale(), axis.getOffset(),
+                                  axis.getLowerLimitHard(), axis.getLowerLimitSoft(),
+                                  axis.getUpperLimitSoft(), axis.getUpperLimitHard(),
+                                  axis.hasAuxEncoder(), axis.getAuxEncoderScale(),
+                                  axis.getAuxEncoderOffset());
+    }
+
+    @Override
+    public void subscribe(AxisMonitorPrx monitor, int period, Current __current)
+    {
+        if (monitor != null)
+        {
+            publisher.subscribe(route(monitor, __current), period);
+        }
+    }
+
+    @Override
+    public void unsubscribe(AxisMonitorPrx monitor, Current __current)
+    {
+        if (monitor != null)
         {
-            throw new IOError("InterruptedException", ex);
+            publisher.unsubscribe(monitor);
         }
     }
 
@@ -508,7 +596,9 @@ public final class AxisServant
     @Override
     public int setLowerLimitSoft(double limit, Current __current)
     {
-        return axis.setLowerLimitSoft(limit);
+        int result = axis.setLowerLimitSoft(limit);
+        configChanged();
+        return result;
     }
 
     @Override
@@ -520,7 +610,9 @@ public final class AxisServant
     @Override
     public int setUpperLimitSoft(double limit, Current __current)
     {
-        return axis.setUpperLimitSoft(limit);
+        int result = axis.setUpperLimitSoft(limit);
+        configChanged();
+        return result;
     }
 
     @Override
@@ -545,6 +637,7 @@ public final class AxisServant
     public void setAuxEncoderScale(double scale, Current __current)
     {
         axis.setAuxEncoderScale(scale);
+        configChanged();
     }
 
     @Override
@@ -557,6 +650,7 @@ public final class AxisServant
     public void setAuxEncoderOffset(double offset, Current __current)
     {
         axis.setAuxEncoderOffset(offset);
+        configChanged();
     }
 
     @Override
@@ -585,12 +679,17 @@ public final class AxisServant
         {
             throw new IOError("IOException", ex);
         }
+        finally
+        {
+            configChanged();
+        }
     }
 
     @Override
     public void loadConfigs(Current __current)
     {
         axis.loadConfigs();
+        configChanged();
     }
 
     @Override
@@ -598,4 +697,69 @@ public final class AxisServant
     {
         axis.saveConfigs();
     }
+
+    //----------------------- PACKAGE   METHODS ---------------------------------
+    /**
+     * Notify subscribers that the axis configuration may have changed.
+     */
+    void configChanged()
+    {
+        publisher.configChanged();
+    }
+
+    static AxisStateData toData(AxisState s)
+    {
+        return new AxisStateData(s.isEnabled(), s.isInitialized(), s.isReady(),
+                                 s.getPosition(), s.getTarget(), s.getSwitches());
+    }
+
+    /**
+     * A monitor proxy without endpoints belongs to a client that has no
+     * listening adapter; call it back over the client's own connection
+     * (bidirectional connection).
+     */
+    static AxisMonitorPrx route(AxisMonitorPrx monitor, Current current)
+    {
+        if ((monitor.ice_getEndpoints().length == 0) && (current.con != null))
+        {
+            return AxisMonitorPrxHelper.uncheckedCast(current.con.createProxy(monitor.ice_getIdentity()));
+        }
+        return monitor;
+    }
+
+    //----------------------- PRIVATE   METHODS ---------------------------------
+    /**
+     * Send the result of a local operation to an AMD callback once it is done.
+     * The reply is sent from the thread that completes the future, so no
+     * thread is held while the operation runs.
+     */
+    private static void whenDone(final CompletableFuture<MoveResult> f, final Ice.AMDCallback cb,
+                                 final Response r)
+    {
+        f.whenComplete(new BiConsumer<MoveResult, Throwable>()
+        {
+            @Override
+            public void accept(MoveResult result, Throwable ex)
+            {
+                if (ex == null)
+                {
+                    r.send(result.getCode());
+                    return;
+                }
+                if ((ex instanceof CompletionException) && (ex.getCause() != null))
+                {
+                    ex = ex.getCause();
+                }
+                cb.ice_exception(new IOError(ex.getClass().getSimpleName(), ex));
+            }
+        });
+    }
+
+    /**
+     * Typed <tt>ice_response</tt> of an AMD callback.
+     */
+    private interface Response
+    {
+        void send(int result);
+    }
 }
@@ -0,0 +1,373 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes axis state to {@link AxisMonitorPrx AxisMonitor} subscribers.
+ * <p>
+ * One thread reads the axes at the fastest period any subscriber asked for,
+ * and every subscriber is served from that one reading. Controller traffic
+ * therefore does not grow with the number of subscribers. A subscriber is
+ * sent an update only when the state changed or a move completed since its
+ * last update, and no more often than its own period.
+ * <p>
+ * Updates are sent asynchronously. While an update to a subscriber is still
+ * in transit, newer readings are not queued behind it; the subscriber gets
+ * the latest reading once the link has drained. Subscribers whose
+ * connection fails are dropped.
+ * <p>
+ * A subscriber with a period of zero or less receives configuration change
+ * notices only. The polling thread runs only while there are subscribers
+ * for state updates.
+ */
+final class AxisStatePublisher
+{
+    private static final Logger logger = Logger.getLogger(AxisStatePublisher.class.getName());
+    /**
+     * Shortest polling period, ms.
+     */
+    static final int MIN_PERIOD = 10;
+
+    /**
+     * Reads the current state of all published axes in one pass.
+     */
+    interface Source
+    {
+        AxisState[] read()
+          throws IOException;
+    }
+
+    private final String name;
+    private final Source source;
+    private final Map<Ice.Identity, Subscriber> subscribers = new HashMap<>();
+    private Thread poller = null;
+    private int period = MIN_PERIOD;
+
+    AxisStatePublisher(String name, Source source)
+    {
+        this.name = name;
+        this.source = source;
+    }
+
+    /**
+     * Add a subscriber, or change its period if already subscribed.
+     *
+     * @param monitor callback proxy
+     * @param periodMs shortest interval between updates, ms
+     */
+    synchronized void subscribe(AxisMonitorPrx monitor, int periodMs)
+    {
+        Ice.Identity id = monitor.ice_getIdentity();
+        Subscriber s = subscribers.get(id);
+        if (s == null)
+        {
+            subscribers.put(id, new Subscriber(id, monitor, periodMs));
+        }
+        else
+        {
+            s.periodNanos = toNanos(periodMs);
+        }
+        updatePeriod();
+        if ((poller == null) && hasStateSubscribers())
+        {
+            poller = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    poll();
+                }
+            }, "AxisStatePublisher-" + name);
+            poller.setDaemon(true);
+            poller.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Remove a subscriber.
+     *
+     * @param monitor callback proxy
+     */
+    synchronized void unsubscribe(AxisMonitorPrx monitor)
+    {
+        if (subscribers.remove(monitor.ice_getIdentity()) != null)
+        {
+            updatePeriod();
+            notifyAll();
+        }
+    }
+
+    synchronized int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    /**
+     * Tell all subscribers that the axis configuration has changed.
+     */
+    void configChanged()
+    {
+        Subscriber[] subs;
+        synchronized (this)
+        {
+            subs = subscribers.values().toArray(new Subscriber[subscribers.size()]);
+        }
+        for (Subscriber s : subs)
+        {
+            s.configChanged();
+        }
+    }
+
+    //----------------------- PRIVATE   METHODS --------------------------------
+    private void poll()
+    {
+        AxisState[] last = null;
+        AxisStateData[] data = null;
+        long version = 0;
+        List<Subscriber> subs = new ArrayList<>();
+        long next = System.nanoTime();
+
+        while (true)
+        {
+            synchronized (this)
+            {
+                if (!hasStateSubscribers())
+                {
+                    poller = null;
+                    return;
+                }
+                subs.clear();
+                for (Subscriber s : subscribers.values())
+                {
+                    if (s.periodNanos > 0)
+                    {
+                        subs.add(s);
+                    }
+                }
+            }
+
+            // One reading for all subscribers
+            AxisState[] states = null;
+            try
+            {
+                states = source.read();
+            }
+            catch (IOException ex)
+            {
+                logger.log(Level.FINE, name + ": state read failed", ex);
+            }
+            catch (RuntimeException ex)
+            {
+                logger.log(Level.WARNING, name + ": state read failed", ex);
+            }
+
+            if (states != null)
+            {
+                boolean[] completed = new boolean[states.length];
+                boolean anyCompleted = false;
+                if ((last != null) && (last.length == states.length))
+                {
+                    for (int i = 0; i < states.length; i++)
+                    {
+                        completed[i] = !last[i].isReady() && states[i].isReady();
+                        anyCompleted |= completed[i];
+                    }
+                }
+                if (!Arrays.equals(states, last))
+                {
+                    last = states;
+                    version++;
+                    data = new AxisStateData[states.length];
+                    for (int i = 0; i < states.length; i++)
+                    {
+                        data[i] = AxisServant.toData(states[i]);
+                    }
+                }
+                long now = System.nanoTime();
+                for (Subscriber s : subs)
+                {
+                    s.offer(version, data, anyCompleted ? completed : null, now);
+                }
+            }
+
+            // Fixed rate; skip missed slots rather than bursting
+            synchronized (this)
+            {
+                next += toNanos(period);
+                long now = System.nanoTime();
+                if (next < now)
+                {
+                    next = now;
+                }
+                long wait;
+                while (hasStateSubscribers() && ((wait = next - System.nanoTime()) > 0))
+                {
+                    try
+                    {
+                        long ms = wait / 1000000L;
+                        wait(ms, (int) (wait - ms * 1000000L));
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        poller = null;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean hasStateSubscribers()
+    {
+        for (Subscriber s : subscribers.values())
+        {
+            if (s.periodNanos > 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updatePeriod()
+    {
+        long p = Long.MAX_VALUE;
+        for (Subscriber s : subscribers.values())
+        {
+            if (s.periodNanos > 0)
+            {
+                p = Math.min(p, s.periodNanos);
+            }
+        }
+        period = (int) Math.max(MIN_PERIOD, Math.min(Integer.MAX_VALUE, p / 1000000L));
+    }
+
+    private synchronized void drop(Subscriber s, Exception ex)
+    {
+        if (subscribers.get(s.id) == s)
+        {
+            logger.log(Level.INFO, name + ": dropping subscriber " + s.id.name, ex);
+            subscribers.remove(s.id);
+            updatePeriod();
+        }
+    }
+
+    /**
+     * @return period in ns, 0 for no state updates
+     */
+    private static long toNanos(int periodMs)
+    {
+        return (periodMs <= 0) ? 0L : Math.max(MIN_PERIOD, periodMs) * 1000000L;
+    }
+
+    //----------------------- PRIVATE   CLASSES --------------------------------
+    private final class Subscriber
+    {
+        final Ice.Identity id;
+        final AxisMonitorPrx monitor;
+        volatile long periodNanos;
+        // Accessed only by the polling thread
+        long sentVersion = -1;
+        long due = 0;
+        boolean[] pending = null;
+        Ice.AsyncResult inFlight = null;
+
+        Subscriber(Ice.Identity id, AxisMonitorPrx monitor, int periodMs)
+        {
+            this.id = id;
+            this.monitor = monitor;
+            this.periodNanos = toNanos(periodMs);
+        }
+
+        void offer(long version, AxisStateData[] data, boolean[] completed, long now)
+        {
+            // Completions are kept until sent, even across skipped updates
+            if (completed != null)
+            {
+                if ((pending == null) || (pending.length != completed.length))
+                {
+                    pending = completed.clone();
+                }
+                else
+                {
+                    for (int i = 0; i < completed.length; i++)
+                    {
+                        pending[i] |= completed[i];
+                    }
+                }
+            }
+            if (((version == sentVersion) && (pending == null)) || (now - due < 0))
+            {
+                return;
+            }
+            if ((inFlight != null) && !inFlight.isSent())
+            {
+                return;
+            }
+
+            boolean[] done = (pending == null) ? new boolean[data.length] : pending;
+            AxisUpdate update = new AxisUpdate(version, System.currentTimeMillis(), data, done);
+            try
+            {
+                inFlight = monitor.begin_stateChanged(update, new Ice.Callback()
+                {
+                    @Override
+                    public void completed(Ice.AsyncResult r)
+                    {
+                        try
+                        {
+                            monitor.end_stateChanged(r);
+                        }
+                        catch (Ice.LocalException ex)
+                        {
+                            drop(Subscriber.this, ex);
+                        }
+                    }
+                });
+            }
+            catch (Ice.LocalException ex)
+            {
+                drop(this, ex);
+                return;
+            }
+            sentVersion = version;
+            pending = null;
+            due = now + periodNanos;
+        }
+
+        void configChanged()
+        {
+            try
+            {
+                monitor.begin_configChanged(new Ice.Callback()
+                {
+                    @Override
+                    public void completed(Ice.AsyncResult r)
+                    {
+                        try
+                        {
+                            monitor.end_configChanged(r);
+                        }
+                        catch (Ice.LocalException ex)
+                        {
+                            drop(Subscriber.this, ex);
+                        }
+                    }
+                });
+            }
+            catch (Ice.LocalException ex)
+            {
+                drop(this, ex);
+            }
+        }
+    }
+}
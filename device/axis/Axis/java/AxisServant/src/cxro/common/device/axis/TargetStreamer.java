@@ -0,0 +1,154 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies streamed targets to an axis, newest first.
+ * <p>
+ * Streamed targets arrive as batched oneway requests, often several at a
+ * time. Only the newest target is worth sending to the controller, so
+ * {@link #offer} just records it and returns; a separate thread applies
+ * whatever is newest when the controller is free. Targets replaced before
+ * they were applied are counted as dropped. Targets older than one already
+ * received (reordered, or from a stale batch) are counted as late and
+ * ignored.
+ * <p>
+ * A stream is identified by a number chosen by the client; a new stream
+ * number starts a new sequence.
+ */
+final class TargetStreamer
+{
+    private static final Logger logger = Logger.getLogger(TargetStreamer.class.getName());
+
+    private final Axis axis;
+    private Thread applier = null;
+    // Newest target, guarded by this
+    private int stream = 0;
+    private long sequence = -1;
+    private double target = 0.0;
+    private boolean raw = false;
+    private boolean pending = false;
+    // Statistics, guarded by this
+    private long received = 0;
+    private long applied = 0;
+    private long dropped = 0;
+    private long late = 0;
+    private long failed = 0;
+    private long lastApplied = -1;
+    private int lastResult = Axis.AXIS_OK;
+
+    TargetStreamer(Axis axis)
+    {
+        this.axis = axis;
+    }
+
+    /**
+     * Record a streamed target.
+     *
+     * @param stream   client stream number
+     * @param sequence sequence number within the stream, increasing
+     * @param target   destination
+     * @param raw      true if UNSCALED
+     */
+    synchronized void offer(int stream, long sequence, double target, boolean raw)
+    {
+        received++;
+        if ((stream == this.stream) && (sequence <= this.sequence))
+        {
+            late++;
+            return;
+        }
+        if (pending)
+        {
+            dropped++;
+        }
+        this.stream = stream;
+        this.sequence = sequence;
+        this.target = target;
+        this.raw = raw;
+        this.pending = true;
+        if (applier == null)
+        {
+            applier = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    apply();
+                }
+            }, "TargetStreamer-" + axis.getName());
+            applier.setDaemon(true);
+            applier.start();
+        }
+        notifyAll();
+    }
+
+    synchronized TargetStreamStats getStats()
+    {
+        return new TargetStreamStats(received, applied, dropped, late, failed, lastApplied, lastResult);
+    }
+
+    //----------------------- PRIVATE   METHODS --------------------------------
+    private void apply()
+    {
+        while (true)
+        {
+            long seq;
+            double dest;
+            boolean isRaw;
+            synchronized (this)
+            {
+                // Exit when idle; the next offer starts a new thread
+                if (!pending)
+                {
+                    try
+                    {
+                        wait(1000);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        applier = null;
+                        return;
+                    }
+                    if (!pending)
+                    {
+                        applier = null;
+                        return;
+                    }
+                }
+                seq = sequence;
+                dest = target;
+                isRaw = raw;
+                pending = false;
+            }
+
+            int result;
+            try
+            {
+                result = isRaw ? axis.setTargetRaw(dest) : axis.setTarget(dest);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                logger.log(Level.FINE, axis.getName() + ": streamed target failed", ex);
+                result = -1;
+            }
+
+            synchronized (this)
+            {
+                if (result == Axis.AXIS_OK)
+                {
+                    applied++;
+                    lastApplied = seq;
+                }
+                else
+                {
+                    failed++;
+                }
+                lastResult = result;
+            }
+        }
+    }
+}
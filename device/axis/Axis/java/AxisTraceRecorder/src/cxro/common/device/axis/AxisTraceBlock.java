@@ -0,0 +1,93 @@
+// @license
+package cxro.common.device.axis;
+
+/**
+ * A block of consecutive trace samples, copied out of an
+ * {@link AxisTraceRecorder}.
+ * <p>
+ * The arrays are allocated once and reused by every read, so a block must
+ * not be shared between threads. Only the first {@link #getCount()}
+ * entries of each array are valid.
+ * <p>
+ * @author Carl Cork
+ */
+public final class AxisTraceBlock
+{
+  final long[] time;
+  final double[] position;
+  final double[] target;
+  final int[] status;
+  long firstSequence = 0L;
+  int count = 0;
+
+  /**
+   * @param capacity maximum number of samples per read
+   */
+  public AxisTraceBlock(int capacity)
+  {
+    if (capacity <= 0)
+    {
+      throw new IllegalArgumentException("capacity must be > 0");
+    }
+    time = new long[capacity];
+    position = new double[capacity];
+    target = new double[capacity];
+    status = new int[capacity];
+  }
+
+  /**
+   * @return maximum number of samples per read
+   */
+  public int getCapacity()
+  {
+    return time.length;
+  }
+
+  /**
+   * @return sequence number of the first sample in the block
+   */
+  public long getFirstSequence()
+  {
+    return firstSequence;
+  }
+
+  /**
+   * @return number of valid samples
+   */
+  public int getCount()
+  {
+    return count;
+  }
+
+  /**
+   * @return sample times, System.nanoTime()
+   */
+  public long[] getTime()
+  {
+    return time;
+  }
+
+  /**
+   * @return positions, SCALED; NaN if the sample failed
+   */
+  public double[] getPosition()
+  {
+    return position;
+  }
+
+  /**
+   * @return targets, SCALED; NaN if not sampled
+   */
+  public double[] getTarget()
+  {
+    return target;
+  }
+
+  /**
+   * @return status words, see AxisTraceRecorder.STATUS_*
+   */
+  public int[] getStatus()
+  {
+    return status;
+  }
+}
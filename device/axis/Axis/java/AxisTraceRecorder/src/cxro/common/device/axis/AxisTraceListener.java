@@ -0,0 +1,22 @@
+// @license
+package cxro.common.device.axis;
+
+/**
+ * Subscriber for samples streamed by an {@link AxisTraceRecorder}.
+ * <p>
+ * @author Carl Cork
+ */
+public interface AxisTraceListener
+{
+  /**
+   * New samples are available.
+   * Called on the recorder's publishing thread; the block is reused after
+   * the call returns, so copy anything that must be kept.
+   * <p>
+   * @param recorder the source
+   * @param block    the new samples
+   * @param lost     number of samples overwritten before they could be
+   *                 published (listener too slow)
+   */
+  void samples(AxisTraceRecorder recorder, AxisTraceBlock block, long lost);
+}
@@ -0,0 +1,549 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records a time series of axis positions.
+ * <p>
+ * A dedicated thread samples any {@link Axis} (local or proxy) at a fixed
+ * rate into a preallocated ring buffer of primitives: time, position,
+ * target and a status word. Sampling does not allocate, so the sample
+ * times are not disturbed by garbage collection. The trace can be read in
+ * blocks ({@link #read}), streamed to subscribers
+ * ({@link #addListener}), or written to a binary file ({@link #dump}).
+ * <p>
+ * Each sample time is the midpoint of the position request, in
+ * System.nanoTime() units; {@link #getStartMillis()} and
+ * {@link #getStartNanos()} relate it to wall clock time. The achievable
+ * rate is limited by the round trip time of <tt>getPosition()</tt>; slots
+ * that could not be sampled in time are counted by
+ * {@link #getMissedCount()}.
+ * <p>
+ * Binary file format (big-endian, see {@link #writeTo}):
+ * <pre>
+ *   int    magic "AXTR" (0x41585452)
+ *   short  version (1)
+ *   UTF    axis name
+ *   long   start time, System.currentTimeMillis()
+ *   long   start time, System.nanoTime()
+ *   long   sample period, nanoseconds
+ *   long   sequence number of first sample
+ *   int    number of samples
+ *   then per sample:
+ *   long   time, System.nanoTime()
+ *   double position, SCALED
+ *   double target, SCALED (NaN if not sampled)
+ *   int    status word
+ * </pre>
+ * <p>
+ * @author Carl Cork
+ */
+public final class AxisTraceRecorder
+{
+  // Class fields
+  private static final Logger logger = Logger.getLogger(AxisTraceRecorder.class.getName());
+  public static final int FILE_MAGIC = 0x41585452;
+  public static final short FILE_VERSION = 1;
+  public static final int DEFAULT_CAPACITY = 65536;
+  /**
+   * Status word: axis is ready (not moving, drive ok).
+   */
+  public static final int STATUS_READY = 0x01;
+  /**
+   * Status word: the sample failed; position may be NaN.
+   */
+  public static final int STATUS_ERROR = 0x80;
+  //
+  // Instance fields
+  private final Axis axis;
+  private final int capacity;
+  private final long[] time;
+  private final double[] position;
+  private final double[] target;
+  private final int[] status;
+  private final CopyOnWriteArrayList<AxisTraceListener> listeners = new CopyOnWriteArrayList<>();
+  // Samples written so far; only the sampler thread writes
+  private volatile long written = 0L;
+  private volatile long missed = 0L;
+  private volatile long errors = 0L;
+  //
+  private volatile boolean running = false;
+  private volatile boolean sampleTarget = true;
+  private volatile boolean sampleStatus = true;
+  private long period = 0L;
+  private volatile long publishPeriod = TimeUnit.MILLISECONDS.toNanos(50);
+  private long startMillis = 0L;
+  private long startNanos = 0L;
+  private Thread sampler = null;
+  private Thread publisher = null;
+
+  /**
+   * @param axis the axis to sample
+   */
+  public AxisTraceRecorder(Axis axis)
+  {
+    this(axis, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param axis     the axis to sample
+   * @param capacity number of samples kept
+   */
+  public AxisTraceRecorder(Axis axis, int capacity)
+  {
+    if (capacity <= 0)
+    {
+      throw new IllegalArgumentException("capacity must be > 0");
+    }
+    this.axis = axis;
+    this.capacity = capacity;
+    time = new long[capacity];
+    position = new double[capacity];
+    target = new double[capacity];
+    status = new int[capacity];
+  }
+
+  //----------------------- PUBLIC    METHODS --------------------------------
+  public Axis getAxis()
+  {
+    return axis;
+  }
+
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Also sample getTarget(). Costs one extra request per sample on some
+   * controllers.
+   * <p>
+   * @param sampleTarget true to sample the target
+   */
+  public void setSampleTarget(boolean sampleTarget)
+  {
+    this.sampleTarget = sampleTarget;
+  }
+
+  public boolean isSampleTarget()
+  {
+    return sampleTarget;
+  }
+
+  /**
+   * Also sample isReady() into the status word. Costs one extra request per
+   * sample.
+   * <p>
+   * @param sampleStatus true to sample the status
+   */
+  public void setSampleStatus(boolean sampleStatus)
+  {
+    this.sampleStatus = sampleStatus;
+  }
+
+  public boolean isSampleStatus()
+  {
+    return sampleStatus;
+  }
+
+  /**
+   * Set how often subscribers are called.
+   * <p>
+   * @param interval publishing interval
+   * @param unit     interval unit
+   */
+  public void setPublishInterval(long interval, TimeUnit unit)
+  {
+    if (interval <= 0)
+    {
+      throw new IllegalArgumentException("interval must be > 0");
+    }
+    publishPeriod = unit.toNanos(interval);
+  }
+
+  /**
+   * Start sampling. The ring buffer is cleared.
+   * <p>
+   * @param interval sample interval
+   * @param unit     interval unit
+   */
+  public synchronized void start(long interval, TimeUnit unit)
+  {
+    if (interval <= 0)
+    {
+      throw new IllegalArgumentException("interval must be > 0");
+    }
+    stop();
+    period = unit.toNanos(interval);
+    written = 0L;
+    missed = 0L;
+    errors = 0L;
+    startMillis = System.currentTimeMillis();
+    startNanos = System.nanoTime();
+    running = true;
+    sampler = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        sample();
+      }
+    }, "AxisTraceRecorder-" + axis.getName());
+    sampler.setDaemon(true);
+    sampler.setPriority(Thread.MAX_PRIORITY);
+    sampler.start();
+    publisher = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        publish();
+      }
+    }, "AxisTraceRecorder-" + axis.getName() + "-publish");
+    publisher.setDaemon(true);
+    publisher.start();
+  }
+
+  /**
+   * Stop sampling. Recorded samples are kept; subscribers receive any
+   * samples not yet published before this method returns.
+   */
+  public synchronized void stop()
+  {
+    if (!running)
+    {
+      return;
+    }
+    running = false;
+    try
+    {
+      // Do not interrupt: an interrupted NIO request closes the channel
+      LockSupport.unpark(sampler);
+      sampler.join();
+      LockSupport.unpark(publisher);
+      publisher.join();
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+    sampler = null;
+    publisher = null;
+  }
+
+  public boolean isRunning()
+  {
+    return running;
+  }
+
+  /**
+   * @return sample period in nanoseconds, 0 if never started
+   */
+  public synchronized long getPeriod()
+  {
+    return period;
+  }
+
+  /**
+   * @return System.currentTimeMillis() when sampling started
+   */
+  public synchronized long getStartMillis()
+  {
+    return startMillis;
+  }
+
+  /**
+   * @return System.nanoTime() when sampling started
+   */
+  public synchronized long getStartNanos()
+  {
+    return startNanos;
+  }
+
+  /**
+   * @return number of samples recorded since start; also the sequence
+   *         number of the next sample
+   */
+  public long getSampleCount()
+  {
+    return written;
+  }
+
+  /**
+   * @return sequence number of the oldest sample still in the buffer
+   */
+  public long getOldestSequence()
+  {
+    return Math.max(0L, written - capacity);
+  }
+
+  /**
+   * @return number of sample slots skipped because sampling fell behind
+   */
+  public long getMissedCount()
+  {
+    return missed;
+  }
+
+  /**
+   * @return number of samples that failed
+   */
+  public long getErrorCount()
+  {
+    return errors;
+  }
+
+  /**
+   * Copy samples out of the ring buffer, starting at a sequence number.
+   * If samples from <tt>from</tt> on have already been overwritten, the
+   * block starts at the oldest available sample; compare
+   * {@link AxisTraceBlock#getFirstSequence()} with <tt>from</tt> to detect
+   * the loss.
+   * <p>
+   * @param from  sequence number of first sample wanted
+   * @param block destination, reused
+   * @return sequence number to pass to the next read
+   */
+  public long read(long from, AxisTraceBlock block)
+  {
+    long end = written;
+    long first = Math.max(from, end - capacity);
+    int n = (int) Math.max(0L, Math.min(end - first, block.getCapacity()));
+    int i = (int) (first % capacity);
+    int n1 = Math.min(n, capacity - i);
+    copy(i, block, 0, n1);
+    copy(0, block, n1, n - n1);
+
+    // Discard samples the sampler overwrote while they were copied
+    long safe = (written - capacity) + 1;
+    if (first < safe)
+    {
+      int skip = (int) Math.min(n, safe - first);
+      n -= skip;
+      first += skip;
+      System.arraycopy(block.time, skip, block.time, 0, n);
+      System.arraycopy(block.position, skip, block.position, 0, n);
+      System.arraycopy(block.target, skip, block.target, 0, n);
+      System.arraycopy(block.status, skip, block.status, 0, n);
+    }
+    block.firstSequence = first;
+    block.count = n;
+    return first + n;
+  }
+
+  public void addListener(AxisTraceListener listener)
+  {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(AxisTraceListener listener)
+  {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Write the samples currently in the buffer to a file.
+   * <p>
+   * @param file destination
+   * @throws IOException
+   */
+  public void dump(File file)
+  throws IOException
+  {
+    try (OutputStream out = new FileOutputStream(file))
+    {
+      writeTo(out);
+    }
+  }
+
+  /**
+   * Write the samples currently in the buffer, in the binary file format.
+   * <p>
+   * @param out destination, not closed
+   * @throws IOException
+   */
+  public void writeTo(OutputStream out)
+  throws IOException
+  {
+    // Snapshot in blocks; samples may continue to arrive meanwhile
+    long from = getOldestSequence();
+    long end = written;
+    AxisTraceBlock block = new AxisTraceBlock(Math.min(capacity, 4096));
+    DataOutputStream body = new DataOutputStream(new BufferedOutputStream(out));
+    ByteArrayOutputStream samples = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(samples);
+    long first = -1L;
+    int count = 0;
+    while (from < end)
+    {
+      from = read(from, block);
+      if (block.count == 0)
+      {
+        break;
+      }
+      if (first < 0)
+      {
+        first = block.firstSequence;
+      }
+      int n = (int) Math.min(block.count, end - block.firstSequence);
+      for (int k = 0; k < n; k++)
+      {
+        data.writeLong(block.time[k]);
+        data.writeDouble(block.position[k]);
+        data.writeDouble(block.target[k]);
+        data.writeInt(block.status[k]);
+      }
+      count += n;
+    }
+    data.flush();
+    synchronized (this)
+    {
+      body.writeInt(FILE_MAGIC);
+      body.writeShort(FILE_VERSION);
+      body.writeUTF(axis.getName());
+      body.writeLong(startMillis);
+      body.writeLong(startNanos);
+      body.writeLong(period);
+    }
+    body.writeLong(Math.max(first, 0L));
+    body.writeInt(count);
+    samples.writeTo(body);
+    body.flush();
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private void copy(int src, AxisTraceBlock block, int dst, int n)
+  {
+    if (n > 0)
+    {
+      System.arraycopy(time, src, block.time, dst, n);
+      System.arraycopy(position, src, block.position, dst, n);
+      System.arraycopy(target, src, block.target, dst, n);
+      System.arraycopy(status, src, block.status, dst, n);
+    }
+  }
+
+  /**
+   * Sampler thread: one sample per period, on an absolute schedule.
+   */
+  private void sample()
+  {
+    final long p = period;
+    long next = System.nanoTime();
+    while (running)
+    {
+      long wait = next - System.nanoTime();
+      if (wait > 0)
+      {
+        LockSupport.parkNanos(this, wait);
+        continue;
+      }
+      record();
+      next += p;
+      long late = System.nanoTime() - next;
+      if (late >= p)
+      {
+        // Skip the slots that have already passed
+        long skip = late / p;
+        next += skip * p;
+        missed += skip;
+      }
+    }
+  }
+
+  private void record()
+  {
+    long t0 = System.nanoTime();
+    long t1 = t0;
+    double pos = Double.NaN;
+    double tgt = Double.NaN;
+    int st = 0;
+    try
+    {
+      pos = axis.getPosition();
+      t1 = System.nanoTime();
+      if (sampleTarget)
+      {
+        tgt = axis.getTarget();
+      }
+      if (sampleStatus && axis.isReady())
+      {
+        st |= STATUS_READY;
+      }
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      st |= STATUS_ERROR;
+      errors++;
+      if (logger.isLoggable(Level.FINE))
+      {
+        logger.log(Level.FINE, "sample failed: {0}", ex.getMessage());
+      }
+    }
+    long seq = written;
+    int i = (int) (seq % capacity);
+    time[i] = t0 + ((t1 - t0) / 2);
+    position[i] = pos;
+    target[i] = tgt;
+    status[i] = st;
+    written = seq + 1;
+  }
+
+  /**
+   * Publisher thread: hand new samples to subscribers.
+   */
+  private void publish()
+  {
+    AxisTraceBlock block = new AxisTraceBlock(Math.min(capacity, 4096));
+    long next = 0L;
+    boolean more = true;
+    while (more)
+    {
+      // One last pass after stop
+      more = running;
+      if (more)
+      {
+        LockSupport.parkNanos(this, publishPeriod);
+      }
+      if (listeners.isEmpty())
+      {
+        next = written;
+        continue;
+      }
+      long from;
+      do
+      {
+        from = next;
+        next = read(from, block);
+        if (block.count > 0)
+        {
+          long lost = block.firstSequence - from;
+          for (AxisTraceListener l : listeners)
+          {
+            try
+            {
+              l.samples(this, block, lost);
+            }
+            catch (RuntimeException ex)
+            {
+              logger.log(Level.WARNING, "AxisTraceListener failed", ex);
+            }
+          }
+        }
+      }
+      while (block.count == block.getCapacity());
+    }
+  }
+}
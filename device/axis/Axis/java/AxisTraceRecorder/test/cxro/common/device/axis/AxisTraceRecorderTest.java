@@ -0,0 +1,240 @@
+// @license
+package cxro.common.device.axis;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AxisTraceRecorder}, sampling a fake axis.
+ * <p>
+ * The fake returns the number of getPosition() calls so far as the
+ * position, so sample n has position n. A gated fake lets the test release
+ * a known number of samples; the sampler then waits inside getPosition()
+ * and the ring buffer holds still while it is checked.
+ * <p>
+ * @author Carl Cork
+ */
+public class AxisTraceRecorderTest
+{
+  private static final double TARGET = 5.0;
+  private AxisTraceRecorder recorder;
+  private FakeAxis fake;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @After
+  public void tearDown()
+  {
+    if (fake != null)
+    {
+      fake.open();
+    }
+    if (recorder != null)
+    {
+      recorder.stop();
+    }
+  }
+
+  @Test
+  public void testWrapAround()
+  throws Exception
+  {
+    start(8, true);
+    fake.release(21);
+    awaitSamples(21);
+
+    // Slot of sample 13 is next to be written, so read() leaves it out
+    AxisTraceBlock block = new AxisTraceBlock(8);
+    long next = recorder.read(0L, block);
+    assertEquals(13L, recorder.getOldestSequence());
+    assertEquals(14L, block.getFirstSequence());
+    assertEquals(7, block.getCount());
+    assertEquals(21L, next);
+    assertSequence(block);
+
+    // A block that crosses the end of the ring
+    AxisTraceBlock small = new AxisTraceBlock(4);
+    next = recorder.read(15L, small);
+    assertEquals(15L, small.getFirstSequence());
+    assertEquals(4, small.getCount());
+    assertEquals(19L, next);
+    assertSequence(small);
+
+    // Nothing new
+    assertEquals(21L, recorder.read(21L, small));
+    assertEquals(0, small.getCount());
+  }
+
+  @Test
+  public void testOverrunReportsLoss()
+  throws Exception
+  {
+    final AtomicLong lost = new AtomicLong();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong expected = new AtomicLong();
+    create(8, false);
+    recorder.addListener(new AxisTraceListener()
+    {
+      @Override
+      public void samples(AxisTraceRecorder r, AxisTraceBlock block, long l)
+      {
+        assertEquals(expected.get() + l, block.getFirstSequence());
+        expected.set(block.getFirstSequence() + block.getCount());
+        lost.addAndGet(l);
+        delivered.addAndGet(block.getCount());
+      }
+    });
+    // Publisher stays parked until stop(), far behind the ring
+    recorder.setPublishInterval(1, TimeUnit.HOURS);
+    recorder.start(100, TimeUnit.MICROSECONDS);
+    awaitSamples(100);
+    recorder.stop();
+
+    assertTrue(recorder.getSampleCount() >= 100);
+    assertTrue(lost.get() > 0);
+    assertTrue(delivered.get() < recorder.getCapacity());
+    assertEquals(recorder.getSampleCount(), lost.get() + delivered.get());
+  }
+
+  @Test
+  public void testDumpRoundTrip()
+  throws Exception
+  {
+    start(8, true);
+    fake.release(11);
+    awaitSamples(11);
+    File file = tmp.newFile("trace.axtr");
+    recorder.dump(file);
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file)))
+    {
+      assertEquals(AxisTraceRecorder.FILE_MAGIC, in.readInt());
+      assertEquals(AxisTraceRecorder.FILE_VERSION, in.readShort());
+      assertEquals("fake", in.readUTF());
+      assertEquals(recorder.getStartMillis(), in.readLong());
+      assertEquals(recorder.getStartNanos(), in.readLong());
+      assertEquals(recorder.getPeriod(), in.readLong());
+      assertEquals(4L, in.readLong());
+      int count = in.readInt();
+      assertEquals(7, count);
+      long last = recorder.getStartNanos();
+      for (int k = 0; k < count; k++)
+      {
+        long t = in.readLong();
+        assertTrue(t >= last);
+        last = t;
+        assertEquals(4.0 + k, in.readDouble(), 0.0);
+        assertEquals(TARGET, in.readDouble(), 0.0);
+        assertEquals(AxisTraceRecorder.STATUS_READY, in.readInt());
+      }
+      assertEquals(-1, in.read());
+    }
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private void create(int capacity, boolean gated)
+  {
+    fake = new FakeAxis(gated);
+    recorder = new AxisTraceRecorder(fake.axis, capacity);
+  }
+
+  private void start(int capacity, boolean gated)
+  {
+    create(capacity, gated);
+    recorder.start(100, TimeUnit.MICROSECONDS);
+  }
+
+  private void awaitSamples(long n)
+  throws InterruptedException
+  {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (recorder.getSampleCount() < n)
+    {
+      assertTrue("timeout waiting for samples", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  private static void assertSequence(AxisTraceBlock block)
+  {
+    for (int k = 0; k < block.getCount(); k++)
+    {
+      assertEquals((double) (block.getFirstSequence() + k), block.getPosition()[k], 0.0);
+      assertEquals(TARGET, block.getTarget()[k], 0.0);
+      assertEquals(AxisTraceRecorder.STATUS_READY, block.getStatus()[k]);
+    }
+  }
+
+  //----------------------- PRIVATE   CLASSES --------------------------------
+  /**
+   * Axis whose position is the number of getPosition() calls so far.
+   * Only the methods the recorder uses are implemented.
+   */
+  private static final class FakeAxis
+  implements InvocationHandler
+  {
+    final Axis axis;
+    private final Semaphore gate;
+    private long calls = 0L;
+
+    FakeAxis(boolean gated)
+    {
+      gate = gated ? new Semaphore(0) : null;
+      axis = (Axis) Proxy.newProxyInstance(Axis.class.getClassLoader(),
+                                           new Class<?>[]
+                                           {
+                                             Axis.class
+                                           }, this);
+    }
+
+    void release(int samples)
+    {
+      gate.release(samples);
+    }
+
+    void open()
+    {
+      if (gate != null)
+      {
+        gate.release(Integer.MAX_VALUE / 2);
+      }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+    throws Throwable
+    {
+      switch (method.getName())
+      {
+        case "getName":
+          return "fake";
+        case "getPosition":
+          if (gate != null)
+          {
+            gate.acquireUninterruptibly();
+          }
+          return (double) calls++;
+        case "getTarget":
+          return TARGET;
+        case "isReady":
+          return true;
+        default:
+          throw new IOException(method.getName() + " not supported");
+      }
+    }
+  }
+}
@@ -24,6 +24,8 @@ public final class AxisServant
     private double auxEncoderScale = 0.1;
     private double auxEncoderOffset = 0.0;
     private double auxEncoderRaw = 0.0;
+    private long streamed = 0;
+    private long lastStreamed = -1;
 
     public AxisServant()
     {
@@ -78,14 +80,14 @@ public final class AxisServant
     }
 
     @Override
-    public int initialize(Current __current)
+    public void initialize_async(AMD_AxisIce_initialize __cb, Current __current)
       throws IOError
     {
         initialized = true;
         stopped = true;
         raw = 0.0;
         auxEncoderRaw = 0.0;
-        return Axis.AXIS_OK;
+        __cb.ice_response(Axis.AXIS_OK);
     }
 
     @Override
@@ -161,39 +163,61 @@ public final class AxisServant
     }
 
     @Override
-    public int moveAbsolute(double dest, Ice.Current __current)
+    public void moveAbsolute_async(AMD_AxisIce_moveAbsolute __cb, double dest, Current __current)
       throws IOError
     {
         raw = (scale * dest) + offset;
-        return Axis.AXIS_OK;
+        __cb.ice_response(Axis.AXIS_OK);
     }
 
     @Override
-    public int moveAbsoluteRaw(double dest, Current __current)
+    public void moveAbsoluteRaw_async(AMD_AxisIce_moveAbsoluteRaw __cb, double dest, Current __current)
       throws IOError
     {
         raw = dest;
-        return Axis.AXIS_OK;
+        __cb.ice_response(Axis.AXIS_OK);
     }
 
     @Override
-    public int moveRelative(double dist, Ice.Current __current)
+    public void moveRelative_async(AMD_AxisIce_moveRelative __cb, double dist, Current __current)
       throws IOError
     {
         raw = raw + (scale * dist);
-        return Axis.AXIS_OK;
+        __cb.ice_response(Axis.AXIS_OK);
     }
 
     @Override
-    public int moveRelativeRaw(double dist, Current __current)
+    public void moveRelativeRaw_async(AMD_AxisIce_moveRelativeRaw __cb, double dist, Current __current)
       throws IOError
     {
         raw = raw + dist;
-        return Axis.AXIS_OK;
+        __cb.ice_response(Axis.AXIS_OK);
     }
 
     @Override
-    public int abortMove(Ice.Current __current)
+    public void streamTarget(int stream, long sequence, double dest, Current __current)
+    {
+        raw = (scale * dest) + offset;
+        streamed++;
+        lastStreamed = sequence;
+    }
+
+    @Override
+    public void streamTargetRaw(int stream, long sequence, double rawDest, Current __current)
+    {
+        raw = rawDest;
+        streamed++;
+        lastStreamed = sequence;
+    }
+
+    @Override
+    public TargetStreamStats getTargetStreamStats(Current __current)
+    {
+        return new TargetStreamStats(streamed, streamed, 0, 0, 0, lastStreamed, Axis.AXIS_OK);
+    }
+
+    @Override
+    public void abortMove_async(AMD_AxisIce_abortMove __cb, Current __current)
       throws IOError
     {
         // Simulate an IOError here
@@ -201,11 +225,58 @@ public final class AxisServant
     }
 
     @Override
-    public int stopMove(Current __current)
+    public void stopMove_async(AMD_AxisIce_stopMove __cb, Current __current)
       throws IOError
     {
         stopped = true;
-        return Axis.AXIS_OK;
+        __cb.ice_response(Axis.AXIS_OK);
+    }
+
+    @Override
+    public AxisStateData getState(Current __current)
+      throws IOError
+    {
+        return state();
+    }
+
+    @Override
+    public AxisConfigData getConfig(Current __current)
+    {
+        return new AxisConfigData(units, scale, offset,
+                                  getLowerLimitHard(__current), getLowerLimitSoft(__current),
+                                  getUpperLimitSoft(__current), getUpperLimitHard(__current),
+                                  hasAuxEncoder, auxEncoderScale, auxEncoderOffset);
+    }
+
+    /**
+     * The simulation has no poll loop; a subscriber gets one snapshot.
+     */
+    @Override
+    public void subscribe(AxisMonitorPrx monitor, int period, Current __current)
+    {
+        if (monitor != null)
+        {
+            AxisStateData[] states =
+            {
+                state()
+            };
+            boolean[] completed = {false};
+
+            monitor.begin_stateChanged(new AxisUpdate(0, System.currentTimeMillis(), states, completed));
+        }
+    }
+
+    @Override
+    public void unsubscribe(AxisMonitorPrx monitor, Current __current)
+    {
+    }
+
+    private AxisStateData state()
+    {
+        double position = (raw - offset)/scale;
+        boolean[] switches = {false, false, false};
+
+        return new AxisStateData(enabled, initialized, true, position, position, switches);
     }
 
     @Override
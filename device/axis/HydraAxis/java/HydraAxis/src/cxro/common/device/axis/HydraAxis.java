@@ -1,8 +1,12 @@
 // @license
 package cxro.common.device.axis;
 
+import cxro.common.io.HydraCodec;
 import cxro.common.io.HydraComm;
+import cxro.common.io.HydraCommandBatch;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,6 +28,9 @@ extends AbstractAxis
   private HydraComm comm;
   private int axisno = 1;
   private double targetRaw = 0.0;
+  // Pre-encoded commands for the status, position and move paths
+  private volatile Commands cmds = null;
+  private final ByteBuffer cmdBuf = ByteBuffer.allocateDirect(64);
 
   // --- Constructors ---
   /**
@@ -36,7 +43,8 @@ extends AbstractAxis
   throws IOException
   {
     // Initialize parent class. It calls local loadConfigsSpi()
-    super(nodeName);
+    // Axes on the same HydraComm share their operation threads
+    super(nodeName, comm);
 
     //load current settings
     // NOTE: super() also calls loadConfigsSpi(),
@@ -137,14 +145,7 @@ extends AbstractAxis
   throws IOException
   {
     String cmd = String.format("%d getswst \n", axisno);
-    String[] rsp = sar(cmd).split("\\s", 2);
-    boolean[] switches =
-    {
-      Boolean.parseBoolean(rsp[0].trim()),
-      Boolean.parseBoolean(rsp[1].trim()),
-      false   // No home switch
-    };
-    return switches;
+    return parseSwitches(sar(cmd));
   }
 
   @Override
@@ -152,8 +153,8 @@ extends AbstractAxis
   throws IOException
   {
     //Check for motor on and not em_stopped
-    String rsp = sar(String.format("%d nst \n", axisno));
-    return ((Integer.parseInt(rsp) & 0x0380) == 0);
+    int rsp = (int) query(commands().nst);
+    return ((rsp & 0x0380) == 0);
   }
 
   @Override
@@ -166,8 +167,8 @@ extends AbstractAxis
          * cleared whenever the system is power cycled or reset. We test this
          * status before each move.
      */
-    String res = sar(String.format("%d getvarint \n", axisno));
-    return (Integer.parseInt(res) != 0);
+    int res = (int) query(commands().getvarint);
+    return (res != 0);
   }
 
   @Override
@@ -175,16 +176,16 @@ extends AbstractAxis
   throws IOException
   {
     // READY = NOT_MOVING and DRIVE_OK
-    String rsp = sar(String.format("%d nst \n", axisno));
-    return ((Integer.parseInt(rsp) & 0x05) == 0);
+    int rsp = (int) query(commands().nst);
+    return ((rsp & 0x05) == 0);
   }
 
   @Override
   public final boolean isStopped()
   throws IOException
   {
-    String rsp = sar(String.format("%d nst \n", axisno));
-    return ((Integer.parseInt(rsp) & 0x01) == 0);
+    int rsp = (int) query(commands().nst);
+    return ((rsp & 0x01) == 0);
   }
 
   @Override
@@ -265,7 +266,7 @@ extends AbstractAxis
   public final int getStatus() //TODO: Need?
   throws IOException, InterruptedException
   {
-    return Integer.parseInt(sar(String.format("%d nst \n", axisno)));
+    return (int) query(commands().nst);
   }
 
   public final double getUpperRawLimit()
@@ -453,11 +454,7 @@ extends AbstractAxis
   {
     setSpeedRawSpi(rawspeed);
     snd(String.format("%d ncal \n", axisno));
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
+    waitFor(readyCondition, 0L, true);
     
     // NOTE: ncal moves set raw position to zero at end of move
     targetRaw = 0.0;
@@ -474,12 +471,8 @@ extends AbstractAxis
     // TODO: pick a better maxmove value
     setSpeedRawSpi(rawspeed);
     snd(String.format("10000.0 %d nrefmove \n", axisno));
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
-    if (stopFlag)
+    waitFor(readyCondition, 0L, true);
+    if (isStopRequested())
     {
       return;
     }
@@ -504,11 +497,7 @@ extends AbstractAxis
       setSpeedRawSpi(rawspeed);
       snd(String.format("%d ncal \n", axisno));
     }
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
+    waitFor(readyCondition, 0L, true);
     
     // ignore controller soft limits
     setRawLimits(-200000.0, +200000.0);
@@ -526,11 +515,7 @@ extends AbstractAxis
       setSpeedRawSpi(rawspeed);
       snd(String.format("%d nrm \n", axisno));
     }
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
+    waitFor(readyCondition, 0L, true);
     
     // ignore controller soft limits
     setRawLimits(-200000.0, +200000.0);
@@ -548,8 +533,7 @@ extends AbstractAxis
   protected final double getPositionRawSpi()
   throws IOException
   {
-    String rsp = sar(String.format("%d np \n", axisno));
-    return Double.parseDouble(rsp);
+    return query(commands().np);
   }
 
   @Override
@@ -593,7 +577,7 @@ extends AbstractAxis
   throws IOException
   {
     // Set new target
-    snd(String.format("%.4f %d nm \n", rawDest, axisno));
+    sndMove(rawDest);
     targetRaw = rawDest;
   }
 
@@ -602,14 +586,12 @@ extends AbstractAxis
   throws IOException, InterruptedException
   {
     // Start move
-    snd(String.format("%.4f %d nm \n", dest, axisno));
+    double dist = dest - targetRaw;
+    sndMove(dest);
+    targetRaw = dest;
 
     // Wait till done
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
+    waitUntilReady(dist);
   }
 
   @Override
@@ -618,13 +600,30 @@ extends AbstractAxis
   {
     // Start move
     snd(String.format("%.4f %d nr \n", dist, axisno));
+    targetRaw += dist;
 
     // Wait till done
-    do
+    waitUntilReady(dist);
+  }
+
+  @Override
+  protected final AxisState getStateRawSpi()
+  throws IOException
+  {
+    // nst, getvarint, np and getswst in one packet
+    HydraCommandBatch batch = commands().state;
+    if (batch == null)
     {
-      Thread.sleep(100);
+      throw new IOException("No HydraComm");
+    }
+    try
+    {
+      return parseStateRaw(batch.execute(), 0);
+    }
+    catch (InterruptedException ex)
+    {
+      throw new IOException(ex);
     }
-    while (!isReady() && !stopFlag);
   }
 
   @Override
@@ -635,7 +634,98 @@ extends AbstractAxis
     return getPositionRawSpi();
   }
   //----------------------- PACKAGE   METHODS --------------------------------
+  /**
+   * Parse the replies to the state queries (nst, getvarint, np, getswst),
+   * as sent for several axes in one batch by HydraAxisArray.
+   * @param rsp   batch replies
+   * @param first index of this axis' nst reply
+   * @return state, SCALED
+   * @throws IOException if a reply is missing or malformed
+   */
+  AxisState parseState(String[] rsp, int first)
+  throws IOException
+  {
+    return scaleState(parseStateRaw(rsp, first));
+  }
+
   //----------------------- PRIVATE   METHODS --------------------------------
+  private AxisState parseStateRaw(String[] rsp, int first)
+  throws IOException
+  {
+    try
+    {
+      int status = (int) Double.parseDouble(rsp[first]);
+      boolean initialized = (Double.parseDouble(rsp[first + 1]) != 0);
+      double position = Double.parseDouble(rsp[first + 2]);
+      return new AxisState(((status & 0x0380) == 0), initialized, ((status & 0x05) == 0),
+                           position, (initialized ? targetRaw : Double.NaN),
+                           parseSwitches(rsp[first + 3]));
+    }
+    catch (NumberFormatException | ArrayIndexOutOfBoundsException ex)
+    {
+      throw new IOException("Bad state reply", ex);
+    }
+  }
+
+  /**
+   * Get the pre-encoded commands for the current axis number and comm.
+   */
+  private Commands commands()
+  {
+    Commands c = cmds;
+    if ((c == null) || (c.axisno != axisno) || (c.comm != comm))
+    {
+      c = new Commands(axisno, comm);
+      cmds = c;
+    }
+    return c;
+  }
+
+  /**
+   * Parse getswst reply.
+   */
+  private static boolean[] parseSwitches(String rsp)
+  {
+    String[] sw = rsp.trim().split("\\s", 2);
+    boolean[] switches =
+    {
+      Boolean.parseBoolean(sw[0].trim()),
+      Boolean.parseBoolean(sw[1].trim()),
+      false   // No home switch
+    };
+    return switches;
+  }
+
+  /**
+   * Send pre-encoded query and parse numeric response, without allocation.
+   * Uses default receive timeout of 1 second.
+   */
+  private synchronized double query(ByteBuffer command)
+  throws IOException
+  {
+    try
+    {
+      return comm.sarValue(command);
+    }
+    catch (InterruptedException ex)
+    {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Send absolute move, same as "%.4f %d nm \n", without allocation.
+   */
+  private synchronized void sndMove(double rawDest)
+  throws IOException
+  {
+    cmdBuf.clear();
+    HydraCodec.format(cmdBuf, rawDest, 4);
+    cmdBuf.put(commands().nm);
+    cmdBuf.flip();
+    comm.snd(cmdBuf);
+  }
+
 
   /**
    * Send command. The Hydra can fail silently, so we must check for errors
@@ -680,4 +770,41 @@ extends AbstractAxis
       throw new IOException(ex);
     }
   }
+
+  //----------------------- PRIVATE   CLASSES --------------------------------
+  /**
+   * Commands sent repeatedly, encoded once per axis number.
+   */
+  private static final class Commands
+  {
+    final int axisno;
+    final HydraComm comm;
+    final ByteBuffer nst;
+    final ByteBuffer np;
+    final ByteBuffer getvarint;
+    final byte[] nm;  // follows the target value
+    final HydraCommandBatch state;
+
+    Commands(int axisno, HydraComm comm)
+    {
+      this.axisno = axisno;
+      this.comm = comm;
+      nst = HydraCodec.encode(String.format("%d nst \n", axisno));
+      np = HydraCodec.encode(String.format("%d np \n", axisno));
+      getvarint = HydraCodec.encode(String.format("%d getvarint \n", axisno));
+      nm = String.format(" %d nm \n", axisno).getBytes(StandardCharsets.US_ASCII);
+      if (comm == null)
+      {
+        state = null;   // utility constructor
+      }
+      else
+      {
+        state = comm.newBatch();
+        state.query(axisno + " nst");
+        state.query(axisno + " getvarint");
+        state.query(axisno + " np");
+        state.query(axisno + " getswst");
+      }
+    }
+  }
 }
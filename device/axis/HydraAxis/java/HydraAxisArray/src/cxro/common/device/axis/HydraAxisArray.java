@@ -2,7 +2,10 @@
 package cxro.common.device.axis;
 
 import cxro.common.io.HydraComm;
+import cxro.common.io.HydraCommandBatch;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
@@ -20,6 +23,10 @@ implements AxisArray
   private final String nodeName;
   private final Preferences prefs;
   private final HydraAxis[] axes;
+  private final AxisGroup group;
+  // Batched queries, one write per call (null without a HydraComm)
+  private final HydraCommandBatch statusBatch;
+  private final HydraCommandBatch stateBatch;
 
   public HydraAxisArray(String nodeName, HydraComm comm, int size)
   throws IOException
@@ -41,6 +48,28 @@ implements AxisArray
       axes[i] = new HydraAxis((nodeName + "/" + i), comm, i + 1);
     }
 
+    // Status of all axes, see isReady(), and the state queries of
+    // HydraAxis for all axes, see getStates()
+    statusBatch = comm.newBatch();
+    stateBatch = comm.newBatch();
+    for (int i = 0; i < size; i++)
+    {
+      statusBatch.query((i + 1) + " nst");
+      stateBatch.query((i + 1) + " nst");
+      stateBatch.query((i + 1) + " getvarint");
+      stateBatch.query((i + 1) + " np");
+      stateBatch.query((i + 1) + " getswst");
+    }
+    group = new AxisGroup(new AbstractAxis.StatusCondition()
+    {
+      @Override
+      public boolean isMet()
+      throws IOException
+      {
+        return isReady();
+      }
+    }, axes);
+
     // Load existing parameters
     loadConfigs();
 
@@ -74,6 +103,9 @@ implements AxisArray
     {
       axes[i] = new HydraAxis(nodeName + "/" + i, i + 1);
     }
+    statusBatch = null;
+    stateBatch = null;
+    group = new AxisGroup(axes);
 
     // Load existing parameters
     loadConfigs();
@@ -93,6 +125,7 @@ implements AxisArray
   throws IOException
   { 
     // Delegate
+    group.destroy();
     for (Axis a : axes)
     {
       a.destroy();
@@ -123,6 +156,82 @@ implements AxisArray
     return axes[index];
   }
 
+  /**
+   * Move both axes together. The targets are sent back to back on the
+   * shared link and completion is polled once for the pair.
+   * @param dests destinations, SCALED
+   * @return Future for combined result code
+   * @throws java.io.IOException
+   */
+  @Override
+  public Future<Integer> moveAbsolute(double[] dests)
+  throws IOException
+  {
+    return group.moveAbsolute(dests);
+  }
+
+  /**
+   * Non-blocking {@link #moveAbsolute(double[])}; cancelling the future
+   * stops both axes.
+   * @param dests destinations, SCALED
+   * @return completion of the group move
+   */
+  @Override
+  public CompletableFuture<MoveResult> moveAbsoluteAsync(double[] dests)
+  {
+    return group.moveAbsoluteAsync(dests);
+  }
+
+  /**
+   * Test all axes for READY (not moving and drive ok) with one query.
+   * @return true if every axis is ready
+   * @throws java.io.IOException
+   */
+  public boolean isReady()
+  throws IOException
+  {
+    double[] rsp = execute(statusBatch);
+    for (double r : rsp)
+    {
+      if ((((int) r) & 0x05) != 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the state of all axes with one query: nst, getvarint, np and
+   * getswst for every axis in a single packet.
+   * @return state of each axis, SCALED
+   * @throws java.io.IOException
+   */
+  @Override
+  public AxisState[] getStates()
+  throws IOException
+  {
+    if (stateBatch == null)
+    {
+      throw new IOException("No HydraComm");
+    }
+    String[] rsp;
+    try
+    {
+      rsp = stateBatch.execute();
+    }
+    catch (InterruptedException ex)
+    {
+      throw new IOException(ex);
+    }
+    AxisState[] states = new AxisState[axes.length];
+    for (int i = 0; i < axes.length; i++)
+    {
+      states[i] = axes[i].parseState(rsp, 4 * i);
+    }
+    return states;
+  }
+
   @Override
   public final void loadConfigs()
   {
@@ -146,4 +255,27 @@ implements AxisArray
       }
     }
   }
+
+  //----------------------- PRIVATE   METHODS ---------------------------------
+  private double[] execute(HydraCommandBatch batch)
+  throws IOException
+  {
+    if (batch == null)
+    {
+      throw new IOException("No HydraComm");
+    }
+    try
+    {
+      double[] values = new double[batch.getReplyCount()];
+      if (batch.execute(values) < values.length)
+      {
+        throw new IOException("Missing reply");
+      }
+      return values;
+    }
+    catch (InterruptedException ex)
+    {
+      throw new IOException(ex);
+    }
+  }
 }
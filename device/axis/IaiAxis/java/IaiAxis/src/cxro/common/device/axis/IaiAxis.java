@@ -3,12 +3,12 @@ package cxro.common.device.axis;
 
 import cxro.common.io.modbus.Modbus;
 import cxro.common.io.modbus.ModbusException;
+import cxro.common.io.modbus.client.ModbusChannelPool;
 import cxro.common.io.modbus.client.ModbusTcpChannel;
 import cxro.common.io.modbus.client.ReadRWRegistersTransaction;
 import cxro.common.io.modbus.client.WriteRWDiscreteTransaction;
 import cxro.common.io.modbus.client.WriteRWRegistersTransaction;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -18,7 +18,8 @@ import java.util.prefs.Preferences;
  * <p>
  * The IAI controller is located on an RS-485 2W network and uses the Modbus/RTU protocol.
  * This device handler expects that it communicates with the controller via a Moxa MB3170
- * Modbus/TCP gateway. Each controller is assigned an individual Modbus/TCP connection.
+ * Modbus/TCP gateway. All controllers behind a gateway share one pipelined Modbus/TCP
+ * connection from {@link ModbusChannelPool}; each request carries the controller's unit id.
  * <p>
  * The IAI RS-485 network supports up to 16 controllers.
  * The Moxa MB3170 supports up to 32 simultaneous connections.
@@ -40,29 +41,24 @@ extends AbstractAxis
   private static final int STOP_ADDRESS = 0x042C;
   /**
    * 32-bit registers
+   * (status registers 0x9000..0x9007 are read as a block, see IaiAxisStatus)
    */
-  private static final int PNOW_ADDRESS = 0x9000;
   private static final int PCMD_ADDRESS = 0x9900;
   private static final int VCMD_ADDRESS = 0x9904;
   /**
    * 16-bit registers
    */
-  private static final int ALMC_ADDRESS = 0x9002;
-  private static final int DSS1_ADDRESS = 0x9005;
-  private static final int DSSE_ADDRESS = 0x9007;
   private static final int ACMD_ADDRESS = 0x9906;
-   /**
-   * Status Flags
+  /**
+   * Default maximum age of a status snapshot, in milliseconds.
+   * Shorter than the fast poll interval of a move wait (10 ms), so every
+   * poll reads fresh status, while the getters called within one poll
+   * (isReady, getPosition, ...) share a single block read. A waiting move
+   * thus reads the 8 status registers about every 10 ms, and only near its
+   * expected end; the gateway refreshes these registers from the axes
+   * cyclically, so reading faster would not return newer data.
    */
-  private static final short EMG = (short) 0x8000;
-  private static final short PWR = (short) 0x2000;
-  private static final short SV = (short) 0x1000;
-  private static final short ALMH = (short) 0x0400;
-  private static final short ALML = (short) 0x0200;
-  private static final short HEND = (short) 0x0010;
-  private static final short PEND = (short) 0x0008;
-  private static final short RDY = (short) 0x1008;  // (SV | PEND)
-  private static final short MOVE = (short) 0x0020;
+  private static final int DEFAULT_STATUS_MAX_AGE = 5;
   //
   // Instance fields
   private final ReadRWRegistersTransaction rRegistersTrans;
@@ -72,7 +68,10 @@ extends AbstractAxis
   private ModbusTcpChannel chan;
   private String locator;
   private int axisno = 0;
+  private int unitId = 1;
   private int targetRaw = 0;
+  private IaiAxisStatus status = null;
+  private long statusMaxAge = DEFAULT_STATUS_MAX_AGE * 1000000L;
 
   // --- Constructors ---
   /**
@@ -87,7 +86,8 @@ extends AbstractAxis
   throws IOException
   {
     // Initialize parent class. It calls local loadConfigsSpi()
-    super(nodeName);
+    // Axes on the same gateway share their operation threads
+    super(nodeName, "modbus:" + locator);
 
     //load current settings
     // NOTE: super() also calls loadConfigsSpi(),
@@ -101,31 +101,46 @@ extends AbstractAxis
     }
     this.axisno = axisno;
 
-    // Setup channel
+    // Setup channel, shared with the other axes on this gateway
     this.locator = locator;
-    this.chan = new ModbusTcpChannel(InetAddress.getByName(locator));
-    this.chan.setPort(Modbus.DEFAULT_PORT);
-    this.axisno = axisno;
-    this.chan.setUnitID(axisno + 1); // unitID starts at 1, axisno starts at 0
-    this.chan.connect();
-    
-    // Set specific fixed parameters
-    this.setAxisUnits("mm");
-    this.setHasAuxEncoder(false);
-    this.setHasHome(true);
-    this.setHasIndex(false);
-    this.setHasLimits(false);
-    this.setScale(100.0);
-    this.setUpperLimitHardRaw(999999.0);
-    this.setLowerLimitHardRaw(-30.0);
-
-    // Setup transactions
-    rRegistersTrans = new ReadRWRegistersTransaction(this.chan);
-    wRegistersTrans = new WriteRWRegistersTransaction(this.chan);
-    wDiscreteTrans = new WriteRWDiscreteTransaction(this.chan);
-    
-    // Make sure configs are saved
-    saveConfigsSpi();
+    this.chan = ModbusChannelPool.getDefault().acquire(locator, Modbus.DEFAULT_PORT);
+    boolean done = false;
+    try
+    {
+      this.axisno = axisno;
+      this.unitId = axisno + 1; // unitID starts at 1, axisno starts at 0
+
+      // Set specific fixed parameters
+      this.setAxisUnits("mm");
+      this.setHasAuxEncoder(false);
+      this.setHasHome(true);
+      this.setHasIndex(false);
+      this.setHasLimits(false);
+      this.setScale(100.0);
+      this.setUpperLimitHardRaw(999999.0);
+      this.setLowerLimitHardRaw(-30.0);
+
+      // Setup transactions
+      rRegistersTrans = new ReadRWRegistersTransaction(this.chan);
+      rRegistersTrans.setUnitID(unitId);
+      wRegistersTrans = new WriteRWRegistersTransaction(this.chan);
+      wRegistersTrans.setUnitID(unitId);
+      wDiscreteTrans = new WriteRWDiscreteTransaction(this.chan);
+      wDiscreteTrans.setUnitID(unitId);
+
+      // Make sure configs are saved
+      saveConfigsSpi();
+      done = true;
+    }
+    finally
+    {
+      if (!done)
+      {
+        // Do not leak the pooled channel
+        ModbusChannelPool.getDefault().release(chan);
+        chan = null;
+      }
+    }
   }
 
   /**
@@ -195,8 +210,7 @@ extends AbstractAxis
   throws IOException
   {
     // Return DSS1 extended to int
-    short result = getDss1();
-    return (((int)result) & 0xffff);
+    return getStatusSnapshot().getDss1();
   }
 
   /**
@@ -210,8 +224,48 @@ extends AbstractAxis
   throws IOException
   {
     // Return ALMC extended to int
-    short result = getAlmc();
-    return (((int)result) & 0xffff);
+    return getStatusSnapshot().getAlarmCode();
+  }
+
+  /**
+   * Read the status registers.
+   * <p>
+   * Reads PNOW, ALMC, DSS1 and DSSE (registers 0x9000..0x9007) with a single
+   * Modbus transaction. The snapshot is also cached for use by the status
+   * queries (<tt>isReady()</tt>, <tt>getPosition()</tt>, etc.).
+   * @return a fresh status snapshot.
+   * @throws IOException 
+   */
+  public final IaiAxisStatus readStatus()
+  throws IOException
+  {
+    return readStatusBlock();
+  }
+
+  /**
+   * Get the maximum age of a cached status snapshot.
+   * @return maximum age in milliseconds.
+   */
+  public final int getStatusMaxAge()
+  {
+    return (int) (statusMaxAge / 1000000L);
+  }
+
+  /**
+   * Set the maximum age of a cached status snapshot.
+   * <p>
+   * Status queries issued within this time of the last status read are
+   * served from that snapshot. Any write to the controller discards the
+   * snapshot. A value of 0 reads the status for every query.
+   * @param millis maximum age in milliseconds.
+   */
+  public final void setStatusMaxAge(int millis)
+  {
+    if (millis < 0)
+    {
+      throw new IllegalArgumentException("millis must be >= 0");
+    }
+    statusMaxAge = millis * 1000000L;
   }
 
   //---------- inherited/overridden -------------
@@ -222,8 +276,10 @@ extends AbstractAxis
   {
     if (chan != null)
     {
-      chan.close();
+      ModbusChannelPool.getDefault().release(chan);
+      chan = null;
     }
+    super.destroy();
   }
 
   @Override
@@ -268,8 +324,7 @@ extends AbstractAxis
   throws IOException
   {
     // Test for servo on
-    short status = getDss1();
-    return ((status & SV) != 0);
+    return getStatusSnapshot().isEnabled();
   }
 
   @Override
@@ -277,8 +332,7 @@ extends AbstractAxis
   throws IOException
   {
     // Test for HEND
-    short status = getDss1();
-    return ((status & HEND) != 0);
+    return getStatusSnapshot().isInitialized();
   }
 
   @Override
@@ -286,8 +340,7 @@ extends AbstractAxis
   throws IOException
   {
     // Test for RDY = (SV | PEND)
-    short status = getDss1();
-    return ((status & RDY) == RDY);
+    return getStatusSnapshot().isReady();
   }
 
   @Override
@@ -295,8 +348,7 @@ extends AbstractAxis
   throws IOException
   {
     // Test for MOVE bit in DSSE register.
-    short status = getDsse();
-    return ((status & MOVE) == 0);
+    return getStatusSnapshot().isStopped();
   }
 
   @Override
@@ -350,12 +402,8 @@ extends AbstractAxis
     // Issue stop command
     setStop();
     
-    // Wait till done
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady());
+    // Wait till done, regardless of the stop request
+    waitFor(readyCondition, 0L, false);
   }
 
   @Override
@@ -367,11 +415,7 @@ extends AbstractAxis
     setHome(true);
     
     // Wait till initialization is complete
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isInitialized() && !stopFlag);
+    waitFor(initializedCondition, 0L, true);
     
     // Turn off HOME command
     setHome(false);
@@ -427,7 +471,7 @@ extends AbstractAxis
   protected double getPositionRawSpi()
   throws IOException
   {
-    return ((double) getPnow());
+    return ((double) getStatusSnapshot().getPosition());
   }
 
   /**
@@ -465,15 +509,12 @@ extends AbstractAxis
     }
     
     // Set target position
+    double dist = dest - targetRaw;
     targetRaw = (int) dest;
     setPcmd(targetRaw);
     
     // Wait till done
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
+    waitUntilReady(dist);
   }
 
   @Override
@@ -481,7 +522,7 @@ extends AbstractAxis
   throws IOException, InterruptedException
   {
     // Actuators only support absolute moves
-    double dest = getPnow() + dist;
+    double dest = readStatusBlock().getPosition() + dist;
     
     // Test for range error
     if ((dest < -999999.0) || (dest > 999999.0))
@@ -494,11 +535,7 @@ extends AbstractAxis
     setPcmd(targetRaw);
     
     // Wait till done
-    do
-    {
-      Thread.sleep(100);
-    }
-    while (!isReady() && !stopFlag);
+    waitUntilReady(dist);
   }
 
   @Override
@@ -572,147 +609,44 @@ extends AbstractAxis
   //----------------------- PACKAGE   METHODS --------------------------------
   //----------------------- PRIVATE   METHODS --------------------------------
   /**
-   * Get ALMC Status Word.
-   * @return Alarm code (see IAI manual)
+   * Get a status snapshot no older than the configured maximum age.
+   * @return status snapshot
    * @throws IOException 
    */
-  private synchronized short getAlmc()
+  private synchronized IaiAxisStatus getStatusSnapshot()
   throws IOException
   {
-    try
+    IaiAxisStatus s = status;
+    if ((s == null) || (s.getAge() > statusMaxAge))
     {
-      rRegistersTrans.reqSetReference(ALMC_ADDRESS);
-      rRegistersTrans.reqSetCount(1);
-      rRegistersTrans.execute();
+      s = readStatusBlock();
     }
-    catch (ModbusException ex)
-    {
-      throw new IOException(ex);
-    }
-    
-    short[] res = rRegistersTrans.rspGetValues();
-    
-    return (res[0]);
-  }
-
-  /**
-   * Get DSS1 Status Word.
-   * <p>
-   * NOTE: This is unique to an IAI controller.
-   * <p>
-   * This is a combination of flag bits
-   * <ul>
-   * <li> D15 : EMGS, EMG input status
-   * <li> D14 : SFTY, Safety speed enabled status
-   * <li> D13 : PWR,  Controller ready status
-   * <li> D12 : SV,   Servo ON status
-   * <li> D11 : PSFL, Missed work part in push-motion operation
-   * <li> D10 : ALMH, Major failure status
-   * <li> D09 : ALML, Minor failure status
-   * <li> D08 : ABER, Absolute error status
-   * <li> D07 : BKRL, Brake forced-release status
-   * <li> D06 : RESERVED
-   * <li> D05 : STP,  Pause status
-   * <li> D04 : HEND, Home return completion status
-   * <li> D03 : PEND, Position complete status
-   * <li> D02 : CEND, Load cell calibration complete
-   * <li> D01 : CLBS, Load cell calibration status
-   * <li> D00 : RESERVED
-   * </ul>
-   *
-   * @return status word
-   * @throws IOException
-   */
-  private synchronized short getDss1()
-  throws IOException
-  {
-    try
-    {
-      rRegistersTrans.reqSetReference(DSS1_ADDRESS);
-      rRegistersTrans.reqSetCount(1);
-      rRegistersTrans.execute();
-    }
-    catch (ModbusException ex)
-    {
-      throw new IOException(ex);
-    }
-    
-    short[] res = rRegistersTrans.rspGetValues();
-    
-    return (res[0]);
+    return s;
   }
 
   /**
-   * Get DSSE status word.
-   * <p>
-   * NOTE: This is unique to an IAI controller.
-   * <p>
-   * This is a combination of flag bits
-   * <ul>
-   * <li> D15 : EMGP, Emergency stop status
-   * <li> D14 : MPUV, Motor voltage low status
-   * <li> D13 : RMDS, Operation mode status
-   * <li> D12 : RESERVED
-   * <li> D11 : GHMS, Home return status
-   * <li> D10 : PUSH, Push operation in progress
-   * <li> D09 : PSNS, Excitation detection status
-   * <li> D08 : PMSS, PIO/Modbus switching status
-   * <li> D07 : RESERVED
-   * <li> D06 : RESERVED
-   * <li> D05 : MOVE, Moving status
-   * <li> D04 : RESERVED
-   * <li> D03 : RESERVED
-   * <li> D02 : RESERVED
-   * <li> D01 : RESERVED
-   * <li> D00 : RESERVED
-   * </ul>
-   *
-   * @return
+   * Read status registers 0x9000..0x9007 in one transaction.
+   * @return status snapshot
    * @throws IOException 
    */
-  private synchronized short getDsse()
+  private synchronized IaiAxisStatus readStatusBlock()
   throws IOException
   {
     try
     {
-      rRegistersTrans.reqSetReference(DSSE_ADDRESS);
-      rRegistersTrans.reqSetCount(1);
+      rRegistersTrans.reqSetReference(IaiAxisStatus.START_ADDRESS);
+      rRegistersTrans.reqSetCount(IaiAxisStatus.REGISTER_COUNT);
       rRegistersTrans.execute();
     }
     catch (ModbusException ex)
     {
+      status = null;
       throw new IOException(ex);
     }
     
-    short[] res = rRegistersTrans.rspGetValues();
+    status = new IaiAxisStatus(rRegistersTrans.rspGetValues());
     
-    return (res[0]);
-  }
-
-  /**
-   * Get the PNOW register value.
-   * <p>
-   * PNOW holds the current actuator position, in units of 0.01 mm.
-   * @return
-   * @throws IOException 
-   */
-  private synchronized int getPnow() 
-  throws IOException
-  {
-    try
-    {
-      rRegistersTrans.reqSetReference(PNOW_ADDRESS);
-      rRegistersTrans.reqSetCount(2);
-      rRegistersTrans.execute();
-    }
-    catch (ModbusException ex)
-    {
-      throw new IOException(ex);
-    }
-    
-    short[] res = rRegistersTrans.rspGetValues();
-
-    return (((res[0] & 0xffff) << 16) + (res[1] & 0xffff));
+    return status;
   }
 
   /**
@@ -805,6 +739,7 @@ extends AbstractAxis
   private synchronized void setSon(boolean value)
   throws IOException
   {
+    status = null;
     try
     {
       wDiscreteTrans.reqSetReference(SON_ADDRESS);
@@ -827,6 +762,7 @@ extends AbstractAxis
   private synchronized void setAlrs(boolean value)
   throws IOException
   {
+    status = null;
     try
     {
       wDiscreteTrans.reqSetReference(ALRS_ADDRESS);
@@ -857,6 +793,7 @@ extends AbstractAxis
   private synchronized void setStp(boolean value)
   throws IOException
   {
+    status = null;
     try
     {
       wDiscreteTrans.reqSetReference(STP_ADDRESS);
@@ -880,6 +817,7 @@ extends AbstractAxis
   private synchronized void setHome(boolean value)
   throws IOException
   {
+    status = null;
     try
     {
       wDiscreteTrans.reqSetReference(HOME_ADDRESS);
@@ -902,6 +840,7 @@ extends AbstractAxis
   private synchronized void setStop()
   throws IOException
   {
+    status = null;
     try
     {
       wDiscreteTrans.reqSetReference(STOP_ADDRESS);
@@ -926,6 +865,7 @@ extends AbstractAxis
   private synchronized void setPcmd(int value)
   throws IOException
   {
+    status = null;
     try
     {
       short[] data = new short[2];
@@ -953,6 +893,7 @@ extends AbstractAxis
   private synchronized void setVcmd(int value)
   throws IOException
   {
+    status = null;
     try
     {
       short[] data = new short[2];
@@ -980,6 +921,7 @@ extends AbstractAxis
   private synchronized void setAcmd(int value)
   throws IOException
   {
+    status = null;
     try
     {
       short[] data = new short[1];
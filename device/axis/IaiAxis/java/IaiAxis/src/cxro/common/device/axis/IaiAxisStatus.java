@@ -0,0 +1,257 @@
+// @license
+package cxro.common.device.axis;
+
+/**
+ * Snapshot of the IAI controller status registers.
+ * <p>
+ * The monitor registers 0x9000..0x9007 are contiguous, so the complete
+ * status of an axis is obtained with a single Modbus read:
+ * <ul>
+ * <li> 0x9000-0x9001 : PNOW, current position (0.01 mm)
+ * <li> 0x9002 : ALMC, present alarm code
+ * <li> 0x9003 : DIPM, input port monitor
+ * <li> 0x9004 : DOPM, output port monitor
+ * <li> 0x9005 : DSS1, device status 1
+ * <li> 0x9006 : DSS2, device status 2
+ * <li> 0x9007 : DSSE, expansion device status
+ * </ul>
+ * Instances are immutable.
+ *
+ * @author cwcork
+ */
+public final class IaiAxisStatus
+{
+  /**
+   * First status register and number of registers in the block.
+   */
+  static final int START_ADDRESS = 0x9000;
+  static final int REGISTER_COUNT = 8;
+  /**
+   * DSS1 Status Flags
+   */
+  static final short EMG = (short) 0x8000;
+  static final short PWR = (short) 0x2000;
+  static final short SV = (short) 0x1000;
+  static final short ALMH = (short) 0x0400;
+  static final short ALML = (short) 0x0200;
+  static final short HEND = (short) 0x0010;
+  static final short PEND = (short) 0x0008;
+  static final short RDY = (short) 0x1008;  // (SV | PEND)
+  /**
+   * DSSE Status Flags
+   */
+  static final short MOVE = (short) 0x0020;
+  //
+  private final long timestamp;
+  private final int pnow;
+  private final short almc;
+  private final short dipm;
+  private final short dopm;
+  private final short dss1;
+  private final short dss2;
+  private final short dsse;
+
+  /**
+   * Decode the register block read from START_ADDRESS.
+   *
+   * @param regs REGISTER_COUNT registers
+   */
+  IaiAxisStatus(short[] regs)
+  {
+    if (regs.length < REGISTER_COUNT)
+    {
+      throw new IllegalArgumentException("Expected " + REGISTER_COUNT + " registers");
+    }
+    timestamp = System.nanoTime();
+    pnow = ((regs[0] & 0xffff) << 16) + (regs[1] & 0xffff);
+    almc = regs[2];
+    dipm = regs[3];
+    dopm = regs[4];
+    dss1 = regs[5];
+    dss2 = regs[6];
+    dsse = regs[7];
+  }
+
+  /**
+   * Get the time the snapshot was taken.
+   *
+   * @return System.nanoTime() at time of decoding.
+   */
+  public long getTimestamp()
+  {
+    return timestamp;
+  }
+
+  /**
+   * Get the age of this snapshot.
+   *
+   * @return age in nanoseconds.
+   */
+  public long getAge()
+  {
+    return System.nanoTime() - timestamp;
+  }
+
+  /**
+   * Get the PNOW register value.
+   *
+   * @return current actuator position, in units of 0.01 mm.
+   */
+  public int getPosition()
+  {
+    return pnow;
+  }
+
+  /**
+   * Get the ALMC register value.
+   *
+   * @return alarm code (see IAI manual), 0 if no alarm.
+   */
+  public int getAlarmCode()
+  {
+    return almc & 0xffff;
+  }
+
+  /**
+   * Get the DIPM input port monitor register.
+   *
+   * @return input port word.
+   */
+  public int getInputPort()
+  {
+    return dipm & 0xffff;
+  }
+
+  /**
+   * Get the DOPM output port monitor register.
+   *
+   * @return output port word.
+   */
+  public int getOutputPort()
+  {
+    return dopm & 0xffff;
+  }
+
+  /**
+   * Get DSS1 Status Word.
+   * <p>
+   * This is a combination of flag bits
+   * <ul>
+   * <li> D15 : EMGS, EMG input status
+   * <li> D14 : SFTY, Safety speed enabled status
+   * <li> D13 : PWR,  Controller ready status
+   * <li> D12 : SV,   Servo ON status
+   * <li> D11 : PSFL, Missed work part in push-motion operation
+   * <li> D10 : ALMH, Major failure status
+   * <li> D09 : ALML, Minor failure status
+   * <li> D08 : ABER, Absolute error status
+   * <li> D07 : BKRL, Brake forced-release status
+   * <li> D06 : RESERVED
+   * <li> D05 : STP,  Pause status
+   * <li> D04 : HEND, Home return completion status
+   * <li> D03 : PEND, Position complete status
+   * <li> D02 : CEND, Load cell calibration complete
+   * <li> D01 : CLBS, Load cell calibration status
+   * <li> D00 : RESERVED
+   * </ul>
+   *
+   * @return DSS1 status word.
+   */
+  public int getDss1()
+  {
+    return dss1 & 0xffff;
+  }
+
+  /**
+   * Get DSS2 Status Word (see IAI manual).
+   *
+   * @return DSS2 status word.
+   */
+  public int getDss2()
+  {
+    return dss2 & 0xffff;
+  }
+
+  /**
+   * Get DSSE status word.
+   * <p>
+   * This is a combination of flag bits
+   * <ul>
+   * <li> D15 : EMGP, Emergency stop status
+   * <li> D14 : MPUV, Motor voltage low status
+   * <li> D13 : RMDS, Operation mode status
+   * <li> D12 : RESERVED
+   * <li> D11 : GHMS, Home return status
+   * <li> D10 : PUSH, Push operation in progress
+   * <li> D09 : PSNS, Excitation detection status
+   * <li> D08 : PMSS, PIO/Modbus switching status
+   * <li> D07 : RESERVED
+   * <li> D06 : RESERVED
+   * <li> D05 : MOVE, Moving status
+   * <li> D04..D00 : RESERVED
+   * </ul>
+   *
+   * @return DSSE status word.
+   */
+  public int getDsse()
+  {
+    return dsse & 0xffff;
+  }
+
+  /**
+   * Test for servo on (SV).
+   *
+   * @return true if enabled.
+   */
+  public boolean isEnabled()
+  {
+    return ((dss1 & SV) != 0);
+  }
+
+  /**
+   * Test for home return complete (HEND).
+   *
+   * @return true if initialized.
+   */
+  public boolean isInitialized()
+  {
+    return ((dss1 & HEND) != 0);
+  }
+
+  /**
+   * Test for RDY = (SV | PEND).
+   *
+   * @return true if servo on and positioning complete.
+   */
+  public boolean isReady()
+  {
+    return ((dss1 & RDY) == RDY);
+  }
+
+  /**
+   * Test for MOVE bit in DSSE register.
+   *
+   * @return true if not moving.
+   */
+  public boolean isStopped()
+  {
+    return ((dsse & MOVE) == 0);
+  }
+
+  /**
+   * Test for a major or minor alarm.
+   *
+   * @return true if an alarm is present.
+   */
+  public boolean isAlarm()
+  {
+    return ((dss1 & (ALMH | ALML)) != 0);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("IaiAxisStatus[pnow=%d, almc=0x%04x, dss1=0x%04x, dsse=0x%04x]",
+                         pnow, getAlarmCode(), getDss1(), getDsse());
+  }
+}
@@ -0,0 +1,247 @@
+// @license
+package cxro.common.eps;
+
+import cxro.common.io.modbus.Modbus;
+import cxro.common.io.modbus.ModbusException;
+import cxro.common.io.modbus.client.ModbusChangeListener;
+import cxro.common.io.modbus.client.ModbusChangeMonitor;
+import cxro.common.io.modbus.client.ModbusChannelPool;
+import cxro.common.io.modbus.client.ModbusScanList;
+import cxro.common.io.modbus.client.ModbusTcpChannel;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Modbus/TCP client for the EPS PLC (WAGO 750-871/881).
+ * <p>
+ * Reads the whole point map with one scan: the points are grouped into
+ * coalesced FC1 (discretes) and FC3 (registers) block reads, pipelined on
+ * one {@link ModbusTcpChannel} from {@link ModbusChannelPool}, and
+ * published as a consistent {@link ModbusScanList.Snapshot}. Changes of the
+ * image are available through {@link #addChangeListener}, with optional
+ * deadbands for the analog (pressure) readings.
+ * <pre>
+ *   EpsClient eps = new EpsClient("eps-plc", EpsPointMap.loadDirectory(Paths.get("eps/SINS2/exports")));
+ *   eps.read();
+ *   boolean hi = eps.getBoolean("SC_PE203_PSL_HI");
+ *   int pe101 = eps.getInt("SC_PE101_PIY");
+ * </pre>
+ * 32-bit variables (%MD) are low word first, as CoDeSys stores them.
+ * <p>
+ * @author cwcork
+ */
+public final class EpsClient
+{
+  // Instance fields
+  private final EpsPointMap map;
+  private final ModbusScanList scanList;
+  private final ModbusChangeMonitor monitor;
+  private final Map<String, ModbusScanList.Point> scanPoints = new HashMap<>();
+  private ModbusTcpChannel chan;
+  private final boolean pooled;
+
+  /**
+   * Connect to the PLC on the default Modbus port.
+   * <p>
+   * @param host PLC host name or address
+   * @param map  point map
+   * @throws IOException if the PLC cannot be connected
+   */
+  public EpsClient(String host, EpsPointMap map)
+  throws IOException
+  {
+    this(ModbusChannelPool.getDefault().acquire(host, Modbus.DEFAULT_PORT), map, true);
+  }
+
+  /**
+   * Use a channel managed by the caller; {@link #close()} does not close it.
+   * <p>
+   * @param chan Modbus/TCP channel to the PLC
+   * @param map  point map
+   */
+  public EpsClient(ModbusTcpChannel chan, EpsPointMap map)
+  {
+    this(chan, map, false);
+  }
+
+  private EpsClient(ModbusTcpChannel chan, EpsPointMap map, boolean pooled)
+  {
+    this.chan = chan;
+    this.pooled = pooled;
+    this.map = map;
+    this.scanList = new ModbusScanList(chan);
+    this.scanList.setSwapWords(true);
+    for (EpsPoint p : map.getPoints())
+    {
+      scanPoints.put(p.getName(), scanList.addPoint(p.getName(), p.getTable(), p.getAddress(), p.getType()));
+    }
+    this.monitor = new ModbusChangeMonitor(scanList);
+  }
+
+  /**
+   * Release the channel.
+   */
+  public synchronized void close()
+  {
+    if (chan != null)
+    {
+      if (pooled)
+      {
+        ModbusChannelPool.getDefault().release(chan);
+      }
+      chan = null;
+    }
+  }
+
+  /**
+   * @return the point map
+   */
+  public EpsPointMap getPointMap()
+  {
+    return map;
+  }
+
+  /**
+   * @return the scan list, e.g. to inspect or tune the block reads
+   */
+  public ModbusScanList getScanList()
+  {
+    return scanList;
+  }
+
+  /**
+   * Read the whole image.
+   * <p>
+   * @return the new snapshot
+   * @throws IOException if a block read fails; the previous image is kept
+   */
+  public ModbusScanList.Snapshot read()
+  throws IOException
+  {
+    try
+    {
+      return scanList.scan();
+    }
+    catch (ModbusException ex)
+    {
+      throw new IOException("EPS read failed", ex);
+    }
+  }
+
+  /**
+   * Read the whole image without blocking; the block reads are pipelined.
+   * <p>
+   * @return future with the new snapshot
+   */
+  public CompletableFuture<ModbusScanList.Snapshot> readAsync()
+  {
+    return scanList.scanAsync();
+  }
+
+  /**
+   * Read the whole image and report the changed points to the change
+   * listeners.
+   * <p>
+   * @return the changed points; every point on the first read
+   * @throws IOException if a block read fails
+   */
+  public List<ModbusScanList.Point> poll()
+  throws IOException
+  {
+    try
+    {
+      return monitor.poll();
+    }
+    catch (ModbusException ex)
+    {
+      throw new IOException("EPS read failed", ex);
+    }
+  }
+
+  public void addChangeListener(ModbusChangeListener listener)
+  {
+    monitor.addListener(listener);
+  }
+
+  public void removeChangeListener(ModbusChangeListener listener)
+  {
+    monitor.removeListener(listener);
+  }
+
+  /**
+   * Set the change deadband of a numeric point, see {@link #poll()}.
+   * <p>
+   * @param name     variable name
+   * @param deadband change needed before the point is reported again, raw units
+   */
+  public void setDeadband(String name, double deadband)
+  {
+    monitor.setDeadband(point(name), deadband);
+  }
+
+  /**
+   * @return the last image read, or null before the first read
+   */
+  public ModbusScanList.Snapshot getSnapshot()
+  {
+    return scanList.getSnapshot();
+  }
+
+  /**
+   * @param name variable name
+   * @return value of a BOOL variable (or a numeric one is non-zero) in the last image
+   */
+  public boolean getBoolean(String name)
+  {
+    return snapshot().getBoolean(point(name));
+  }
+
+  /**
+   * @param name variable name
+   * @return value of an integer variable in the last image; WORD and UINT
+   *         are unsigned
+   */
+  public int getInt(String name)
+  {
+    ModbusScanList.Point p = point(name);
+    int value = snapshot().getInt(p);
+    if ((p.getType() == ModbusScanList.Type.INT16) && map.get(name).isUnsigned())
+    {
+      value &= 0xFFFF;
+    }
+    return value;
+  }
+
+  /**
+   * @param name variable name
+   * @return value of a REAL variable in the last image
+   */
+  public float getFloat(String name)
+  {
+    return snapshot().getFloat(point(name));
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private ModbusScanList.Point point(String name)
+  {
+    ModbusScanList.Point p = scanPoints.get(name);
+    if (p == null)
+    {
+      throw new IllegalArgumentException("unknown EPS point " + name);
+    }
+    return p;
+  }
+
+  private ModbusScanList.Snapshot snapshot()
+  {
+    ModbusScanList.Snapshot s = scanList.getSnapshot();
+    if (s == null)
+    {
+      throw new IllegalStateException("EPS image not read yet");
+    }
+    return s;
+  }
+}
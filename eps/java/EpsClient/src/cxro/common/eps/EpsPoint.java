@@ -0,0 +1,207 @@
+// @license
+package cxro.common.eps;
+
+import cxro.common.io.modbus.client.ModbusScanList;
+
+/**
+ * One located variable of the EPS PLC program, e.g.
+ * <tt>SC_PE203_PSL_HI AT %MX1.1 : BOOL</tt>, with its Modbus address.
+ * <p>
+ * The WAGO NOVRAM (retain) area starts at Modbus address 0x3000 in both the
+ * discrete and the register space (see eps/SINS2/docs/WAGO_NOVRAM_Address_Layout.txt):
+ * <pre>
+ *   %MXn.m  discrete  0x3000 + 16*n + m   read with FC1
+ *   %MWn    register  0x3000 + n          read with FC3
+ *   %MDn    registers 0x3000 + 2*n        (two words, low word first)
+ * </pre>
+ * <p>
+ * @author cwcork
+ */
+public final class EpsPoint
+{
+  // Class fields
+  /**
+   * Modbus address of %MX0.0 and %MW0.
+   */
+  public static final int NOVRAM_BASE = 0x3000;
+  /**
+   * Modbus address past the last discrete, %MX1279.15.
+   */
+  public static final int NOVRAM_DISCRETE_END = 0x8000;
+  //
+  // Instance fields
+  private final String name;
+  private final String location;
+  private final String plcType;
+  private final ModbusScanList.Table table;
+  private final int address;
+  private final ModbusScanList.Type type;
+
+  /**
+   * @param name     variable name
+   * @param location IEC location, e.g. "%MX1.1", "%MW1280"
+   * @param plcType  IEC data type, e.g. "BOOL", "WORD", "REAL"
+   * @throws IllegalArgumentException if the location or the data type is not
+   *                                  supported, or they do not fit together
+   */
+  public EpsPoint(String name, String location, String plcType)
+  {
+    this.name = name;
+    this.location = location.toUpperCase();
+    this.plcType = plcType.toUpperCase();
+
+    String loc = this.location;
+    if (!loc.startsWith("%M") || loc.length() < 4)
+    {
+      throw new IllegalArgumentException(name + ": unsupported location " + location);
+    }
+    char size = loc.charAt(2);
+    String index = loc.substring(3);
+    try
+    {
+      switch (size)
+      {
+        case 'X':
+        {
+          int dot = index.indexOf('.');
+          int n = Integer.parseInt(index.substring(0, dot));
+          int m = Integer.parseInt(index.substring(dot + 1));
+          if (m < 0 || m > 15)
+          {
+            throw new IllegalArgumentException(name + ": bad bit number in " + location);
+          }
+          this.table = ModbusScanList.Table.COILS;
+          this.address = discreteAddress(n, m);
+          this.type = ModbusScanList.Type.BIT;
+          break;
+        }
+        case 'W':
+          this.table = ModbusScanList.Table.HOLDING_REGISTERS;
+          this.address = registerAddress(Integer.parseInt(index));
+          this.type = ModbusScanList.Type.INT16;
+          break;
+        case 'D':
+          this.table = ModbusScanList.Table.HOLDING_REGISTERS;
+          this.address = registerAddress(2 * Integer.parseInt(index));
+          this.type = "REAL".equals(this.plcType) ? ModbusScanList.Type.FLOAT : ModbusScanList.Type.INT32;
+          break;
+        default:
+          throw new IllegalArgumentException(name + ": unsupported location " + location);
+      }
+    }
+    catch (NumberFormatException | StringIndexOutOfBoundsException ex)
+    {
+      throw new IllegalArgumentException(name + ": bad location " + location, ex);
+    }
+    if (!fits(size, this.plcType))
+    {
+      throw new IllegalArgumentException(name + ": " + plcType + " does not fit " + location);
+    }
+  }
+
+  /**
+   * @param n byte-pair (word) index of %MXn.m
+   * @param m bit index 0..15
+   * @return Modbus discrete address
+   */
+  public static int discreteAddress(int n, int m)
+  {
+    int address = NOVRAM_BASE + 16 * n + m;
+    if (n < 0 || address >= NOVRAM_DISCRETE_END)
+    {
+      throw new IllegalArgumentException("%MX" + n + "." + m + " outside the discrete area");
+    }
+    return address;
+  }
+
+  /**
+   * @param n word index of %MWn
+   * @return Modbus register address
+   */
+  public static int registerAddress(int n)
+  {
+    int address = NOVRAM_BASE + n;
+    if (n < 0 || address > 0xFFFF)
+    {
+      throw new IllegalArgumentException("%MW" + n + " outside the register space");
+    }
+    return address;
+  }
+
+  /**
+   * @return variable name
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return IEC location, e.g. "%MX1.1"
+   */
+  public String getLocation()
+  {
+    return location;
+  }
+
+  /**
+   * @return IEC data type, e.g. "BOOL"
+   */
+  public String getPlcType()
+  {
+    return plcType;
+  }
+
+  /**
+   * @return Modbus table the point is read from
+   */
+  public ModbusScanList.Table getTable()
+  {
+    return table;
+  }
+
+  /**
+   * @return Modbus discrete or register address
+   */
+  public int getAddress()
+  {
+    return address;
+  }
+
+  /**
+   * @return scan list type
+   */
+  public ModbusScanList.Type getType()
+  {
+    return type;
+  }
+
+  /**
+   * @return true for unsigned PLC types (WORD, UINT, DWORD, UDINT)
+   */
+  public boolean isUnsigned()
+  {
+    return plcType.startsWith("U") || plcType.endsWith("WORD");
+  }
+
+  @Override
+  public String toString()
+  {
+    return name + " AT " + location + " : " + plcType + " (0x" + Integer.toHexString(address) + ")";
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private static boolean fits(char size, String plcType)
+  {
+    switch (size)
+    {
+      case 'X':
+        return "BOOL".equals(plcType);
+      case 'W':
+        return "WORD".equals(plcType) || "INT".equals(plcType) || "UINT".equals(plcType);
+      default:
+        return "DWORD".equals(plcType) || "DINT".equals(plcType) || "UDINT".equals(plcType)
+               || "REAL".equals(plcType);
+    }
+  }
+}
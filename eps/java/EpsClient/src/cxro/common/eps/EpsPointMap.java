@@ -0,0 +1,206 @@
+// @license
+package cxro.common.eps;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Point map of the EPS PLC, loaded from the CoDeSys exports (eps/SINS2/exports).
+ * <p>
+ * Every located variable declaration of an .EXP file, e.g.
+ * <pre>
+ *   SC_PE203_PSL_HI AT %MX1.1:BOOL;
+ *   SC_PE101_PIY AT %MW1284 : WORD;
+ * </pre>
+ * becomes an {@link EpsPoint}. Comments (nested, as CoDeSys allows) are
+ * skipped. Declarations that cannot be mapped to the NOVRAM area (inputs,
+ * outputs, byte locations) are logged and ignored.
+ * <p>
+ * @author cwcork
+ */
+public final class EpsPointMap
+{
+  // Class fields
+  private static final Logger logger = Logger.getLogger(EpsPointMap.class.getName());
+  // CoDeSys 2.3 exports are written in the Windows code page
+  private static final Charset EXPORT_CHARSET = StandardCharsets.ISO_8859_1;
+  private static final Pattern DECLARATION = Pattern.compile(
+    "\\b([A-Za-z_]\\w*)\\s+AT\\s+(%[A-Za-z]+[0-9.]+)\\s*:\\s*([A-Za-z_]\\w*)");
+  //
+  // Instance fields
+  private final Map<String, EpsPoint> points = new LinkedHashMap<>();
+
+  public EpsPointMap()
+  {
+  }
+
+  /**
+   * Load all .EXP files of a directory.
+   * <p>
+   * @param dir export directory, e.g. eps/SINS2/exports
+   * @return point map
+   * @throws IOException if a file cannot be read
+   */
+  public static EpsPointMap loadDirectory(Path dir)
+  throws IOException
+  {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir))
+    {
+      for (Path f : ds)
+      {
+        if (f.getFileName().toString().toUpperCase().endsWith(".EXP"))
+        {
+          files.add(f);
+        }
+      }
+    }
+    Collections.sort(files);
+    EpsPointMap map = new EpsPointMap();
+    for (Path f : files)
+    {
+      map.load(f);
+    }
+    return map;
+  }
+
+  /**
+   * Add the points declared in one .EXP file.
+   * <p>
+   * @param file export file
+   * @return number of points added
+   * @throws IOException if the file cannot be read
+   */
+  public int load(Path file)
+  throws IOException
+  {
+    try (Reader in = Files.newBufferedReader(file, EXPORT_CHARSET))
+    {
+      return parse(in, file.getFileName().toString());
+    }
+  }
+
+  /**
+   * Add the points declared in export text.
+   * <p>
+   * @param in     export text
+   * @param source name used in log messages
+   * @return number of points added
+   * @throws IOException if the text cannot be read
+   */
+  public int parse(Reader in, String source)
+  throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    char[] buf = new char[8192];
+    int n;
+    while ((n = in.read(buf)) > 0)
+    {
+      sb.append(buf, 0, n);
+    }
+    Matcher m = DECLARATION.matcher(stripComments(sb));
+    int count = 0;
+    while (m.find())
+    {
+      String name = m.group(1);
+      try
+      {
+        add(new EpsPoint(name, m.group(2), m.group(3)));
+        count++;
+      }
+      catch (IllegalArgumentException ex)
+      {
+        logger.log(Level.WARNING, "{0}: {1} ignored", new Object[]{source, ex.getMessage()});
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Add a point.
+   * <p>
+   * @param point the point
+   * @throws IllegalArgumentException if another point has the same name
+   */
+  public synchronized void add(EpsPoint point)
+  {
+    if (points.containsKey(point.getName()))
+    {
+      throw new IllegalArgumentException("duplicate point " + point.getName());
+    }
+    points.put(point.getName(), point);
+  }
+
+  /**
+   * @param name variable name
+   * @return point, or null if not in the map
+   */
+  public synchronized EpsPoint get(String name)
+  {
+    return points.get(name);
+  }
+
+  /**
+   * @return all points, in declaration order
+   */
+  public synchronized List<EpsPoint> getPoints()
+  {
+    return Collections.unmodifiableList(new ArrayList<>(points.values()));
+  }
+
+  /**
+   * @return number of points
+   */
+  public synchronized int size()
+  {
+    return points.size();
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  /**
+   * Replace (possibly nested) (* ... *) comments with a blank.
+   */
+  private static String stripComments(CharSequence text)
+  {
+    StringBuilder sb = new StringBuilder(text.length());
+    int depth = 0;
+    for (int i = 0; i < text.length(); i++)
+    {
+      char c = text.charAt(i);
+      char next = (i + 1 < text.length()) ? text.charAt(i + 1) : 0;
+      if (c == '(' && next == '*')
+      {
+        depth++;
+        i++;
+      }
+      else if (depth > 0 && c == '*' && next == ')')
+      {
+        depth--;
+        i++;
+        if (depth == 0)
+        {
+          sb.append(' ');
+        }
+      }
+      else if (depth == 0)
+      {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,101 @@
+// @license
+package cxro.common.eps;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading the point map from CoDeSys export text.
+ *
+ * @author cwcork
+ */
+public class EpsPointMapTest
+{
+  // Relative to the project directory, where the tests run
+  private static final Path EXPORTS = Paths.get("../../SINS2/exports");
+
+  @Test
+  public void testParse()
+  throws IOException
+  {
+    String text =
+      "(* @NESTEDCOMMENTS := 'Yes' *)\r\n"
+      + "VAR_GLOBAL\r\n"
+      + "\tSC_PE203_PSL_HI AT %MX1.1:BOOL;\r\n"
+      + "\tSC_PE101_PIY AT %MW1284 : WORD; (* pressure, raw *)\r\n"
+      + "\tLOCAL_FLAG : BOOL;\r\n"
+      + "END_VAR\r\n";
+    EpsPointMap map = new EpsPointMap();
+    assertEquals(2, map.parse(new StringReader(text), "test"));
+    assertEquals(2, map.size());
+    List<EpsPoint> points = map.getPoints();
+    assertEquals("SC_PE203_PSL_HI", points.get(0).getName());
+    assertEquals("SC_PE101_PIY", points.get(1).getName());
+    assertEquals(0x3504, map.get("SC_PE101_PIY").getAddress());
+    assertNull(map.get("LOCAL_FLAG"));
+  }
+
+  @Test
+  public void testComments()
+  throws IOException
+  {
+    String text =
+      "(* OLD_FLAG AT %MX0.0 : BOOL; (* nested *) STILL_OLD AT %MX0.1 : BOOL; *)\n"
+      + "NEW_FLAG AT %MX0.2 : BOOL;\n";
+    EpsPointMap map = new EpsPointMap();
+    assertEquals(1, map.parse(new StringReader(text), "test"));
+    assertNotNull(map.get("NEW_FLAG"));
+    assertNull(map.get("OLD_FLAG"));
+    assertNull(map.get("STILL_OLD"));
+  }
+
+  @Test
+  public void testInvalidIgnored()
+  throws IOException
+  {
+    String text =
+      "DI_PE101 AT %IW0 : WORD;\n"
+      + "GOOD AT %MW2 : INT;\n"
+      + "GOOD AT %MW3 : INT;\n"
+      + "BAD_TYPE AT %MX0.0 : WORD;\n";
+    EpsPointMap map = new EpsPointMap();
+    assertEquals(1, map.parse(new StringReader(text), "test"));
+    assertEquals(0x3002, map.get("GOOD").getAddress());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicate()
+  {
+    EpsPointMap map = new EpsPointMap();
+    map.add(new EpsPoint("A", "%MX0.0", "BOOL"));
+    map.add(new EpsPoint("A", "%MX0.1", "BOOL"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testPointsUnmodifiable()
+  {
+    new EpsPointMap().getPoints().add(new EpsPoint("A", "%MX0.0", "BOOL"));
+  }
+
+  @Test
+  public void testLoadExports()
+  throws IOException
+  {
+    Assume.assumeTrue(Files.isDirectory(EXPORTS));
+    EpsPointMap map = EpsPointMap.loadDirectory(EXPORTS);
+    assertEquals(155, map.size());
+    assertEquals(0x3011, map.get("SC_PE203_PSL_HI").getAddress());
+    assertEquals(0x3504, map.get("SC_PE101_PIY").getAddress());
+    for (EpsPoint p : map.getPoints())
+    {
+      assertTrue(p.toString(), p.getAddress() >= EpsPoint.NOVRAM_BASE);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// @license
+package cxro.common.eps;
+
+import cxro.common.io.modbus.client.ModbusScanList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the mapping of IEC locations to Modbus addresses.
+ *
+ * @author cwcork
+ */
+public class EpsPointTest
+{
+  @Test
+  public void testDiscrete()
+  {
+    EpsPoint p = new EpsPoint("SC_PE203_PSL_HI", "%MX1.1", "BOOL");
+    assertEquals(ModbusScanList.Table.COILS, p.getTable());
+    assertEquals(ModbusScanList.Type.BIT, p.getType());
+    assertEquals(0x3011, p.getAddress());
+    assertEquals(0x3000, new EpsPoint("A", "%MX0.0", "BOOL").getAddress());
+    assertEquals(0x300F, new EpsPoint("B", "%mx0.15", "bool").getAddress());
+    assertEquals(0x7FFF, new EpsPoint("C", "%MX1279.15", "BOOL").getAddress());
+  }
+
+  @Test
+  public void testWord()
+  {
+    EpsPoint p = new EpsPoint("SC_PE101_PIY", "%MW1284", "WORD");
+    assertEquals(ModbusScanList.Table.HOLDING_REGISTERS, p.getTable());
+    assertEquals(ModbusScanList.Type.INT16, p.getType());
+    assertEquals(0x3504, p.getAddress());
+    assertTrue(p.isUnsigned());
+    assertFalse(new EpsPoint("I", "%MW0", "INT").isUnsigned());
+    assertTrue(new EpsPoint("U", "%MW0", "UINT").isUnsigned());
+  }
+
+  @Test
+  public void testDoubleWord()
+  {
+    EpsPoint d = new EpsPoint("D", "%MD10", "DINT");
+    assertEquals(ModbusScanList.Type.INT32, d.getType());
+    assertEquals(0x3014, d.getAddress());
+    assertFalse(d.isUnsigned());
+    EpsPoint r = new EpsPoint("R", "%MD10", "REAL");
+    assertEquals(ModbusScanList.Type.FLOAT, r.getType());
+    assertEquals(0x3014, r.getAddress());
+    assertTrue(new EpsPoint("W", "%MD1", "DWORD").isUnsigned());
+  }
+
+  @Test
+  public void testToString()
+  {
+    assertEquals("X AT %MX1.1 : BOOL (0x3011)", new EpsPoint("X", "%MX1.1", "BOOL").toString());
+  }
+
+  @Test
+  public void testRejected()
+  {
+    String[][] bad =
+    {
+      {"%IX0.0", "BOOL"},     // input, not NOVRAM
+      {"%QW2", "WORD"},       // output
+      {"%MB4", "BYTE"},       // byte location
+      {"%MX0.16", "BOOL"},    // bit number
+      {"%MX1280.0", "BOOL"},  // past the discrete area
+      {"%MX1", "BOOL"},       // no bit number
+      {"%MWx", "WORD"},       // not a number
+      {"%MW65536", "WORD"},   // past the register space
+      {"%MX0.0", "WORD"},     // type does not fit
+      {"%MW1", "REAL"},
+      {"%MD1", "BOOL"},
+      {"%M", "BOOL"}
+    };
+    for (String[] b : bad)
+    {
+      try
+      {
+        new EpsPoint("P", b[0], b[1]);
+        fail(b[0] + " : " + b[1] + " accepted");
+      }
+      catch (IllegalArgumentException ex)
+      {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,263 @@
+// @license
+package cxro.common.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * ASCII number conversion for the Hydra (Venus-2) protocol, working
+ * directly on byte buffers so that commands can be encoded and replies
+ * decoded without creating intermediate Strings.
+ * <p>
+ * The parse methods use absolute indices and do not change the buffer
+ * position; the format methods append at the buffer position.
+ *
+ * @author cwcork
+ */
+public final class HydraCodec
+{
+  private static final double[] POW10 =
+  {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  // Largest mantissa that can take one more decimal digit
+  private static final long MAX_MANTISSA = (Long.MAX_VALUE - 9) / 10;
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  // Largest value format(double, int) accepts
+  private static final double MAX_FORMAT = 1e12;
+
+  private HydraCodec()
+  {
+  }
+
+  /**
+   * Parse whitespace separated numbers, e.g. "1.500000 -2.000000".
+   * Values beyond the end of <tt>dst</tt> are ignored.
+   *
+   * @param buf source buffer
+   * @param start index of first byte
+   * @param end index after last byte
+   * @param dst destination
+   * @param off first index in destination
+   * @return number of values stored, or -1 if a token is not a number
+   */
+  public static int parse(ByteBuffer buf, int start, int end, double[] dst, int off)
+  {
+    int n = 0;
+    int i = start;
+    while (true)
+    {
+      // Skip white space
+      while ((i < end) && (buf.get(i) <= ' '))
+      {
+        i++;
+      }
+      if (i >= end)
+      {
+        return n;
+      }
+
+      // Sign
+      boolean negative = false;
+      byte c = buf.get(i);
+      if ((c == '-') || (c == '+'))
+      {
+        negative = (c == '-');
+        i++;
+      }
+
+      // Mantissa
+      long mantissa = 0;
+      int exponent = 0;
+      int digits = 0;
+      boolean point = false;
+      for (; i < end; i++)
+      {
+        c = buf.get(i);
+        if ((c >= '0') && (c <= '9'))
+        {
+          digits++;
+          if (mantissa <= MAX_MANTISSA)
+          {
+            mantissa = (mantissa * 10) + (c - '0');
+            if (point)
+            {
+              exponent--;
+            }
+          }
+          else if (!point)
+          {
+            exponent++;
+          }
+        }
+        else if ((c == '.') && !point)
+        {
+          point = true;
+        }
+        else
+        {
+          break;
+        }
+      }
+      if (digits == 0)
+      {
+        return -1;
+      }
+
+      // Exponent
+      if ((i < end) && ((c == 'e') || (c == 'E')))
+      {
+        i++;
+        boolean expNegative = false;
+        if ((i < end) && ((buf.get(i) == '-') || (buf.get(i) == '+')))
+        {
+          expNegative = (buf.get(i) == '-');
+          i++;
+        }
+        int e = 0;
+        int expDigits = 0;
+        while ((i < end) && (buf.get(i) >= '0') && (buf.get(i) <= '9'))
+        {
+          e = Math.min((e * 10) + (buf.get(i) - '0'), 9999);
+          expDigits++;
+          i++;
+        }
+        if (expDigits == 0)
+        {
+          return -1;
+        }
+        exponent += expNegative ? -e : e;
+      }
+
+      // Token must end here
+      if ((i < end) && (buf.get(i) > ' '))
+      {
+        return -1;
+      }
+      if ((off + n) < dst.length)
+      {
+        double v = scale(mantissa, exponent);
+        dst[off + n] = negative ? -v : v;
+        n++;
+      }
+    }
+  }
+
+  /**
+   * Decode ASCII bytes to a String.
+   *
+   * @param buf source buffer
+   * @param start index of first byte
+   * @param end index after last byte
+   * @return decoded text
+   */
+  public static String toString(ByteBuffer buf, int start, int end)
+  {
+    char[] text = new char[end - start];
+    for (int i = start; i < end; i++)
+    {
+      text[i - start] = (char) (buf.get(i) & 0x7f);
+    }
+    return new String(text);
+  }
+
+  /**
+   * Encode a fixed command once, for repeated sends.
+   *
+   * @param cmd command, including terminator, e.g. "1 nst \n"
+   * @return direct buffer ready to be written (position 0, limit at end)
+   */
+  public static ByteBuffer encode(String cmd)
+  {
+    ByteBuffer src = ASCII.encode(cmd);
+    ByteBuffer buf = ByteBuffer.allocateDirect(src.remaining());
+    buf.put(src);
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Append an integer in decimal, like "%d".
+   *
+   * @param dst destination buffer
+   * @param v value
+   */
+  public static void format(ByteBuffer dst, long v)
+  {
+    if (v < 0)
+    {
+      dst.put((byte) '-');
+    }
+    else
+    {
+      v = -v;
+    }
+    // Work with negative values so that Long.MIN_VALUE is handled
+    long div = -1;
+    while ((v / 10) <= div)
+    {
+      div *= 10;
+    }
+    while (div != 0)
+    {
+      dst.put((byte) ('0' + (v / div)));
+      v %= div;
+      div /= 10;
+    }
+  }
+
+  /**
+   * Append a number with a fixed number of decimals, like "%.4f".
+   *
+   * @param dst destination buffer
+   * @param v value, |v| < 1e12
+   * @param decimals number of decimals [0..6]
+   */
+  public static void format(ByteBuffer dst, double v, int decimals)
+  {
+    if ((decimals < 0) || (decimals > 6))
+    {
+      throw new IllegalArgumentException("decimals out of range [0..6]");
+    }
+    if (!(Math.abs(v) < MAX_FORMAT))
+    {
+      throw new IllegalArgumentException("Out of range: " + v);
+    }
+    long pow = (long) POW10[decimals];
+    long scaled = Math.round(Math.abs(v) * pow);
+    if ((v < 0) && (scaled != 0))
+    {
+      dst.put((byte) '-');
+    }
+    format(dst, scaled / pow);
+    if (decimals > 0)
+    {
+      dst.put((byte) '.');
+      long frac = scaled % pow;
+      for (long div = pow / 10; div > 0; div /= 10)
+      {
+        dst.put((byte) ('0' + (frac / div)));
+        frac %= div;
+      }
+    }
+  }
+
+  private static double scale(long mantissa, int exponent)
+  {
+    // Exact for the short replies the Hydra sends (mantissa < 2^53)
+    if (exponent == 0)
+    {
+      return mantissa;
+    }
+    if ((exponent < 0) && (exponent >= -22))
+    {
+      return mantissa / POW10[-exponent];
+    }
+    if ((exponent > 0) && (exponent <= 22))
+    {
+      return mantissa * POW10[exponent];
+    }
+    return mantissa * Math.pow(10.0, exponent);
+  }
+}
@@ -6,19 +6,51 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- *
+ * TCP link to a Hydra (Venus-2) motion controller.
+ * <p>
+ * Replies are framed by the reader thread on the line terminator, so a
+ * reply split over several TCP segments, or several replies in one
+ * segment, are handled correctly. Requests made with <tt>sar</tt> (or a
+ * {@link HydraCommandBatch}) are queued before they are written and are
+ * paired with reply lines in FIFO order, so several threads may have
+ * requests outstanding at once. Numeric replies can be parsed directly from
+ * the receive buffer (see {@link HydraCodec}).
+ * <p>
+ * The Hydra does not tag its replies, so the pairing relies on every line
+ * being the reply to the oldest outstanding request:
+ * <ul>
+ * <li>If a request times out, or a numeric request gets a line that is not a
+ * number, the pairing can no longer be trusted (a reply was lost, or a
+ * stray line was received). The connection is then closed and reopened, so
+ * that a late reply cannot be taken for the reply to a later request; other
+ * outstanding requests fail with an IOException.</li>
+ * <li>{@link #snd} is meant for commands without reply. It waits until no
+ * request is outstanding before it writes, so that it is never interleaved
+ * with the replies of pending requests. Lines that arrive while no request
+ * is outstanding (e.g. the reply to a query sent with snd) are kept for
+ * {@link #rcv}; such a reply must be collected before the next request is
+ * made, or it is taken as that request's reply.</li>
+ * <li>An empty line is a reply like any other when a request is
+ * outstanding; otherwise it is ignored.</li>
+ * </ul>
+ * <p>
+ * For polling, commands may be pre-encoded with {@link HydraCodec#encode}
+ * and sent with {@link #snd(ByteBuffer)} and {@link #sarValue(ByteBuffer)},
+ * which do not allocate.
  *
  * @author cwcork
  */
@@ -29,18 +61,26 @@ public class HydraComm
   private static final int DEFAULT_TIMEOUT = 1000;
   private static final int DEFAULT_PORT = 400;
   private static final int MAX_MESSAGE_LENGTH = 1024;
+  private static final int MAX_UNCLAIMED = 16;
   //
   private final ByteBuffer in = ByteBuffer.allocateDirect(MAX_MESSAGE_LENGTH);
   private final ByteBuffer out = ByteBuffer.allocateDirect(MAX_MESSAGE_LENGTH);
-  
+  // Requests awaiting reply lines, in the order they were written
+  private final ArrayDeque<PendingReply> pending = new ArrayDeque<>();
+  // Reply lines no request was waiting for, see rcv()
+  private final LinkedBlockingQueue<String> unclaimed = new LinkedBlockingQueue<>(MAX_UNCLAIMED);
+  // Idle numeric requests for reuse
+  private final ArrayDeque<PendingReply> idle = new ArrayDeque<>();
+  // Notified when the reader has reopened the connection
+  private final Object connected = new Object();
+
   private String hostName;
-  private SocketChannel chan;
+  private volatile SocketChannel chan;
   private InetAddress address;
   private int port = DEFAULT_PORT;
-  private SynchronousQueue<String> queue;
   private ExecutorService exec;
-  private boolean shutdown = false;
-  private boolean reconnect = false;
+  private volatile boolean shutdown = false;
+  private volatile boolean reconnect = false;
 
   //-- constructors
   public HydraComm(String hostName)
@@ -64,7 +104,6 @@ public class HydraComm
 
     shutdown = false;
     reconnect = false;
-    queue = new SynchronousQueue<>();
     exec = Executors.newSingleThreadExecutor();
     exec.execute(new HydraComm.Reader());
   }
@@ -75,48 +114,170 @@ public class HydraComm
     return hostName;
   }
 
+  /**
+   * Send a command that has no reply.
+   * Waits until all outstanding requests have their replies (or resyncs
+   * the link if they time out), so the command is never interleaved with
+   * pending replies.
+   *
+   * @param msg command, including terminator
+   * @throws IOException
+   */
   public synchronized void snd(String msg)
   throws IOException
   {
-    try
+    awaitIdle();
+    write(msg);
+  }
+
+  /**
+   * Send a pre-encoded command.
+   * The bytes between position and limit are sent; the position is not
+   * changed, so the buffer can be sent again.
+   *
+   * @param msg command, including terminator
+   * @throws IOException
+   */
+  public synchronized void snd(ByteBuffer msg)
+  throws IOException
+  {
+    awaitIdle();
+    write(msg);
+  }
+
+  /**
+   * Send a pre-encoded query and parse its one line numeric reply.
+   * Uses default receive timeout of 1 second.
+   *
+   * @param msg query, including terminator
+   * @return first number in the reply
+   * @throws IOException if the reply is not numeric
+   * @throws InterruptedException on timeout
+   */
+  public double sarValue(ByteBuffer msg)
+  throws IOException, InterruptedException
+  {
+    PendingReply p = borrow();
+    p.reset(1, p.value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT));
+    request(msg, p);
+    await(p);
+    if (p.getCount() < 1)
     {
-      out.clear();
-      out.put(ASCII.encode(msg));
-      out.flip();
-      chan.write(out);
+      throw new IOException("Empty reply");
     }
-    catch (ClosedChannelException ex)
+    double res = p.value[0];
+    giveBack(p);
+    return res;
+  }
+
+  /**
+   * Send a pre-encoded message and parse the numbers in its reply lines.
+   *
+   * @param msg message, including terminator
+   * @param lines number of reply lines expected
+   * @param values receives the numbers, in reply order
+   * @param timeout timeout for all lines
+   * @param unit timeout unit
+   * @return number of values stored
+   * @throws IOException if a reply is not numeric
+   * @throws InterruptedException on timeout
+   */
+  public int sarValues(ByteBuffer msg, int lines, double[] values, long timeout, TimeUnit unit)
+  throws IOException, InterruptedException
+  {
+    if (lines <= 0)
     {
-      // unblock reader and let it try to reconnect
-      queue.poll();
-      throw new IOException("ClosedChannelException");
+      throw new IllegalArgumentException("lines must be > 0");
     }
+    PendingReply p = borrow();
+    p.reset(lines, values, System.nanoTime() + unit.toNanos(timeout));
+    request(msg, p);
+    await(p);
+    int res = p.getCount();
+    giveBack(p);
+    return res;
   }
 
-  public synchronized String rcv(long timeout, TimeUnit unit)
+  /**
+   * Receive the next reply line that no request was waiting for, i.e. a
+   * reply to a command sent with {@link #snd}.
+   *
+   * @param timeout timeout
+   * @param unit timeout unit
+   * @return reply line, without terminator
+   * @throws IOException
+   * @throws InterruptedException on timeout
+   */
+  public String rcv(long timeout, TimeUnit unit)
   throws IOException, InterruptedException
   {
-    String res = queue.poll(timeout, unit);
+    String res = unclaimed.poll(timeout, unit);
     if (res == null)
     {
-      // unblock reader and let it try to reconnect
-      queue.poll();
       throw new InterruptedException("Read timeout");
     }
     return (res);
   }
 
-  public synchronized String sar(String command)
+  public String sar(String command)
   throws IOException, InterruptedException
   {
     return sar(command, DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
   }
 
-  public synchronized String sar(String msg, int timeout, TimeUnit unit)
+  public String sar(String msg, int timeout, TimeUnit unit)
+  throws IOException, InterruptedException
+  {
+    return sar(msg, 1, timeout, unit)[0];
+  }
+
+  /**
+   * Create an empty command batch for this controller.
+   *
+   * @return new batch
+   */
+  public HydraCommandBatch newBatch()
+  {
+    return new HydraCommandBatch(this);
+  }
+
+  /**
+   * Send one message and collect a number of reply lines.
+   *
+   * @param msg message, including terminator
+   * @param lines number of reply lines expected
+   * @param timeout timeout for all lines
+   * @param unit timeout unit
+   * @return reply lines, trimmed
+   * @throws IOException
+   * @throws InterruptedException on timeout
+   */
+  String[] sar(String msg, int lines, long timeout, TimeUnit unit)
   throws IOException, InterruptedException
   {
-    this.snd(msg);
-    return (this.rcv(timeout, unit));
+    PendingReply p = request(msg, lines, null, timeout, unit);
+    await(p);
+    return p.getText();
+  }
+
+  /**
+   * Send one message and parse the numbers in a number of reply lines.
+   *
+   * @param msg message, including terminator
+   * @param lines number of reply lines expected
+   * @param values receives the numbers, in reply order
+   * @param timeout timeout for all lines
+   * @param unit timeout unit
+   * @return number of values stored
+   * @throws IOException if a reply is not numeric
+   * @throws InterruptedException on timeout
+   */
+  int sar(String msg, int lines, double[] values, long timeout, TimeUnit unit)
+  throws IOException, InterruptedException
+  {
+    PendingReply p = request(msg, lines, values, timeout, unit);
+    await(p);
+    return p.getCount();
   }
 
   public void close()
@@ -132,6 +293,346 @@ public class HydraComm
     {
       // ignore
     }
+    failPending(new IOException("Closed"));
+  }
+
+  //-- private --
+  private void write(String msg)
+  throws IOException
+  {
+    out.clear();
+    out.put(ASCII.encode(msg));
+    out.flip();
+    flush();
+  }
+
+  private void write(ByteBuffer msg)
+  throws IOException
+  {
+    int pos = msg.position();
+    out.clear();
+    out.put(msg);
+    out.flip();
+    msg.position(pos);
+    flush();
+  }
+
+  private void flush()
+  throws IOException
+  {
+    try
+    {
+      chan.write(out);
+    }
+    catch (ClosedChannelException ex)
+    {
+      // let reader try to reconnect
+      reconnect = true;
+      throw new IOException("ClosedChannelException");
+    }
+  }
+
+  private PendingReply borrow()
+  {
+    synchronized (idle)
+    {
+      PendingReply p = idle.poll();
+      return (p != null) ? p : new PendingReply();
+    }
+  }
+
+  private void giveBack(PendingReply p)
+  {
+    // Only requests that completed normally; a failed one may still be
+    // referenced by the reader.
+    synchronized (idle)
+    {
+      idle.push(p);
+    }
+  }
+
+  /**
+   * Queue a request and write its message. Both are done under the write
+   * lock so that queue order is wire order.
+   */
+  private PendingReply request(String msg, int lines, double[] values, long timeout, TimeUnit unit)
+  throws IOException
+  {
+    if (lines <= 0)
+    {
+      throw new IllegalArgumentException("lines must be > 0");
+    }
+    PendingReply p = new PendingReply(lines, values, System.nanoTime() + unit.toNanos(timeout));
+    request(msg, p);
+    return p;
+  }
+
+  private void request(String msg, PendingReply p)
+  throws IOException
+  {
+    synchronized (this)
+    {
+      awaitConnected(p.deadline);
+      enqueue(p);
+      try
+      {
+        write(msg);
+      }
+      catch (IOException ex)
+      {
+        dequeue(p);
+        throw ex;
+      }
+    }
+  }
+
+  private void request(ByteBuffer msg, PendingReply p)
+  throws IOException
+  {
+    synchronized (this)
+    {
+      awaitConnected(p.deadline);
+      enqueue(p);
+      try
+      {
+        write(msg);
+      }
+      catch (IOException ex)
+      {
+        dequeue(p);
+        throw ex;
+      }
+    }
+  }
+
+  private void enqueue(PendingReply p)
+  {
+    synchronized (pending)
+    {
+      pending.add(p);
+    }
+  }
+
+  private void dequeue(PendingReply p)
+  {
+    synchronized (pending)
+    {
+      pending.remove(p);
+      pending.notifyAll();
+    }
+  }
+
+  private void failPending(IOException ex)
+  {
+    synchronized (pending)
+    {
+      for (PendingReply p : pending)
+      {
+        p.fail(ex);
+      }
+      pending.clear();
+      pending.notifyAll();
+    }
+  }
+
+  /**
+   * Wait for the reply lines of a request; resync the link if the pairing
+   * of requests and replies can no longer be trusted.
+   */
+  private void await(PendingReply p)
+  throws IOException, InterruptedException
+  {
+    try
+    {
+      p.await();
+    }
+    catch (InterruptedException ex)
+    {
+      // Timed out (or interrupted): its reply may be lost, or still coming
+      resync(p, "Reply timeout");
+      throw ex;
+    }
+    catch (IOException ex)
+    {
+      if (p.isBadReply())
+      {
+        // A stray line was taken as this reply
+        resync(p, ex.getMessage());
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Close the connection, so that the reader reopens it and a late or
+   * stray line cannot shift the pairing of later requests.
+   * Outstanding requests fail with an IOException.
+   *
+   * @param p request that failed
+   * @param reason for the log
+   */
+  private void resync(PendingReply p, String reason)
+  {
+    synchronized (pending)
+    {
+      if (!pending.remove(p) && !p.isBadReply())
+      {
+        // Its reply arrived after all, the link is in step
+        return;
+      }
+      pending.notifyAll();
+    }
+    logger.log(Level.WARNING, "{0}: {1}, reconnecting to resynchronize",
+               new Object[]{hostName, reason});
+    synchronized (connected)
+    {
+      reconnect = true;
+    }
+    try
+    {
+      chan.close();
+    }
+    catch (IOException ex)
+    {
+      logger.log(Level.FINE, null, ex);
+    }
+  }
+
+  /**
+   * Wait while the reader reopens the connection after a resync.
+   *
+   * @param deadline System.nanoTime() deadline
+   * @throws IOException if not reconnected by the deadline
+   */
+  private void awaitConnected(long deadline)
+  throws IOException
+  {
+    synchronized (connected)
+    {
+      long wait;
+      while (reconnect && !shutdown)
+      {
+        if ((wait = deadline - System.nanoTime()) <= 0)
+        {
+          throw new IOException("Reconnecting");
+        }
+        try
+        {
+          TimeUnit.NANOSECONDS.timedWait(connected, wait);
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while reconnecting");
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait until no request is outstanding. Requests that are not answered
+   * by their deadline are failed and the link is resynced.
+   * Must be called holding the write lock, so no request is added meanwhile.
+   */
+  private void awaitIdle()
+  throws IOException
+  {
+    synchronized (pending)
+    {
+      PendingReply last;
+      while ((last = pending.peekLast()) != null)
+      {
+        long wait = last.deadline - System.nanoTime();
+        if (wait <= 0)
+        {
+          break;
+        }
+        try
+        {
+          TimeUnit.NANOSECONDS.timedWait(pending, wait);
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for replies");
+        }
+      }
+    }
+    PendingReply head;
+    synchronized (pending)
+    {
+      head = pending.peek();
+    }
+    if (head != null)
+    {
+      resync(head, "Reply timeout");
+    }
+    awaitConnected(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT));
+  }
+
+  /**
+   * Dispatch the complete lines in the receive buffer and keep any partial
+   * line for the next read.
+   */
+  private void dispatch()
+  {
+    in.flip();
+    int start = in.position();
+    int limit = in.limit();
+    for (int i = start; i < limit; i++)
+    {
+      if (in.get(i) == '\n')
+      {
+        dispatchLine(start, i);
+        start = i + 1;
+      }
+    }
+    in.position(start);
+    in.compact();
+    if (!in.hasRemaining())
+    {
+      logger.log(Level.WARNING, "Reply line too long, discarded");
+      in.clear();
+    }
+  }
+
+  private void dispatchLine(int start, int end)
+  {
+    // Trim white space and CR
+    while ((start < end) && (in.get(start) <= ' '))
+    {
+      start++;
+    }
+    while ((end > start) && (in.get(end - 1) <= ' '))
+    {
+      end--;
+    }
+    synchronized (pending)
+    {
+      PendingReply p = pending.peek();
+      if (p != null)
+      {
+        // An empty line is the reply of a request that expects one
+        if (p.line(in, start, end))
+        {
+          pending.poll();
+          if (pending.isEmpty())
+          {
+            pending.notifyAll();
+          }
+        }
+        return;
+      }
+    }
+    if (start == end)
+    {
+      return;
+    }
+    String line = HydraCodec.toString(in, start, end);
+    while (!unclaimed.offer(line))
+    {
+      unclaimed.poll();
+    }
   }
 
   private class Reader
@@ -153,25 +654,37 @@ public class HydraComm
             // Reader has responsibility of reconnect
             if (reconnect || !chan.isConnected())
             {
+              failPending(new IOException("Reconnecting"));
               chan.close();
               chan = SocketChannel.open();
               chan.socket().setTcpNoDelay(false);
               chan.connect(new InetSocketAddress(address, port));
               chan.finishConnect();
-              reconnect = false;
+              in.clear();
+              synchronized (connected)
+              {
+                reconnect = false;
+                connected.notifyAll();
+              }
+            }
+            if (chan.read(in) < 0)
+            {
+              throw new IOException("Connection closed by controller");
             }
-            in.clear();
-            chan.read(in);
-            in.flip();
-            queue.put(ASCII.decode(in).toString());
+            dispatch();
           }
           catch (ClosedByInterruptException ex)
           {
             logger.log(Level.INFO, null, ex);
           }
+          catch (AsynchronousCloseException ex)
+          {
+            // closed by resync, reconnect
+            logger.log(Level.FINE, null, ex);
+          }
           catch (ClosedChannelException ex)
           {
-            logger.log(Level.SEVERE, null, ex);
+            logger.log(reconnect ? Level.FINE : Level.SEVERE, null, ex);
           }
           catch (IOException ex)
           {
@@ -180,10 +693,6 @@ public class HydraComm
           }
         }
       }
-      catch (InterruptedException ex)
-      {
-        logger.log(Level.INFO, null, ex);
-      }
       finally
       {
         //System.out.println("Finally hit.");
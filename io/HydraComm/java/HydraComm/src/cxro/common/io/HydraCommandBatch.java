@@ -0,0 +1,191 @@
+// @license
+package cxro.common.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several Hydra commands sent to the controller in one write.
+ * <p>
+ * The Venus-2 interpreter executes all commands on a line in order, so the
+ * commands for both axes of a controller can share one packet. Commands
+ * added with {@link #query} produce one reply line each; commands added
+ * with {@link #command} produce none. Replies are returned in query order.
+ * <pre>
+ *   HydraCommandBatch batch = comm.newBatch();
+ *   int st1 = batch.query("1 nst");
+ *   int st2 = batch.query("2 nst");
+ *   String[] rsp = batch.execute();
+ * </pre>
+ * A batch may be executed any number of times, e.g. once per polling cycle.
+ * Replies that are numbers can be parsed straight into an array with
+ * {@link #execute(double[])}, without creating Strings.
+ *
+ * @author cwcork
+ */
+public final class HydraCommandBatch
+{
+  private static final int DEFAULT_TIMEOUT = 1000;
+  //
+  private final HydraComm comm;
+  private final StringBuilder line = new StringBuilder();
+  private String msg = null;
+  private int replies = 0;
+
+  HydraCommandBatch(HydraComm comm)
+  {
+    this.comm = comm;
+  }
+
+  /**
+   * Add a command that does not reply, e.g. "1 nabort".
+   *
+   * @param cmd command, without terminator
+   * @return this batch
+   */
+  public synchronized HydraCommandBatch command(String cmd)
+  {
+    append(cmd);
+    return this;
+  }
+
+  /**
+   * Add a command that replies with one line, e.g. "1 np".
+   *
+   * @param cmd command, without terminator
+   * @return index of the reply in the result of {@link #execute}
+   */
+  public synchronized int query(String cmd)
+  {
+    append(cmd);
+    return replies++;
+  }
+
+  /**
+   * Get number of reply lines expected.
+   *
+   * @return number of queries in the batch
+   */
+  public synchronized int getReplyCount()
+  {
+    return replies;
+  }
+
+  /**
+   * Test for empty batch.
+   *
+   * @return true if no commands were added
+   */
+  public synchronized boolean isEmpty()
+  {
+    return (line.length() == 0);
+  }
+
+  /**
+   * Remove all commands.
+   */
+  public synchronized void clear()
+  {
+    line.setLength(0);
+    msg = null;
+    replies = 0;
+  }
+
+  /**
+   * Send the batch and wait for all replies.
+   * Uses default receive timeout of 1 second.
+   *
+   * @return reply lines, trimmed, in query order
+   * @throws IOException
+   * @throws InterruptedException on timeout
+   */
+  public String[] execute()
+  throws IOException, InterruptedException
+  {
+    return execute(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Send the batch and wait for all replies.
+   *
+   * @param timeout timeout for all replies
+   * @param unit timeout unit
+   * @return reply lines, trimmed, in query order
+   * @throws IOException
+   * @throws InterruptedException on timeout
+   */
+  public synchronized String[] execute(int timeout, TimeUnit unit)
+  throws IOException, InterruptedException
+  {
+    if (line.length() == 0)
+    {
+      return new String[0];
+    }
+    if (msg == null)
+    {
+      msg = line.toString() + " \n";
+    }
+    if (replies == 0)
+    {
+      comm.snd(msg);
+      return new String[0];
+    }
+    return comm.sar(msg, replies, timeout, unit);
+  }
+
+  /**
+   * Send the batch and parse the numeric replies.
+   * Uses default receive timeout of 1 second.
+   *
+   * @param values receives the numbers, in query order
+   * @return number of values stored
+   * @throws IOException if a reply is not numeric
+   * @throws InterruptedException on timeout
+   */
+  public int execute(double[] values)
+  throws IOException, InterruptedException
+  {
+    return execute(values, DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Send the batch and parse the numeric replies.
+   * A reply line may hold several numbers (e.g. "getnlimit").
+   *
+   * @param values receives the numbers, in query order
+   * @param timeout timeout for all replies
+   * @param unit timeout unit
+   * @return number of values stored
+   * @throws IOException if a reply is not numeric
+   * @throws InterruptedException on timeout
+   */
+  public synchronized int execute(double[] values, int timeout, TimeUnit unit)
+  throws IOException, InterruptedException
+  {
+    if (replies == 0)
+    {
+      execute(timeout, unit);
+      return 0;
+    }
+    if (msg == null)
+    {
+      msg = line.toString() + " \n";
+    }
+    return comm.sar(msg, replies, values, timeout, unit);
+  }
+
+  private void append(String cmd)
+  {
+    String c = cmd.trim();
+    if (c.isEmpty())
+    {
+      throw new IllegalArgumentException("Empty command");
+    }
+    if (line.length() > 0)
+    {
+      line.append(' ');
+    }
+    line.append(c);
+    msg = null;
+  }
+}
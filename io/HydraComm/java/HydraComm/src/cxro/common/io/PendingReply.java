@@ -0,0 +1,174 @@
+// @license
+package cxro.common.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bookkeeping for one request awaiting reply lines from the Hydra.
+ * <p>
+ * Requests are queued in the order they are written; the reader hands each
+ * reply line to the oldest request that still expects lines. A request that
+ * fails or times out is taken out of the queue by {@link HydraComm}, which
+ * then resyncs the link. A request either keeps its lines as text or parses
+ * them into an array of numbers. Numeric requests are reused (see
+ * {@link #reset}) so that polling does not allocate.
+ *
+ * @author cwcork
+ */
+final class PendingReply
+{
+  // Scratch result for single value requests
+  final double[] value = new double[1];
+  int lines;
+  long deadline;
+  private String[] text;
+  private double[] values;
+  private int received = 0;
+  private int count = 0;
+  private IOException error = null;
+  private boolean abandoned = false;
+  private boolean badReply = false;
+
+  /**
+   * @param lines number of reply lines expected
+   * @param values destination for numeric replies, null to keep text
+   * @param deadline System.nanoTime() deadline for the reply
+   */
+  PendingReply(int lines, double[] values, long deadline)
+  {
+    this.lines = lines;
+    this.values = values;
+    this.text = (values == null) ? new String[lines] : null;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Create an idle numeric request, see {@link #reset}.
+   */
+  PendingReply()
+  {
+    this.lines = 0;
+    this.values = value;
+    this.text = null;
+    this.deadline = 0L;
+  }
+
+  /**
+   * Prepare an idle numeric request for reuse.
+   *
+   * @param lines number of reply lines expected
+   * @param values destination for the numbers
+   * @param deadline System.nanoTime() deadline for the reply
+   */
+  synchronized void reset(int lines, double[] values, long deadline)
+  {
+    this.lines = lines;
+    this.values = values;
+    this.deadline = deadline;
+    received = 0;
+    count = 0;
+    error = null;
+    abandoned = false;
+    badReply = false;
+  }
+
+  /**
+   * Accept one reply line.
+   *
+   * @return true if all lines have been received
+   */
+  synchronized boolean line(ByteBuffer buf, int start, int end)
+  {
+    if (!abandoned && (error == null))
+    {
+      if (values == null)
+      {
+        text[received] = HydraCodec.toString(buf, start, end);
+      }
+      else
+      {
+        int n = HydraCodec.parse(buf, start, end, values, count);
+        if (n < 0)
+        {
+          error = new IOException("Bad reply: " + HydraCodec.toString(buf, start, end));
+          badReply = true;
+        }
+        else
+        {
+          count += n;
+        }
+      }
+    }
+    received++;
+    if (received >= lines)
+    {
+      notifyAll();
+      return true;
+    }
+    return false;
+  }
+
+  synchronized void fail(IOException ex)
+  {
+    if (error == null)
+    {
+      error = ex;
+    }
+    received = lines;
+    notifyAll();
+  }
+
+  /**
+   * @return true if a reply line was not a number (numeric requests)
+   */
+  synchronized boolean isBadReply()
+  {
+    return badReply;
+  }
+
+  /**
+   * Wait for all lines.
+   * On timeout the request is abandoned: lines that still reach it are
+   * discarded.
+   *
+   * @throws IOException if the link failed or a reply is not a number
+   * @throws InterruptedException on timeout
+   */
+  synchronized void await()
+  throws IOException, InterruptedException
+  {
+    long wait;
+    while ((received < lines) && ((wait = deadline - System.nanoTime()) > 0))
+    {
+      long ms = wait / 1000000L;
+      wait(ms, (int) (wait - ms * 1000000L));
+    }
+    if (received < lines)
+    {
+      abandoned = true;
+      throw new InterruptedException("Read timeout");
+    }
+    if (error != null)
+    {
+      throw error;
+    }
+  }
+
+  /**
+   * @return reply lines (text requests), as trimmed by
+   *         HydraComm.dispatchLine
+   */
+  synchronized String[] getText()
+  {
+    return text;
+  }
+
+  /**
+   * @return number of values parsed (numeric requests)
+   */
+  synchronized int getCount()
+  {
+    return count;
+  }
+}
@@ -0,0 +1,171 @@
+// @license
+package cxro.common.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the number conversions of {@link HydraCodec}.
+ *
+ * @author cwcork
+ */
+public class HydraCodecTest
+{
+  @Test
+  public void testParse()
+  {
+    double[] dst = new double[4];
+    assertEquals(2, parse("1.500000 -2.000000", dst, 0));
+    assertEquals(1.5, dst[0], 0.0);
+    assertEquals(-2.0, dst[1], 0.0);
+
+    assertEquals(3, parse("  +7\t0.125 42. ", dst, 1));
+    assertEquals(7.0, dst[1], 0.0);
+    assertEquals(0.125, dst[2], 0.0);
+    assertEquals(42.0, dst[3], 0.0);
+
+    assertEquals(1, parse("123456789012", dst, 0));
+    assertEquals(123456789012.0, dst[0], 0.0);
+  }
+
+  @Test
+  public void testParseMatchesDouble()
+  {
+    double[] dst = new double[1];
+    String[] texts =
+    {
+      "0.1", "-0.000001", "3.141593", "-12345.678901", "1e3", "2.5E-4", "-1.25e+2", ".5"
+    };
+    for (String t : texts)
+    {
+      assertEquals(t, 1, parse(t, dst, 0));
+      assertEquals(t, Double.parseDouble(t), dst[0], 0.0);
+    }
+  }
+
+  @Test
+  public void testParseEmpty()
+  {
+    double[] dst = new double[2];
+    assertEquals(0, parse("", dst, 0));
+    assertEquals(0, parse(" \r", dst, 0));
+  }
+
+  @Test
+  public void testParseBad()
+  {
+    double[] dst = new double[2];
+    assertEquals(-1, parse("Error", dst, 0));
+    assertEquals(-1, parse("1.0 x", dst, 0));
+    assertEquals(-1, parse("12a", dst, 0));
+    assertEquals(-1, parse("-", dst, 0));
+    assertEquals(-1, parse("1e", dst, 0));
+    assertEquals(-1, parse("1.2.3", dst, 0));
+  }
+
+  @Test
+  public void testParseOverflowIgnored()
+  {
+    double[] dst = new double[2];
+    assertEquals(2, parse("1 2 3", dst, 0));
+    assertEquals(1.0, dst[0], 0.0);
+    assertEquals(2.0, dst[1], 0.0);
+  }
+
+  @Test
+  public void testParseRange()
+  {
+    ByteBuffer buf = ByteBuffer.wrap("xx 5 6 yy".getBytes(StandardCharsets.US_ASCII));
+    double[] dst = new double[2];
+    assertEquals(2, HydraCodec.parse(buf, 2, 6, dst, 0));
+    assertEquals(5.0, dst[0], 0.0);
+    assertEquals(6.0, dst[1], 0.0);
+    assertEquals(0, buf.position());
+  }
+
+  @Test
+  public void testFormatLong()
+  {
+    assertEquals("0", format(0L));
+    assertEquals("7", format(7L));
+    assertEquals("10", format(10L));
+    assertEquals("-12", format(-12L));
+    assertEquals("1000000", format(1000000L));
+    assertEquals(Long.toString(Long.MAX_VALUE), format(Long.MAX_VALUE));
+    assertEquals(Long.toString(Long.MIN_VALUE), format(Long.MIN_VALUE));
+  }
+
+  @Test
+  public void testFormatDouble()
+  {
+    double[] values =
+    {
+      0.0, 1.0, -1.0, 0.5, -0.00004, 1234.56789, -98765.4321, 0.999996, 123456789.123456
+    };
+    for (int decimals = 0; decimals <= 6; decimals++)
+    {
+      for (double v : values)
+      {
+        String expected = String.format(Locale.ROOT, "%." + decimals + "f", v);
+        if (expected.matches("-0(\\.0*)?"))
+        {
+          // rounds to zero: no sign
+          expected = expected.substring(1);
+        }
+        assertEquals(v + " %." + decimals + "f", expected, format(v, decimals));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFormatDecimalsRange()
+  {
+    format(1.0, 7);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFormatValueRange()
+  {
+    format(1e12, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFormatNaN()
+  {
+    format(Double.NaN, 2);
+  }
+
+  @Test
+  public void testEncode()
+  {
+    ByteBuffer buf = HydraCodec.encode("1 nst \n");
+    assertTrue(buf.isDirect());
+    assertEquals(0, buf.position());
+    assertEquals(7, buf.remaining());
+    assertEquals("1 nst \n", HydraCodec.toString(buf, 0, buf.limit()));
+  }
+
+  //----------------------- PRIVATE   METHODS --------------------------------
+  private static int parse(String text, double[] dst, int off)
+  {
+    byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    return HydraCodec.parse(ByteBuffer.wrap(bytes), 0, bytes.length, dst, off);
+  }
+
+  private static String format(long v)
+  {
+    ByteBuffer buf = ByteBuffer.allocate(32);
+    HydraCodec.format(buf, v);
+    return HydraCodec.toString(buf, 0, buf.position());
+  }
+
+  private static String format(double v, int decimals)
+  {
+    ByteBuffer buf = ByteBuffer.allocate(32);
+    HydraCodec.format(buf, v, decimals);
+    return HydraCodec.toString(buf, 0, buf.position());
+  }
+}
@@ -0,0 +1,279 @@
+// @license
+package cxro.common.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the pairing of requests and replies of {@link HydraComm} against a
+ * fake controller on the loopback interface.
+ *
+ * @author cwcork
+ */
+public class HydraCommTest
+{
+  private FakeHydra hydra;
+  private HydraComm comm;
+
+  @Before
+  public void setUp()
+  throws IOException
+  {
+    hydra = new FakeHydra();
+    comm = new HydraComm("localhost", hydra.getPort());
+  }
+
+  @After
+  public void tearDown()
+  throws IOException
+  {
+    comm.close();
+    hydra.close();
+  }
+
+  @Test
+  public void testReply()
+  throws Exception
+  {
+    assertEquals("1", comm.sar("q 1\n"));
+    assertEquals(2.0, comm.sarValue(ByteBuffer.wrap("q 2\n".getBytes(StandardCharsets.US_ASCII))), 0.0);
+  }
+
+  @Test
+  public void testLostReply()
+  throws Exception
+  {
+    assertEquals("1", comm.sar("q 1\n"));
+    try
+    {
+      comm.sar("lost 2\n", 100, TimeUnit.MILLISECONDS);
+      fail("lost reply not detected");
+    }
+    catch (InterruptedException ex)
+    {
+      // expected
+    }
+    assertEquals("3", comm.sar("q 3\n"));
+    assertEquals("4", comm.sar("q 4\n"));
+    assertEquals(2, hydra.getConnections());
+  }
+
+  @Test
+  public void testLateReply()
+  throws Exception
+  {
+    try
+    {
+      comm.sar("late 1\n", 100, TimeUnit.MILLISECONDS);
+      fail("late reply not detected");
+    }
+    catch (InterruptedException ex)
+    {
+      // expected
+    }
+    // the late "1" must not be taken as the reply to the next request
+    assertEquals("2", comm.sar("q 2\n"));
+    Thread.sleep(300);
+    assertEquals("3", comm.sar("q 3\n"));
+  }
+
+  @Test
+  public void testStrayLine()
+  throws Exception
+  {
+    comm.snd("stray\n");
+    try
+    {
+      comm.sarValue(ByteBuffer.wrap("q 1\n".getBytes(StandardCharsets.US_ASCII)));
+      fail("stray line not detected");
+    }
+    catch (IOException ex)
+    {
+      // expected: "Bad reply", or the request failed by the resync
+    }
+    assertEquals("2", comm.sar("q 2\n"));
+  }
+
+  @Test
+  public void testEmptyReply()
+  throws Exception
+  {
+    assertEquals("", comm.sar("e\n"));
+    assertEquals("1", comm.sar("q 1\n"));
+  }
+
+  @Test
+  public void testSndRcv()
+  throws Exception
+  {
+    comm.snd("s\n");
+    comm.snd("w\n");
+    assertEquals("ok", comm.rcv(1, TimeUnit.SECONDS));
+    assertEquals("1", comm.sar("q 1\n"));
+  }
+
+  @Test
+  public void testSplitAndCoalescedLines()
+  throws Exception
+  {
+    double[] values = new double[4];
+    assertEquals(2, comm.sar("split 12\n", 1, values, 1, TimeUnit.SECONDS));
+    assertEquals(12.0, values[0], 0.0);
+    assertEquals(34.0, values[1], 0.0);
+    assertEquals(4, comm.sar("two\n", 2, values, 1, TimeUnit.SECONDS));
+    assertArrayEquals(new double[]{1.0, 2.0, 3.0, 4.0}, values, 0.0);
+  }
+
+  /**
+   * Answers one line per command:
+   * <pre>
+   *   q n      n
+   *   lost n   nothing, on the first connection only
+   *   late n   n, after 200 ms
+   *   e        empty line
+   *   s        nothing
+   *   w        ok
+   *   stray    a line no request asked for
+   *   split n  "n 34", written in two parts
+   *   two      "1 2" and "3 4" in one write
+   * </pre>
+   */
+  private static final class FakeHydra
+  implements Runnable
+  {
+    private final ServerSocket server;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Thread thread;
+
+    FakeHydra()
+    throws IOException
+    {
+      server = new ServerSocket(0, 4, InetAddress.getByName("localhost"));
+      thread = new Thread(this, "FakeHydra");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort()
+    {
+      return server.getLocalPort();
+    }
+
+    int getConnections()
+    {
+      return connections.get();
+    }
+
+    void close()
+    throws IOException
+    {
+      server.close();
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        while (true)
+        {
+          final Socket s = server.accept();
+          final int n = connections.incrementAndGet();
+          Thread t = new Thread(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              serve(s, n);
+            }
+          }, "FakeHydra-" + n);
+          t.setDaemon(true);
+          t.start();
+        }
+      }
+      catch (IOException ex)
+      {
+        // closed
+      }
+    }
+
+    private void serve(Socket s, int connection)
+    {
+      try (Socket sock = s)
+      {
+        sock.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream(), StandardCharsets.US_ASCII));
+        OutputStream out = sock.getOutputStream();
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+          String[] cmd = line.trim().split("\\s+");
+          switch (cmd[0])
+          {
+            case "q":
+              send(out, cmd[1] + "\r\n");
+              break;
+            case "lost":
+              if (connection > 1)
+              {
+                send(out, cmd[1] + "\r\n");
+              }
+              break;
+            case "late":
+              Thread.sleep(200);
+              send(out, cmd[1] + "\r\n");
+              break;
+            case "e":
+              send(out, "\r\n");
+              break;
+            case "w":
+              send(out, "ok\r\n");
+              break;
+            case "stray":
+              send(out, "Error: stray line\r\n");
+              break;
+            case "split":
+              send(out, cmd[1]);
+              Thread.sleep(20);
+              send(out, " 34\r\n");
+              break;
+            case "two":
+              send(out, "1 2\r\n3 4\r\n");
+              break;
+            default:
+              break;
+          }
+        }
+      }
+      catch (SocketException ex)
+      {
+        // closed by the client
+      }
+      catch (IOException | InterruptedException ex)
+      {
+        // test ends
+      }
+    }
+
+    private static void send(OutputStream out, String text)
+    throws IOException
+    {
+      out.write(text.getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+    }
+  }
+}
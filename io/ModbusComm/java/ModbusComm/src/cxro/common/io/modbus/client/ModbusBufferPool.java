@@ -0,0 +1,167 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.Modbus;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of reusable direct message buffers.
+ * <p>
+ * Every {@link ModbusChannel} keeps one pool for its response frames, and
+ * {@link ModbusMessage} borrows its buffer from a pool. A buffer is
+ * allocated only when the pool is empty; when it is released, it is kept
+ * for the next borrower unless the pool already holds
+ * {@link #getCapacity()} free buffers. In steady state (each response
+ * released before the next one is needed, as {@link ModbusTransaction}
+ * does) the request/response path therefore allocates nothing.
+ * <p>
+ * Buffers are {@link Modbus#MAX_MESSAGE_LENGTH} bytes, enough for any
+ * Modbus/TCP ADU. A buffer must not be used, nor any slice of it, once it
+ * has been released.
+ *
+ * @author Carl Cork
+ */
+public final class ModbusBufferPool
+{
+  /**
+   * Default number of free buffers kept.
+   */
+  public static final int DEFAULT_CAPACITY = 8;
+  private static ModbusBufferPool defaultPool = null;
+  //
+  private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+  private int capacity;
+  private long allocated = 0;
+
+  /**
+   * Constructs a new <tt>ModbusBufferPool</tt>.
+   *
+   * @param capacity maximum number of free buffers kept, at least 1.
+   */
+  public ModbusBufferPool(int capacity)
+  {
+    setCapacity(capacity);
+  }
+
+  /**
+   * Get the process-wide pool, used by messages that are not created
+   * for a particular channel.
+   *
+   * @return the default pool.
+   */
+  public static synchronized ModbusBufferPool getDefault()
+  {
+    if (defaultPool == null)
+    {
+      defaultPool = new ModbusBufferPool(DEFAULT_CAPACITY);
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Returns the maximum number of free buffers kept.
+   *
+   * @return pool capacity.
+   */
+  public synchronized int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Sets the maximum number of free buffers kept. Excess free buffers are
+   * dropped.
+   *
+   * @param capacity maximum number of free buffers, at least 1.
+   */
+  public synchronized void setCapacity(int capacity)
+  {
+    if (capacity < 1)
+    {
+      throw new IllegalArgumentException("capacity must be >= 1");
+    }
+    this.capacity = capacity;
+    while (free.size() > capacity)
+    {
+      free.poll();
+    }
+  }
+
+  /**
+   * Returns the number of buffers this pool has allocated so far.
+   * It stops growing once the pool covers the buffers in use.
+   *
+   * @return number of allocations.
+   */
+  public synchronized long getAllocatedCount()
+  {
+    return allocated;
+  }
+
+  /**
+   * Returns the number of free buffers in the pool.
+   *
+   * @return free buffers.
+   */
+  public synchronized int getFreeCount()
+  {
+    return free.size();
+  }
+
+  /**
+   * Borrow a buffer. It must be returned with {@link #release}, or simply
+   * dropped if it is still referenced elsewhere.
+   *
+   * @return a cleared direct buffer of <tt>Modbus.MAX_MESSAGE_LENGTH</tt>
+   *         bytes.
+   */
+  public ByteBuffer borrow()
+  {
+    ByteBuffer buf;
+    synchronized (this)
+    {
+      buf = free.poll();
+      if (buf == null)
+      {
+        allocated++;
+      }
+    }
+    if (buf == null)
+    {
+      return ByteBuffer.allocateDirect(Modbus.MAX_MESSAGE_LENGTH);
+    }
+    buf.clear();
+    return buf;
+  }
+
+  /**
+   * Return a borrowed buffer to the pool. Buffers that were not allocated
+   * by a pool, and buffers that are already free, are ignored.
+   *
+   * @param buf the buffer, may be null.
+   */
+  public void release(ByteBuffer buf)
+  {
+    if (buf == null || !buf.isDirect() || buf.capacity() != Modbus.MAX_MESSAGE_LENGTH)
+    {
+      return;
+    }
+    synchronized (this)
+    {
+      if (free.size() >= capacity)
+      {
+        return;
+      }
+      //by identity: ByteBuffer.equals compares contents
+      for (ByteBuffer f : free)
+      {
+        if (f == buf)
+        {
+          return;
+        }
+      }
+      free.push(buf);
+    }
+  }
+}
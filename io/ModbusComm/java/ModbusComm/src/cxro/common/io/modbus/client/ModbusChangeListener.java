@@ -0,0 +1,24 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.client.ModbusScanList.Point;
+import cxro.common.io.modbus.client.ModbusScanList.Snapshot;
+import java.util.List;
+
+/**
+ * Subscriber for the point changes found by a {@link ModbusChangeMonitor}.
+ *
+ * @author Carl Cork
+ */
+public interface ModbusChangeListener
+{
+  /**
+   * Points have changed. Called on the thread that completed the scan; it
+   * should return quickly.
+   *
+   * @param monitor the source.
+   * @param snapshot the scan holding the new values.
+   * @param changed the changed points, by increasing table and address.
+   */
+  void pointsChanged(ModbusChangeMonitor monitor, Snapshot snapshot, List<Point> changed);
+}
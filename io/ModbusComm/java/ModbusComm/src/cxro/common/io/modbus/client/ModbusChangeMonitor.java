@@ -0,0 +1,280 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.BitVector;
+import cxro.common.io.modbus.ModbusException;
+import cxro.common.io.modbus.client.ModbusScanList.Point;
+import cxro.common.io.modbus.client.ModbusScanList.Snapshot;
+import cxro.common.io.modbus.client.ModbusScanList.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Change detection over the snapshots of a {@link ModbusScanList}.
+ * <p>
+ * Each new snapshot is compared with the previous one block by block: a
+ * block whose registers (or packed bits) are unchanged is skipped as a
+ * whole, otherwise only the words or bits of its points are compared. The
+ * changed points are returned and passed to the
+ * {@link ModbusChangeListener}s, so consumers handle a short change list
+ * instead of every value of every cycle.
+ * <p>
+ * A numeric point may have a deadband: it is reported only when its value
+ * differs from the value last reported by more than the deadband, so that
+ * noise on analog values (e.g. pressure gauges) is not reported every
+ * cycle while a slow drift still is. Bit points, and numeric points
+ * without deadband, are reported on any change.
+ * <p>
+ * The first snapshot, and the first after the scan list has been changed,
+ * reports every point.
+ *
+ * @author Carl Cork
+ */
+public final class ModbusChangeMonitor
+{
+  private static final Logger logger = Logger.getLogger(ModbusChangeMonitor.class.getName());
+  //
+  private final ModbusScanList fScanList;
+  private final CopyOnWriteArrayList<ModbusChangeListener> fListeners = new CopyOnWriteArrayList<>();
+  //
+  // Guarded by this
+  private final Map<Point, Double> fDeadbands = new HashMap<>();
+  private Snapshot fPrevious = null;
+  private double[] fReported = new double[0];
+  private long fChangeCount = 0;
+
+  /**
+   * Constructs a new <tt>ModbusChangeMonitor</tt>.
+   *
+   * @param scanList the scan list to monitor.
+   */
+  public ModbusChangeMonitor(ModbusScanList scanList)
+  {
+    fScanList = scanList;
+  }
+
+  /**
+   * @return the monitored scan list.
+   */
+  public ModbusScanList getScanList()
+  {
+    return fScanList;
+  }
+
+  public void addListener(ModbusChangeListener listener)
+  {
+    fListeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(ModbusChangeListener listener)
+  {
+    fListeners.remove(listener);
+  }
+
+  /**
+   * Returns the deadband of a point.
+   *
+   * @param p the point.
+   * @return the deadband, 0 if none.
+   */
+  public synchronized double getDeadband(Point p)
+  {
+    Double db = fDeadbands.get(p);
+    return (db == null) ? 0.0 : db;
+  }
+
+  /**
+   * Sets the deadband of a numeric point.
+   *
+   * @param p an INT16, INT32 or FLOAT point.
+   * @param deadband change needed before the point is reported again,
+   *        in the units of the point; 0 reports any change.
+   */
+  public synchronized void setDeadband(Point p, double deadband)
+  {
+    if (p.getType() == Type.BIT)
+    {
+      throw new IllegalArgumentException("No deadband for BIT point: " + p.getName());
+    }
+    if (!(deadband >= 0.0))
+    {
+      throw new IllegalArgumentException("deadband must be >= 0");
+    }
+    if (deadband == 0.0)
+    {
+      fDeadbands.remove(p);
+    }
+    else
+    {
+      fDeadbands.put(p, deadband);
+    }
+  }
+
+  /**
+   * Returns the number of point changes reported so far.
+   *
+   * @return reported changes.
+   */
+  public synchronized long getChangeCount()
+  {
+    return fChangeCount;
+  }
+
+  /**
+   * Forget the previous snapshot, so that the next one reports every point.
+   */
+  public synchronized void reset()
+  {
+    fPrevious = null;
+  }
+
+  /**
+   * Scans the list and reports the changes.
+   *
+   * @return the changed points.
+   * @throws ModbusException if the scan fails.
+   */
+  public List<Point> poll()
+    throws ModbusException
+  {
+    return update(fScanList.scan());
+  }
+
+  /**
+   * Scans the list asynchronously and reports the changes.
+   *
+   * @return future completed with the changed points, or exceptionally
+   *         with a <tt>ModbusException</tt> if the scan fails.
+   */
+  public CompletableFuture<List<Point>> pollAsync()
+  {
+    return fScanList.scanAsync().thenApply(this::update);
+  }
+
+  /**
+   * Compares a snapshot with the previous one and reports the changes.
+   * Snapshots that are not newer than the previous one report nothing,
+   * e.g. when two polls shared a scan.
+   *
+   * @param snapshot a snapshot of the monitored scan list.
+   * @return the changed points, by increasing table and address.
+   */
+  public List<Point> update(Snapshot snapshot)
+  {
+    List<Point> changed = compare(snapshot);
+    if (!changed.isEmpty())
+    {
+      for (ModbusChangeListener l : fListeners)
+      {
+        try
+        {
+          l.pointsChanged(this, snapshot, changed);
+        }
+        catch (RuntimeException ex)
+        {
+          logger.log(Level.WARNING, "ModbusChangeListener failed", ex);
+        }
+      }
+    }
+    return changed;
+  }
+
+  /** Private ***************************************************************/
+  private synchronized List<Point> compare(Snapshot snapshot)
+  {
+    if (fPrevious != null && snapshot.getCycle() <= fPrevious.getCycle())
+    {
+      return Collections.emptyList();
+    }
+    boolean all = !snapshot.hasSameLayout(fPrevious);
+    if (all)
+    {
+      fReported = new double[snapshot.getPointArray().length];
+    }
+    List<Point> changed = new ArrayList<>();
+    for (int b = 0; b < snapshot.getBlockCount(); b++)
+    {
+      Object data = snapshot.getBlockData(b);
+      Point[] points = snapshot.getBlockPoints(b);
+      if (all)
+      {
+        for (Point p : points)
+        {
+          report(snapshot, p, changed);
+        }
+      }
+      else if (data instanceof BitVector)
+      {
+        byte[] now = ((BitVector) data).getBytes();
+        byte[] was = ((BitVector) fPrevious.getBlockData(b)).getBytes();
+        if (Arrays.equals(now, was))
+        {
+          continue;
+        }
+        for (Point p : points)
+        {
+          int off = snapshot.getOffset(p);
+          if ((((now[off >> 3] ^ was[off >> 3]) >> (off & 7)) & 1) != 0)
+          {
+            report(snapshot, p, changed);
+          }
+        }
+      }
+      else
+      {
+        short[] now = (short[]) data;
+        short[] was = (short[]) fPrevious.getBlockData(b);
+        if (Arrays.equals(now, was))
+        {
+          continue;
+        }
+        for (Point p : points)
+        {
+          int off = snapshot.getOffset(p);
+          boolean diff = now[off] != was[off];
+          if (!diff && p.getType().getSize() == 2)
+          {
+            diff = now[off + 1] != was[off + 1];
+          }
+          if (diff)
+          {
+            Double db = fDeadbands.get(p);
+            if (db == null || exceeds(snapshot.getDouble(p), fReported[p.getIndex()], db))
+            {
+              report(snapshot, p, changed);
+            }
+          }
+        }
+      }
+    }
+    fPrevious = snapshot;
+    fChangeCount += changed.size();
+    return Collections.unmodifiableList(changed);
+  }
+
+  private void report(Snapshot snapshot, Point p, List<Point> changed)
+  {
+    if (p.getType() != Type.BIT)
+    {
+      fReported[p.getIndex()] = snapshot.getDouble(p);
+    }
+    changed.add(p);
+  }
+
+  private static boolean exceeds(double value, double reported, double deadband)
+  {
+    if (Double.isNaN(value) || Double.isNaN(reported))
+    {
+      return Double.isNaN(value) != Double.isNaN(reported);
+    }
+    return Math.abs(value - reported) > deadband;
+  }
+}
@@ -14,10 +14,20 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.SelectionKey;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,6 +56,24 @@ public abstract class ModbusChannel
   protected Selector selector;
   protected boolean isConnected;
   protected ReentrantLock rLock = new ReentrantLock();
+  //
+  //pipelining; maxPendingRequests == 1 is the classic lock-step behavior
+  protected int maxPendingRequests = 1;
+  private Semaphore inFlight = new Semaphore(1, true);
+  private final Object pendingLock = new Object();
+  private final Map<Integer, PendingRequest> pending = new HashMap<Integer, PendingRequest>();
+  private final ArrayDeque<PendingRequest> backlog = new ArrayDeque<>();
+  private final ReentrantLock readLock = new ReentrantLock();
+  //
+  //response framing, shared by the lock-step and pipelined readers
+  private final ModbusFrameAssembler assembler = new ModbusFrameAssembler();
+  private final ArrayDeque<ByteBuffer> received = new ArrayDeque<>();
+  //response buffers; keeps one per pipeline slot plus one being consumed
+  private final ModbusBufferPool bufferPool = new ModbusBufferPool(2);
+  //
+  //asynchronous operation
+  private volatile ModbusReactor reactor;
+  private SelectableChannel reactorChannel;
 
   public ModbusChannel()
   {
@@ -158,6 +186,149 @@ public abstract class ModbusChannel
     executeTimeout = timeout;
   }
 
+  /**
+   * Returns the maximum number of requests that may be outstanding
+   * on this <tt>ModbusChannel</tt>.
+   *
+   * @return the pipeline depth, 1 if pipelining is disabled.
+   */
+  public int getMaxPendingRequests()
+  {
+    return maxPendingRequests;
+  }
+
+  /**
+   * Returns the pool of response buffers of this <tt>ModbusChannel</tt>.
+   * Response messages borrow their buffer from it; releasing a response
+   * (see {@link ModbusMessage#release()}) makes the buffer available to
+   * the next one.
+   *
+   * @return the buffer pool.
+   */
+  public ModbusBufferPool getBufferPool()
+  {
+    return bufferPool;
+  }
+
+  /**
+   * Returns the number of reads that ended within a response frame, i.e.
+   * frames that arrived in more than one TCP segment.
+   *
+   * @return short reads since the channel was created.
+   */
+  public long getShortReadCount()
+  {
+    return assembler.getShortReadCount();
+  }
+
+  /**
+   * Returns the number of response frames that arrived in the same read
+   * as a previous frame.
+   *
+   * @return coalesced frames since the channel was created.
+   */
+  public long getCoalescedFrameCount()
+  {
+    return assembler.getCoalescedCount();
+  }
+
+  /**
+   * Sets the maximum number of requests that may be outstanding
+   * on this <tt>ModbusChannel</tt>.
+   * <p>
+   * With the default of 1 each <tt>execute()</tt> holds the channel for the
+   * full request/response round trip. With a larger value, requests issued by
+   * concurrent threads are written back-to-back and the responses are matched
+   * to their requests by the MBAP transaction identifier, so up to
+   * <tt>count</tt> round trips overlap on the one connection.
+   * <p>
+   * The server must support concurrent transactions (Modbus/TCP servers
+   * that do not will simply queue them).
+   *
+   * @param count the pipeline depth, [1..256].
+   * @throws IllegalStateException if requests are currently outstanding.
+   */
+  public void setMaxPendingRequests(int count)
+  {
+    if (count < 1 || count > 256)
+    {
+      throw new IllegalArgumentException("Pipeline depth must be in [1..256].");
+    }
+    synchronized (pendingLock)
+    {
+      if (!pending.isEmpty() || !backlog.isEmpty())
+      {
+        throw new IllegalStateException("Requests outstanding.");
+      }
+      maxPendingRequests = count;
+      inFlight = new Semaphore(count, true);
+      bufferPool.setCapacity(count + 1);
+    }
+  }
+
+  /**
+   * Tests if this <tt>ModbusChannel</tt> allows more than one
+   * outstanding request.
+   *
+   * @return <tt>true</tt> if pipelined, <tt>false</tt> otherwise.
+   */
+  public boolean isPipelined()
+  {
+    return maxPendingRequests > 1;
+  }
+
+  /**
+   * Returns the number of requests currently awaiting a response,
+   * including asynchronous requests queued for a pipeline slot.
+   *
+   * @return the number of outstanding requests.
+   */
+  public int getPendingCount()
+  {
+    synchronized (pendingLock)
+    {
+      return pending.size() + backlog.size();
+    }
+  }
+
+  /**
+   * Returns the <tt>ModbusReactor</tt> servicing this <tt>ModbusChannel</tt>.
+   *
+   * @return the reactor, or null if responses are read by the calling threads.
+   */
+  public ModbusReactor getReactor()
+  {
+    return reactor;
+  }
+
+  /**
+   * Hands response handling for this <tt>ModbusChannel</tt> to a
+   * <tt>ModbusReactor</tt>.
+   * <p>
+   * Once set, responses are read only by the reactor thread and
+   * <tt>execute()</tt> simply waits on the result of <tt>executeAsync()</tt>.
+   * The first call to <tt>executeAsync()</tt> attaches the channel to
+   * {@link ModbusReactor#getDefault()} if no reactor has been set.
+   *
+   * @param reactor the reactor, not null.
+   */
+  public void setReactor(ModbusReactor reactor)
+  {
+    rLock.lock();
+    try
+    {
+      if (this.reactor != reactor)
+      {
+        this.reactor = reactor;
+        reactorChannel = null;
+      }
+    }
+    finally
+    {
+      rLock.unlock();
+    }
+  }
+
   /**
    * Opens this <tt>ModbusChannel</tt> with current timeout.
    * Uses the current value for connectTimeout.
@@ -192,6 +363,7 @@ public abstract class ModbusChannel
     {
       connectTimeout = timeout;
       selector = Selector.open();
+      assembler.reset();
       connectSpi(timeout);
     }
   }
@@ -216,6 +388,7 @@ public abstract class ModbusChannel
       finally
       {
         selector = null;
+        failPending("Channel closed.");
       }
     }
   }
@@ -246,57 +419,587 @@ public abstract class ModbusChannel
   public ModbusMessage execute(ModbusMessage requestMsg)
     throws ModbusException
   {
-    ModbusMessage responseMsg = null;
-    //1. Lock the transaction
+    if (reactor == null)
+    {
+      if (isPipelined())
+      {
+        ModbusMessage responseMsg = executePipelined(requestMsg);
+        if (responseMsg != null)
+        {
+          return responseMsg;
+        }
+      }
+      else
+      {
+        //1. Lock the transaction
+        rLock.lock();
+        try
+        {
+          //a reactor attached meanwhile (under rLock) owns the reads
+          if (reactor == null)
+          {
+            //2. open the connection if not connected
+            ensureConnected();
+            //3. Perform transaction, no retries
+            //increment transaction id
+            transactionId++;
+            // write request
+            sendRequest(requestMsg, transactionId);
+            //read response message
+            return receiveResponse(transactionId);
+          }
+        }
+        finally
+        {
+          //4. Unlock the transaction
+          rLock.unlock();
+        }
+      }
+    }
+    try
+    {
+      return executeAsync(requestMsg).get();
+    }
+    catch (ExecutionException ex)
+    {
+      throw toModbusException(ex.getCause());
+    }
+    catch (InterruptedException ex)
+    {
+      throw new ModbusInterruptedException(ex);
+    }
+  }
+
+  /**
+   * Perform a request/response transaction with other requests in flight.<p>
+   * The channel is only locked while the request is written. The response is
+   * then awaited outside of the lock; whichever waiting thread currently holds
+   * the read lock reads frames from the channel and hands each one to the
+   * request with the matching transaction identifier.
+   *
+   * @param requestMsg Request Message
+   * @return responseMsg - Response Message, or null if a reactor has been
+   *         attached meanwhile; the request was not sent then.
+   * @throws ModbusException if an I/O error or timeout occurs.
+   */
+  private ModbusMessage executePipelined(ModbusMessage requestMsg)
+    throws ModbusException
+  {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(executeTimeout);
+    //1. Wait for a free pipeline slot
+    Semaphore slots = inFlight;
+    try
+    {
+      if (!slots.tryAcquire(executeTimeout, TimeUnit.MILLISECONDS))
+      {
+        throw new ModbusInterruptedException("execute: Timeout waiting for pipeline slot");
+      }
+    }
+    catch (InterruptedException ex)
+    {
+      throw new ModbusInterruptedException(ex);
+    }
+    PendingRequest req = null;
+    try
+    {
+      //2. Send the request under the channel lock
+      rLock.lock();
+      try
+      {
+        if (reactor != null)
+        {
+          return null;
+        }
+        ensureConnected();
+        synchronized (pendingLock)
+        {
+          req = new PendingRequest(requestMsg, unitIdFor(requestMsg), deadline);
+          req.transactionId = nextTransactionId();
+          pending.put(req.transactionId, req);
+        }
+        sendRequest(requestMsg, req.transactionId);
+      }
+      finally
+      {
+        rLock.unlock();
+      }
+      //3. Wait for the matching response
+      return awaitResponse(req, deadline);
+    }
+    finally
+    {
+      if (req != null)
+      {
+        synchronized (pendingLock)
+        {
+          pending.remove(req.transactionId, req);
+        }
+      }
+      slots.release();
+    }
+  }
+
+  /**
+   * Perform request/response transaction asynchronously.<p>
+   * The request is queued and written as soon as a pipeline slot is free;
+   * the response is read by the channel's {@link ModbusReactor}, which also
+   * completes the future exceptionally with a
+   * <tt>ModbusInterruptedException</tt> if no response arrives within the
+   * execution timeout. Only connecting (if not connected) is done on the
+   * calling thread.
+   * <p>
+   * The request message must not be modified until the future completes.
+   *
+   * @param requestMsg Request Message
+   * @return future completed with the response message, or exceptionally
+   *         with a <tt>ModbusException</tt>.
+   */
+  public CompletableFuture<ModbusMessage> executeAsync(ModbusMessage requestMsg)
+  {
+    PendingRequest req = new PendingRequest(requestMsg, unitIdFor(requestMsg),
+      System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(executeTimeout));
     rLock.lock();
     try
     {
-      //2. open the connection if not connected
-      if (!isConnected)
+      ensureConnected();
+      attachReactor();
+      synchronized (pendingLock)
       {
-        try
+        backlog.add(req);
+      }
+    }
+    catch (ModbusException ex)
+    {
+      rLock.unlock();
+      req.fail(ex);
+      return req.future;
+    }
+    rLock.unlock();
+    sendBacklog();
+    return req.future;
+  }
+
+  /**
+   * Make certain the current connection is registered with the reactor.
+   * Must be called holding rLock.
+   */
+  private void attachReactor()
+  {
+    if (reactor == null)
+    {
+      reactor = ModbusReactor.getDefault();
+    }
+    SelectableChannel chan = getSelectableChannelSpi();
+    if (chan != null && chan != reactorChannel)
+    {
+      reactorChannel = chan;
+      reactor.attach(this, chan);
+    }
+  }
+
+  /**
+   * Write queued asynchronous requests while pipeline slots are free.
+   * Requests that cannot be written are failed once rLock is released, so
+   * that their continuations never run holding a channel lock.
+   */
+  private void sendBacklog()
+  {
+    List<PendingRequest> failed = null;
+    ModbusException failure = null;
+    rLock.lock();
+    try
+    {
+      while (true)
+      {
+        PendingRequest req;
+        synchronized (pendingLock)
         {
-          connect();
+          if (backlog.isEmpty() || pending.size() >= maxPendingRequests)
+          {
+            return;
+          }
+          req = backlog.poll();
+          if (req.isDone())
+          {
+            continue;
+          }
+          req.transactionId = nextTransactionId();
+          pending.put(req.transactionId, req);
         }
-        catch (ClosedByInterruptException ex)
+        try
         {
-          isConnected = false;
-          throw new ModbusInterruptedException(ex);
+          ensureConnected();
+          attachReactor();
+          sendRequest(req.request, req.transactionId);
         }
-        catch (IOException ex)
+        catch (ModbusException ex)
         {
-          close();
-          throw new ModbusIOException("Connecting failed.");
+          synchronized (pendingLock)
+          {
+            pending.remove(req.transactionId, req);
+          }
+          if (failed == null)
+          {
+            failed = new ArrayList<>();
+          }
+          failed.add(req);
+          failure = ex;
         }
       }
-      //3. Perform transaction, no retries
-      //increment transaction id
-      transactionId++;
-      // write request
-      sendRequest(requestMsg);
-      //read response message
-      responseMsg = receiveResponse();
     }
     finally
     {
-      //4. Unlock the transaction
       rLock.unlock();
+      if (failed != null)
+      {
+        for (PendingRequest req : failed)
+        {
+          req.fail(failure);
+        }
+      }
     }
-    return responseMsg;
   }
-  
+
+  /**
+   * Called by the reactor when the channel is readable.
+   *
+   * @throws ModbusException if the channel failed; all outstanding requests
+   *         have then already been failed.
+   */
+  void reactorRead()
+    throws ModbusException
+  {
+    readLock.lock();
+    try
+    {
+      readAvailable();
+    }
+    finally
+    {
+      readLock.unlock();
+      sendBacklog();
+    }
+  }
+
+  /**
+   * Called periodically by the reactor to fail requests whose deadline
+   * has passed.
+   *
+   * @param now System.nanoTime()
+   * @return true while the channel has outstanding requests.
+   */
+  boolean reactorExpire(long now)
+  {
+    List<PendingRequest> timedOut = new ArrayList<>();
+    List<PendingRequest> notSent = new ArrayList<>();
+    boolean busy;
+    synchronized (pendingLock)
+    {
+      Iterator<PendingRequest> it = pending.values().iterator();
+      while (it.hasNext())
+      {
+        PendingRequest req = it.next();
+        if (req.isDone() || now - req.deadline >= 0)
+        {
+          it.remove();
+          timedOut.add(req);
+        }
+      }
+      it = backlog.iterator();
+      while (it.hasNext())
+      {
+        PendingRequest req = it.next();
+        if (req.isDone() || now - req.deadline >= 0)
+        {
+          it.remove();
+          notSent.add(req);
+        }
+      }
+      busy = !pending.isEmpty() || !backlog.isEmpty();
+    }
+    // Complete outside pendingLock: continuations may issue new requests
+    for (PendingRequest req : timedOut)
+    {
+      req.fail(new ModbusInterruptedException("receiveResponse: Timeout"));
+    }
+    for (PendingRequest req : notSent)
+    {
+      req.fail(new ModbusInterruptedException("execute: Timeout waiting for pipeline slot"));
+    }
+    if (!timedOut.isEmpty())
+    {
+      sendBacklog();
+    }
+    return busy;
+  }
+
+  /**
+   * Open the connection if not connected.
+   *
+   * @throws ModbusInterruptedException
+   * @throws ModbusIOException
+   */
+  private void ensureConnected()
+    throws ModbusIOException, ModbusInterruptedException
+  {
+    if (!isConnected)
+    {
+      try
+      {
+        connect();
+      }
+      catch (ClosedByInterruptException ex)
+      {
+        isConnected = false;
+        throw new ModbusInterruptedException(ex);
+      }
+      catch (IOException ex)
+      {
+        close();
+        throw new ModbusIOException("Connecting failed.");
+      }
+    }
+  }
+
+  /**
+   * Unit id for a request, the message's own if set, else the channel's.
+   *
+   * @param msg request message
+   * @return unit id [0..255]
+   */
+  private int unitIdFor(ModbusMessage msg)
+  {
+    int id = msg.getUnitID();
+    return (id >= 0) ? id : unitId;
+  }
+
+  /**
+   * Allocate the next free transaction identifier.
+   * Must be called holding pendingLock.
+   *
+   * @return transaction id [0..65535]
+   */
+  private int nextTransactionId()
+  {
+    do
+    {
+      transactionId = (transactionId + 1) & 0xffff;
+    }
+    while (pending.containsKey(transactionId));
+    return transactionId;
+  }
+
+  /**
+   * Wait for the response to a pipelined request.<p>
+   * Leader/follower: a waiting thread that obtains the read lock reads and
+   * dispatches frames until its own response arrives, then steps down and
+   * wakes the others so one of them can take over reading.
+   *
+   * @param req the outstanding request.
+   * @param deadline System.nanoTime() deadline.
+   * @return the response message.
+   * @throws ModbusException on timeout, I/O failure or interrupt.
+   */
+  private ModbusMessage awaitResponse(PendingRequest req, long deadline)
+    throws ModbusException
+  {
+    while (true)
+    {
+      synchronized (pendingLock)
+      {
+        if (req.isDone())
+        {
+          return req.getResponse();
+        }
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0)
+      {
+        throw new ModbusInterruptedException("receiveResponse: Timeout");
+      }
+      //once a reactor is attached, only the reactor thread reads
+      if (reactor == null && readLock.tryLock())
+      {
+        try
+        {
+          readFrames(remaining);
+        }
+        finally
+        {
+          readLock.unlock();
+          synchronized (pendingLock)
+          {
+            pendingLock.notifyAll();
+          }
+        }
+      }
+      else
+      {
+        synchronized (pendingLock)
+        {
+          if (!req.isDone() && (reactor != null || readLock.isLocked()))
+          {
+            try
+            {
+              TimeUnit.NANOSECONDS.timedWait(pendingLock, remaining);
+            }
+            catch (InterruptedException ex)
+            {
+              throw new ModbusInterruptedException(ex);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait for the channel to become readable, then read and dispatch.
+   * Must be called holding readLock.
+   *
+   * @param timeout maximum time to wait for data, in nanoseconds.
+   * @throws ModbusInterruptedException
+   * @throws ModbusIOException
+   */
+  private void readFrames(long timeout)
+    throws ModbusIOException, ModbusInterruptedException
+  {
+    Selector sel = selector;
+    if (sel == null)
+    {
+      throw new ModbusIOException("receiveResponse: Channel closed.");
+    }
+    try
+    {
+      if (sel.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(timeout))) == 0)
+      {
+        // timeout or wakeup, caller checks its deadline
+        return;
+      }
+      sel.selectedKeys().clear();
+    }
+    catch (IOException ex)
+    {
+      close();
+      throw new ModbusIOException("receiveResponse: IOException.");
+    }
+    readAvailable();
+  }
+
+  /**
+   * Read whatever is available on the channel and dispatch all complete
+   * frames to their pending requests. Must be called holding readLock.
+   *
+   * @throws ModbusInterruptedException
+   * @throws ModbusIOException
+   */
+  private void readAvailable()
+    throws ModbusIOException, ModbusInterruptedException
+  {
+    try
+    {
+      if (assembler.read(this, bufferPool, this::dispatchFrame) == -1)
+      {
+        close();
+        throw new ModbusIOException("receiveResponse: Premature end of stream.");
+      }
+    }
+    catch (ModbusIOException ex)
+    {
+      close();
+      throw ex;
+    }
+    catch (ClosedChannelException ex)
+    {
+      isConnected = false;
+      failPending("Channel closed.");
+      throw new ModbusInterruptedException(ex);
+    }
+    catch (IOException ex)
+    {
+      close();
+      throw new ModbusIOException("receiveResponse: IOException.");
+    }
+  }
+
+  /**
+   * Hand a response frame to the request with the same transaction id.
+   * Frames for requests that have already timed out are discarded.
+   *
+   * @param frame complete MBAP frame
+   */
+  private void dispatchFrame(ByteBuffer frame)
+  {
+    if (logger.isLoggable(Level.FINE))
+    {
+      logger.log(Level.FINE, toHexString(frame));
+    }
+    int tid = frame.getChar(0);
+    PendingRequest req;
+    synchronized (pendingLock)
+    {
+      req = pending.remove(tid);
+    }
+    if (req != null)
+    {
+      // Complete outside pendingLock: continuations may issue new requests
+      req.complete(new ModbusMessage(frame, bufferPool));
+      synchronized (pendingLock)
+      {
+        pendingLock.notifyAll();
+      }
+      return;
+    }
+    bufferPool.release(frame);
+    if (logger.isLoggable(Level.FINE))
+    {
+      logger.log(Level.FINE, "receiveResponse: discarding response for transaction {0}", tid);
+    }
+  }
+
+  /**
+   * Fail all outstanding pipelined requests.
+   *
+   * @param reason exception message
+   */
+  private void failPending(String reason)
+  {
+    List<PendingRequest> failed;
+    synchronized (pendingLock)
+    {
+      failed = new ArrayList<>(pending.values());
+      if (reactor != null)
+      {
+        pending.clear();
+        failed.addAll(backlog);
+        backlog.clear();
+      }
+    }
+    // Complete outside pendingLock: continuations may issue new requests
+    for (PendingRequest req : failed)
+    {
+      req.fail(new ModbusIOException(reason));
+    }
+    synchronized (pendingLock)
+    {
+      pendingLock.notifyAll();
+    }
+  }
+
   /**
    * Send modbus request message.<p>
    * <tt>ModbusChannel</tt> is responsible for setting the following fields:<br>
    * <tt>Protocol_ID</tt> - Modbus.DEFAULT_PROTOCOL_ID = 0
    * <tt>Length</tt> - byte length of message following this field
-   * <tt>Unit_ID</tt> - default is Modbus.DEFAULT_UNIT_ID = 0
+   * <tt>Unit_ID</tt> - the message's unit id if set, else the channel's
+   * (default is Modbus.DEFAULT_UNIT_ID = 0)
    *
    * @param msg
+   * @param tid transaction id
    * @throws ModbusInterruptedException
    * @throws ModbusIOException
    */
-  private void sendRequest(ModbusMessage msg)
+  private void sendRequest(ModbusMessage msg, int tid)
     throws ModbusIOException, ModbusInterruptedException
   {
     try
@@ -309,16 +1012,22 @@ public abstract class ModbusChannel
         throw new ModbusIOException("sendRequest: message too short.");
       }
       // Fill in MBAP header
-      sndBuffer.putChar(0, (char) transactionId);
+      sndBuffer.putChar(0, (char) tid);
       sndBuffer.putChar(2, (char) Modbus.DEFAULT_PROTOCOL_ID);
       sndBuffer.putChar(4, (char) (msgLen - 6));
-      sndBuffer.put(6, (byte) unitId);
+      sndBuffer.put(6, (byte) unitIdFor(msg));
       // Write to socket channel
       if (logger.isLoggable(Level.FINE))
       {
         logger.log(Level.FINE, toHexString(sndBuffer));
       }
-      writeSpi(sndBuffer);
+      while (sndBuffer.hasRemaining())
+      {
+        if (writeSpi(sndBuffer) == 0)
+        {
+          Thread.yield();
+        }
+      }
     }
     catch (ClosedChannelException ex)
     {
@@ -333,61 +1042,69 @@ public abstract class ModbusChannel
   }
 
   /**
-   * Receive modbus response message
+   * Receive modbus response message.<p>
+   * Reads until the frame with the given transaction id is complete. A frame
+   * may arrive in several reads; responses to earlier requests that timed
+   * out are discarded, and bytes beyond the frame are kept for the next one.
    *
+   * @param tid transaction id of the request
    * @return msg
    * @throws ModbusInterruptedException
    * @throws ModbusIOException
    */
-  private ModbusMessage receiveResponse()
+  private ModbusMessage receiveResponse(int tid)
     throws ModbusIOException, ModbusInterruptedException
   {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(executeTimeout);
     try
     {
-      int readyChannels = selector.select(executeTimeout);
-      
-      if (readyChannels == 0)
-      {
-        // timeout or interrupted
-        close();
-        throw new ModbusInterruptedException("receiveResponse: Timeout or Interrupted");
-      }
-      
-      Set<SelectionKey> selectedKeys = selector.selectedKeys();
-      Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
-      ByteBuffer rcvBuffer = ByteBuffer.allocateDirect(Modbus.MAX_MESSAGE_LENGTH);
-      while (keyIterator.hasNext())
+      while (true)
       {
-        SelectionKey key = keyIterator.next();
-        
-        if (key.isReadable())
+        ByteBuffer frame;
+        while ((frame = received.poll()) != null)
+        {
+          if (frame.getChar(0) == (tid & 0xffff))
+          {
+            if (logger.isLoggable(Level.FINE))
+            {
+              logger.log(Level.FINE, toHexString(frame));
+            }
+            return new ModbusMessage(frame, bufferPool);
+          }
+          if (logger.isLoggable(Level.FINE))
+          {
+            logger.log(Level.FINE, "receiveResponse: discarding response for transaction {0}",
+              (int) frame.getChar(0));
+          }
+          bufferPool.release(frame);
+        }
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0
+            || selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining))) == 0)
         {
-          //get response (blocking)
-          rcvBuffer.clear();
-          if (readSpi(rcvBuffer) == -1)
+          if (deadline - System.nanoTime() <= 0 || Thread.currentThread().isInterrupted())
           {
+            // timeout or interrupted
             close();
-            throw new ModbusIOException("receiveResponse: Premature end of stream.");
+            throw new ModbusInterruptedException("receiveResponse: Timeout or Interrupted");
           }
-          rcvBuffer.flip();
+          continue;
+        }
+        selector.selectedKeys().clear();
+
+        //append to the partial frame, if any (non-blocking)
+        if (assembler.read(this, bufferPool, received::add) == -1)
+        {
+          close();
+          throw new ModbusIOException("receiveResponse: Premature end of stream.");
         }
-        
-        keyIterator.remove();
-      }
-      
-      //check message length
-      if (rcvBuffer.getChar(4) != (rcvBuffer.limit() - 6))
-      {
-        throw new ModbusIOException("receiveResponse: Bad message length.");
-      }
-      
-      if (logger.isLoggable(Level.FINE))
-      {
-        logger.log(Level.FINE, toHexString(rcvBuffer));
       }
-      
-      // else return buffer wrapped as Modbus message
-      return new ModbusMessage(rcvBuffer);
+    }
+    catch (ModbusIOException ex)
+    {
+      close();
+      throw ex;
     }
     catch (ClosedChannelException ex)
     {
@@ -399,8 +1116,19 @@ public abstract class ModbusChannel
       close();
       throw new ModbusIOException("receiveResponse: IOException.");
     }
+    finally
+    {
+      if (!isConnected)
+      {
+        for (ByteBuffer frame : received)
+        {
+          bufferPool.release(frame);
+        }
+        received.clear();
+      }
+    }
   }
-  
+
   protected abstract void connectSpi(int timeout)
     throws IOException;
   
@@ -412,6 +1140,36 @@ public abstract class ModbusChannel
   
   protected abstract int readSpi(ByteBuffer rcvBuffer)
     throws IOException;
+
+  /**
+   * Get the underlying channel for registration with a {@link ModbusReactor}.
+   *
+   * @return the connected channel, or null if not connected.
+   */
+  protected abstract SelectableChannel getSelectableChannelSpi();
+
+  /**
+   * Map the cause of a failed future onto the Modbus exception hierarchy.
+   *
+   * @param cause the failure cause.
+   * @return cause as a <tt>ModbusException</tt>.
+   */
+  static ModbusException toModbusException(Throwable cause)
+  {
+    if (cause instanceof CompletionException && cause.getCause() != null)
+    {
+      cause = cause.getCause();
+    }
+    if (cause instanceof ModbusException)
+    {
+      return (ModbusException) cause;
+    }
+    if (cause instanceof CancellationException)
+    {
+      return new ModbusInterruptedException(cause);
+    }
+    return new ModbusException(cause);
+  }
   
   /**
    * Returns the this message as hexadecimal string.
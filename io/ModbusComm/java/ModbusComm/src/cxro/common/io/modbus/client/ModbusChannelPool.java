@@ -0,0 +1,303 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.Modbus;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of shared Modbus/TCP connections, keyed by gateway host:port.
+ * <p>
+ * Modbus/TCP gateways (e.g. the Moxa MB3170 in front of an IAI RS-485
+ * network) address each downstream device by its unit id. Rather than
+ * opening one connection per device, clients {@link #acquire} the shared
+ * pipelined channel for the gateway and address each request with
+ * {@link ModbusTransaction#setUnitID(int)}. At most
+ * {@link #getMaxConnections()} sockets are opened per gateway; additional
+ * clients share the least used one.
+ * <p>
+ * Every <tt>acquire</tt> must be matched by a {@link #release}; the socket is
+ * closed when its last user releases it.
+ *
+ * @author Carl Cork
+ */
+public final class ModbusChannelPool
+{
+  private static final Logger logger = Logger.getLogger(ModbusChannelPool.class.getName());
+  /**
+   * Default number of outstanding requests per pooled connection.
+   */
+  public static final int DEFAULT_PIPELINE_DEPTH = 8;
+  private static ModbusChannelPool defaultPool = null;
+  //
+  private final Map<String, List<PooledChannel>> gateways = new HashMap<>();
+  private int maxConnections = 1;
+  private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+  /**
+   * Get the process-wide pool.
+   *
+   * @return the default pool.
+   */
+  public static synchronized ModbusChannelPool getDefault()
+  {
+    if (defaultPool == null)
+    {
+      defaultPool = new ModbusChannelPool();
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Returns the maximum number of sockets opened per gateway.
+   *
+   * @return maximum connections per host:port.
+   */
+  public synchronized int getMaxConnections()
+  {
+    return maxConnections;
+  }
+
+  /**
+   * Sets the maximum number of sockets opened per gateway.
+   * Applies to connections opened after the call.
+   *
+   * @param count maximum connections per host:port, at least 1.
+   */
+  public synchronized void setMaxConnections(int count)
+  {
+    if (count < 1)
+    {
+      throw new IllegalArgumentException("count must be >= 1");
+    }
+    maxConnections = count;
+  }
+
+  /**
+   * Returns the pipeline depth used for new pooled connections.
+   *
+   * @return maximum outstanding requests per connection.
+   */
+  public synchronized int getPipelineDepth()
+  {
+    return pipelineDepth;
+  }
+
+  /**
+   * Sets the pipeline depth used for new pooled connections.
+   *
+   * @param depth maximum outstanding requests per connection.
+   * @see ModbusChannel#setMaxPendingRequests(int)
+   */
+  public synchronized void setPipelineDepth(int depth)
+  {
+    if (depth < 1)
+    {
+      throw new IllegalArgumentException("depth must be >= 1");
+    }
+    pipelineDepth = depth;
+  }
+
+  /**
+   * Acquire a connected channel to the default Modbus port of a gateway.
+   *
+   * @param host gateway host name or address.
+   * @return shared, connected channel.
+   * @throws IOException if the gateway cannot be resolved or connected.
+   */
+  public ModbusTcpChannel acquire(String host)
+    throws IOException
+  {
+    return acquire(host, Modbus.DEFAULT_PORT);
+  }
+
+  /**
+   * Acquire a connected channel to a gateway.
+   * <p>
+   * The channel is shared: callers must not change its unit id, address,
+   * port or pipeline depth, and must not close it; use {@link #release}.
+   * <p>
+   * The host is resolved and the socket connected outside the pool lock, so
+   * a slow or unreachable gateway does not hold up other gateways. Callers
+   * that share a channel while it is being connected wait for that connect.
+   *
+   * @param host gateway host name or address.
+   * @param port gateway port.
+   * @return shared, connected channel.
+   * @throws IOException if the gateway cannot be resolved or connected.
+   */
+  public ModbusTcpChannel acquire(String host, int port)
+    throws IOException
+  {
+    InetAddress addr = InetAddress.getByName(host);
+    String key = addr.getHostAddress() + ":" + port;
+    PooledChannel pc;
+    synchronized (this)
+    {
+      pc = reserve(key, addr, port);
+      boolean waited = pc.connecting;
+      try
+      {
+        while (pc.connecting)
+        {
+          wait();
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        unreserve(key, pc);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("acquire: interrupted waiting for " + key);
+      }
+      if (pc.chan.isConnected())
+      {
+        return pc.chan;
+      }
+      if (waited)
+      {
+        // The connect we waited for failed
+        IOException failure = pc.failure;
+        unreserve(key, pc);
+        throw new IOException("acquire: connect to " + key + " failed", failure);
+      }
+      pc.connecting = true;
+    }
+
+    // Connect outside the lock; the reserved slot keeps the channel alive
+    IOException failure = null;
+    try
+    {
+      pc.chan.connect();
+    }
+    catch (IOException ex)
+    {
+      failure = ex;
+    }
+    synchronized (this)
+    {
+      pc.connecting = false;
+      pc.failure = failure;
+      notifyAll();
+      if (failure != null)
+      {
+        unreserve(key, pc);
+        throw failure;
+      }
+    }
+    return pc.chan;
+  }
+
+  /**
+   * Release a channel obtained from {@link #acquire}.
+   * The connection is closed once no users remain.
+   *
+   * @param chan the channel to release.
+   */
+  public synchronized void release(ModbusChannel chan)
+  {
+    Iterator<Map.Entry<String, List<PooledChannel>>> it = gateways.entrySet().iterator();
+    while (it.hasNext())
+    {
+      List<PooledChannel> channels = it.next().getValue();
+      for (PooledChannel pc : channels)
+      {
+        if (pc.chan == chan)
+        {
+          if (--pc.refs <= 0)
+          {
+            pc.chan.close();
+            channels.remove(pc);
+            if (channels.isEmpty())
+            {
+              it.remove();
+            }
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  /** Private ***************************************************************/
+  /**
+   * Pick the channel for a gateway and count the caller as a user.
+   * Call with the lock held.
+   */
+  private PooledChannel reserve(String key, InetAddress addr, int port)
+  {
+    List<PooledChannel> channels = gateways.get(key);
+    if (channels == null)
+    {
+      channels = new ArrayList<>();
+      gateways.put(key, channels);
+    }
+
+    // Use an idle socket, open a new one while below the limit,
+    // otherwise share the least used.
+    PooledChannel pc = null;
+    for (PooledChannel c : channels)
+    {
+      if (pc == null || c.refs < pc.refs)
+      {
+        pc = c;
+      }
+    }
+    if (pc == null || (pc.refs > 0 && channels.size() < maxConnections))
+    {
+      ModbusTcpChannel chan = new ModbusTcpChannel(addr);
+      chan.setPort(port);
+      chan.setMaxPendingRequests(pipelineDepth);
+      pc = new PooledChannel(chan);
+      channels.add(pc);
+      if (logger.isLoggable(Level.FINE))
+      {
+        logger.log(Level.FINE, "acquire: new connection {0} to {1}",
+                   new Object[]{channels.size(), key});
+      }
+    }
+    pc.refs++;
+    return pc;
+  }
+
+  /**
+   * Undo a {@link #reserve} that did not end with a connected channel; drops
+   * the slot when it has no other users. Call with the lock held.
+   */
+  private void unreserve(String key, PooledChannel pc)
+  {
+    if (--pc.refs > 0)
+    {
+      return;
+    }
+    List<PooledChannel> channels = gateways.get(key);
+    if (channels != null)
+    {
+      channels.remove(pc);
+      if (channels.isEmpty())
+      {
+        gateways.remove(key);
+      }
+    }
+  }
+
+  private static final class PooledChannel
+  {
+    final ModbusTcpChannel chan;
+    int refs = 0;
+    boolean connecting = false;  // a caller is connecting outside the lock
+    IOException failure = null;  // cause of the last failed connect, for waiters
+
+    PooledChannel(ModbusTcpChannel chan)
+    {
+      this.chan = chan;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.Modbus;
+import cxro.common.io.modbus.ModbusIOException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles Modbus/TCP ADU frames from the byte stream of a
+ * {@link ModbusChannel}.
+ * <p>
+ * TCP does not preserve message boundaries: one read may return part of a
+ * frame (the rest arriving in a later segment), or several frames at once.
+ * Bytes are accumulated until the length given by the 6-byte MBAP header is
+ * satisfied; each complete frame is copied into a buffer borrowed from the
+ * channel's {@link ModbusBufferPool}, and any surplus bytes are kept as the
+ * start of the next frame.
+ * <p>
+ * Reads that leave an incomplete frame behind are counted as short reads,
+ * and frames that arrive in the same read as a previous one as coalesced
+ * frames. The counters are cumulative over reconnects.
+ * <p>
+ * An assembler is not thread safe; the channel reads it under its read
+ * lock.
+ *
+ * @author Carl Cork
+ */
+final class ModbusFrameAssembler
+{
+  //MBAP header length: transaction id, protocol id, length
+  static final int HEADER_LENGTH = 6;
+  //
+  private final ByteBuffer pending = ByteBuffer.allocateDirect(4 * Modbus.MAX_MESSAGE_LENGTH);
+  private volatile long readCount = 0;
+  private volatile long frameCount = 0;
+  private volatile long shortReadCount = 0;
+  private volatile long coalescedCount = 0;
+
+  /**
+   * Drop any partial frame, e.g. when the connection is reopened.
+   */
+  void reset()
+  {
+    pending.clear();
+  }
+
+  /**
+   * Tests for bytes of an incomplete frame.
+   *
+   * @return true if a frame has been started but not completed.
+   */
+  boolean hasPartialFrame()
+  {
+    return pending.position() > 0;
+  }
+
+  /**
+   * Read what is available from the channel and take out the complete
+   * frames.
+   *
+   * @param chan channel to read from.
+   * @param pool pool for the frame buffers.
+   * @param frames receives each complete frame, in order; the buffer is
+   *        flipped (position 0, limit at the end of the frame).
+   * @return number of complete frames, or -1 at end of stream.
+   * @throws IOException if the read fails.
+   * @throws ModbusIOException if a frame header is invalid; the stream can
+   *         then no longer be framed and the connection must be closed.
+   */
+  int read(ModbusChannel chan, ModbusBufferPool pool, FrameHandler frames)
+    throws IOException, ModbusIOException
+  {
+    int n = chan.readSpi(pending);
+    if (n == -1)
+    {
+      return -1;
+    }
+    readCount++;
+    int count = 0;
+    ByteBuffer frame;
+    while ((frame = nextFrame(pool)) != null)
+    {
+      count++;
+      frames.frame(frame);
+    }
+    frameCount += count;
+    if (count > 1)
+    {
+      coalescedCount += count - 1;
+    }
+    if (n > 0 && hasPartialFrame())
+    {
+      shortReadCount++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of reads from the channel.
+   *
+   * @return reads.
+   */
+  long getReadCount()
+  {
+    return readCount;
+  }
+
+  /**
+   * Returns the number of complete frames.
+   *
+   * @return frames.
+   */
+  long getFrameCount()
+  {
+    return frameCount;
+  }
+
+  /**
+   * Returns the number of reads that ended within a frame.
+   *
+   * @return short reads.
+   */
+  long getShortReadCount()
+  {
+    return shortReadCount;
+  }
+
+  /**
+   * Returns the number of frames that arrived in the same read as a
+   * previous frame.
+   *
+   * @return coalesced frames.
+   */
+  long getCoalescedCount()
+  {
+    return coalescedCount;
+  }
+
+  /**
+   * Take the first frame out of the pending bytes.
+   *
+   * @param pool pool for the frame buffer.
+   * @return the frame, or null if it is not complete yet.
+   * @throws ModbusIOException if the header length is invalid.
+   */
+  private ByteBuffer nextFrame(ModbusBufferPool pool)
+    throws ModbusIOException
+  {
+    int available = pending.position();
+    if (available < HEADER_LENGTH)
+    {
+      return null;
+    }
+    int len = pending.getChar(4);
+    if (len < 2 || len > Modbus.MAX_MESSAGE_LENGTH - HEADER_LENGTH)
+    {
+      pending.clear();
+      throw new ModbusIOException("receiveResponse: Bad message length.");
+    }
+    int end = HEADER_LENGTH + len;
+    if (available < end)
+    {
+      return null;
+    }
+    ByteBuffer src = pending.duplicate();
+    src.position(0).limit(end);
+    ByteBuffer frame = pool.borrow();
+    frame.put(src);
+    frame.flip();
+    //keep the surplus as the start of the next frame
+    pending.flip();
+    pending.position(end);
+    pending.compact();
+    return frame;
+  }
+
+  /**
+   * Receiver of assembled frames.
+   */
+  interface FrameHandler
+  {
+    /**
+     * @param frame a complete MBAP frame; the receiver owns the buffer.
+     */
+    void frame(ByteBuffer frame);
+  }
+}
@@ -3,7 +3,6 @@ package cxro.common.io.modbus.client;
 
 import java.nio.ByteBuffer;
 
-import cxro.common.io.modbus.Modbus;
 import cxro.common.io.modbus.ModbusException;
 
 /**
@@ -13,22 +12,42 @@ import cxro.common.io.modbus.ModbusException;
  * However, <tt>ModbusMessage</tt> is only responsible for
  * the Modbus PDU portion of the ADU. The ModbusTCP header
  * is the responsibility of {@link ModbusChannel}.
+ * <p>
+ * The message buffer is borrowed from a {@link ModbusBufferPool}.
+ * {@link #release()} returns it to the pool; the message, and any data
+ * buffer obtained from it, must not be used afterwards. A message that is
+ * never released simply leaves its buffer to the garbage collector.
  *
  * @author Carl Cork
  */
 public final class ModbusMessage
 {
   //instance fields
-  private ByteBuffer m_buffer =
-    ByteBuffer.allocateDirect(Modbus.MAX_MESSAGE_LENGTH);
+  private ByteBuffer m_buffer;
+  private ModbusBufferPool m_pool;
+  private int m_unitId = -1;
 
   /**
    * Constructs a new <tt>ModbusMessage</tt> instance,
    * uses default header values.
+   * The buffer is borrowed from {@link ModbusBufferPool#getDefault()}.
    * <p>
    */
   public ModbusMessage()
   {
+    this(ModbusBufferPool.getDefault());
+  }
+
+  /**
+   * Constructs a new <tt>ModbusMessage</tt> instance,
+   * uses default header values.
+   * <p>
+   * @param pool pool to borrow the message buffer from.
+   */
+  public ModbusMessage(ModbusBufferPool pool)
+  {
+    m_pool = pool;
+    m_buffer = pool.borrow();
     setFunctionCode(0);
     m_buffer.limit(8);
   }
@@ -38,13 +57,59 @@ public final class ModbusMessage
    * using whole modbus message array.
    * <p>
    * @param msg Modbus ADU message buffer.
+   * @param pool pool the buffer was borrowed from, or null.
    */
-  ModbusMessage(ByteBuffer msg)
+  ModbusMessage(ByteBuffer msg, ModbusBufferPool pool)
   {
     m_buffer = msg;
+    m_pool = pool;
+  }
+
+  /**
+   * Returns the message buffer to the pool it was borrowed from.
+   * Further calls have no effect. The message must not be used afterwards.
+   */
+  public void release()
+  {
+    ByteBuffer buf;
+    ModbusBufferPool pool;
+    synchronized (this)
+    {
+      buf = m_buffer;
+      pool = m_pool;
+      m_buffer = null;
+      m_pool = null;
+    }
+    if (pool != null)
+    {
+      pool.release(buf);
+    }
   }
 
   /** Header methods ********************************************************/
+  /**
+   * Gets the unit identifier this request is addressed to.
+   * <p>
+   * @return unit id [0..255], or -1 if the unit id of the
+   * {@link ModbusChannel} applies.
+   */
+  public int getUnitID()
+  {
+    return m_unitId;
+  }
+
+  /**
+   * Sets the unit identifier this request is addressed to.<br>
+   * This overrides the unit id of the {@link ModbusChannel}, so that
+   * one channel to a gateway can serve several units.
+   *
+   * @param num the unit identifier [0..255], or -1 to use the channel's.
+   */
+  public void setUnitID(int num)
+  {
+    m_unitId = (num < 0) ? -1 : (num & 0xff);
+  }
+
   /**
    * Gets the function code of  this
    * <tt>ModbusMessage</tt>.<p>
@@ -202,5 +267,6 @@ public final class ModbusMessage
   void setBuffer(ByteBuffer msg)
   {
     m_buffer = (ByteBuffer) msg.position(0);
+    m_pool = null;
   }
 }
@@ -0,0 +1,195 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.ModbusException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-threaded I/O reactor for asynchronous Modbus transactions.
+ * <p>
+ * One selector thread reads the responses for any number of
+ * {@link ModbusChannel}s, completes the futures returned by
+ * {@link ModbusChannel#executeAsync(ModbusMessage)}, and expires requests
+ * whose execution timeout has passed. Requests are written by the
+ * submitting thread (or by this thread when a pipeline slot frees up), so a
+ * process polling many devices needs no thread per outstanding request.
+ * <p>
+ * Completion callbacks attached to the returned futures with the
+ * non-<tt>Async</tt> methods run on the reactor thread and must not block.
+ *
+ * @author Carl Cork
+ */
+public final class ModbusReactor
+  implements Runnable
+{
+  private static final Logger logger = Logger.getLogger(ModbusReactor.class.getName());
+  private static final long TICK_MS = 10;
+  private static ModbusReactor defaultReactor = null;
+  //
+  private final Selector selector;
+  private final ConcurrentLinkedQueue<Registration> registrations = new ConcurrentLinkedQueue<>();
+  private final Set<ModbusChannel> channels = new HashSet<>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  /**
+   * Create and start a reactor with its own selector thread.
+   *
+   * @param name thread name
+   * @throws IOException if the selector cannot be opened.
+   */
+  public ModbusReactor(String name)
+    throws IOException
+  {
+    selector = Selector.open();
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Get the process-wide reactor, creating it on first use.
+   *
+   * @return the default reactor.
+   */
+  public static synchronized ModbusReactor getDefault()
+  {
+    if (defaultReactor == null || !defaultReactor.running)
+    {
+      try
+      {
+        defaultReactor = new ModbusReactor("ModbusReactor");
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException("Cannot open selector", ex);
+      }
+    }
+    return defaultReactor;
+  }
+
+  /**
+   * Stop the reactor thread. Channels attached to this reactor must be
+   * closed or given a new reactor by the caller.
+   */
+  public void shutdown()
+  {
+    running = false;
+    selector.wakeup();
+  }
+
+  /**
+   * Register a connected channel. Called by <tt>ModbusChannel</tt> after each
+   * (re)connect; the registration itself is done on the reactor thread.
+   *
+   * @param owner the owning Modbus channel.
+   * @param chan the connected network channel.
+   */
+  void attach(ModbusChannel owner, SelectableChannel chan)
+  {
+    registrations.add(new Registration(owner, chan));
+    selector.wakeup();
+  }
+
+  @Override
+  public void run()
+  {
+    while (running)
+    {
+      try
+      {
+        // 1. Pick up new registrations
+        Registration reg;
+        while ((reg = registrations.poll()) != null)
+        {
+          try
+          {
+            reg.chan.register(selector, SelectionKey.OP_READ, reg.owner);
+            channels.add(reg.owner);
+          }
+          catch (ClosedChannelException ex)
+          {
+            if (logger.isLoggable(Level.FINE))
+            {
+              logger.log(Level.FINE, "attach: channel already closed");
+            }
+          }
+        }
+
+        // 2. Read and dispatch responses
+        if (selector.select(TICK_MS) > 0)
+        {
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext())
+          {
+            SelectionKey key = it.next();
+            it.remove();
+            ModbusChannel owner = (ModbusChannel) key.attachment();
+            try
+            {
+              if (key.isValid() && key.isReadable())
+              {
+                owner.reactorRead();
+              }
+            }
+            catch (ModbusException ex)
+            {
+              // outstanding requests were failed by the channel
+              key.cancel();
+              if (logger.isLoggable(Level.FINE))
+              {
+                logger.log(Level.FINE, "read failed: {0}", ex.getMessage());
+              }
+            }
+          }
+        }
+
+        // 3. Expire overdue requests, forget idle closed channels
+        long now = System.nanoTime();
+        Iterator<ModbusChannel> it = channels.iterator();
+        while (it.hasNext())
+        {
+          ModbusChannel owner = it.next();
+          if (!owner.reactorExpire(now) && !owner.isConnected())
+          {
+            it.remove();
+          }
+        }
+      }
+      catch (IOException | RuntimeException ex)
+      {
+        logger.log(Level.WARNING, "ModbusReactor: unexpected exception", ex);
+      }
+    }
+    try
+    {
+      selector.close();
+    }
+    catch (IOException ex)
+    {
+      logger.log(Level.FINE, "ModbusReactor: close failed");
+    }
+  }
+
+  private static final class Registration
+  {
+    final ModbusChannel owner;
+    final SelectableChannel chan;
+
+    Registration(ModbusChannel owner, SelectableChannel chan)
+    {
+      this.owner = owner;
+      this.chan = chan;
+    }
+  }
+}
@@ -0,0 +1,905 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.BitVector;
+import cxro.common.io.modbus.Modbus;
+import cxro.common.io.modbus.ModbusException;
+import cxro.common.io.modbus.ModbusInterruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Scan list of named Modbus points, read with as few requests as possible.
+ * <p>
+ * Callers register points by name, table (coils, discrete inputs, holding
+ * or input registers), address and type. The scan list groups the points of
+ * each table into block reads (FC1, FC2, FC3 or FC4): neighbouring points
+ * share a block when the unused addresses between them do not exceed the
+ * gap tolerance and the block stays within <tt>Modbus.MAX_READ_BITS</tt> or
+ * <tt>Modbus.MAX_READ_REGISTERS</tt>. The blocks are computed once, when the
+ * first scan after a change of the list runs.
+ * <p>
+ * Each scan (cycle) reads every block and publishes a {@link Snapshot}
+ * holding the values of all points. A snapshot is published only when every
+ * block of the cycle has been read, so all values of a snapshot come from
+ * the same cycle; if a block fails, the scan fails and the previous snapshot
+ * remains current. Concurrent scans share the cycle in progress.
+ * <p>
+ * 32-bit values (INT32, FLOAT) occupy two registers, high word first unless
+ * {@link #setSwapWords(boolean)} selects low word first.
+ *
+ * @author Carl Cork
+ */
+public final class ModbusScanList
+{
+  /**
+   * Default gap tolerance for register tables, in registers.
+   */
+  public static final int DEFAULT_REGISTER_GAP = 16;
+  /**
+   * Default gap tolerance for bit tables, in bits.
+   */
+  public static final int DEFAULT_BIT_GAP = 128;
+  //
+  private final ModbusChannel fChannel;
+  private final List<Point> fPoints = new ArrayList<>();
+  private final Map<String, Point> fByName = new HashMap<>();
+  private int fUnitId = -1;
+  private int fRegisterGap = DEFAULT_REGISTER_GAP;
+  private int fBitGap = DEFAULT_BIT_GAP;
+  private boolean fSwapWords = false;
+  //
+  // Guarded by this
+  private Plan fPlan = null;
+  private CompletableFuture<Snapshot> fRunning = null;
+  private long fCycle = 0;
+  private volatile Snapshot fSnapshot = null;
+
+  /**
+   * Constructs a new <tt>ModbusScanList</tt> reading through the given channel.
+   *
+   * @param chan a <tt>ModbusChannel</tt> instance.
+   */
+  public ModbusScanList(ModbusChannel chan)
+  {
+    fChannel = chan;
+  }
+
+  /**
+   * Modbus tables, with the function code used to read them.
+   */
+  public enum Table
+  {
+    /**
+     * Coils, read with FC1.
+     */
+    COILS(Modbus.READ_COILS, Modbus.MAX_READ_BITS),
+    /**
+     * Discrete inputs, read with FC2.
+     */
+    DISCRETE_INPUTS(Modbus.READ_DISCRETE_INPUTS, Modbus.MAX_READ_BITS),
+    /**
+     * Holding registers, read with FC3.
+     */
+    HOLDING_REGISTERS(Modbus.READ_HOLDING_REGISTERS, Modbus.MAX_READ_REGISTERS),
+    /**
+     * Input registers, read with FC4.
+     */
+    INPUT_REGISTERS(Modbus.READ_INPUT_REGISTERS, Modbus.MAX_READ_REGISTERS);
+
+    private final int fFunctionCode;
+    private final int fMaxCount;
+
+    Table(int functionCode, int maxCount)
+    {
+      fFunctionCode = functionCode;
+      fMaxCount = maxCount;
+    }
+
+    /**
+     * @return the read function code.
+     */
+    public int getFunctionCode()
+    {
+      return fFunctionCode;
+    }
+
+    /**
+     * @return the maximum number of bits or registers per read.
+     */
+    public int getMaxCount()
+    {
+      return fMaxCount;
+    }
+
+    /**
+     * @return true for the bit tables (coils, discrete inputs).
+     */
+    public boolean isBits()
+    {
+      return fMaxCount == Modbus.MAX_READ_BITS;
+    }
+  }
+
+  /**
+   * Point types.
+   */
+  public enum Type
+  {
+    /**
+     * A single bit of a bit table.
+     */
+    BIT(1),
+    /**
+     * A signed 16-bit register.
+     */
+    INT16(1),
+    /**
+     * A signed 32-bit integer in two registers.
+     */
+    INT32(2),
+    /**
+     * An IEEE 754 single precision value in two registers.
+     */
+    FLOAT(2);
+
+    private final int fSize;
+
+    Type(int size)
+    {
+      fSize = size;
+    }
+
+    /**
+     * @return number of bits (BIT) or registers occupied.
+     */
+    public int getSize()
+    {
+      return fSize;
+    }
+  }
+
+  /** POINTS ****************************************************************/
+  /**
+   * Sets the unit identifier the block reads are addressed to.
+   *
+   * @param num unit id [0..255], or -1 to use the channel's.
+   */
+  public synchronized void setUnitID(int num)
+  {
+    fUnitId = (num < 0) ? -1 : (num & 0xff);
+    fPlan = null;
+  }
+
+  /**
+   * Returns the gap tolerance for register tables.
+   *
+   * @return unused registers allowed between points of one block.
+   */
+  public synchronized int getRegisterGap()
+  {
+    return fRegisterGap;
+  }
+
+  /**
+   * Sets the gap tolerance for register tables. Larger gaps mean fewer,
+   * longer reads.
+   *
+   * @param gap unused registers allowed between points of one block, &gt;= 0.
+   */
+  public synchronized void setRegisterGap(int gap)
+  {
+    if (gap < 0)
+    {
+      throw new IllegalArgumentException("gap must be >= 0");
+    }
+    fRegisterGap = gap;
+    fPlan = null;
+  }
+
+  /**
+   * Returns the gap tolerance for bit tables.
+   *
+   * @return unused bits allowed between points of one block.
+   */
+  public synchronized int getBitGap()
+  {
+    return fBitGap;
+  }
+
+  /**
+   * Sets the gap tolerance for bit tables.
+   *
+   * @param gap unused bits allowed between points of one block, &gt;= 0.
+   */
+  public synchronized void setBitGap(int gap)
+  {
+    if (gap < 0)
+    {
+      throw new IllegalArgumentException("gap must be >= 0");
+    }
+    fBitGap = gap;
+    fPlan = null;
+  }
+
+  /**
+   * Tests the word order of 32-bit values.
+   *
+   * @return true if the low word comes first.
+   */
+  public synchronized boolean isSwapWords()
+  {
+    return fSwapWords;
+  }
+
+  /**
+   * Sets the word order of 32-bit values.
+   *
+   * @param swap true if the low word comes first (e.g. WAGO/CoDeSys),
+   *        false if the high word comes first.
+   */
+  public synchronized void setSwapWords(boolean swap)
+  {
+    fSwapWords = swap;
+    fPlan = null;
+  }
+
+  /**
+   * Adds a point to the scan list.
+   *
+   * @param name unique point name.
+   * @param table table the point is read from.
+   * @param address address of the bit, or of the first register.
+   * @param type point type; BIT for the bit tables, INT16, INT32 or FLOAT
+   *        for the register tables.
+   * @return the new point.
+   * @throws IllegalArgumentException if the name is in use, or the type
+   *         does not fit the table, or the address is out of range.
+   */
+  public synchronized Point addPoint(String name, Table table, int address, Type type)
+  {
+    if (fByName.containsKey(name))
+    {
+      throw new IllegalArgumentException("Duplicate point name: " + name);
+    }
+    if (table.isBits() != (type == Type.BIT))
+    {
+      throw new IllegalArgumentException(type + " point in " + table + ": " + name);
+    }
+    if (address < 0 || address + type.getSize() > 0x10000)
+    {
+      throw new IllegalArgumentException("Address out of range: " + name);
+    }
+    Point p = new Point(name, table, address, type, fPoints.size());
+    fPoints.add(p);
+    fByName.put(name, p);
+    fPlan = null;
+    return p;
+  }
+
+  /**
+   * Returns the point with the given name.
+   *
+   * @param name the point name.
+   * @return the point, or null if there is none.
+   */
+  public synchronized Point getPoint(String name)
+  {
+    return fByName.get(name);
+  }
+
+  /**
+   * Returns all points, in the order they were added.
+   *
+   * @return unmodifiable list of points.
+   */
+  public synchronized List<Point> getPoints()
+  {
+    return Collections.unmodifiableList(new ArrayList<>(fPoints));
+  }
+
+  /**
+   * Returns the block reads of one scan.
+   *
+   * @return unmodifiable list of blocks.
+   */
+  public synchronized List<Block> getBlocks()
+  {
+    Plan plan = plan();
+    List<Block> blocks = new ArrayList<>(plan.blocks.length);
+    for (PlannedBlock b : plan.blocks)
+    {
+      blocks.add(b.block);
+    }
+    return Collections.unmodifiableList(blocks);
+  }
+
+  /** SCANNING **************************************************************/
+  /**
+   * Returns the last published snapshot.
+   *
+   * @return the snapshot, or null before the first successful scan.
+   */
+  public Snapshot getSnapshot()
+  {
+    return fSnapshot;
+  }
+
+  /**
+   * Reads all blocks, one after the other, and publishes a new snapshot.
+   * If a scan is in progress, waits for it instead.
+   *
+   * @return the new snapshot.
+   * @throws ModbusException if a block read fails.
+   */
+  public Snapshot scan()
+    throws ModbusException
+  {
+    CompletableFuture<Snapshot> cycle;
+    Plan plan = null;
+    synchronized (this)
+    {
+      cycle = fRunning;
+      if (cycle == null)
+      {
+        cycle = fRunning = new CompletableFuture<>();
+        plan = plan();
+      }
+    }
+    if (plan == null)
+    {
+      return await(cycle);
+    }
+    try
+    {
+      Object[] data = new Object[plan.blocks.length];
+      for (int i = 0; i < data.length; i++)
+      {
+        ModbusTransaction tx = plan.blocks[i].transaction;
+        tx.execute();
+        data[i] = plan.blocks[i].values();
+      }
+      Snapshot snapshot = publish(plan, data);
+      cycle.complete(snapshot);
+      return snapshot;
+    }
+    catch (ModbusException | RuntimeException ex)
+    {
+      fail(cycle, ex);
+      throw ex;
+    }
+  }
+
+  /**
+   * Issues all block reads at once and publishes a new snapshot when they
+   * have all completed. On a pipelined channel the reads overlap.
+   * If a scan is in progress, returns its future instead.
+   *
+   * @return future completed with the new snapshot, or exceptionally with a
+   *         <tt>ModbusException</tt>.
+   */
+  public CompletableFuture<Snapshot> scanAsync()
+  {
+    final CompletableFuture<Snapshot> cycle;
+    final Plan plan;
+    synchronized (this)
+    {
+      if (fRunning != null)
+      {
+        return fRunning;
+      }
+      cycle = fRunning = new CompletableFuture<>();
+      plan = plan();
+    }
+    CompletableFuture<?>[] reads = new CompletableFuture<?>[plan.blocks.length];
+    for (int i = 0; i < reads.length; i++)
+    {
+      reads[i] = plan.blocks[i].transaction.executeAsync();
+    }
+    CompletableFuture.allOf(reads).whenComplete((ignored, ex) ->
+    {
+      if (ex != null)
+      {
+        fail(cycle, ModbusChannel.toModbusException(ex));
+        return;
+      }
+      Object[] data = new Object[plan.blocks.length];
+      for (int i = 0; i < data.length; i++)
+      {
+        data[i] = plan.blocks[i].values();
+      }
+      cycle.complete(publish(plan, data));
+    });
+    return cycle;
+  }
+
+  /** Private ***************************************************************/
+  /**
+   * Get the current plan, computing it if the list has changed.
+   * Must be called holding this.
+   *
+   * @return the plan.
+   */
+  private Plan plan()
+  {
+    if (fPlan == null)
+    {
+      fPlan = new Plan(this);
+    }
+    return fPlan;
+  }
+
+  private synchronized Snapshot publish(Plan plan, Object[] data)
+  {
+    Snapshot snapshot = new Snapshot(plan, data, ++fCycle, System.currentTimeMillis());
+    fSnapshot = snapshot;
+    fRunning = null;
+    return snapshot;
+  }
+
+  private void fail(CompletableFuture<Snapshot> cycle, Exception ex)
+  {
+    synchronized (this)
+    {
+      fRunning = null;
+    }
+    cycle.completeExceptionally(ex);
+  }
+
+  private static Snapshot await(CompletableFuture<Snapshot> cycle)
+    throws ModbusException
+  {
+    try
+    {
+      return cycle.get();
+    }
+    catch (ExecutionException ex)
+    {
+      throw ModbusChannel.toModbusException(ex.getCause());
+    }
+    catch (InterruptedException ex)
+    {
+      throw new ModbusInterruptedException(ex);
+    }
+  }
+
+  /** Nested classes ********************************************************/
+  /**
+   * A named point of a scan list.
+   */
+  public static final class Point
+  {
+    private final String fName;
+    private final Table fTable;
+    private final int fAddress;
+    private final Type fType;
+    private final int fIndex;
+
+    private Point(String name, Table table, int address, Type type, int index)
+    {
+      fName = name;
+      fTable = table;
+      fAddress = address;
+      fType = type;
+      fIndex = index;
+    }
+
+    public String getName()
+    {
+      return fName;
+    }
+
+    public Table getTable()
+    {
+      return fTable;
+    }
+
+    public int getAddress()
+    {
+      return fAddress;
+    }
+
+    public Type getType()
+    {
+      return fType;
+    }
+
+    /**
+     * @return position of the point in the scan list.
+     */
+    public int getIndex()
+    {
+      return fIndex;
+    }
+
+    @Override
+    public String toString()
+    {
+      return fName + " " + fType + " " + fTable + " 0x" + Integer.toHexString(fAddress);
+    }
+  }
+
+  /**
+   * One block read of a scan.
+   */
+  public static final class Block
+  {
+    private final Table fTable;
+    private final int fAddress;
+    private final int fCount;
+
+    private Block(Table table, int address, int count)
+    {
+      fTable = table;
+      fAddress = address;
+      fCount = count;
+    }
+
+    public Table getTable()
+    {
+      return fTable;
+    }
+
+    /**
+     * @return first bit or register address.
+     */
+    public int getAddress()
+    {
+      return fAddress;
+    }
+
+    /**
+     * @return number of bits or registers.
+     */
+    public int getCount()
+    {
+      return fCount;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "FC" + fTable.getFunctionCode() + " 0x" + Integer.toHexString(fAddress) + "+" + fCount;
+    }
+  }
+
+  /**
+   * Values of all points from one scan cycle. Snapshots are immutable.
+   */
+  public static final class Snapshot
+  {
+    private final Plan fPlan;
+    private final Object[] fData;
+    private final long fCycle;
+    private final long fTime;
+
+    private Snapshot(Plan plan, Object[] data, long cycle, long time)
+    {
+      fPlan = plan;
+      fData = data;
+      fCycle = cycle;
+      fTime = time;
+    }
+
+    /**
+     * @return cycle number, counting from 1.
+     */
+    public long getCycle()
+    {
+      return fCycle;
+    }
+
+    /**
+     * @return time the cycle completed, System.currentTimeMillis().
+     */
+    public long getTime()
+    {
+      return fTime;
+    }
+
+    /**
+     * Tests if the snapshot holds a value for the point. Points added after
+     * the scan started are not in it.
+     *
+     * @param p the point.
+     * @return true if the point was scanned.
+     */
+    public boolean contains(Point p)
+    {
+      return p.fIndex < fPlan.pointBlock.length && fPlan.points[p.fIndex] == p;
+    }
+
+    /**
+     * Returns a BIT point, or whether a numeric point is non-zero.
+     *
+     * @param p the point.
+     * @return the value.
+     */
+    public boolean getBoolean(Point p)
+    {
+      return (p.fType == Type.BIT) ? bit(p) : (getInt(p) != 0);
+    }
+
+    /**
+     * Returns a point as integer: BIT as 0 or 1, INT16 sign extended,
+     * FLOAT truncated.
+     *
+     * @param p the point.
+     * @return the value.
+     */
+    public int getInt(Point p)
+    {
+      switch (p.fType)
+      {
+        case BIT:
+          return bit(p) ? 1 : 0;
+        case INT16:
+          return register(p, 0);
+        case INT32:
+          return int32(p);
+        default:
+          return (int) Float.intBitsToFloat(int32(p));
+      }
+    }
+
+    /**
+     * Returns a point as float.
+     *
+     * @param p the point.
+     * @return the value.
+     */
+    public float getFloat(Point p)
+    {
+      return (p.fType == Type.FLOAT) ? Float.intBitsToFloat(int32(p)) : getInt(p);
+    }
+
+    /**
+     * Returns a point as double.
+     *
+     * @param p the point.
+     * @return the value.
+     */
+    public double getDouble(Point p)
+    {
+      return (p.fType == Type.FLOAT) ? Float.intBitsToFloat(int32(p)) : getInt(p);
+    }
+
+    /**
+     * Returns a point as object: Boolean, Short, Integer or Float.
+     *
+     * @param p the point.
+     * @return the value.
+     */
+    public Object getValue(Point p)
+    {
+      switch (p.fType)
+      {
+        case BIT:
+          return bit(p);
+        case INT16:
+          return (short) register(p, 0);
+        case INT32:
+          return int32(p);
+        default:
+          return Float.intBitsToFloat(int32(p));
+      }
+    }
+
+    /**
+     * Returns the values read by one block read.
+     *
+     * @param block index of the block, see {@link ModbusScanList#getBlocks()}.
+     * @return a <tt>BitVector</tt> for bit tables, a <tt>short[]</tt>
+     *         for register tables; must not be modified.
+     */
+    Object getBlockData(int block)
+    {
+      return fData[block];
+    }
+
+    /**
+     * @return number of block reads of the scan.
+     */
+    int getBlockCount()
+    {
+      return fData.length;
+    }
+
+    /**
+     * Returns the points read by one block read, by increasing address.
+     *
+     * @param block index of the block.
+     * @return the points; must not be modified.
+     */
+    Point[] getBlockPoints(int block)
+    {
+      return fPlan.blockPoints[block];
+    }
+
+    /**
+     * Returns the offset of a point within its block.
+     *
+     * @param p a point of the snapshot.
+     * @return bit or register offset.
+     */
+    int getOffset(Point p)
+    {
+      return offset(p);
+    }
+
+    /**
+     * Returns the points of the snapshot, see {@link Point#getIndex()}.
+     *
+     * @return the points; must not be modified.
+     */
+    Point[] getPointArray()
+    {
+      return fPlan.points;
+    }
+
+    /**
+     * Tests if two snapshots have the same block reads and point layout,
+     * so that their block data can be compared.
+     *
+     * @param other another snapshot of the same scan list.
+     * @return true if both come from the same plan.
+     */
+    boolean hasSameLayout(Snapshot other)
+    {
+      return other != null && other.fPlan == fPlan;
+    }
+
+    private int offset(Point p)
+    {
+      if (!contains(p))
+      {
+        throw new IllegalArgumentException("Point not in snapshot: " + p.fName);
+      }
+      return fPlan.pointOffset[p.fIndex];
+    }
+
+    private boolean bit(Point p)
+    {
+      int off = offset(p);
+      return ((BitVector) fData[fPlan.pointBlock[p.fIndex]]).getBit(off);
+    }
+
+    private int register(Point p, int word)
+    {
+      int off = offset(p);
+      return ((short[]) fData[fPlan.pointBlock[p.fIndex]])[off + word];
+    }
+
+    private int int32(Point p)
+    {
+      int first = register(p, 0) & 0xffff;
+      int second = register(p, 1) & 0xffff;
+      return fPlan.swapWords ? ((second << 16) | first) : ((first << 16) | second);
+    }
+  }
+
+  /**
+   * A block read and the transaction that performs it.
+   */
+  private static final class PlannedBlock
+  {
+    final Block block;
+    final ModbusTransaction transaction;
+
+    PlannedBlock(ModbusChannel chan, int unitId, Block block)
+    {
+      this.block = block;
+      switch (block.fTable)
+      {
+        case COILS:
+          transaction = new ReadRWDiscretesTransaction(chan, block.fAddress, block.fCount);
+          break;
+        case DISCRETE_INPUTS:
+          transaction = new ReadRODiscretesTransaction(chan, block.fAddress, block.fCount);
+          break;
+        case HOLDING_REGISTERS:
+          transaction = new ReadRWRegistersTransaction(chan, block.fAddress, block.fCount);
+          break;
+        default:
+          transaction = new ReadRORegistersTransaction(chan, block.fAddress, block.fCount);
+          break;
+      }
+      transaction.setUnitID(unitId);
+    }
+
+    /**
+     * @return values of the last read; a new array or vector per read.
+     */
+    Object values()
+    {
+      switch (block.fTable)
+      {
+        case COILS:
+          return ((ReadRWDiscretesTransaction) transaction).rspGetValues();
+        case DISCRETE_INPUTS:
+          return ((ReadRODiscretesTransaction) transaction).rspGetValues();
+        case HOLDING_REGISTERS:
+          return ((ReadRWRegistersTransaction) transaction).rspGetValues();
+        default:
+          return ((ReadRORegistersTransaction) transaction).rspGetValues();
+      }
+    }
+  }
+
+  /**
+   * Block reads for the current list, and where each point is found.
+   */
+  private static final class Plan
+  {
+    final Point[] points;
+    final PlannedBlock[] blocks;
+    final Point[][] blockPoints;
+    final int[] pointBlock;
+    final int[] pointOffset;
+    final boolean swapWords;
+
+    Plan(ModbusScanList list)
+    {
+      points = list.fPoints.toArray(new Point[list.fPoints.size()]);
+      pointBlock = new int[points.length];
+      pointOffset = new int[points.length];
+      swapWords = list.fSwapWords;
+
+      List<Point> sorted = new ArrayList<>(list.fPoints);
+      Collections.sort(sorted, new Comparator<Point>()
+      {
+        @Override
+        public int compare(Point a, Point b)
+        {
+          int c = a.fTable.compareTo(b.fTable);
+          return (c != 0) ? c : Integer.compare(a.fAddress, b.fAddress);
+        }
+      });
+
+      List<PlannedBlock> planned = new ArrayList<>();
+      List<Point[]> members = new ArrayList<>();
+      int i = 0;
+      while (i < sorted.size())
+      {
+        // Open a block at the first unassigned point, extend it while the
+        // next point is close enough and the block stays within the limit
+        Point first = sorted.get(i);
+        Table table = first.fTable;
+        int gap = table.isBits() ? list.fBitGap : list.fRegisterGap;
+        int start = first.fAddress;
+        int end = start + first.fType.getSize();
+        int j = i + 1;
+        while (j < sorted.size())
+        {
+          Point p = sorted.get(j);
+          int pEnd = p.fAddress + p.fType.getSize();
+          if (p.fTable != table
+              || p.fAddress - end > gap
+              || Math.max(end, pEnd) - start > table.getMaxCount())
+          {
+            break;
+          }
+          end = Math.max(end, pEnd);
+          j++;
+        }
+        for (int k = i; k < j; k++)
+        {
+          Point p = sorted.get(k);
+          pointBlock[p.fIndex] = planned.size();
+          pointOffset[p.fIndex] = p.fAddress - start;
+        }
+        planned.add(new PlannedBlock(list.fChannel, list.fUnitId, new Block(table, start, end - start)));
+        members.add(sorted.subList(i, j).toArray(new Point[j - i]));
+        i = j;
+      }
+      blocks = planned.toArray(new PlannedBlock[planned.size()]);
+      blockPoints = members.toArray(new Point[members.size()][]);
+    }
+  }
+}
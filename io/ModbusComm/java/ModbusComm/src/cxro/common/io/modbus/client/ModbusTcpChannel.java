@@ -7,6 +7,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.logging.Logger;
@@ -114,4 +115,9 @@ public class ModbusTcpChannel
     return sChan.read(rcvBuffer);
   }
 
+  @Override
+  protected SelectableChannel getSelectableChannelSpi()
+  {
+    return sChan;
+  }
 }
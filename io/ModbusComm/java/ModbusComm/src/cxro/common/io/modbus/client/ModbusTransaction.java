@@ -5,6 +5,8 @@ import cxro.common.io.modbus.ModbusException;
 import cxro.common.io.modbus.ModbusIOException;
 import cxro.common.io.modbus.ModbusInterruptedException;
 import cxro.common.io.modbus.ModbusServerException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Abstract base class implementing a ModbusTransaction.
@@ -61,8 +63,34 @@ public abstract class ModbusTransaction
     fChannel = chan;
   }
 
+  /**
+   * Gets the unit identifier this <tt>ModbusTransaction</tt>
+   * is addressed to.<p>
+   *
+   * @return unit id [0..255], or -1 if the channel's unit id applies.
+   */
+  public final int getUnitID()
+  {
+    return fRequestMsg.getUnitID();
+  }
+
+  /**
+   * Sets the unit identifier this <tt>ModbusTransaction</tt>
+   * is addressed to, overriding the unit id of the channel.<p>
+   *
+   * @param num unit id [0..255], or -1 to use the channel's unit id.
+   */
+  public final void setUnitID(int num)
+  {
+    fRequestMsg.setUnitID(num);
+  }
+
   /**
    * Executes this <tt>ModbusTransaction</tt>.
+   * <p>
+   * 1. Pack request message.
+   * 2. Perform Modbus transaction.
+   * 3. Unpack response message.
    *
    * @throws ModbusException if an I/O error occurs,
    *         or the response is a modbus protocol exception.
@@ -74,6 +102,7 @@ public abstract class ModbusTransaction
            ModbusInterruptedException
   {
     // 1. Make certain we are executable
+    packRequest();
     if (!fRequestValid || fChannel == null)
     {
       throw new ModbusException("Transaction not executable");
@@ -81,15 +110,105 @@ public abstract class ModbusTransaction
 
     // 2. Excecute transaction
     fResponseValid = false;
+    releaseResponse();
     fResponseMsg = fChannel.execute(fRequestMsg);
 
     // 3. Deal with "application level" exceptions
-    if (fResponseMsg.isException())
+    handleResponse(fResponseMsg);
+  }
+
+  /**
+   * Executes this <tt>ModbusTransaction</tt> asynchronously.
+   * <p>
+   * The returned future completes once the response has been received and
+   * unpacked, so the <tt>rspGet...</tt> accessors may be used from its
+   * continuations. It completes exceptionally with a
+   * <tt>ModbusServerException</tt> for a modbus protocol exception, or
+   * another <tt>ModbusException</tt> for I/O failures and timeouts.
+   * <p>
+   * The transaction must not be reused until the future completes. The
+   * response message is valid until the transaction is executed again.
+   *
+   * @return future completed with the response message.
+   */
+  public CompletableFuture<ModbusMessage> executeAsync()
+  {
+    synchronized (this)
     {
-      throw new ModbusServerException(fResponseMsg.getExceptionCode());
+      packRequest();
+      if (!fRequestValid || fChannel == null)
+      {
+        CompletableFuture<ModbusMessage> f = new CompletableFuture<>();
+        f.completeExceptionally(new ModbusException("Transaction not executable"));
+        return f;
+      }
+      fResponseValid = false;
+      releaseResponse();
     }
+    return fChannel.executeAsync(fRequestMsg).thenApply(rsp ->
+    {
+      try
+      {
+        synchronized (this)
+        {
+          fResponseMsg = rsp;
+          handleResponse(rsp);
+        }
+        return rsp;
+      }
+      catch (ModbusException ex)
+      {
+        throw new CompletionException(ex);
+      }
+    });
+  }
 
+  /**
+   * Check for a modbus exception response, then unpack it.
+   *
+   * @param rsp the response message.
+   * @throws ModbusException
+   */
+  private void handleResponse(ModbusMessage rsp)
+    throws ModbusException
+  {
+    if (rsp.isException())
+    {
+      throw new ModbusServerException(rsp.getExceptionCode());
+    }
     fResponseValid = true;
+    unpackResponse();
+  }
+
+  /**
+   * Return the buffer of the previous response to its pool, so that
+   * executing a transaction repeatedly does not allocate.
+   */
+  private void releaseResponse()
+  {
+    if (fResponseMsg != null)
+    {
+      fResponseMsg.release();
+      fResponseMsg = null;
+    }
+  }
+
+  /**
+   * Pack the request message before it is sent.
+   * Subclasses set <tt>fRequestValid</tt> once the request is complete.
+   */
+  protected void packRequest()
+  {
+  }
+
+  /**
+   * Unpack a successful response message (<tt>fResponseMsg</tt>).
+   *
+   * @throws ModbusException if the response is malformed.
+   */
+  protected void unpackResponse()
+    throws ModbusException
+  {
   }
 
   /**
@@ -9,6 +9,7 @@ import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 
 /**
@@ -127,4 +128,10 @@ public class ModbusUdpChannel
   {
     return uChan.read(rcvBuffer);
   }
+
+  @Override
+  protected SelectableChannel getSelectableChannelSpi()
+  {
+    return uChan;
+  }
 }
@@ -0,0 +1,81 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.ModbusException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bookkeeping for one outstanding request on a pipelined
+ * {@link ModbusChannel}.
+ * <p>
+ * A <tt>PendingRequest</tt> is assigned a transaction identifier when the
+ * request is written to the channel and is completed by whichever thread
+ * (a waiting caller or the {@link ModbusReactor}) reads the response frame
+ * carrying the matching MBAP transaction identifier.
+ *
+ * @author Carl Cork
+ */
+final class PendingRequest
+{
+  final ModbusMessage request;
+  final int unitId;
+  final long deadline;
+  final CompletableFuture<ModbusMessage> future = new CompletableFuture<>();
+  //
+  int transactionId = -1;
+
+  /**
+   * @param request the request message.
+   * @param unitId the unit id.
+   * @param deadline System.nanoTime() deadline for the response.
+   */
+  PendingRequest(ModbusMessage request, int unitId, long deadline)
+  {
+    this.request = request;
+    this.unitId = unitId;
+    this.deadline = deadline;
+  }
+
+  boolean isDone()
+  {
+    return future.isDone();
+  }
+
+  void complete(ModbusMessage msg)
+  {
+    if (!future.complete(msg))
+    {
+      //timed out or cancelled meanwhile, nobody will read the response
+      msg.release();
+    }
+  }
+
+  void fail(ModbusException ex)
+  {
+    future.completeExceptionally(ex);
+  }
+
+  /**
+   * Get the response for a completed request.
+   *
+   * @return the response message.
+   * @throws ModbusException if the request failed.
+   */
+  ModbusMessage getResponse()
+    throws ModbusException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (ExecutionException ex)
+    {
+      throw ModbusChannel.toModbusException(ex.getCause());
+    }
+    catch (InterruptedException ex)
+    {
+      throw new ModbusException(ex);
+    }
+  }
+}
@@ -4,11 +4,8 @@ package cxro.common.io.modbus.client;
 import java.nio.ByteBuffer;
 
 import cxro.common.io.modbus.Modbus;
-import cxro.common.io.modbus.ModbusException;
-import cxro.common.io.modbus.ModbusIOException;
-import cxro.common.io.modbus.ModbusServerException;
 import cxro.common.io.modbus.BitVector;
-import cxro.common.io.modbus.ModbusInterruptedException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class implementing a <tt>ReadRODiscretes</tt> transaction. The implementation
@@ -112,34 +109,38 @@ public final class ReadRODiscretesTransaction
   }
 
   /**
-   * Executes this <tt>ModbusTransaction</tt>.
-   * <p>
-   * 1. Pack request message. 2. Call parent to perform Modbus transaction 3.
-   * Unpack response message.
-   * <p>
-   * @throws ModbusException if an I/O error occurs, or the response is a modbus
-   * protocol exception.
+   * Pack request message.
    */
   @Override
-  public synchronized void execute()
-    throws ModbusIOException,
-           ModbusServerException,
-           ModbusException,
-           ModbusInterruptedException
+  protected void packRequest()
   {
-    // 1. Pack request message
     fRequestMsg.setData(fRequestData);
     fRequestValid = true;
+  }
 
-    // 2. Perform Modbus transaction
-    super.execute();
-
-    // 3. Unpack response message
+  /**
+   * Unpack response message.
+   */
+  @Override
+  protected void unpackResponse()
+  {
+    // 1. Unpack response message
     fResponseData = fResponseMsg.getData();
     byte[] data = new byte[fResponseData.get(0) & 0xff];
     fResponseData.position(1);
     fResponseData.get(data);
     fDiscretes = new BitVector(data, reqGetCount());
+  }
+
+  /**
+   * Executes this <tt>ReadRODiscretesTransaction</tt> asynchronously.
+   * <p>
+   * @return future completed with the bits that have been read,
+   * or exceptionally with a <tt>ModbusException</tt>.
+   */
+  public CompletableFuture<BitVector> readAsync()
+  {
+    return executeAsync().thenApply(rsp -> rspGetValues());
   }//execute
 
   /**
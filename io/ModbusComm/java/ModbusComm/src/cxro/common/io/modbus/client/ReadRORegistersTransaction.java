@@ -4,10 +4,7 @@ package cxro.common.io.modbus.client;
 import java.nio.ByteBuffer;
 
 import cxro.common.io.modbus.Modbus;
-import cxro.common.io.modbus.ModbusException;
-import cxro.common.io.modbus.ModbusIOException;
-import cxro.common.io.modbus.ModbusInterruptedException;
-import cxro.common.io.modbus.ModbusServerException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class implementing a <tt>ReadRORegisters</tt> transaction.
@@ -109,34 +106,25 @@ public final class ReadRORegistersTransaction
   }
 
   /**
-   * Executes this <tt>ModbusTransaction</tt>.
-   * <p>
-   * 1. Pack request message.
-   * 2. Call parent to perform Modbus transaction
-   * 3. Unpack response message.
-   * 4. Unpack data.
-   * <p>
-   * @throws ModbusException if an I/O error occurs,
-   *         or the response is a modbus protocol exception.
+   * Pack request message.
    */
   @Override
-  public synchronized void execute()
-    throws ModbusIOException,
-           ModbusServerException,
-           ModbusException,
-           ModbusInterruptedException
+  protected void packRequest()
   {
-    // 1. Pack request message
     fRequestMsg.setData(fRequestData);
     fRequestValid = true;
+  }
 
-    // 2. Perform Modbus transaction
-    super.execute();
-
-    // 3. Unpack Response message
+  /**
+   * Unpack response message.
+   */
+  @Override
+  protected void unpackResponse()
+  {
+    // 1. Unpack Response message
     fResponseData = fResponseMsg.getData();
 
-    // 4. Unpack data
+    // 2. Unpack data
     fRegisters = new short[(fResponseData.get() & 0xff) >> 1];
     for (int i = 0; i < fRegisters.length; i++)
     {
@@ -144,6 +132,17 @@ public final class ReadRORegistersTransaction
     }
   }
 
+  /**
+   * Executes this <tt>ReadRORegistersTransaction</tt> asynchronously.
+   * <p>
+   * @return future completed with the registers that have been read,
+   * or exceptionally with a <tt>ModbusException</tt>.
+   */
+  public CompletableFuture<short[]> readAsync()
+  {
+    return executeAsync().thenApply(rsp -> rspGetValues());
+  }
+
   /**
    * Returns the <tt>short[]</tt> that stores
    * the collection of registers that have been read.
@@ -4,10 +4,6 @@ package cxro.common.io.modbus.client;
 import java.nio.ByteBuffer;
 
 import cxro.common.io.modbus.Modbus;
-import cxro.common.io.modbus.ModbusException;
-import cxro.common.io.modbus.ModbusIOException;
-import cxro.common.io.modbus.ModbusInterruptedException;
-import cxro.common.io.modbus.ModbusServerException;
 
 /**
  * Class implementing a <tt>WriteSingleDiscreteRW</tt> transaction.
@@ -96,32 +92,24 @@ public final class WriteRWDiscreteTransaction
   }
 
   /**
-   * Executes this <tt>ModbusTransaction</tt>.
-   * <p>
-   * 1. Pack request message.
-   * 2. Call parent to perform Modbus transaction
-   * 3. Unpack response message.
-   * <p>
-   * @throws ModbusException if an I/O error occurs,
-   *         or the response is a modbus protocol exception.
+   * Pack request message.
    */
   @Override
-  public synchronized void execute()
-    throws ModbusIOException,
-           ModbusServerException,
-           ModbusException,
-           ModbusInterruptedException
+  protected void packRequest()
   {
-    // 1. Pack request message
     fRequestMsg.setData(fRequestData);
     fRequestValid = true;
+  }
 
-    // 2. Perform Modbus transaction
-    super.execute();
-
-    // 3. Unpack response message
+  /**
+   * Unpack response message.
+   */
+  @Override
+  protected void unpackResponse()
+  {
+    // 1. Unpack response message
     fResponseData = fResponseMsg.getData();
 
-    // 4. Validate response?
+    // 2. Validate response?
   }
 }
@@ -0,0 +1,225 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal Modbus/TCP server on the loopback interface for the client tests.
+ * <p>
+ * Answers FC1..FC4 reads with values derived from the address, so that a
+ * test can predict every reply:
+ * <pre>
+ *   register  address + offset (16 bits)
+ *   bit       (address + offset) % 3 == 0
+ * </pre>
+ * unless a value has been set for the address with {@link #set}.
+ * Each response is written with a single write. Other function codes are
+ * answered with exception code 1 (illegal function), and every request
+ * with exception code 4 (server device failure) while failing.
+ *
+ * @author Carl Cork
+ */
+final class LoopbackModbusServer
+  implements Runnable
+{
+  private final ServerSocket fServer;
+  private final AtomicInteger fRequests = new AtomicInteger();
+  private final AtomicInteger fConnections = new AtomicInteger();
+  private volatile int fOffset = 0;
+  private volatile boolean fFailing = false;
+  private final Map<Integer, Integer> fValues = new ConcurrentHashMap<>();
+
+  LoopbackModbusServer()
+    throws IOException
+  {
+    fServer = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+    Thread t = new Thread(this, "LoopbackModbusServer");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * @return a new, unconnected channel to this server.
+   */
+  ModbusTcpChannel newChannel()
+  {
+    ModbusTcpChannel chan = new ModbusTcpChannel(InetAddress.getLoopbackAddress());
+    chan.setPort(fServer.getLocalPort());
+    return chan;
+  }
+
+  /**
+   * @return the port the server listens on.
+   */
+  int getPort()
+  {
+    return fServer.getLocalPort();
+  }
+
+  /**
+   * @return number of connections accepted.
+   */
+  int getConnectionCount()
+  {
+    return fConnections.get();
+  }
+
+  /**
+   * @return number of requests served.
+   */
+  int getRequestCount()
+  {
+    return fRequests.get();
+  }
+
+  /**
+   * @param offset added to the address to compute the replies.
+   */
+  void setOffset(int offset)
+  {
+    fOffset = offset;
+  }
+
+  /**
+   * Set the value of an address, in all tables; a bit is set if the
+   * value is not 0.
+   *
+   * @param address the address.
+   * @param value the value.
+   */
+  void set(int address, int value)
+  {
+    fValues.put(address, value);
+  }
+
+  /**
+   * @param failing true to answer every request with an exception.
+   */
+  void setFailing(boolean failing)
+  {
+    fFailing = failing;
+  }
+
+  void close()
+    throws IOException
+  {
+    fServer.close();
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      while (true)
+      {
+        final Socket s = fServer.accept();
+        fConnections.incrementAndGet();
+        Thread t = new Thread(() -> serve(s), "LoopbackModbusServer-client");
+        t.setDaemon(true);
+        t.start();
+      }
+    }
+    catch (IOException ex)
+    {
+      //closed
+    }
+  }
+
+  /** Private ***************************************************************/
+  private void serve(Socket s)
+  {
+    try (Socket sock = s)
+    {
+      sock.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(sock.getInputStream());
+      OutputStream out = sock.getOutputStream();
+      byte[] header = new byte[6];
+      while (true)
+      {
+        in.readFully(header);
+        int len = ((header[4] & 0xff) << 8) | (header[5] & 0xff);
+        byte[] req = new byte[len];
+        in.readFully(req);
+        fRequests.incrementAndGet();
+        byte[] pdu = reply(req);
+        byte[] rsp = new byte[7 + pdu.length];
+        rsp[0] = header[0];
+        rsp[1] = header[1];
+        rsp[4] = (byte) ((pdu.length + 1) >> 8);
+        rsp[5] = (byte) (pdu.length + 1);
+        rsp[6] = req[0];
+        System.arraycopy(pdu, 0, rsp, 7, pdu.length);
+        out.write(rsp);
+        out.flush();
+      }
+    }
+    catch (IOException ex)
+    {
+      //client closed
+    }
+  }
+
+  private byte[] reply(byte[] req)
+  {
+    int fc = req[1];
+    int ref = ((req[2] & 0xff) << 8) | (req[3] & 0xff);
+    int count = ((req[4] & 0xff) << 8) | (req[5] & 0xff);
+    int offset = fOffset;
+    byte[] pdu;
+    if (fFailing)
+    {
+      return new byte[]{(byte) (fc | 0x80), 4};
+    }
+    if (fc == 1 || fc == 2)
+    {
+      int n = (count + 7) / 8;
+      pdu = new byte[2 + n];
+      pdu[1] = (byte) n;
+      for (int i = 0; i < count; i++)
+      {
+        if (bit(ref + i, offset))
+        {
+          pdu[2 + i / 8] |= 1 << (i % 8);
+        }
+      }
+    }
+    else if (fc == 3 || fc == 4)
+    {
+      pdu = new byte[2 + 2 * count];
+      pdu[1] = (byte) (2 * count);
+      for (int i = 0; i < count; i++)
+      {
+        int v = register(ref + i, offset);
+        pdu[2 + 2 * i] = (byte) (v >> 8);
+        pdu[3 + 2 * i] = (byte) v;
+      }
+    }
+    else
+    {
+      return new byte[]{(byte) (fc | 0x80), 1};
+    }
+    pdu[0] = (byte) fc;
+    return pdu;
+  }
+
+  private boolean bit(int address, int offset)
+  {
+    Integer v = fValues.get(address);
+    return (v != null) ? (v != 0) : (((address + offset) % 3) == 0);
+  }
+
+  private int register(int address, int offset)
+  {
+    Integer v = fValues.get(address);
+    return (v != null) ? v : (address + offset);
+  }
+}
@@ -0,0 +1,139 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.Modbus;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ModbusBufferPool} and the buffer reuse of messages and
+ * transactions.
+ *
+ * @author Carl Cork
+ */
+public class ModbusBufferPoolTest
+{
+  @Test
+  public void testBorrowRelease()
+  {
+    ModbusBufferPool pool = new ModbusBufferPool(2);
+    ByteBuffer a = pool.borrow();
+    assertTrue(a.isDirect());
+    assertEquals(Modbus.MAX_MESSAGE_LENGTH, a.capacity());
+    assertEquals(1, pool.getAllocatedCount());
+    a.position(10);
+    pool.release(a);
+    assertEquals(1, pool.getFreeCount());
+
+    ByteBuffer b = pool.borrow();
+    assertSame(a, b);
+    assertEquals(0, b.position());
+    assertEquals(b.capacity(), b.limit());
+    assertEquals(1, pool.getAllocatedCount());
+    assertEquals(0, pool.getFreeCount());
+  }
+
+  @Test
+  public void testCapacity()
+  {
+    ModbusBufferPool pool = new ModbusBufferPool(2);
+    List<ByteBuffer> bufs = new ArrayList<>();
+    for (int i = 0; i < 4; i++)
+    {
+      bufs.add(pool.borrow());
+    }
+    assertEquals(4, pool.getAllocatedCount());
+    for (ByteBuffer buf : bufs)
+    {
+      pool.release(buf);
+    }
+    assertEquals(2, pool.getFreeCount());
+
+    pool.setCapacity(1);
+    assertEquals(1, pool.getCapacity());
+    assertEquals(1, pool.getFreeCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadCapacity()
+  {
+    new ModbusBufferPool(0);
+  }
+
+  @Test
+  public void testForeignBuffersIgnored()
+  {
+    ModbusBufferPool pool = new ModbusBufferPool(4);
+    pool.release(null);
+    pool.release(ByteBuffer.allocate(Modbus.MAX_MESSAGE_LENGTH));
+    pool.release(ByteBuffer.allocateDirect(16));
+    assertEquals(0, pool.getFreeCount());
+  }
+
+  @Test
+  public void testDoubleReleaseIgnored()
+  {
+    ModbusBufferPool pool = new ModbusBufferPool(4);
+    ByteBuffer a = pool.borrow();
+    ByteBuffer b = pool.borrow();
+    pool.release(a);
+    pool.release(b);
+    pool.release(a);
+    assertEquals(2, pool.getFreeCount());
+
+    // two borrowers never share a buffer
+    ByteBuffer c = pool.borrow();
+    ByteBuffer d = pool.borrow();
+    assertNotSame(c, d);
+    assertEquals(0, pool.getFreeCount());
+  }
+
+  @Test
+  public void testMessageRelease()
+  {
+    ModbusBufferPool pool = new ModbusBufferPool(2);
+    ModbusMessage msg = new ModbusMessage(pool);
+    assertEquals(1, pool.getAllocatedCount());
+    assertEquals(0, pool.getFreeCount());
+    msg.release();
+    assertEquals(1, pool.getFreeCount());
+    // idempotent
+    msg.release();
+    assertEquals(1, pool.getFreeCount());
+
+    new ModbusMessage(pool).release();
+    assertEquals(1, pool.getAllocatedCount());
+  }
+
+  @Test
+  public void testTransactionReuse()
+    throws Exception
+  {
+    LoopbackModbusServer server = new LoopbackModbusServer();
+    ModbusTcpChannel chan = server.newChannel();
+    try
+    {
+      ReadRWRegistersTransaction trans = new ReadRWRegistersTransaction(chan, 100, 4);
+      for (int i = 0; i < 200; i++)
+      {
+        trans.execute();
+        assertEquals(103, trans.rspGetValue(3));
+      }
+      for (int i = 0; i < 50; i++)
+      {
+        short[] values = trans.readAsync().get();
+        assertEquals(100, values[0]);
+      }
+      // steady state: the previous response buffer is reused
+      assertEquals(1, chan.getBufferPool().getAllocatedCount());
+    }
+    finally
+    {
+      chan.close();
+      server.close();
+    }
+  }
+}
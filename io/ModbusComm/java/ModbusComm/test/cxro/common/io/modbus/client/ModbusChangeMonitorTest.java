@@ -0,0 +1,200 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.client.ModbusScanList.Point;
+import cxro.common.io.modbus.client.ModbusScanList.Snapshot;
+import cxro.common.io.modbus.client.ModbusScanList.Table;
+import cxro.common.io.modbus.client.ModbusScanList.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the change detection of {@link ModbusChangeMonitor} against a
+ * {@link LoopbackModbusServer}.
+ *
+ * @author Carl Cork
+ */
+public class ModbusChangeMonitorTest
+{
+  private LoopbackModbusServer server;
+  private ModbusTcpChannel chan;
+  private ModbusScanList list;
+  private ModbusChangeMonitor monitor;
+  private Point bit1;
+  private Point bit2;
+  private Point word1;
+  private Point word2;
+  private Point dword;
+  private Point analog;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    server = new LoopbackModbusServer();
+    chan = server.newChannel();
+    list = new ModbusScanList(chan);
+    bit1 = list.addPoint("BIT1", Table.COILS, 100, Type.BIT);
+    bit2 = list.addPoint("BIT2", Table.COILS, 109, Type.BIT);
+    word1 = list.addPoint("WORD1", Table.HOLDING_REGISTERS, 200, Type.INT16);
+    word2 = list.addPoint("WORD2", Table.HOLDING_REGISTERS, 201, Type.INT16);
+    dword = list.addPoint("DWORD", Table.HOLDING_REGISTERS, 202, Type.INT32);
+    analog = list.addPoint("ANALOG", Table.INPUT_REGISTERS, 300, Type.INT16);
+    server.set(100, 0);
+    server.set(109, 1);
+    server.set(200, 10);
+    server.set(201, 20);
+    server.set(202, 0);
+    server.set(203, 30);
+    server.set(300, 1000);
+    monitor = new ModbusChangeMonitor(list);
+  }
+
+  @After
+  public void tearDown()
+    throws Exception
+  {
+    chan.close();
+    server.close();
+  }
+
+  @Test
+  public void testFirstPollReportsAll()
+    throws Exception
+  {
+    assertEquals(list.getPoints().size(), monitor.poll().size());
+    assertEquals(Collections.emptyList(), monitor.poll());
+    assertEquals(list.getPoints().size(), monitor.getChangeCount());
+  }
+
+  @Test
+  public void testWordChange()
+    throws Exception
+  {
+    monitor.poll();
+    server.set(201, 21);
+    assertEquals(Arrays.asList(word2), monitor.poll());
+    //second word of an INT32
+    server.set(203, 31);
+    assertEquals(Arrays.asList(dword), monitor.poll());
+    server.set(202, 1);
+    server.set(200, 11);
+    assertEquals(Arrays.asList(word1, dword), monitor.poll());
+  }
+
+  @Test
+  public void testBitChange()
+    throws Exception
+  {
+    monitor.poll();
+    server.set(109, 0);
+    assertEquals(Arrays.asList(bit2), monitor.poll());
+    server.set(100, 1);
+    server.set(300, 999);
+    assertEquals(Arrays.asList(bit1, analog), monitor.poll());
+  }
+
+  @Test
+  public void testDeadband()
+    throws Exception
+  {
+    monitor.setDeadband(analog, 5.0);
+    assertEquals(5.0, monitor.getDeadband(analog), 0.0);
+    assertEquals(0.0, monitor.getDeadband(word1), 0.0);
+    monitor.poll();
+    //a slow drift is reported once it exceeds the deadband from the
+    //value last reported
+    int[] values = {1002, 1004, 1006, 1003, 1008, 1012, 1014};
+    boolean[] reported = {false, false, true, false, false, true, false};
+    for (int i = 0; i < values.length; i++)
+    {
+      server.set(300, values[i]);
+      assertEquals("value " + values[i], reported[i], monitor.poll().contains(analog));
+    }
+    monitor.setDeadband(analog, 0.0);
+    server.set(300, 1013);
+    assertEquals(Arrays.asList(analog), monitor.poll());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoBitDeadband()
+  {
+    monitor.setDeadband(bit1, 1.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeDeadband()
+  {
+    monitor.setDeadband(word1, -1.0);
+  }
+
+  @Test
+  public void testListeners()
+    throws Exception
+  {
+    final List<List<Point>> calls = new ArrayList<>();
+    ModbusChangeListener failing = (m, s, changed) ->
+    {
+      throw new IllegalStateException("listener failure");
+    };
+    ModbusChangeListener recording = (m, s, changed) ->
+    {
+      assertSame(monitor, m);
+      assertSame(list.getSnapshot(), s);
+      calls.add(changed);
+    };
+    monitor.addListener(failing);
+    monitor.addListener(recording);
+    monitor.addListener(recording);
+    monitor.poll();
+    assertEquals(1, calls.size());
+    //no change, no call
+    monitor.poll();
+    assertEquals(1, calls.size());
+    server.set(200, 12);
+    monitor.poll();
+    assertEquals(Arrays.asList(word1), calls.get(1));
+    monitor.removeListener(recording);
+    server.set(200, 13);
+    monitor.poll();
+    assertEquals(2, calls.size());
+  }
+
+  @Test
+  public void testResetAndLayoutChange()
+    throws Exception
+  {
+    monitor.poll();
+    monitor.reset();
+    assertEquals(6, monitor.poll().size());
+    Point added = list.addPoint("ADDED", Table.HOLDING_REGISTERS, 500, Type.INT16);
+    List<Point> changed = monitor.poll();
+    assertEquals(7, changed.size());
+    assertTrue(changed.contains(added));
+  }
+
+  @Test
+  public void testOldSnapshotIgnored()
+    throws Exception
+  {
+    Snapshot first = list.scan();
+    monitor.update(list.scan());
+    assertEquals(Collections.emptyList(), monitor.update(first));
+  }
+
+  @Test
+  public void testPollAsync()
+    throws Exception
+  {
+    chan.setMaxPendingRequests(4);
+    assertEquals(6, monitor.pollAsync().get().size());
+    server.set(203, 40);
+    assertEquals(Arrays.asList(dword), monitor.pollAsync().get());
+  }
+}
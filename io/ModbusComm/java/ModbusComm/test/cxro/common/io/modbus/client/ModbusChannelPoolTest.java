@@ -0,0 +1,157 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ModbusChannelPool}, against a {@link LoopbackModbusServer}.
+ *
+ * @author Carl Cork
+ */
+public class ModbusChannelPoolTest
+{
+  private static final int THREADS = 8;
+  private static final String HOST = InetAddress.getLoopbackAddress().getHostAddress();
+  private LoopbackModbusServer server;
+  private ModbusChannelPool pool;
+  private ExecutorService exec;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    server = new LoopbackModbusServer();
+    pool = new ModbusChannelPool();
+    exec = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @After
+  public void tearDown()
+    throws Exception
+  {
+    exec.shutdownNow();
+    server.close();
+  }
+
+  @Test
+  public void testConcurrentAcquireSharesOneConnection()
+    throws Exception
+  {
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<ModbusTcpChannel>> results = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++)
+    {
+      results.add(exec.submit(() ->
+      {
+        start.await();
+        return pool.acquire(HOST, server.getPort());
+      }));
+    }
+    start.countDown();
+    ModbusTcpChannel chan = results.get(0).get(5, TimeUnit.SECONDS);
+    for (Future<ModbusTcpChannel> f : results)
+    {
+      ModbusTcpChannel c = f.get(5, TimeUnit.SECONDS);
+      assertSame(chan, c);
+      assertTrue(c.isConnected());
+    }
+    short[] v = new ReadRWRegistersTransaction(chan, 10, 1).readAsync().get(5, TimeUnit.SECONDS);
+    assertEquals(10, v[0]);
+    assertEquals(1, server.getConnectionCount());
+
+    for (int t = 0; t < THREADS; t++)
+    {
+      assertTrue(chan.isConnected());
+      pool.release(chan);
+    }
+    assertFalse(chan.isConnected());
+  }
+
+  @Test
+  public void testMaxConnections()
+    throws Exception
+  {
+    pool.setMaxConnections(2);
+    ModbusTcpChannel a = pool.acquire(HOST, server.getPort());
+    ModbusTcpChannel b = pool.acquire(HOST, server.getPort());
+    ModbusTcpChannel c = pool.acquire(HOST, server.getPort());
+    assertNotSame(a, b);
+    assertTrue(c == a || c == b);
+    //a reply on each means the server has accepted both
+    new ReadRWRegistersTransaction(a, 1, 1).readAsync().get(5, TimeUnit.SECONDS);
+    new ReadRWRegistersTransaction(b, 1, 1).readAsync().get(5, TimeUnit.SECONDS);
+    assertEquals(2, server.getConnectionCount());
+    pool.release(a);
+    pool.release(b);
+    pool.release(c);
+  }
+
+  @Test
+  public void testConnectFailure()
+    throws Exception
+  {
+    final int port = deadPort();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<ModbusTcpChannel>> results = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++)
+    {
+      results.add(exec.submit(() ->
+      {
+        start.await();
+        return pool.acquire(HOST, port);
+      }));
+    }
+    start.countDown();
+    for (Future<ModbusTcpChannel> f : results)
+    {
+      try
+      {
+        f.get(10, TimeUnit.SECONDS);
+        fail("connect to a closed port succeeded");
+      }
+      catch (ExecutionException ex)
+      {
+        assertTrue(ex.getCause() instanceof IOException);
+      }
+    }
+
+    //the failed slot is gone: a later acquire connects again, and other
+    //gateways were not held up
+    try
+    {
+      pool.acquire(HOST, port);
+      fail("connect to a closed port succeeded");
+    }
+    catch (IOException ex)
+    {
+      //expected
+    }
+    ModbusTcpChannel chan = pool.acquire(HOST, server.getPort());
+    assertTrue(chan.isConnected());
+    pool.release(chan);
+  }
+
+  /** Private ***************************************************************/
+  private static int deadPort()
+    throws IOException
+  {
+    try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+    {
+      return s.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests mixing blocking and asynchronous execution on one channel, against
+ * a {@link LoopbackModbusServer}.
+ *
+ * @author Carl Cork
+ */
+public class ModbusChannelTest
+{
+  private static final int ROUNDS = 50;
+  private static final int THREADS = 8;
+  private LoopbackModbusServer server;
+  private ExecutorService exec;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    server = new LoopbackModbusServer();
+    exec = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @After
+  public void tearDown()
+    throws Exception
+  {
+    exec.shutdownNow();
+    server.close();
+  }
+
+  @Test
+  public void testLockStepWhileReactorAttaches()
+    throws Exception
+  {
+    race(1);
+  }
+
+  @Test
+  public void testPipelinedWhileReactorAttaches()
+    throws Exception
+  {
+    race(4);
+  }
+
+  @Test
+  public void testReactorChaining()
+    throws Exception
+  {
+    ModbusTcpChannel chan = server.newChannel();
+    chan.setMaxPendingRequests(2);
+    try
+    {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++)
+      {
+        final int base = t * 1000;
+        results.add(exec.submit(() ->
+        {
+          for (int i = 0; i < 100; i++)
+          {
+            final int ref = base + i;
+            //a continuation issuing a new request must not deadlock
+            short[] v = new ReadRWRegistersTransaction(chan, ref, 1).readAsync()
+              .thenCompose(r -> new ReadRWRegistersTransaction(chan, ref + 1, 1).readAsync())
+              .get(5, TimeUnit.SECONDS);
+            assertEquals((short) (ref + 1), v[0]);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> f : results)
+      {
+        f.get(30, TimeUnit.SECONDS);
+      }
+    }
+    finally
+    {
+      chan.close();
+    }
+  }
+
+  /**
+   * Start blocking and asynchronous reads at once on fresh channels, so
+   * that the reactor is attached while blocking reads are in progress.
+   */
+  private void race(int depth)
+    throws Exception
+  {
+    for (int round = 0; round < ROUNDS; round++)
+    {
+      final ModbusTcpChannel chan = server.newChannel();
+      chan.setMaxPendingRequests(depth);
+      chan.connect();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> results = new ArrayList<>();
+      try
+      {
+        for (int t = 0; t < THREADS; t++)
+        {
+          final int ref = t * 100;
+          final boolean async = (t % 2) == 1;
+          results.add(exec.submit(new Callable<Void>()
+          {
+            @Override
+            public Void call()
+              throws Exception
+            {
+              start.await();
+              for (int i = 0; i < 5; i++)
+              {
+                ReadRWRegistersTransaction tx = new ReadRWRegistersTransaction(chan, ref + i, 1);
+                short v = async ? tx.readAsync().get(5, TimeUnit.SECONDS)[0] : read(tx);
+                assertEquals((short) (ref + i), v);
+              }
+              return null;
+            }
+          }));
+        }
+        start.countDown();
+        for (Future<Void> f : results)
+        {
+          f.get(30, TimeUnit.SECONDS);
+        }
+      }
+      finally
+      {
+        chan.close();
+      }
+    }
+  }
+
+  private static short read(ReadRWRegistersTransaction tx)
+    throws Exception
+  {
+    tx.execute();
+    return tx.rspGetValue(0);
+  }
+}
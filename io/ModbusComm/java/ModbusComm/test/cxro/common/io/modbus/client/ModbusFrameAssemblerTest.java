@@ -0,0 +1,291 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.ModbusIOException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reassembly of MBAP frames from split and coalesced reads.
+ *
+ * @author Carl Cork
+ */
+public class ModbusFrameAssemblerTest
+{
+  private ScriptedChannel chan;
+  private ModbusBufferPool pool;
+  private ModbusFrameAssembler assembler;
+  private List<ByteBuffer> frames;
+
+  @Before
+  public void setUp()
+  {
+    chan = new ScriptedChannel();
+    pool = new ModbusBufferPool(4);
+    assembler = new ModbusFrameAssembler();
+    frames = new ArrayList<>();
+  }
+
+  @Test
+  public void testWholeFrame()
+    throws Exception
+  {
+    byte[] f = frame(1, 3, 4, 0, 42);
+    chan.add(f);
+    assertEquals(1, read());
+    assertFrame(f, frames.get(0));
+    assertFalse(assembler.hasPartialFrame());
+    assertEquals(0, assembler.getShortReadCount());
+    assertEquals(0, assembler.getCoalescedCount());
+  }
+
+  @Test
+  public void testSplitFrame()
+    throws Exception
+  {
+    byte[] f = frame(2, 3, 4, 1, 2, 3, 4);
+    //split inside the header, then inside the PDU
+    chan.add(slice(f, 0, 3), slice(f, 3, 9), slice(f, 9, f.length));
+    assertEquals(0, read());
+    assertTrue(assembler.hasPartialFrame());
+    assertEquals(0, read());
+    assertEquals(1, read());
+    assertFrame(f, frames.get(0));
+    assertFalse(assembler.hasPartialFrame());
+    assertEquals(2, assembler.getShortReadCount());
+    assertEquals(3, assembler.getReadCount());
+    assertEquals(1, assembler.getFrameCount());
+  }
+
+  @Test
+  public void testCoalescedFrames()
+    throws Exception
+  {
+    byte[] f1 = frame(1, 3, 2, 0, 1);
+    byte[] f2 = frame(2, 3, 2, 0, 2);
+    byte[] f3 = frame(3, 1, 1, 5);
+    chan.add(concat(f1, f2, f3));
+    assertEquals(3, read());
+    assertFrame(f1, frames.get(0));
+    assertFrame(f2, frames.get(1));
+    assertFrame(f3, frames.get(2));
+    assertEquals(2, assembler.getCoalescedCount());
+    assertEquals(0, assembler.getShortReadCount());
+  }
+
+  @Test
+  public void testFrameAndPartOfNext()
+    throws Exception
+  {
+    byte[] f1 = frame(1, 3, 2, 0, 1);
+    byte[] f2 = frame(2, 3, 4, 0, 2, 0, 3);
+    byte[] all = concat(f1, f2);
+    chan.add(slice(all, 0, f1.length + 5), slice(all, f1.length + 5, all.length));
+    assertEquals(1, read());
+    assertTrue(assembler.hasPartialFrame());
+    assertEquals(1, read());
+    assertFrame(f1, frames.get(0));
+    assertFrame(f2, frames.get(1));
+    assertEquals(1, assembler.getShortReadCount());
+  }
+
+  @Test
+  public void testByteByByte()
+    throws Exception
+  {
+    byte[] f1 = frame(7, 4, 2, 1, 0);
+    byte[] f2 = frame(8, 4, 2, 2, 0);
+    byte[] all = concat(f1, f2);
+    for (int i = 0; i < all.length; i++)
+    {
+      chan.add(slice(all, i, i + 1));
+    }
+    int count = 0;
+    for (int i = 0; i < all.length; i++)
+    {
+      count += read();
+    }
+    assertEquals(2, count);
+    assertFrame(f1, frames.get(0));
+    assertFrame(f2, frames.get(1));
+  }
+
+  @Test
+  public void testBadLength()
+    throws Exception
+  {
+    byte[] f = frame(1, 3, 2, 0, 1);
+    f[4] = 0x7f; //length far beyond MAX_MESSAGE_LENGTH
+    chan.add(f);
+    try
+    {
+      read();
+      fail("bad length accepted");
+    }
+    catch (ModbusIOException ex)
+    {
+      //expected
+    }
+    assertFalse(assembler.hasPartialFrame());
+  }
+
+  @Test
+  public void testEndOfStream()
+    throws Exception
+  {
+    byte[] f = frame(1, 3, 2, 0, 1);
+    chan.add(slice(f, 0, 4));
+    assertEquals(0, read());
+    chan.add((byte[]) null);
+    assertEquals(-1, read());
+  }
+
+  @Test
+  public void testReset()
+    throws Exception
+  {
+    byte[] f1 = frame(1, 3, 2, 0, 1);
+    byte[] f2 = frame(2, 3, 2, 0, 2);
+    chan.add(slice(f1, 0, 5));
+    assertEquals(0, read());
+    assembler.reset();
+    assertFalse(assembler.hasPartialFrame());
+    chan.add(f2);
+    assertEquals(1, read());
+    assertFrame(f2, frames.get(0));
+  }
+
+  @Test
+  public void testFramesFromPool()
+    throws Exception
+  {
+    chan.add(frame(1, 3, 2, 0, 1));
+    chan.add(frame(2, 3, 2, 0, 2));
+    read();
+    pool.release(frames.get(0));
+    read();
+    assertSame(frames.get(0), frames.get(1));
+    assertEquals(1, pool.getAllocatedCount());
+  }
+
+  /** Private ***************************************************************/
+  private int read()
+    throws IOException, ModbusIOException
+  {
+    return assembler.read(chan, pool, frames::add);
+  }
+
+  /**
+   * @return MBAP frame: transaction id, protocol 0, length, unit 1,
+   *         function code, then the data bytes.
+   */
+  private static byte[] frame(int tid, int fc, int... data)
+  {
+    byte[] f = new byte[8 + data.length];
+    f[0] = (byte) (tid >> 8);
+    f[1] = (byte) tid;
+    f[4] = (byte) ((data.length + 2) >> 8);
+    f[5] = (byte) (data.length + 2);
+    f[6] = 1;
+    f[7] = (byte) fc;
+    for (int i = 0; i < data.length; i++)
+    {
+      f[8 + i] = (byte) data[i];
+    }
+    return f;
+  }
+
+  private static byte[] slice(byte[] b, int from, int to)
+  {
+    byte[] s = new byte[to - from];
+    System.arraycopy(b, from, s, 0, s.length);
+    return s;
+  }
+
+  private static byte[] concat(byte[]... parts)
+  {
+    ByteBuffer buf = ByteBuffer.allocate(1024);
+    for (byte[] p : parts)
+    {
+      buf.put(p);
+    }
+    return slice(buf.array(), 0, buf.position());
+  }
+
+  private static void assertFrame(byte[] expected, ByteBuffer frame)
+  {
+    assertEquals(0, frame.position());
+    assertEquals(expected.length, frame.remaining());
+    byte[] actual = new byte[frame.remaining()];
+    frame.duplicate().get(actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  /**
+   * Channel whose reads return scripted chunks; a null chunk is the end
+   * of the stream.
+   */
+  private static final class ScriptedChannel
+    extends ModbusChannel
+  {
+    private final ArrayDeque<Object> chunks = new ArrayDeque<>();
+
+    void add(byte[]... parts)
+    {
+      for (byte[] p : parts)
+      {
+        chunks.add((p == null) ? Boolean.FALSE : p);
+      }
+    }
+
+    @Override
+    protected int readSpi(ByteBuffer rcvBuffer)
+      throws IOException
+    {
+      Object chunk = chunks.poll();
+      if (chunk == null)
+      {
+        return 0;
+      }
+      if (chunk == Boolean.FALSE)
+      {
+        return -1;
+      }
+      byte[] b = (byte[]) chunk;
+      rcvBuffer.put(b);
+      return b.length;
+    }
+
+    @Override
+    protected int writeSpi(ByteBuffer sndBuffer)
+      throws IOException
+    {
+      throw new IOException("not connected");
+    }
+
+    @Override
+    protected void connectSpi(int timeout)
+      throws IOException
+    {
+      throw new IOException("not connected");
+    }
+
+    @Override
+    protected void closeSpi()
+    {
+    }
+
+    @Override
+    protected SelectableChannel getSelectableChannelSpi()
+    {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+//@license@
+package cxro.common.io.modbus.client;
+
+import cxro.common.io.modbus.ModbusException;
+import cxro.common.io.modbus.client.ModbusScanList.Block;
+import cxro.common.io.modbus.client.ModbusScanList.Point;
+import cxro.common.io.modbus.client.ModbusScanList.Snapshot;
+import cxro.common.io.modbus.client.ModbusScanList.Table;
+import cxro.common.io.modbus.client.ModbusScanList.Type;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the block planning and the snapshots of {@link ModbusScanList}
+ * against a {@link LoopbackModbusServer}.
+ *
+ * @author Carl Cork
+ */
+public class ModbusScanListTest
+{
+  private LoopbackModbusServer server;
+  private ModbusTcpChannel chan;
+  private ModbusScanList list;
+
+  @Before
+  public void setUp()
+    throws Exception
+  {
+    server = new LoopbackModbusServer();
+    chan = server.newChannel();
+    list = new ModbusScanList(chan);
+  }
+
+  @After
+  public void tearDown()
+    throws Exception
+  {
+    chan.close();
+    server.close();
+  }
+
+  @Test
+  public void testPlanCoalescesWithinGap()
+  {
+    list.addPoint("R1", Table.HOLDING_REGISTERS, 100, Type.INT16);
+    list.addPoint("R2", Table.HOLDING_REGISTERS, 110, Type.INT32);
+    list.addPoint("R3", Table.HOLDING_REGISTERS, 128, Type.INT16);
+    //gap of 100 - 129 > 16: new block
+    list.addPoint("R4", Table.HOLDING_REGISTERS, 229, Type.FLOAT);
+    List<Block> blocks = list.getBlocks();
+    assertEquals(2, blocks.size());
+    assertBlock(blocks.get(0), Table.HOLDING_REGISTERS, 100, 29);
+    assertBlock(blocks.get(1), Table.HOLDING_REGISTERS, 229, 2);
+
+    list.setRegisterGap(0);
+    assertEquals(4, list.getBlocks().size());
+  }
+
+  @Test
+  public void testPlanSplitsTables()
+  {
+    list.addPoint("C", Table.COILS, 10, Type.BIT);
+    list.addPoint("D", Table.DISCRETE_INPUTS, 10, Type.BIT);
+    list.addPoint("H", Table.HOLDING_REGISTERS, 10, Type.INT16);
+    list.addPoint("I", Table.INPUT_REGISTERS, 10, Type.INT16);
+    List<Block> blocks = list.getBlocks();
+    assertEquals(4, blocks.size());
+    assertEquals(Table.COILS, blocks.get(0).getTable());
+    assertEquals(Table.DISCRETE_INPUTS, blocks.get(1).getTable());
+    assertEquals(Table.HOLDING_REGISTERS, blocks.get(2).getTable());
+    assertEquals(Table.INPUT_REGISTERS, blocks.get(3).getTable());
+  }
+
+  @Test
+  public void testPlanRespectsMaxCount()
+  {
+    //125 registers per read: the INT32 at 124 does not fit
+    list.addPoint("A", Table.INPUT_REGISTERS, 0, Type.INT16);
+    list.addPoint("B", Table.INPUT_REGISTERS, 124, Type.INT32);
+    List<Block> blocks = list.getBlocks();
+    assertEquals(2, blocks.size());
+    assertBlock(blocks.get(0), Table.INPUT_REGISTERS, 0, 1);
+    assertBlock(blocks.get(1), Table.INPUT_REGISTERS, 124, 2);
+
+    //bits within the bit gap share a read
+    list.addPoint("C1", Table.COILS, 0, Type.BIT);
+    list.addPoint("C2", Table.COILS, 128, Type.BIT);
+    list.addPoint("C3", Table.COILS, 2500, Type.BIT);
+    assertEquals(4, list.getBlocks().size());
+  }
+
+  @Test
+  public void testAddPointChecks()
+  {
+    list.addPoint("B1", Table.COILS, 1, Type.BIT);
+    try
+    {
+      list.addPoint("B1", Table.COILS, 2, Type.BIT);
+      fail("duplicate name accepted");
+    }
+    catch (IllegalArgumentException ex)
+    {
+      //expected
+    }
+    try
+    {
+      list.addPoint("X", Table.COILS, 1, Type.INT16);
+      fail("register type in bit table accepted");
+    }
+    catch (IllegalArgumentException ex)
+    {
+      //expected
+    }
+    try
+    {
+      list.addPoint("Y", Table.HOLDING_REGISTERS, 0xFFFF, Type.INT32);
+      fail("address out of range accepted");
+    }
+    catch (IllegalArgumentException ex)
+    {
+      //expected
+    }
+    assertNotNull(list.getPoint("B1"));
+    assertNull(list.getPoint("X"));
+    assertEquals(1, list.getPoints().size());
+  }
+
+  @Test
+  public void testScanValues()
+    throws Exception
+  {
+    Point b1 = list.addPoint("B1", Table.COILS, 0x3011, Type.BIT);
+    Point b2 = list.addPoint("B2", Table.COILS, 0x3000, Type.BIT);
+    Point d1 = list.addPoint("D1", Table.DISCRETE_INPUTS, 0x5800, Type.BIT);
+    Point r1 = list.addPoint("R1", Table.HOLDING_REGISTERS, 0x3500, Type.INT16);
+    Point r2 = list.addPoint("R2", Table.HOLDING_REGISTERS, 0x3510, Type.INT32);
+    Point f1 = list.addPoint("F1", Table.INPUT_REGISTERS, 0x3E80, Type.FLOAT);
+    Point neg = list.addPoint("NEG", Table.INPUT_REGISTERS, 0x8000, Type.INT16);
+    int blocks = list.getBlocks().size();
+
+    Snapshot s = list.scan();
+    assertEquals(blocks, server.getRequestCount());
+    assertEquals(1, s.getCycle());
+    assertSame(s, list.getSnapshot());
+    assertEquals((0x3011 % 3) == 0, s.getBoolean(b1));
+    assertEquals((0x3000 % 3) == 0, s.getBoolean(b2));
+    assertEquals((0x5800 % 3) == 0, s.getBoolean(d1));
+    assertEquals(0x3500, s.getInt(r1));
+    assertEquals((short) 0x3500, s.getValue(r1));
+    assertEquals((0x3510 << 16) | 0x3511, s.getInt(r2));
+    assertEquals((double) ((0x3510 << 16) | 0x3511), s.getDouble(r2), 0.0);
+    assertEquals(Float.intBitsToFloat((0x3E80 << 16) | 0x3E81), s.getFloat(f1), 0.0f);
+    assertEquals((short) 0x8000, s.getInt(neg));
+  }
+
+  @Test
+  public void testSwapWords()
+    throws Exception
+  {
+    Point r = list.addPoint("R", Table.HOLDING_REGISTERS, 0x3510, Type.INT32);
+    Snapshot s1 = list.scan();
+    list.setSwapWords(true);
+    Snapshot s2 = list.scan();
+    assertEquals((0x3510 << 16) | 0x3511, s1.getInt(r));
+    assertEquals((0x3511 << 16) | 0x3510, s2.getInt(r));
+  }
+
+  @Test
+  public void testScanAsync()
+    throws Exception
+  {
+    chan.setMaxPendingRequests(8);
+    for (int i = 0; i < 40; i++)
+    {
+      list.addPoint("P" + i, Table.HOLDING_REGISTERS, i * 100, Type.INT16);
+    }
+    assertEquals(40, list.getBlocks().size());
+    for (int c = 0; c < 20; c++)
+    {
+      server.setOffset(c);
+      Snapshot s = list.scanAsync().get();
+      for (Point p : list.getPoints())
+      {
+        assertEquals((short) (p.getAddress() + c), s.getInt(p));
+      }
+    }
+    CompletableFuture<Snapshot> x = list.scanAsync();
+    CompletableFuture<Snapshot> y = list.scanAsync();
+    assertSame("concurrent scans share the cycle", x, y);
+    assertEquals(21, x.get().getCycle());
+  }
+
+  @Test
+  public void testSnapshotKeepsLayout()
+    throws Exception
+  {
+    Point r = list.addPoint("R", Table.HOLDING_REGISTERS, 10, Type.INT16);
+    Snapshot s = list.scan();
+    Point late = list.addPoint("LATE", Table.HOLDING_REGISTERS, 1000, Type.INT16);
+    assertTrue(s.contains(r));
+    assertFalse(s.contains(late));
+    try
+    {
+      s.getInt(late);
+      fail("point added after the scan read");
+    }
+    catch (IllegalArgumentException ex)
+    {
+      //expected
+    }
+    assertTrue(list.scan().contains(late));
+  }
+
+  @Test
+  public void testFailedScanKeepsSnapshot()
+    throws Exception
+  {
+    list.addPoint("R", Table.HOLDING_REGISTERS, 10, Type.INT16);
+    Snapshot before = list.scan();
+    server.setFailing(true);
+    try
+    {
+      list.scan();
+      fail("failed read not reported");
+    }
+    catch (ModbusException ex)
+    {
+      //expected
+    }
+    assertSame(before, list.getSnapshot());
+    try
+    {
+      list.scanAsync().get();
+      fail("failed read not reported");
+    }
+    catch (ExecutionException ex)
+    {
+      assertTrue(ex.getCause() instanceof ModbusException);
+    }
+    assertSame(before, list.getSnapshot());
+
+    server.setFailing(false);
+    assertEquals(2, list.scan().getCycle());
+  }
+
+  /** Private ***************************************************************/
+  private static void assertBlock(Block b, Table table, int address, int count)
+  {
+    assertEquals(table, b.getTable());
+    assertEquals(address, b.getAddress());
+    assertEquals(count, b.getCount());
+  }
+}